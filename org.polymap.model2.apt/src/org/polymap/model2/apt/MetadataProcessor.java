@@ -0,0 +1,357 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.apt;
+
+import static javax.lang.model.element.Modifier.ABSTRACT;
+import static javax.lang.model.element.Modifier.FINAL;
+import static javax.lang.model.element.Modifier.PRIVATE;
+import static javax.lang.model.element.Modifier.STATIC;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates the <code>CompositeMetadata</code> of every top level
+ * <code>Composite</code> class of the compilation: the info of the class and its
+ * properties, a factory method and the property binders. The runtime loads the
+ * generated classes when present and falls back to reflection otherwise.
+ * <p/>
+ * The processor just handles the names of the Model2 types, so it does not depend
+ * on the <code>org.polymap.model2</code> bundle. Add this bundle to the annotation
+ * processor path of the project that contains the domain model.
+ * <p/>
+ * Properties declared <code>private</code> cannot be accessed by the generated
+ * code. Their metadata is generated anyway, the field is accessed via reflection.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+@SupportedAnnotationTypes( "*" )
+public class MetadataProcessor
+        extends AbstractProcessor {
+
+    public static final String  MODEL2 = "org.polymap.model2.";
+
+    public static final String  CLASS_SUFFIX = "_Metadata";
+
+    public static final String  METADATA_CLASS = MODEL2 + "engine.CompositeMetadata";
+
+
+    /**
+     * The generated code does not depend on the source version, so do not warn
+     * about newer versions.
+     */
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process( Set<? extends TypeElement> annotations, RoundEnvironment roundEnv ) {
+        TypeElement composite = processingEnv.getElementUtils().getTypeElement( MODEL2 + "Composite" );
+        if (composite == null) {
+            // Model2 is not on the classpath of this compilation
+            return false;
+        }
+        for (Element elm : roundEnv.getRootElements()) {
+            if (elm.getKind() == ElementKind.CLASS
+                    && ((TypeElement)elm).getNestingKind() == NestingKind.TOP_LEVEL
+                    && !isModelBase( (TypeElement)elm )
+                    && isSubtype( elm.asType(), MODEL2 + "Composite" )
+                    && !elm.getModifiers().contains( PRIVATE )) {
+                try {
+                    generate( (TypeElement)elm );
+                }
+                catch (IOException e) {
+                    processingEnv.getMessager().printMessage( Kind.ERROR, "Unable to generate metadata: " + e, elm );
+                }
+            }
+        }
+        return false;
+    }
+
+
+    protected void generate( TypeElement type ) throws IOException {
+        PackageElement pkgElm = processingEnv.getElementUtils().getPackageOf( type );
+        String pkg = pkgElm.getQualifiedName().toString();
+        String simpleName = type.getSimpleName() + CLASS_SUFFIX;
+        String rawType = raw( type.asType() );
+
+        // properties
+        List<VariableElement> props = new ArrayList();
+        VariableElement typeField = null;
+        for (VariableElement field : ElementFilter.fieldsIn( type.getEnclosedElements() )) {
+            if (field.getModifiers().contains( STATIC )) {
+                if (field.getSimpleName().contentEquals( "TYPE" )
+                        && !field.getModifiers().contains( PRIVATE )
+                        && !field.getModifiers().contains( FINAL )) {
+                    typeField = field;
+                }
+            }
+            else if (isSubtype( field.asType(), MODEL2 + "PropertyBase" )) {
+                props.add( field );
+            }
+        }
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile( pkg + "." + simpleName, type );
+        try (PrintWriter out = new PrintWriter( file.openWriter() )) {
+            if (!pkg.isEmpty()) {
+                out.println( "package " + pkg + ";" );
+                out.println();
+            }
+            out.println( "/**" );
+            out.println( " * Generated by " + getClass().getName() + ". Do not edit." );
+            out.println( " */" );
+            out.println( "@SuppressWarnings( {\"unchecked\",\"rawtypes\"} )" );
+            out.println( "public final class " + simpleName );
+            out.println( "        extends " + METADATA_CLASS + "<" + rawType + "> {" );
+            out.println();
+
+            // constructor
+            out.println( "    public " + simpleName + "() {" );
+            out.println( "        super( " + rawType + ".class," );
+            out.println( "                " + string( annotationValue( type, "NameInStore" ) ) + "," );
+            out.println( "                " + (annotation( type, "Immutable" ) != null) + "," );
+            out.println( "                " + (isLazyProperties( type )) + "," );
+            out.println( "                " + classArray( annotationValue( type, "Mixins" ) ) + "," );
+            out.println( "                " + classArray( annotationValue( type, "Concerns" ) ) + "," );
+            out.println( "                new PropertyMetadata[] {" );
+            for (VariableElement prop : props) {
+                out.println( "                    " + propertyMetadata( prop ) + "," );
+            }
+            out.println( "                } );" );
+            out.println( "    }" );
+            out.println();
+
+            // newInstance()
+            if (!type.getModifiers().contains( ABSTRACT ) && hasNoArgConstructor( type )) {
+                out.println( "    @Override" );
+                out.println( "    public " + rawType + " newInstance() {" );
+                out.println( "        return new " + rawType + "();" );
+                out.println( "    }" );
+                out.println();
+            }
+
+            // get()
+            out.println( "    @Override" );
+            out.println( "    public " + MODEL2 + "PropertyBase get( " + MODEL2 + "Composite instance, int index ) {" );
+            out.println( "        switch (index) {" );
+            for (int i=0; i<props.size(); i++) {
+                if (isAccessible( props.get( i ) )) {
+                    out.println( "            case " + i + ": return ((" + rawType + ")instance)." + props.get( i ).getSimpleName() + ";" );
+                }
+            }
+            out.println( "            default: throw new IndexOutOfBoundsException( \"No accessible property: \" + index );" );
+            out.println( "        }" );
+            out.println( "    }" );
+            out.println();
+
+            // set()
+            out.println( "    @Override" );
+            out.println( "    public void set( " + MODEL2 + "Composite instance, int index, " + MODEL2 + "PropertyBase prop ) {" );
+            out.println( "        switch (index) {" );
+            for (int i=0; i<props.size(); i++) {
+                VariableElement prop = props.get( i );
+                if (isAccessible( prop )) {
+                    out.println( "            case " + i + ": ((" + rawType + ")instance)." + prop.getSimpleName()
+                            + " = (" + raw( prop.asType() ) + ")prop; break;" );
+                }
+            }
+            out.println( "            default: throw new IndexOutOfBoundsException( \"No accessible property: \" + index );" );
+            out.println( "        }" );
+            out.println( "    }" );
+
+            // initTemplate()
+            if (typeField != null) {
+                out.println();
+                out.println( "    @Override" );
+                out.println( "    public boolean initTemplate( java.util.function.Supplier<" + rawType + "> template ) {" );
+                out.println( "        " + rawType + ".TYPE = (" + raw( typeField.asType() ) + ")template.get();" );
+                out.println( "        return true;" );
+                out.println( "    }" );
+            }
+            out.println( "}" );
+        }
+    }
+
+
+    protected String propertyMetadata( VariableElement prop ) {
+        String fieldType = raw( prop.asType() );
+        List<? extends TypeMirror> typeArgs = ((DeclaredType)prop.asType()).getTypeArguments();
+        String valueType = typeArgs.isEmpty() ? "Object" : raw( typeArgs.get( 0 ) );
+
+        int maxOccurs = 1;
+        if (isSubtype( prop.asType(), MODEL2 + "CollectionProperty" )
+                || isSubtype( prop.asType(), MODEL2 + "ManyAssociation" )) {
+            Object value = annotationValue( prop, "MaxOccurs" );
+            maxOccurs = value != null ? (Integer)value : Integer.MAX_VALUE;
+        }
+        Object computed = annotationValue( prop, "Computed" );
+
+        return "new PropertyMetadata( "
+                + string( prop.getSimpleName().toString() ) + ", "
+                + string( annotationValue( prop, "NameInStore" ) ) + ", "
+                + valueType + ".class, "
+                + fieldType + ".class, "
+                + (annotation( prop, "Nullable" ) != null) + ", "
+                + (annotation( prop, "Immutable" ) != null) + ", "
+                + (annotation( prop, "Queryable" ) != null) + ", "
+                + (computed != null ? raw( (TypeMirror)computed ) + ".class" : "null") + ", "
+                + (maxOccurs == Integer.MAX_VALUE ? "Integer.MAX_VALUE" : String.valueOf( maxOccurs )) + ", "
+                + string( annotationValue( prop, "DefaultValue" ) ) + ", "
+                + (annotation( prop, "Defaults" ) != null) + ", "
+                + classArray( annotationValue( prop, "Concerns" ) ) + ", "
+                + isAccessible( prop ) + " )";
+    }
+
+
+    /**
+     * Composite, Entity and the other base classes of Model2 have no properties.
+     */
+    protected boolean isModelBase( TypeElement type ) {
+        String pkg = processingEnv.getElementUtils().getPackageOf( type ).getQualifiedName().toString();
+        return (pkg + ".").equals( MODEL2 );
+    }
+
+
+    protected boolean isAccessible( VariableElement field ) {
+        return !field.getModifiers().contains( PRIVATE );
+    }
+
+
+    protected boolean hasNoArgConstructor( TypeElement type ) {
+        for (ExecutableElement ctor : ElementFilter.constructorsIn( type.getEnclosedElements() )) {
+            if (ctor.getParameters().isEmpty() && !ctor.getModifiers().contains( PRIVATE )) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * LazyProperties is <code>@Inherited</code>.
+     */
+    protected boolean isLazyProperties( TypeElement type ) {
+        for (AnnotationMirror a : processingEnv.getElementUtils().getAllAnnotationMirrors( type )) {
+            if (((TypeElement)a.getAnnotationType().asElement()).getQualifiedName().contentEquals( MODEL2 + "LazyProperties" )) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    protected boolean isSubtype( TypeMirror type, String superTypeName ) {
+        TypeElement superType = processingEnv.getElementUtils().getTypeElement( superTypeName );
+        return superType != null && processingEnv.getTypeUtils().isAssignable(
+                processingEnv.getTypeUtils().erasure( type ),
+                processingEnv.getTypeUtils().erasure( superType.asType() ) );
+    }
+
+
+    /**
+     * The Model2 annotation with the given simple name declared on the given element.
+     */
+    protected AnnotationMirror annotation( Element elm, String simpleName ) {
+        for (AnnotationMirror a : elm.getAnnotationMirrors()) {
+            if (((TypeElement)a.getAnnotationType().asElement()).getQualifiedName().contentEquals( MODEL2 + simpleName )) {
+                return a;
+            }
+        }
+        return null;
+    }
+
+
+    /**
+     * The <code>value</code> of the Model2 annotation with the given simple name.
+     *
+     * @return The value, or null if the annotation is not present.
+     */
+    protected Object annotationValue( Element elm, String simpleName ) {
+        AnnotationMirror a = annotation( elm, simpleName );
+        if (a != null) {
+            for (Map.Entry<? extends ExecutableElement,? extends AnnotationValue> entry
+                    : processingEnv.getElementUtils().getElementValuesWithDefaults( a ).entrySet()) {
+                if (entry.getKey().getSimpleName().contentEquals( "value" )) {
+                    return entry.getValue().getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+
+    protected String raw( TypeMirror type ) {
+        return processingEnv.getTypeUtils().erasure( type ).toString();
+    }
+
+
+    protected String classArray( Object value ) {
+        List<String> classes = new ArrayList();
+        if (value instanceof List) {
+            for (Object elm : (List)value) {
+                classes.add( raw( (TypeMirror)((AnnotationValue)elm).getValue() ) + ".class" );
+            }
+        }
+        else if (value instanceof TypeMirror) {
+            classes.add( raw( (TypeMirror)value ) + ".class" );
+        }
+        return "new Class[] {" + String.join( ", ", classes ) + "}";
+    }
+
+
+    protected String string( Object value ) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder result = new StringBuilder( "\"" );
+        for (char c : value.toString().toCharArray()) {
+            switch (c) {
+                case '"': result.append( "\\\"" ); break;
+                case '\\': result.append( "\\\\" ); break;
+                case '\n': result.append( "\\n" ); break;
+                case '\r': result.append( "\\r" ); break;
+                case '\t': result.append( "\\t" ); break;
+                default: result.append( c );
+            }
+        }
+        return result.append( "\"" ).toString();
+    }
+
+}
@@ -17,6 +17,11 @@ package org.polymap.model2.store.geotools;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.geotools.data.DataAccess;
 import org.geotools.data.FeatureSource;
@@ -66,63 +71,102 @@ public class FeatureStoreAdapter
     }
 
 
+    /**
+     * Checks, updates or creates the schemas of all entity types. The schemas are
+     * checked concurrently if the repository provides a
+     * {@link StoreRuntimeContext#getBootstrapExecutor() bootstrap executor}; the
+     * {@link DataAccess} has to be thread safe in this case.
+     */
     public void init( StoreRuntimeContext _context ) {
         this.context = _context;
         EntityRepository repo = context.getRepository();
     
         // check/create/update schemas
         if (createOrUpdateSchemas.get()) {
-            //        FeatureStoreUnitOfWork uow = (FeatureStoreUnitOfWork)createUnitOfWork();
-            for (Class<? extends Entity> entityClass : repo.getConfig().entities.get()) {
-
-                // is entityClass complex?
-                boolean isComplex = false;
-                Class superClass = entityClass; 
-                for (;superClass != null; superClass = superClass.getSuperclass()) {
-                    for (Field field : superClass.getDeclaredFields()) {
-                        if (CollectionProperty.class.isAssignableFrom( field.getType() )) {
-                            isComplex = true; 
-                            break;
-                        }
-                        if (Property.class.isAssignableFrom( field.getType() )) {
-                            Class binding = (Class)((ParameterizedType)field.getGenericType()).getActualTypeArguments()[0];
-                            if (Composite.class.isAssignableFrom( binding )) {
-                                isComplex = true; 
-                                break;
-                            }
-                        }
-                    }
+            long start = System.currentTimeMillis();
+            Class<? extends Entity>[] entityClasses = repo.getConfig().entities.get();
+            ExecutorService executor = context.getBootstrapExecutor();
+            if (executor == null) {
+                for (Class<? extends Entity> entityClass : entityClasses) {
+                    checkSchema( entityClass );
+                }
+            }
+            else {
+                List<Future<?>> futures = new ArrayList( entityClasses.length );
+                for (Class<? extends Entity> entityClass : entityClasses) {
+                    futures.add( executor.submit( () -> checkSchema( entityClass ) ) );
                 }
-
-                // check/update schema            
-                FeatureType entitySchema = isComplex ? featureType( entityClass ) : simpleFeatureType( entityClass );
                 try {
-                    log.info( "Checking FeatureSource: " + entitySchema.getName().getLocalPart() + " ..." ); 
-                    FeatureSource fs = store.getFeatureSource( entitySchema.getName() );
-                    // update
-                    if (fs != null && !entitySchema.equals( fs.getSchema() )) {
-                        try {
-                            log.warn( "FeatureType has been changed: " + entitySchema.getName() + " !!!" );
-                            store.updateSchema( entitySchema.getName(), entitySchema );
-                        }
-                        catch (UnsupportedOperationException e) {
-                            log.warn( "", e );
-                        }
+                    for (Future<?> future : futures) {
+                        future.get();
                     }
                 }
-                // create schema
-                // fs.getSchema() throws RuntimeException for ShapefileDataSource
-                catch (Exception e) {
-                    try {
-                        log.info( "No feature store found: " + e.getLocalizedMessage() + ". Creating schema: " + entitySchema ); 
-                        store.createSchema( entitySchema );
-                    }
-                    catch (IOException e1) {
-                        throw new ModelRuntimeException( e1 );
+                catch (ExecutionException e) {
+                    throw e.getCause() instanceof RuntimeException
+                            ? (RuntimeException)e.getCause()
+                            : new ModelRuntimeException( e.getCause() );
+                }
+                catch (InterruptedException e) {
+                    throw new ModelRuntimeException( e );
+                }
+            }
+            log.info( "Schemas checked: " + entityClasses.length + " types in " 
+                    + (System.currentTimeMillis()-start) + "ms" );
+        }
+    }
+
+
+    /**
+     * Checks the schema of the given entity type and updates or creates it if
+     * necessary.
+     */
+    protected void checkSchema( Class<? extends Entity> entityClass ) {
+        // is entityClass complex?
+        boolean isComplex = false;
+        Class superClass = entityClass; 
+        for (;superClass != null; superClass = superClass.getSuperclass()) {
+            for (Field field : superClass.getDeclaredFields()) {
+                if (CollectionProperty.class.isAssignableFrom( field.getType() )) {
+                    isComplex = true; 
+                    break;
+                }
+                if (Property.class.isAssignableFrom( field.getType() )) {
+                    Class binding = (Class)((ParameterizedType)field.getGenericType()).getActualTypeArguments()[0];
+                    if (Composite.class.isAssignableFrom( binding )) {
+                        isComplex = true; 
+                        break;
                     }
                 }
             }
         }
+
+        // check/update schema            
+        FeatureType entitySchema = isComplex ? featureType( entityClass ) : simpleFeatureType( entityClass );
+        try {
+            log.info( "Checking FeatureSource: " + entitySchema.getName().getLocalPart() + " ..." ); 
+            FeatureSource fs = store.getFeatureSource( entitySchema.getName() );
+            // update
+            if (fs != null && !entitySchema.equals( fs.getSchema() )) {
+                try {
+                    log.warn( "FeatureType has been changed: " + entitySchema.getName() + " !!!" );
+                    store.updateSchema( entitySchema.getName(), entitySchema );
+                }
+                catch (UnsupportedOperationException e) {
+                    log.warn( "", e );
+                }
+            }
+        }
+        // create schema
+        // fs.getSchema() throws RuntimeException for ShapefileDataSource
+        catch (Exception e) {
+            try {
+                log.info( "No feature store found: " + e.getLocalizedMessage() + ". Creating schema: " + entitySchema ); 
+                store.createSchema( entitySchema );
+            }
+            catch (IOException e1) {
+                throw new ModelRuntimeException( e1 );
+            }
+        }
     }
 
 
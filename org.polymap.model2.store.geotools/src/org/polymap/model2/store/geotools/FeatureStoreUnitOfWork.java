@@ -16,6 +16,7 @@ package org.polymap.model2.store.geotools;
 
 import static java.util.Collections.singleton;
 
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -65,6 +66,7 @@ import org.polymap.model2.runtime.EntityRuntimeContext.EntityStatus;
 import org.polymap.model2.runtime.ModelRuntimeException;
 import org.polymap.model2.store.CompositeState;
 import org.polymap.model2.store.CompositeStateReference;
+import org.polymap.model2.store.SnapshotCompositeStateSupport;
 import org.polymap.model2.store.StoreResultSet;
 import org.polymap.model2.store.StoreRuntimeContext;
 import org.polymap.model2.store.StoreUnitOfWork;
@@ -75,7 +77,7 @@ import org.polymap.model2.store.StoreUnitOfWork;
  * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
  */
 public class FeatureStoreUnitOfWork
-        implements StoreUnitOfWork {
+        implements StoreUnitOfWork, SnapshotCompositeStateSupport {
 
     private static Log log = LogFactory.getLog( FeatureStoreUnitOfWork.class );
     
@@ -144,12 +146,57 @@ public class FeatureStoreUnitOfWork
     }
 
 
+    /**
+     * Loads all features with one {@link FilterFactory#id(Set)} filter.
+     */
+    @Override
+    public <T extends Entity> Map<Object,CompositeState> loadEntityStates( Collection<?> ids, Class<T> entityClass ) {
+        FeatureSource fs = featureSource( entityClass );
+        Set<FeatureId> fids = new HashSet( ids.size() * 2 );
+        for (Object id : ids) {
+            fids.add( ff.featureId( (String)id ) );
+        }
+        Map<Object,CompositeState> result = new HashMap( ids.size() * 2 );
+        FeatureIterator it = null;
+        try {
+            it = fs.getFeatures( ff.id( fids ) ).features();
+            while (it.hasNext()) {
+                Feature feature = it.next();
+                result.put( feature.getIdentifier().getID(), new FeatureCompositeState( feature, this ) );
+            }
+            return result;
+        }
+        catch (Exception e) {
+            throw new ModelRuntimeException( e );
+        }
+        finally {
+            if (it != null) { it.close(); }
+        }
+    }
+
+
     @Override
     public <T extends Entity> CompositeState adoptEntityState( Object state, Class<T> entityClass ) {
         return new FeatureCompositeState( (Feature)state, this );
     }
 
 
+    /**
+     * Supports {@link SimpleFeature}s only; complex features are not cached.
+     */
+    @Override
+    public Object snapshotEntityState( CompositeState state ) {
+        Object feature = state.getUnderlying();
+        return feature instanceof SimpleFeature ? SimpleFeatureBuilder.copy( (SimpleFeature)feature ) : null;
+    }
+
+
+    @Override
+    public <T extends Entity> CompositeState restoreEntityState( Object snapshot, Class<T> entityClass ) {
+        return new FeatureCompositeState( SimpleFeatureBuilder.copy( (SimpleFeature)snapshot ), this );
+    }
+
+
     @Override
     public <T extends Entity> CompositeState newEntityState( Object id, Class<T> entityClass ) {
         // find schema for entity
@@ -0,0 +1,212 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.store.recordstore.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import junit.framework.TestCase;
+import junit.framework.TestFailure;
+import junit.framework.TestResult;
+import junit.framework.TestSuite;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.polymap.model2.Composite;
+import org.polymap.model2.engine.CompositeMetadata;
+
+/**
+ * Compiles the test model with the annotation processor of the
+ * <code>org.polymap.model2.apt</code> bundle and runs the model tests against the
+ * generated {@link CompositeMetadata} classes. The compiled classes are loaded by
+ * a separate class loader, so the metadata does not affect other tests.
+ * <p/>
+ * The processor and the classes needed to compile the tests have to be on the
+ * class path.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public abstract class GeneratedMetadataTest
+        extends TestCase {
+
+    private static final Log log = LogFactory.getLog( GeneratedMetadataTest.class );
+
+    public static final String      PROCESSOR = "org.polymap.model2.apt.MetadataProcessor";
+
+    /** The types of the test model that must have generated metadata. */
+    public static final String[]    MODEL = {"Employee", "Person", "Company", "Address", "Male", "Female", "TrackableMixin"};
+
+    // instance *******************************************
+
+    protected File                  outputDir;
+
+    protected ClassLoader           classLoader;
+
+
+    public GeneratedMetadataTest( String name ) {
+        super( name );
+    }
+
+
+    /**
+     * The source directories to compile: the directory of the test model and the
+     * one of the store specific test classes.
+     */
+    protected abstract File[] sourceDirs();
+
+
+    /**
+     * The names of the concrete test classes to run against the generated
+     * metadata.
+     */
+    protected abstract String[] testClasses();
+
+
+    protected void setUp() throws Exception {
+        log.info( " --------------------------------------- " + getClass().getSimpleName() + " : " + getName() );
+        outputDir = Files.createTempDirectory( GeneratedMetadataTest.class.getSimpleName() ).toFile();
+        compile();
+        classLoader = new ChildFirstClassLoader( outputDir, getClass().getClassLoader() );
+    }
+
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory( outputDir );
+    }
+
+
+    protected void compile() throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertNotNull( "No system Java compiler.", compiler );
+
+        List<File> sources = new ArrayList();
+        for (File dir : sourceDirs()) {
+            sources.addAll( FileUtils.listFiles( dir, new String[] {"java"}, true ) );
+        }
+        assertFalse( "No sources in: " + Arrays.asList( sourceDirs() ), sources.isEmpty() );
+
+        String classpath = classpath();
+        List<String> options = Arrays.asList( "-nowarn", "-encoding", "UTF-8",
+                "-d", outputDir.getAbsolutePath(),
+                "-classpath", classpath, "-processorpath", classpath,
+                "-processor", PROCESSOR );
+
+        StringWriter out = new StringWriter();
+        try (StandardJavaFileManager fileManager = compiler.getStandardFileManager( null, null, null )) {
+            Iterable<? extends JavaFileObject> units = fileManager.getJavaFileObjectsFromFiles( sources );
+            boolean success = compiler.getTask( out, fileManager, null, options, null, units ).call();
+            assertTrue( "Compilation failed: " + out, success );
+        }
+    }
+
+
+    /**
+     * The class path of this test, plus the locations of the classes this test
+     * depends on, if they are files.
+     */
+    protected String classpath() {
+        List<String> result = new ArrayList( Arrays.asList( System.getProperty( "java.class.path" ).split( File.pathSeparator ) ) );
+        for (Class cl : new Class[] {Composite.class, TestCase.class, Log.class, getClass()}) {
+            URL location = cl.getProtectionDomain().getCodeSource().getLocation();
+            if (location.getProtocol().equals( "file" ) && !result.contains( location.getPath() )) {
+                result.add( location.getPath() );
+            }
+        }
+        return result.stream().collect( Collectors.joining( File.pathSeparator ) );
+    }
+
+
+    protected Class<? extends Composite> modelClass( String simpleName ) throws Exception {
+        return (Class<? extends Composite>)classLoader.loadClass( Composite.class.getPackage().getName() + ".test." + simpleName );
+    }
+
+
+    public void testMetadataGenerated() throws Exception {
+        for (String simpleName : MODEL) {
+            Class<? extends Composite> type = modelClass( simpleName );
+            assertSame( classLoader, type.getClassLoader() );
+            assertNotNull( "No metadata: " + simpleName, CompositeMetadata.of( type ) );
+        }
+        assertNotNull( CompositeMetadata.hierarchyOf( modelClass( "Employee" ) ) );
+    }
+
+
+    public void testModel() throws Exception {
+        TestSuite suite = new TestSuite();
+        for (String testClass : testClasses()) {
+            suite.addTestSuite( (Class<? extends TestCase>)classLoader.loadClass( testClass ) );
+        }
+        TestResult result = new TestResult();
+        suite.run( result );
+        log.info( "Tests run: " + result.runCount() );
+
+        List<String> failures = new ArrayList();
+        for (Enumeration<TestFailure> it : Arrays.asList( result.failures(), result.errors() )) {
+            for (TestFailure failure : Collections.list( it )) {
+                failures.add( failure.toString() );
+            }
+        }
+        assertTrue( "Failed: " + failures, failures.isEmpty() );
+        assertEquals( suite.countTestCases(), result.runCount() );
+    }
+
+
+    /**
+     * Loads the compiled classes before asking the parent.
+     */
+    protected static class ChildFirstClassLoader
+            extends URLClassLoader {
+
+        public ChildFirstClassLoader( File dir, ClassLoader parent ) throws IOException {
+            super( new URL[] {dir.toURI().toURL()}, parent );
+        }
+
+        @Override
+        protected Class<?> loadClass( String name, boolean resolve ) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock( name )) {
+                Class<?> result = findLoadedClass( name );
+                if (result == null && findResource( name.replace( '.', '/' ) + ".class" ) != null) {
+                    result = findClass( name );
+                }
+                if (result == null) {
+                    return super.loadClass( name, resolve );
+                }
+                if (resolve) {
+                    resolveClass( result );
+                }
+                return result;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,51 @@
+/* 
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.store.recordstore.test;
+
+import java.io.File;
+
+import org.polymap.recordstore.IRecordStore;
+
+/**
+ * The {@link GeneratedMetadataTest} with {@link IRecordStore}/Lucene backend. Runs
+ * in the directory of this bundle, next to the <code>org.polymap.model2</code>
+ * bundle.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public class LuceneGeneratedMetadataTest
+        extends GeneratedMetadataTest {
+
+    public LuceneGeneratedMetadataTest( String name ) {
+        super( name );
+    }
+
+
+    @Override
+    protected File[] sourceDirs() {
+        return new File[] {new File( "../org.polymap.model2/src-test" ), new File( "src-test" )};
+    }
+
+
+    @Override
+    protected String[] testClasses() {
+        return new String[] {
+                LuceneSimpleModelTest.class.getName(),
+                LuceneComplexModelTest.class.getName(),
+                LuceneNestedUowTest.class.getName(),
+                LuceneLazyPropertiesTest.class.getName()};
+    }
+
+}
@@ -19,6 +19,7 @@ import org.apache.commons.logging.LogFactory;
 
 import org.polymap.model2.runtime.EntityRepository;
 import org.polymap.model2.store.recordstore.RecordStoreAdapter;
+import org.polymap.model2.test.Company;
 import org.polymap.model2.test.Employee;
 import org.polymap.model2.test.NestedUowTest;
 import org.polymap.model2.test.SimpleModelTest;
@@ -48,7 +49,7 @@ public class LuceneNestedUowTest
         store = new LuceneRecordStore();
         repo = EntityRepository.newConfiguration()
                 .store.set( new RecordStoreAdapter( store ) )
-                .entities.set( new Class[] {Employee.class} )
+                .entities.set( new Class[] {Employee.class, Company.class} )
                 .create();
         uow = repo.newUnitOfWork();
     }
@@ -0,0 +1,152 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.store.recordstore.test;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.polymap.model2.runtime.EntityRepository;
+import org.polymap.model2.runtime.UnitOfWork;
+import org.polymap.model2.store.recordstore.OffHeapRecordCache;
+import org.polymap.model2.store.recordstore.RecordStoreAdapter;
+import org.polymap.model2.test.Employee;
+import org.polymap.recordstore.IRecordState;
+import org.polymap.recordstore.IRecordStore;
+import org.polymap.recordstore.lucene.LuceneRecordStore;
+
+/**
+ * Test of the {@link OffHeapRecordCache} of the {@link RecordStoreAdapter}.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public class OffHeapRecordCacheTest
+        extends TestCase {
+
+    private static final Log log = LogFactory.getLog( OffHeapRecordCacheTest.class );
+
+    protected IRecordStore          store;
+
+    private OffHeapRecordCache      cache;
+
+    private EntityRepository        repo;
+
+    private UnitOfWork              uow;
+
+
+    public OffHeapRecordCacheTest( String name ) {
+        super( name );
+    }
+
+
+    @Override
+    protected void setUp() throws Exception {
+        store = new LuceneRecordStore();
+        RecordStoreAdapter rsa = new RecordStoreAdapter( store, 1024 * 1024 );
+        cache = rsa.recordCache();
+        repo = EntityRepository.newConfiguration()
+                .store.set( rsa )
+                .entities.set( new Class[] {Employee.class} )
+                .create();
+        uow = repo.newUnitOfWork();
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception {
+        uow.close();
+        repo.close();
+    }
+
+
+    public void testHits() throws Exception {
+        Employee employee = uow.createEntity( Employee.class, null, (Employee proto) -> {
+            proto.name.set( "samstag" );
+            return proto;
+        });
+        uow.commit();
+
+        for (int i=0; i<10; i++) {
+            UnitOfWork uow2 = repo.newUnitOfWork();
+            assertEquals( "samstag", uow2.entity( Employee.class, employee.id() ).name.get() );
+            uow2.close();
+        }
+        log.info( "Cache: " + cache );
+        assertEquals( 1, cache.missCount() );
+        assertEquals( 9, cache.hitCount() );
+        assertEquals( 1, cache.size() );
+        assertTrue( cache.bytesResident() > 0 );
+    }
+
+
+    public void testInvalidateOnCommit() throws Exception {
+        Employee employee = uow.createEntity( Employee.class, null, (Employee proto) -> {
+            proto.name.set( "samstag" );
+            return proto;
+        });
+        uow.commit();
+
+        UnitOfWork uow1 = repo.newUnitOfWork();
+        uow1.entity( Employee.class, employee.id() ).name.set( "modified" );
+        uow1.commit();
+        uow1.close();
+
+        UnitOfWork uow2 = repo.newUnitOfWork();
+        assertEquals( "modified", uow2.entity( Employee.class, employee.id() ).name.get() );
+        uow2.removeEntity( uow2.entity( Employee.class, employee.id() ) );
+        uow2.commit();
+        uow2.close();
+
+        UnitOfWork uow3 = repo.newUnitOfWork();
+        assertNull( uow3.entity( Employee.class, employee.id() ) );
+        uow3.close();
+        assertEquals( 0, cache.size() );
+    }
+
+
+    public void testEviction() throws Exception {
+        OffHeapRecordCache small = new OffHeapRecordCache( 4096, 1024 );
+        for (int i=0; i<100; i++) {
+            IRecordState record = store.newRecord( "r" + i );
+            record.put( "name", "record" + i );
+            record.put( "index", i );
+            record.put( "created", new Date( i ) );
+            assertTrue( small.put( record.id(), record, small.generation() ) );
+            // keep r0 referenced
+            assertNotNull( small.get( "r0", store ) );
+        }
+        log.info( "Cache: " + small );
+        assertTrue( small.evictionCount() > 0 );
+        assertTrue( small.bytesResident() <= small.maxBytes() );
+        assertNull( small.get( "r1", store ) );
+
+        IRecordState r0 = small.get( "r0", store );
+        assertEquals( "record0", r0.get( "name" ) );
+        assertEquals( Integer.valueOf( 0 ), r0.get( "index" ) );
+        assertEquals( new Date( 0 ), r0.get( "created" ) );
+
+        // record loaded before invalidation is not cached
+        long loadedGeneration = small.generation();
+        small.invalidate( Arrays.asList( "r0" ) );
+        assertFalse( small.put( "r0", store.newRecord( "r0" ), loadedGeneration ) );
+        assertNull( small.get( "r0", store ) );
+        small.close();
+    }
+
+}
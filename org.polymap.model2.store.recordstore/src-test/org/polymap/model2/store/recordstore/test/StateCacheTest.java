@@ -0,0 +1,175 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.store.recordstore.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.polymap.model2.runtime.EntityRepository;
+import org.polymap.model2.runtime.Preload;
+import org.polymap.model2.runtime.UnitOfWork;
+import org.polymap.model2.store.StateCache;
+import org.polymap.model2.store.recordstore.RecordStoreAdapter;
+import org.polymap.model2.test.Employee;
+import org.polymap.recordstore.IRecordStore;
+import org.polymap.recordstore.lucene.LuceneRecordStore;
+
+/**
+ * Test of the {@link StateCache} with {@link IRecordStore}/Lucene backend.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public class StateCacheTest
+        extends TestCase {
+
+    private static final Log log = LogFactory.getLog( StateCacheTest.class );
+
+    protected IRecordStore          store;
+
+    private StateCache              cache;
+
+    private EntityRepository        repo;
+
+    private UnitOfWork              uow;
+
+
+    public StateCacheTest( String name ) {
+        super( name );
+    }
+
+
+    @Override
+    protected void setUp() throws Exception {
+        store = new LuceneRecordStore();
+        cache = new StateCache( new RecordStoreAdapter( store ) );
+        repo = EntityRepository.newConfiguration()
+                .store.set( cache )
+                .entities.set( new Class[] {Employee.class} )
+                .create();
+        uow = repo.newUnitOfWork();
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception {
+        uow.close();
+        repo.close();
+    }
+
+
+    public void testHits() throws Exception {
+        Employee employee = uow.createEntity( Employee.class, null, (Employee proto) -> {
+            proto.name.set( "samstag" );
+            return proto;
+        });
+        uow.commit();
+
+        for (int i=0; i<10; i++) {
+            UnitOfWork uow2 = repo.newUnitOfWork();
+            assertEquals( "samstag", uow2.entity( Employee.class, employee.id() ).name.get() );
+            uow2.close();
+        }
+        log.info( "Cache: " + cache );
+        assertEquals( 1, cache.missCount() );
+        assertEquals( 9, cache.hitCount() );
+    }
+
+
+    public void testEntities() throws Exception {
+        for (int i=0; i<3; i++) {
+            uow.createEntity( Employee.class, "bulk" + i, null );
+        }
+        uow.commit();
+        List<String> ids = Arrays.asList( "bulk0", "bulk1", "bulk2" );
+
+        UnitOfWork uow2 = repo.newUnitOfWork();
+        assertEquals( 3, uow2.entities( Employee.class, ids ).size() );
+        uow2.close();
+        assertEquals( 3, cache.missCount() );
+
+        UnitOfWork uow3 = repo.newUnitOfWork();
+        assertEquals( "bulk1", uow3.entities( Employee.class, ids ).get( 1 ).id() );
+        uow3.close();
+        assertEquals( 3, cache.hitCount() );
+    }
+
+
+    public void testPreload() throws Exception {
+        for (int i=0; i<10; i++) {
+            uow.createEntity( Employee.class, "preload" + i, null );
+        }
+        uow.commit();
+
+        Preload preload = repo.preload( Employee.class ).await();
+        log.info( "Preload: " + preload );
+        assertEquals( 10, preload.loadedCount() );
+        assertEquals( 10, cache.missCount() );
+
+        UnitOfWork uow2 = repo.newUnitOfWork();
+        for (int i=0; i<10; i++) {
+            assertNotNull( uow2.entity( Employee.class, "preload" + i ) );
+        }
+        uow2.close();
+        assertEquals( 10, cache.hitCount() );
+    }
+
+
+    public void testPrivateCopy() throws Exception {
+        Employee employee = uow.createEntity( Employee.class, null, (Employee proto) -> {
+            proto.name.set( "samstag" );
+            return proto;
+        });
+        uow.commit();
+
+        UnitOfWork uow1 = repo.newUnitOfWork();
+        uow1.entity( Employee.class, employee.id() ).name.set( "modified" );
+
+        // uncommitted modification is not visible
+        UnitOfWork uow2 = repo.newUnitOfWork();
+        assertEquals( "samstag", uow2.entity( Employee.class, employee.id() ).name.get() );
+        uow1.close();
+
+        UnitOfWork uow3 = repo.newUnitOfWork();
+        assertEquals( "samstag", uow3.entity( Employee.class, employee.id() ).name.get() );
+    }
+
+
+    public void testInvalidateOnCommit() throws Exception {
+        Employee employee = uow.createEntity( Employee.class, null, (Employee proto) -> {
+            proto.name.set( "samstag" );
+            return proto;
+        });
+        uow.commit();
+
+        UnitOfWork uow1 = repo.newUnitOfWork();
+        uow1.entity( Employee.class, employee.id() ).name.set( "modified" );
+        uow1.commit();
+
+        UnitOfWork uow2 = repo.newUnitOfWork();
+        assertEquals( "modified", uow2.entity( Employee.class, employee.id() ).name.get() );
+
+        uow2.removeEntity( uow2.entity( Employee.class, employee.id() ) );
+        uow2.commit();
+
+        UnitOfWork uow3 = repo.newUnitOfWork();
+        assertNull( uow3.entity( Employee.class, employee.id() ) );
+    }
+
+}
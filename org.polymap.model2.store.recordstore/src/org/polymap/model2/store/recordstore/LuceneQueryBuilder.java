@@ -13,6 +13,7 @@
 package org.polymap.model2.store.recordstore;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import org.apache.commons.logging.Log;
@@ -28,8 +29,10 @@ import org.polymap.model2.Entity;
 import org.polymap.model2.engine.TemplateProperty;
 import org.polymap.model2.query.Expressions;
 import org.polymap.model2.query.grammar.BooleanExpression;
+import org.polymap.recordstore.QueryExpression;
 import org.polymap.recordstore.RecordQuery;
 import org.polymap.recordstore.lucene.LuceneRecordQuery;
+import org.polymap.recordstore.lucene.LuceneRecordState;
 import org.polymap.recordstore.lucene.LuceneRecordStore;
 import org.polymap.recordstore.lucene.ValueCoders;
 
@@ -92,6 +95,23 @@ class LuceneQueryBuilder {
     }
 
 
+    /**
+     * Creates a query of the records with the given ids, regardless of their
+     * type. The number of ids must not exceed
+     * {@link BooleanQuery#getMaxClauseCount()}.
+     */
+    public RecordQuery createIdQuery( Collection<?> ids ) {
+        BooleanQuery result = new BooleanQuery();
+        for (Object id : ids) {
+            result.add( valueCoders.searchQuery( new QueryExpression.Equal( LuceneRecordState.ID_FIELD, id ) ),
+                    BooleanClause.Occur.SHOULD );
+        }
+        LuceneRecordQuery query = new LuceneRecordQuery( store, result );
+        query.setMaxResults( ids.size() );
+        return query;
+    }
+
+
     public RecordQuery createQuery( Class<? extends Entity> resultType, final BooleanExpression whereClause ) {
         assert postProcess.isEmpty();
 
@@ -0,0 +1,496 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.store.recordstore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.polymap.recordstore.IRecordState;
+import org.polymap.recordstore.IRecordStore;
+
+/**
+ * Cache of recently read records between {@link RecordStoreUnitOfWork} and the
+ * {@link IRecordStore}. Records are kept in compact serialized form outside the
+ * Java heap, in direct {@link ByteBuffer} slabs, and they are decoded into a new
+ * {@link IRecordState} on every hit.
+ * <p/>
+ * The slabs are used as a ring: new records are appended to the current slab.
+ * If it is full, the oldest slab is reclaimed. Records of the reclaimed slab that
+ * were read since they were written get a second chance and are moved into the
+ * new slab (CLOCK approximation of LRU); all other records are evicted.
+ * <p/>
+ * Records are invalidated by {@link #invalidate(Collection)} after the
+ * {@link IRecordStore.Updater} of a commit was applied. Every invalidation
+ * increases the {@link #generation()}, so records loaded concurrently to a commit
+ * are never cached. Records with values other than primitives, Strings, Dates and
+ * byte arrays are not cached.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public class OffHeapRecordCache {
+
+    private static Log log = LogFactory.getLog( OffHeapRecordCache.class );
+
+    public static final int         DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+    private static final byte       STRING = 1, INTEGER = 2, LONG = 3, DOUBLE = 4, FLOAT = 5,
+                                    BOOLEAN = 6, SHORT = 7, BYTE = 8, CHARACTER = 9, DATE = 10, BYTES = 11;
+
+    /**
+     * The location of a cached record in the {@link #slabs}.
+     */
+    static class Slot {
+
+        Object          id;
+
+        int             slab;
+
+        int             offset;
+
+        int             length;
+
+        /** Set on every read, cleared when the slab is reclaimed. */
+        boolean         referenced;
+
+        Slot( Object id, int slab, int offset, int length ) {
+            this.id = id;
+            this.slab = slab;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    // instance *******************************************
+
+    private long                    maxBytes;
+
+    private int                     slabSize;
+
+    /** Lazily allocated direct buffers. Guarded by this. */
+    private ByteBuffer[]            slabs;
+
+    /** The slots written into each slab. Guarded by this. */
+    private List<Slot>[]            slabSlots;
+
+    /** The slab records are appended to. Guarded by this. */
+    private int                     head;
+
+    /** The append position in the {@link #head} slab. Guarded by this. */
+    private int                     headPosition;
+
+    /** Maps record id into its slot. Guarded by this. */
+    private Map<Object,Slot>        index = new HashMap( 1024 );
+
+    /** Guarded by this. */
+    private long                    bytesResident;
+
+    /** Increased by every invalidation. Guarded by this. */
+    private long                    generation;
+
+    private LongAdder               hits = new LongAdder();
+
+    private LongAdder               misses = new LongAdder();
+
+    private LongAdder               evictions = new LongAdder();
+
+
+    /**
+     * Creates a cache with slabs of {@link #DEFAULT_SLAB_SIZE}.
+     *
+     * @param maxBytes The maximum number of bytes allocated outside the heap.
+     */
+    public OffHeapRecordCache( long maxBytes ) {
+        this( maxBytes, (int)Math.min( maxBytes, DEFAULT_SLAB_SIZE ) );
+    }
+
+
+    /**
+     * @param maxBytes The maximum number of bytes allocated outside the heap.
+     * @param slabSize The size of one slab. Records bigger than this are not
+     *        cached.
+     */
+    public OffHeapRecordCache( long maxBytes, int slabSize ) {
+        if (slabSize <= 0 || maxBytes < slabSize) {
+            throw new IllegalArgumentException( "maxBytes: " + maxBytes + ", slabSize: " + slabSize );
+        }
+        this.maxBytes = maxBytes;
+        this.slabSize = slabSize;
+        int slabCount = (int)Math.min( maxBytes / slabSize, Integer.MAX_VALUE );
+        this.slabs = new ByteBuffer[slabCount];
+        this.slabSlots = new List[slabCount];
+    }
+
+
+    /**
+     * The current generation. Get this before reading a record from the store and
+     * pass it to {@link #put(Object, IRecordState, long)} afterwards.
+     */
+    public synchronized long generation() {
+        return generation;
+    }
+
+
+    /**
+     * Decodes the cached record with the given id into a new record of the given
+     * store.
+     *
+     * @return The newly created record, or null if the id is not cached.
+     */
+    public IRecordState get( Object id, IRecordStore store ) {
+        byte[] bytes = null;
+        synchronized (this) {
+            Slot slot = index.get( id );
+            if (slot != null) {
+                slot.referenced = true;
+                bytes = new byte[slot.length];
+                ByteBuffer buf = slabs[slot.slab].duplicate();
+                buf.position( slot.offset );
+                buf.get( bytes );
+            }
+        }
+        if (bytes == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        try {
+            return decode( bytes, store.newRecord( id ) );
+        }
+        catch (IOException e) {
+            throw new RuntimeException( e );
+        }
+    }
+
+
+    /**
+     * Caches the given record that was read from the store.
+     *
+     * @param loadedGeneration The {@link #generation()} before the record was read.
+     * @return False if the record was not cached because its values are not
+     *         supported, it is too big or an invalidation happened since the
+     *         record was read.
+     */
+    public boolean put( Object id, IRecordState state, long loadedGeneration ) {
+        byte[] bytes = encode( state );
+        if (bytes == null || bytes.length > slabSize) {
+            return false;
+        }
+        synchronized (this) {
+            if (generation != loadedGeneration) {
+                return false;
+            }
+            removeSlot( id );
+            while (headPosition + bytes.length > slabSize) {
+                reclaimNext();
+            }
+            append( new Slot( id, head, headPosition, bytes.length ), bytes );
+            return true;
+        }
+    }
+
+
+    /**
+     * Removes the records with the given ids. Call this after the modifications
+     * of the records have been applied to the store.
+     */
+    public synchronized void invalidate( Collection<?> ids ) {
+        generation ++;
+        for (Object id : ids) {
+            removeSlot( id );
+        }
+    }
+
+
+    /**
+     * Removes all records. Call this if the underlying store has been modified by
+     * a second party.
+     */
+    public synchronized void clear() {
+        generation ++;
+        index.clear();
+        for (int i=0; i<slabSlots.length; i++) {
+            slabSlots[i] = null;
+        }
+        bytesResident = 0;
+        head = 0;
+        headPosition = 0;
+    }
+
+
+    /**
+     * Releases the slabs. The cache cannot be used afterwards.
+     */
+    public synchronized void close() {
+        clear();
+        slabs = new ByteBuffer[0];
+        slabSlots = new List[0];
+    }
+
+
+    protected void append( Slot slot, byte[] bytes ) {
+        assert Thread.holdsLock( this );
+        if (slabs[head] == null) {
+            slabs[head] = ByteBuffer.allocateDirect( slabSize );
+            slabSlots[head] = new ArrayList( 256 );
+        }
+        ByteBuffer buf = slabs[head].duplicate();
+        buf.position( headPosition );
+        buf.put( bytes );
+        headPosition += bytes.length;
+
+        slabSlots[head].add( slot );
+        index.put( slot.id, slot );
+        bytesResident += bytes.length;
+    }
+
+
+    protected void removeSlot( Object id ) {
+        assert Thread.holdsLock( this );
+        Slot slot = index.remove( id );
+        if (slot != null) {
+            bytesResident -= slot.length;
+        }
+    }
+
+
+    /**
+     * Moves the {@link #head} to the next slab. Referenced records of the next
+     * slab are moved to its beginning, up to half of its size, the others are
+     * evicted.
+     */
+    protected void reclaimNext() {
+        assert Thread.holdsLock( this );
+        head = (head + 1) % slabs.length;
+        headPosition = 0;
+        if (slabSlots[head] == null) {
+            return;
+        }
+        List<Slot> survivors = new ArrayList();
+        List<byte[]> survivorBytes = new ArrayList();
+        int survivorSize = 0;
+        for (Slot slot : slabSlots[head]) {
+            // skip invalidated/replaced slots
+            if (index.get( slot.id ) != slot) {
+                continue;
+            }
+            index.remove( slot.id );
+            bytesResident -= slot.length;
+            if (slot.referenced && survivorSize + slot.length <= slabSize / 2) {
+                byte[] bytes = new byte[slot.length];
+                ByteBuffer buf = slabs[head].duplicate();
+                buf.position( slot.offset );
+                buf.get( bytes );
+                survivors.add( slot );
+                survivorBytes.add( bytes );
+                survivorSize += slot.length;
+            }
+            else {
+                evictions.increment();
+            }
+        }
+        slabSlots[head].clear();
+        for (int i=0; i<survivors.size(); i++) {
+            Slot slot = survivors.get( i );
+            append( new Slot( slot.id, head, headPosition, slot.length ), survivorBytes.get( i ) );
+        }
+        log.debug( "Reclaimed slab " + head + ": survivors=" + survivors.size() + ", " + this );
+    }
+
+
+    // serialization **************************************
+
+    /**
+     * Encodes the entries of the given state.
+     *
+     * @return The encoded state, or null if a value is not supported.
+     */
+    protected byte[] encode( IRecordState state ) {
+        try {
+            List<Map.Entry<String,Object>> entries = new ArrayList( 64 );
+            for (Map.Entry<String,Object> entry : state) {
+                entries.add( entry );
+            }
+            ByteArrayOutputStream bout = new ByteArrayOutputStream( 1024 );
+            DataOutputStream out = new DataOutputStream( bout );
+            out.writeInt( entries.size() );
+            for (Map.Entry<String,Object> entry : entries) {
+                writeString( out, entry.getKey() );
+                Object value = entry.getValue();
+                if (value instanceof String) {
+                    out.writeByte( STRING ); writeString( out, (String)value );
+                }
+                else if (value instanceof Integer) {
+                    out.writeByte( INTEGER ); out.writeInt( (Integer)value );
+                }
+                else if (value instanceof Long) {
+                    out.writeByte( LONG ); out.writeLong( (Long)value );
+                }
+                else if (value instanceof Double) {
+                    out.writeByte( DOUBLE ); out.writeDouble( (Double)value );
+                }
+                else if (value instanceof Float) {
+                    out.writeByte( FLOAT ); out.writeFloat( (Float)value );
+                }
+                else if (value instanceof Boolean) {
+                    out.writeByte( BOOLEAN ); out.writeBoolean( (Boolean)value );
+                }
+                else if (value instanceof Short) {
+                    out.writeByte( SHORT ); out.writeShort( (Short)value );
+                }
+                else if (value instanceof Byte) {
+                    out.writeByte( BYTE ); out.writeByte( (Byte)value );
+                }
+                else if (value instanceof Character) {
+                    out.writeByte( CHARACTER ); out.writeChar( (Character)value );
+                }
+                else if (value instanceof Date) {
+                    out.writeByte( DATE ); out.writeLong( ((Date)value).getTime() );
+                }
+                else if (value instanceof byte[]) {
+                    out.writeByte( BYTES ); out.writeInt( ((byte[])value).length ); out.write( (byte[])value );
+                }
+                else {
+                    log.debug( "Value type not supported: " + (value != null ? value.getClass() : null) );
+                    return null;
+                }
+            }
+            out.flush();
+            return bout.toByteArray();
+        }
+        catch (IOException e) {
+            throw new RuntimeException( e );
+        }
+    }
+
+
+    protected IRecordState decode( byte[] bytes, IRecordState state ) throws IOException {
+        DataInputStream in = new DataInputStream( new ByteArrayInputStream( bytes ) );
+        int count = in.readInt();
+        for (int i=0; i<count; i++) {
+            String key = readString( in );
+            byte type = in.readByte();
+            switch (type) {
+                case STRING: state.put( key, readString( in ) ); break;
+                case INTEGER: state.put( key, in.readInt() ); break;
+                case LONG: state.put( key, in.readLong() ); break;
+                case DOUBLE: state.put( key, in.readDouble() ); break;
+                case FLOAT: state.put( key, in.readFloat() ); break;
+                case BOOLEAN: state.put( key, in.readBoolean() ); break;
+                case SHORT: state.put( key, in.readShort() ); break;
+                case BYTE: state.put( key, in.readByte() ); break;
+                case CHARACTER: state.put( key, in.readChar() ); break;
+                case DATE: state.put( key, new Date( in.readLong() ) ); break;
+                case BYTES: {
+                    byte[] value = new byte[in.readInt()];
+                    in.readFully( value );
+                    state.put( key, value );
+                    break;
+                }
+                default: throw new IOException( "Unknown value type: " + type );
+            }
+        }
+        return state;
+    }
+
+
+    protected void writeString( DataOutputStream out, String s ) throws IOException {
+        byte[] bytes = s.getBytes( StandardCharsets.UTF_8 );
+        out.writeInt( bytes.length );
+        out.write( bytes );
+    }
+
+
+    protected String readString( DataInputStream in ) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully( bytes );
+        return new String( bytes, StandardCharsets.UTF_8 );
+    }
+
+
+    // metrics ********************************************
+
+    /**
+     * The number of {@link #get(Object, IRecordStore)} requests that were served
+     * from the cache.
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+
+    public long missCount() {
+        return misses.sum();
+    }
+
+
+    public double hitRate() {
+        long requests = hitCount() + missCount();
+        return requests == 0 ? 1.0 : (double)hitCount() / requests;
+    }
+
+
+    /**
+     * The number of records that were evicted in order to make room for new ones.
+     */
+    public long evictionCount() {
+        return evictions.sum();
+    }
+
+
+    /**
+     * The number of serialized bytes of all currently cached records.
+     */
+    public synchronized long bytesResident() {
+        return bytesResident;
+    }
+
+
+    /**
+     * The number of currently cached records.
+     */
+    public synchronized int size() {
+        return index.size();
+    }
+
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+
+    @Override
+    public String toString() {
+        return "OffHeapRecordCache[hits=" + hitCount() + ", misses=" + missCount()
+                + ", evictions=" + evictionCount() + ", records=" + size()
+                + ", bytesResident=" + bytesResident() + ", maxBytes=" + maxBytes + "]";
+    }
+
+}
@@ -256,7 +256,9 @@ class RecordCompositeState
 
                 @Override
                 public void remove() {
-                    CollectionPropertyImpl.this.remove( index );
+                    // the element last returned by next()
+                    CollectionPropertyImpl.this.remove( --index );
+                    size --;
                 }
             };
         }
@@ -24,7 +24,10 @@ import org.polymap.recordstore.IRecordState;
 import org.polymap.recordstore.IRecordStore;
 
 /**
- * 
+ * The {@link StoreSPI} of an {@link IRecordStore}.
+ * <p/>
+ * Optionally records read from the store are cached in an
+ * {@link OffHeapRecordCache}, see {@link #RecordStoreAdapter(IRecordStore, long)}.
  *
  * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
  */
@@ -39,12 +42,35 @@ public class RecordStoreAdapter
 
     private StoreRuntimeContext     context;
     
+    /** The cache of records, or null. */
+    protected OffHeapRecordCache    cache;
+    
     
     public RecordStoreAdapter( IRecordStore store ) {
         this.store = store;
     }
 
 
+    /**
+     * Creates an adapter that caches records read from the store in an
+     * {@link OffHeapRecordCache}.
+     *
+     * @param cacheMaxBytes The maximum number of bytes of the cache.
+     */
+    public RecordStoreAdapter( IRecordStore store, long cacheMaxBytes ) {
+        this.store = store;
+        this.cache = new OffHeapRecordCache( cacheMaxBytes );
+    }
+
+
+    /**
+     * The cache of records, or null if records are not cached.
+     */
+    public OffHeapRecordCache recordCache() {
+        return cache;
+    }
+
+
     @SuppressWarnings("hiding")
     public void init( StoreRuntimeContext context ) {
         this.context = context;
@@ -53,6 +79,10 @@ public class RecordStoreAdapter
 
 
     public void close() {
+        if (cache != null) {
+            log.info( "Closing: " + cache );
+            cache.close();
+        }
         store.close();
         store = null;
     }
@@ -16,14 +16,19 @@ package org.polymap.model2.store.recordstore;
 
 import static org.polymap.model2.store.recordstore.RecordCompositeState.TYPE_KEY;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.Objects;
 
 import java.io.IOException;
 
+import org.apache.lucene.search.BooleanQuery;
+
 import org.polymap.model2.Entity;
 import org.polymap.model2.query.Query;
 import org.polymap.model2.query.grammar.BooleanExpression;
@@ -33,6 +38,7 @@ import org.polymap.model2.runtime.EntityRuntimeContext.EntityStatus;
 import org.polymap.model2.store.CloneCompositeStateSupport;
 import org.polymap.model2.store.CompositeState;
 import org.polymap.model2.store.CompositeStateReference;
+import org.polymap.model2.store.SnapshotCompositeStateSupport;
 import org.polymap.model2.store.StoreResultSet;
 import org.polymap.model2.store.StoreRuntimeContext;
 import org.polymap.model2.store.StoreUnitOfWork;
@@ -50,24 +56,42 @@ import org.polymap.recordstore.lucene.LuceneRecordStore;
  * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
  */
 public class RecordStoreUnitOfWork
-        implements StoreUnitOfWork, CloneCompositeStateSupport {
+        implements StoreUnitOfWork, CloneCompositeStateSupport, SnapshotCompositeStateSupport {
 
     private final IRecordStore          store;
 
+    /** The cache of records, or null. */
+    private final OffHeapRecordCache    cache;
+
     private Updater                     tx;
 
+    /** The ids of the records to invalidate in the {@link #cache} after commit. */
+    private List<Object>                prepared;
+
     private boolean                     prepareFailed;
     
     
     public RecordStoreUnitOfWork( StoreRuntimeContext context, RecordStoreAdapter rsa ) {
         this.store = rsa.store;
+        this.cache = rsa.cache;
     }
 
     
     @Override
     public <T extends Entity> CompositeState loadEntityState( Object id, Class<T> entityClass ) {
         try {
-            IRecordState state = store.get( id );
+            if (cache == null) {
+                IRecordState state = store.get( id );
+                return state != null ? new RecordCompositeState( state ) : null;
+            }
+            IRecordState state = cache.get( id, store );
+            if (state == null) {
+                long loadedGeneration = cache.generation();
+                state = store.get( id );
+                if (state != null) {
+                    cache.put( id, state, loadedGeneration );
+                }
+            }
             return state != null ? new RecordCompositeState( state ) : null;
         }
         catch (Exception e) {
@@ -76,6 +100,63 @@ public class RecordStoreUnitOfWork
     }
 
 
+    /**
+     * Loads all records that are not cached with one Lucene query per
+     * {@link BooleanQuery#getMaxClauseCount()} ids. Falls back to the default
+     * implementation for non-Lucene stores.
+     */
+    @Override
+    public <T extends Entity> Map<Object,CompositeState> loadEntityStates( Collection<?> ids, Class<T> entityClass ) {
+        if (!(store instanceof LuceneRecordStore)) {
+            return StoreUnitOfWork.super.loadEntityStates( ids, entityClass );
+        }
+        Map<Object,CompositeState> result = new HashMap( ids.size() * 2 );
+        if (cache != null) {
+            List<Object> missing = new ArrayList( ids.size() );
+            for (Object id : ids) {
+                IRecordState state = cache.get( id, store );
+                if (state != null) {
+                    result.put( id, new RecordCompositeState( state ) );
+                }
+                else {
+                    missing.add( id );
+                }
+            }
+            ids = missing;
+        }
+        long loadedGeneration = cache != null ? cache.generation() : -1;
+        List<Object> chunk = new ArrayList( Math.min( ids.size(), BooleanQuery.getMaxClauseCount() ) );
+        for (Iterator<?> it = ids.iterator(); it.hasNext(); ) {
+            chunk.add( it.next() );
+            if (chunk.size() == BooleanQuery.getMaxClauseCount() || !it.hasNext()) {
+                loadChunk( chunk, result, loadedGeneration );
+                chunk.clear();
+            }
+        }
+        return result;
+    }
+
+
+    protected void loadChunk( List<Object> ids, Map<Object,CompositeState> result, long loadedGeneration ) {
+        ResultSet rs = null;
+        try {
+            rs = store.find( new LuceneQueryBuilder( (LuceneRecordStore)store ).createIdQuery( ids ) );
+            for (IRecordState state : rs) {
+                result.put( state.id(), new RecordCompositeState( state ) );
+                if (cache != null) {
+                    cache.put( state.id(), state, loadedGeneration );
+                }
+            }
+        }
+        catch (Exception e) {
+            throw new ModelRuntimeException( e );
+        }
+        finally {
+            if (rs != null) { rs.close(); }
+        }
+    }
+
+
     @Override
     public <T extends Entity> CompositeState newEntityState( Object id, Class<T> entityClass ) {
 //        if (id != null) {
@@ -100,21 +181,60 @@ public class RecordStoreUnitOfWork
     @Override
     public void reincorparateEntityState( CompositeState state, CompositeState clonedState ) {
         // just replacing the IRecordState is not possible out-of-the-box as it was newly created (wrong id) ??
-        
-        Set<String> keys = new HashSet( 128 );
-        // cloned -> state
-        for (Map.Entry<String,Object> entry : ((RecordCompositeState)clonedState).state) {
-            ((RecordCompositeState)state).state.put( entry.getKey(), entry.getValue() );
-            keys.add( entry.getKey() );
-        }
+        IRecordState target = ((RecordCompositeState)state).state;
+        IRecordState source = ((RecordCompositeState)clonedState).state;
+
         // check removed
-        Iterator<Map.Entry<String,Object>> it = ((RecordCompositeState)state).state.iterator();
+        Iterator<Map.Entry<String,Object>> it = target.iterator();
         while (it.hasNext()) {
-            Entry<String,Object> entry = it.next();
-            if (!keys.contains( entry.getKey() )) {
+            if (source.get( it.next().getKey() ) == null) {
                 it.remove();
             }
         }
+        // cloned -> state; just the delta
+        for (Map.Entry<String,Object> entry : source) {
+            if (!Objects.equals( entry.getValue(), target.get( entry.getKey() ) )) {
+                target.put( entry.getKey(), entry.getValue() );
+            }
+        }
+    }
+
+
+    @Override
+    public Object snapshotEntityState( CompositeState state ) {
+        IRecordState recordState = ((RecordCompositeState)state).state;
+        Map<String,Object> entries = new HashMap( 64 );
+        for (Map.Entry<String,Object> entry : recordState) {
+            entries.put( entry.getKey(), entry.getValue() );
+        }
+        return new RecordSnapshot( recordState.id(), entries );
+    }
+
+
+    @Override
+    public <T extends Entity> CompositeState restoreEntityState( Object snapshot, Class<T> entityClass ) {
+        RecordSnapshot recordSnapshot = (RecordSnapshot)snapshot;
+        IRecordState state = store.newRecord( recordSnapshot.id );
+        for (Map.Entry<String,Object> entry : recordSnapshot.entries.entrySet()) {
+            state.put( entry.getKey(), entry.getValue() );
+        }
+        return new RecordCompositeState( state );
+    }
+
+
+    /**
+     * Immutable copy of the entries of an {@link IRecordState}.
+     */
+    static class RecordSnapshot {
+        
+        final Object                id;
+        
+        final Map<String,Object>    entries;
+
+        RecordSnapshot( Object id, Map<String,Object> entries ) {
+            this.id = id;
+            this.entries = Collections.unmodifiableMap( entries );
+        }
     }
 
 
@@ -198,6 +318,7 @@ public class RecordStoreUnitOfWork
             throws IOException, ConcurrentEntityModificationException {
         assert tx == null;
         prepareFailed = false;
+        prepared = new ArrayList( 128 );
         tx = store.prepareUpdate();
         
         try {
@@ -207,9 +328,11 @@ public class RecordStoreUnitOfWork
                 if (entity.status() == EntityStatus.CREATED
                         || entity.status() == EntityStatus.MODIFIED) {
                     tx.store( state );
+                    prepared.add( state.id() );
                 }
                 else if (entity.status() == EntityStatus.REMOVED) {
                     tx.remove( state );
+                    prepared.add( state.id() );
                 }
             }
         }
@@ -240,6 +363,11 @@ public class RecordStoreUnitOfWork
 
         tx.apply();
         tx = null;
+
+        if (cache != null) {
+            cache.invalidate( prepared );
+        }
+        prepared = null;
     }
 
 
@@ -249,6 +377,7 @@ public class RecordStoreUnitOfWork
             tx.discard();
             tx = null;
         }
+        prepared = null;
     }
 
 
@@ -15,7 +15,9 @@
 package org.polymap.model2.test;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
 
 import junit.framework.TestCase;
 
@@ -26,6 +28,9 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 
 import org.polymap.model2.runtime.EntityRepository;
+import org.polymap.model2.runtime.EntityRuntimeContext.EntityStatus;
+import org.polymap.model2.runtime.ModelRuntimeException;
+import org.polymap.model2.runtime.Savepoint;
 import org.polymap.model2.runtime.TypedValueInitializer;
 import org.polymap.model2.runtime.UnitOfWork;
 import org.polymap.model2.runtime.ValueInitializer;
@@ -423,4 +428,151 @@ public abstract class ComplexModelTest
         assertEquals( 2, Iterables.size( company.moreAddresses ) );
     }
     
+
+
+    public void testSavepoint() throws Exception {
+        Company company = uow.createEntity( Company.class, null, (Company proto) -> {
+            proto.name.set( "before" );
+            proto.docs.add( "doc1" );
+            return proto;
+        });
+        Employee employee = uow.createEntity( Employee.class, null );
+        company.employees.add( employee );
+        uow.commit();
+
+        Savepoint savepoint = uow.savepoint();
+        company.name.set( "after" );
+        company.name.set( "after2" );
+        company.chief.set( employee );
+        company.docs.add( "doc2" );
+        company.docs.add( "doc3" );
+        company.employees.remove( employee );
+        company.moreAddresses.createElement( (Address proto) -> {
+            proto.street.set( "Jump" );
+            return proto;
+        });
+        Employee created = uow.createEntity( Employee.class, null );
+        Object createdId = created.id();
+        uow.removeEntity( employee );
+
+        uow.rollbackTo( savepoint );
+        assertEquals( "before", company.name.get() );
+        assertNull( company.chief.get() );
+        assertEquals( Lists.newArrayList( "doc1" ), Lists.newArrayList( company.docs ) );
+        assertEquals( 1, company.employees.size() );
+        assertEquals( 0, company.moreAddresses.size() );
+        assertNull( uow.entity( Employee.class, createdId ) );
+        assertEquals( EntityStatus.LOADED, company.status() );
+        assertEquals( EntityStatus.LOADED, employee.status() );
+
+        // savepoint stays active
+        company.name.set( "again" );
+        Savepoint savepoint2 = uow.savepoint();
+        company.name.set( "again2" );
+        uow.rollbackTo( savepoint2 );
+        assertEquals( "again", company.name.get() );
+        uow.rollbackTo( savepoint );
+        assertEquals( "before", company.name.get() );
+        try {
+            uow.rollbackTo( savepoint2 );
+            fail( "Savepoint should be released." );
+        }
+        catch (ModelRuntimeException e) {
+        }
+
+        // removed elements are restored at their position
+        for (String street : Arrays.asList( "1", "2", "3" )) {
+            company.moreAddresses.createElement( (Address proto) -> {
+                proto.street.set( street );
+                return proto;
+            });
+        }
+        company.docs.add( "doc2" );
+        company.docs.add( "doc3" );
+        uow.commit();
+        Savepoint savepoint3 = uow.savepoint();
+        company.moreAddresses.remove( Iterables.get( company.moreAddresses, 1 ) );
+        company.employees.clear();
+        Iterator<String> it = company.docs.iterator();
+        it.next();
+        it.next();
+        it.remove();
+        assertEquals( Lists.newArrayList( "doc1", "doc3" ), Lists.newArrayList( company.docs ) );
+        assertEquals( 0, company.employees.size() );
+        assertEquals( EntityStatus.MODIFIED, company.status() );
+
+        uow.rollbackTo( savepoint3 );
+        assertEquals( Lists.newArrayList( "1", "2", "3" ), Lists.newArrayList( 
+                Iterables.transform( company.moreAddresses, address -> address.street.get() ) ) );
+        assertEquals( Lists.newArrayList( "doc1", "doc2", "doc3" ), Lists.newArrayList( company.docs ) );
+        assertSame( employee, Iterables.getOnlyElement( company.employees ) );
+        assertEquals( EntityStatus.LOADED, company.status() );
+
+        company.name.set( "committed" );
+        uow.commit();
+        UnitOfWork uow2 = repo.newUnitOfWork();
+        assertEquals( "committed", uow2.entity( Company.class, company.id() ).name.get() );
+        uow2.close();
+    }
+
+
+    public void testReadOnly() throws Exception {
+        Company company = uow.createEntity( Company.class, null, (Company proto) -> {
+            proto.name.set( "company" );
+            proto.docs.add( "doc1" );
+            proto.address.createValue( (Address address) -> {
+                address.street.set( "Jump" );
+                return address;
+            });
+            proto.moreAddresses.createElement( (Address address) -> address );
+            return proto;
+        });
+        Employee employee = uow.createEntity( Employee.class, null );
+        company.employees.add( employee );
+        company.chief.set( employee );
+        uow.commit();
+
+        UnitOfWork readOnly = repo.newReadOnlyUnitOfWork();
+        assertTrue( readOnly.isReadOnly() );
+        assertFalse( uow.isReadOnly() );
+        Company loaded = readOnly.entity( company );
+        assertEquals( "company", loaded.name.get() );
+        assertEquals( Lists.newArrayList( "doc1" ), Lists.newArrayList( loaded.docs ) );
+        assertEquals( "Jump", loaded.address.get().street.get() );
+        assertEquals( 1, loaded.moreAddresses.size() );
+        assertEquals( employee.id(), loaded.chief.get().id() );
+        assertEquals( employee.id(), Iterables.getOnlyElement( loaded.employees ).id() );
+        assertEquals( 1, readOnly.query( Company.class ).execute().size() );
+
+        assertReadOnly( () -> loaded.name.set( "changed" ) );
+        // rejected before constraints are checked
+        assertReadOnly( () -> loaded.name.set( null ) );
+        assertReadOnly( () -> loaded.chief.set( null ) );
+        assertReadOnly( () -> loaded.docs.add( "doc2" ) );
+        assertReadOnly( () -> {
+            Iterator<Address> it = loaded.moreAddresses.iterator();
+            it.next();
+            it.remove();
+        });
+        assertReadOnly( () -> loaded.address.get().street.set( "changed" ) );
+        assertReadOnly( () -> loaded.moreAddresses.createElement( null ) );
+        assertReadOnly( () -> loaded.employees.remove( loaded.employees.iterator().next() ) );
+        assertReadOnly( () -> readOnly.createEntity( Employee.class, null ) );
+        assertReadOnly( () -> readOnly.removeEntity( loaded ) );
+        assertReadOnly( () -> readOnly.commit() );
+        assertEquals( "company", loaded.name.get() );
+        assertEquals( EntityStatus.LOADED, loaded.status() );
+        readOnly.close();
+    }
+
+
+    protected void assertReadOnly( Runnable modification ) {
+        try {
+            modification.run();
+            fail( "UnitOfWork is read-only." );
+        }
+        catch (UnsupportedOperationException e) {
+        }
+    }
+
 }
@@ -82,6 +82,16 @@ public abstract class ComplexQueryTest
     }
 
     
+    /**
+     * Query templates are interned per repository.
+     */
+    public void testTemplates() throws Exception {
+        Company company = Expressions.template( Company.class, repo );
+        assertSame( company, Expressions.template( Company.class, repo ) );
+        assertSame( Expressions.template( Employee.class, repo ), company.chief.get() );
+    }
+
+    
     protected void createEntities() {
         ulli = uow.createEntity( Employee.class, null, new ValueInitializer<Employee>() {
             public Employee initialize( Employee proto ) throws Exception {
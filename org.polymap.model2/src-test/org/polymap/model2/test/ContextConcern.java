@@ -0,0 +1,59 @@
+/* 
+ * polymap.org
+ * Copyright (C) 2014, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3.0 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.polymap.model2.Entity;
+import org.polymap.model2.PropertyBase;
+import org.polymap.model2.PropertyConcern;
+import org.polymap.model2.PropertyConcernAdapter;
+import org.polymap.model2.runtime.EntityRuntimeContext;
+
+/**
+ * Initialized via constructor instead of setting the fields after instantiation.
+ * Records the Entities it is invoked for.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public class ContextConcern
+        extends PropertyConcernAdapter
+        implements PropertyConcern {
+
+    public static AtomicInteger     constructed = new AtomicInteger();
+    
+    /** The Entities, one per invocation. */
+    public static List<Entity>      entities = new CopyOnWriteArrayList();
+
+    public ContextConcern( EntityRuntimeContext context, PropertyBase delegate ) {
+        super( context, delegate );
+        constructed.incrementAndGet();
+    }
+
+    @Override
+    public Object get() {
+        entities.add( context.getCompositePart( Entity.class ) );
+        return delegate().get();
+    }
+
+    @Override
+    public void set( Object value ) {
+        entities.add( context.getCompositePart( Entity.class ) );
+        delegate().set( value );
+    }
+
+}
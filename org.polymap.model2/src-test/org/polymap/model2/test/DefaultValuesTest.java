@@ -0,0 +1,97 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.test;
+
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.polymap.model2.DefaultValue;
+import org.polymap.model2.Defaults;
+import org.polymap.model2.Property;
+import org.polymap.model2.engine.DefaultValues;
+import org.polymap.model2.engine.PropertyInfoImpl;
+
+/**
+ * Test of {@link DefaultValues} and the default value of {@link PropertyInfoImpl}.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public class DefaultValuesTest
+        extends TestCase {
+
+    private static final Log log = LogFactory.getLog( DefaultValuesTest.class );
+
+    /**
+     * Properties with default values; not a Composite.
+     */
+    static class Defaulted {
+        
+        @Defaults
+        protected Property<Date>            date;
+
+        @DefaultValue( "Ulli" )
+        protected Property<String>          string;
+
+        @Defaults
+        protected Property<StringBuilder>   unsupported;
+    }
+    
+    
+    protected PropertyInfoImpl info( String name ) throws Exception {
+        return new PropertyInfoImpl( Defaulted.class.getDeclaredField( name ) );
+    }
+    
+    
+    public void testDefaultValue() throws Exception {
+        assertEquals( "Ulli", info( "string" ).getDefaultValue() );
+        PropertyInfoImpl info = info( "string" );
+        assertSame( info.getDefaultValue(), info.getDefaultValue() );
+    }
+    
+    
+    public void testMutableDefaultValue() throws Exception {
+        PropertyInfoImpl info = info( "date" );
+        Date date = (Date)info.getDefaultValue();
+        assertEquals( DefaultValues.DEFAULT_DATE, date );
+        assertNotSame( date, info.getDefaultValue() );
+        
+        date.setTime( 1000 );
+        assertEquals( new Date( 0 ), info.getDefaultValue() );
+        assertEquals( new Date( 0 ), DefaultValues.DEFAULT_DATE );
+    }
+    
+    
+    /**
+     * An unsupported type does not fail when the info is created but on every
+     * access of the default value.
+     */
+    public void testUnsupportedType() throws Exception {
+        PropertyInfoImpl info = info( "unsupported" );
+        for (int i=0; i<2; i++) {
+            try {
+                info.getDefaultValue();
+                fail( "Type is not supported." );
+            }
+            catch (UnsupportedOperationException e) {
+                log.info( "Expected: " + e.getMessage() );
+            }
+        }
+    }
+    
+}
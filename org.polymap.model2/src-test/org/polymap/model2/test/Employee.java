@@ -54,9 +54,11 @@ public class Employee
     public Property<Date>           defaultDate;
 
     @NameInStore("nonNullabl") // shapefile supports 10 chars in name
+    @Concerns(ContextConcern.class)
     public Property<String>         nonNullable;
 
     @Nullable
+    @Concerns(StatelessConcern.class)
     public Property<Rating>         rating;
 
     @Nullable
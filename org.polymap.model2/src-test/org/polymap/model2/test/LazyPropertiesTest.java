@@ -0,0 +1,169 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.polymap.model2.LazyProperties;
+import org.polymap.model2.PropertyBase;
+import org.polymap.model2.runtime.EntityRepository;
+import org.polymap.model2.runtime.UnitOfWork;
+
+/**
+ * Test for {@link LazyProperties}: the repository must be configured with
+ * {@link EntityRepository.Configuration#lazyProperties}.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public abstract class LazyPropertiesTest
+        extends TestCase {
+
+    private static final Log log = LogFactory.getLog( LazyPropertiesTest.class );
+
+    // instance *******************************************
+
+    protected EntityRepository      repo;
+
+    protected UnitOfWork            uow;
+
+
+    public LazyPropertiesTest( String name ) {
+        super( name );
+    }
+
+    protected void setUp() throws Exception {
+        log.info( " --------------------------------------- " + getClass().getSimpleName() + " : " + getName() );
+    }
+
+    protected void tearDown() throws Exception {
+        uow.close();
+        repo.close();
+    }
+
+
+    protected Company createCompany( String name ) {
+        return uow.createEntity( Company.class, null, (Company prototype) -> {
+            prototype.name.set( name );
+            prototype.docs.add( "doc1" );
+            return prototype;
+        });
+    }
+
+
+    protected PropertyBase[] properties( Company company ) {
+        return new PropertyBase[] {company.name, company.chief, company.address, company.moreAddresses,
+                company.docs, company.employees, company.fellows, company.bigFellow};
+    }
+
+
+    /**
+     * True if the placeholder has built its property already.
+     */
+    protected boolean isBuilt( PropertyBase prop ) throws Exception {
+        for (Class cl=prop.getClass(); cl != null; cl=cl.getSuperclass()) {
+            try {
+                Field f = cl.getDeclaredField( "delegate" );
+                f.setAccessible( true );
+                return f.get( prop ) != null;
+            }
+            catch (NoSuchFieldException e) {
+            }
+        }
+        throw new IllegalArgumentException( "Not a lazy property: " + prop );
+    }
+
+
+    /**
+     * equals(), hashCode() and toString() of the placeholder do not build the
+     * property; equality is identity before and after it is built.
+     */
+    public void testIdentity() throws Exception {
+        Company company = createCompany( "c1" );
+        uow.commit();
+
+        UnitOfWork uow2 = repo.newUnitOfWork();
+        Company loaded = uow2.entity( Company.class, company.id() );
+        for (PropertyBase prop : properties( loaded )) {
+            assertFalse( isBuilt( prop ) );
+            int hashCode = prop.hashCode();
+            assertEquals( System.identityHashCode( prop ), hashCode );
+            assertTrue( prop.equals( prop ) );
+            assertFalse( prop.equals( properties( company )[0] ) );
+            assertTrue( prop.toString().contains( prop.info().getName() ) );
+            assertFalse( isBuilt( prop ) );
+        }
+
+        // build
+        assertEquals( "c1", loaded.name.get() );
+        assertEquals( "doc1", loaded.docs.iterator().next() );
+        for (PropertyBase prop : new PropertyBase[] {loaded.name, loaded.docs}) {
+            assertTrue( isBuilt( prop ) );
+            assertEquals( System.identityHashCode( prop ), prop.hashCode() );
+            assertTrue( prop.equals( prop ) );
+        }
+        assertFalse( isBuilt( loaded.address ) );
+        uow2.close();
+    }
+
+
+    /**
+     * Loading Entities and comparing their properties does not allocate property
+     * instances.
+     */
+    public void testAllocation() throws Exception {
+        int loops = 1000;
+        List<Object> ids = new ArrayList( loops );
+        for (int i=0; i<loops; i++) {
+            ids.add( createCompany( "c" + i ).id() );
+        }
+        uow.commit();
+
+        UnitOfWork uow2 = repo.newUnitOfWork();
+        PropertyBase[] props = new PropertyBase[ loops * 8 ];
+        int c = 0;
+        for (Object id : ids) {
+            for (PropertyBase prop : properties( uow2.entity( Company.class, id ) )) {
+                props[c++] = prop;
+            }
+        }
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        int hashCodes = 0;
+        long start = threads.getThreadAllocatedBytes( threadId );
+        for (int i=0; i<props.length; i++) {
+            hashCodes += props[i].hashCode();
+            assertTrue( props[i].equals( props[i] ) );
+        }
+        long allocated = threads.getThreadAllocatedBytes( threadId ) - start;
+        log.info( "Allocated: " + allocated + " bytes for " + props.length + " properties (" + hashCodes + ")" );
+        assertTrue( "Allocated: " + allocated, allocated < props.length );
+
+        for (int i=0; i<props.length; i++) {
+            assertFalse( isBuilt( props[i] ) );
+        }
+        uow2.close();
+    }
+
+}
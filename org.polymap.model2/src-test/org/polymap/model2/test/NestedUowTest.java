@@ -14,6 +14,10 @@
  */
 package org.polymap.model2.test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
 import junit.framework.TestCase;
 
 import org.apache.commons.logging.Log;
@@ -159,6 +163,80 @@ public abstract class NestedUowTest
     }
     
 
+    /**
+     * Entities of a nested UnitOfWork share the state of the parent until modified.
+     */
+    public void testCopyOnWrite() throws Exception {
+        Employee employee = uow.createEntity( Employee.class, null, (Employee prototype) -> {
+                prototype.name.set( "parent" ); return prototype;
+        });
+        uow.commit();
+
+        UnitOfWork nested = uow.newUnitOfWork();
+        Employee nestedEmployee = nested.entity( Employee.class, employee.id() );
+        assertSame( employee.state(), nestedEmployee.state() );
+        
+        // changes of the parent are visible until modified
+        employee.jap.set( 1 );
+        assertEquals( 1, (int)nestedEmployee.jap.get() );
+
+        nestedEmployee.name.set( "nested" );
+        assertNotSame( employee.state(), nestedEmployee.state() );
+        assertEquals( "nested", nestedEmployee.name.get() );
+        assertEquals( 1, (int)nestedEmployee.jap.get() );
+        assertEquals( "parent", employee.name.get() );
+
+        // nested of nested
+        UnitOfWork nested2 = nested.newUnitOfWork();
+        Employee nested2Employee = nested2.entity( Employee.class, employee.id() );
+        assertEquals( "nested", nested2Employee.name.get() );
+        nested2Employee.name.set( "nested2" );
+        assertEquals( "nested", nestedEmployee.name.get() );
+        nested2.commit();
+        assertEquals( "nested2", nestedEmployee.name.get() );
+        assertEquals( "parent", employee.name.get() );
+
+        nested.commit();
+        assertEquals( "nested2", employee.name.get() );
+        assertEquals( "nested2", nestedEmployee.name.get() );
+        uow.commit();
+
+        UnitOfWork uow2 = repo.newUnitOfWork();
+        assertEquals( "nested2", uow2.entity( Employee.class, employee.id() ).name.get() );
+        assertEquals( 1, (int)uow2.entity( Employee.class, employee.id() ).jap.get() );
+        uow2.close();
+    }
+
+
+    /**
+     * Removing an element of a plain (non-Composite) collection via iterator.
+     */
+    public void testIteratorRemove() throws Exception {
+        Company company = uow.createEntity( Company.class, null, (Company prototype) -> {
+                prototype.docs.add( "a" );
+                prototype.docs.add( "b" );
+                prototype.docs.add( "c" );
+                return prototype;
+        });
+        uow.commit();
+
+        UnitOfWork nested = uow.newUnitOfWork();
+        Company nestedCompany = nested.entity( Company.class, company.id() );
+        Iterator<String> it = nestedCompany.docs.iterator();
+        assertEquals( "a", it.next() );
+        assertEquals( "b", it.next() );
+        it.remove();
+        assertEquals( "c", it.next() );
+        assertFalse( it.hasNext() );
+
+        assertEquals( Arrays.asList( "a", "c" ), new ArrayList( nestedCompany.docs ) );
+        assertEquals( Arrays.asList( "a", "b", "c" ), new ArrayList( company.docs ) );
+
+        nested.commit();
+        assertEquals( Arrays.asList( "a", "c" ), new ArrayList( company.docs ) );
+    }
+
+
     /**
      * 
      */
@@ -14,14 +14,28 @@
  */
 package org.polymap.model2.test;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import java.lang.reflect.Field;
+
 import junit.framework.TestCase;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import org.polymap.model2.Composite;
+import org.polymap.model2.Entity;
+import org.polymap.model2.PropertyBase;
+import org.polymap.model2.engine.CompositeFactory;
+import org.polymap.model2.engine.CompositeFactory.PropertyField;
+import org.polymap.model2.engine.DefaultValues;
 import org.polymap.model2.query.ResultSet;
+import org.polymap.model2.runtime.CompositeInfo;
 import org.polymap.model2.runtime.EntityRepository;
+import org.polymap.model2.runtime.PropertyInfo;
 import org.polymap.model2.runtime.UnitOfWork;
 
 /**
@@ -102,6 +116,350 @@ public abstract class PerformanceTest
     }
 
     
+    /**
+     * Per-instance cost of creating a Composite and binding its property fields:
+     * plain reflection versus {@link CompositeFactory}.
+     */
+    public void testInstantiation() throws Exception {
+        int loops = 100000;
+        Field contextField = Composite.class.getDeclaredField( "context" );
+        contextField.setAccessible( true );
+
+        for (int run=0; run<2; run++) {
+            // reflection
+            Timer timer = Timer.startNow();
+            for (int i=0; i<loops; i++) {
+                Employee instance = Employee.class.getConstructor().newInstance();
+                contextField.set( instance, null );
+                for (Class cl = Employee.class; cl != null; cl = cl.getSuperclass()) {
+                    for (Field field : cl.getDeclaredFields()) {
+                        if (PropertyBase.class.isAssignableFrom( field.getType() )) {
+                            field.setAccessible( true );
+                            field.set( instance, null );
+                        }
+                    }
+                }
+            }
+            log.info( "Reflection: " + loops + " instances in " + timer.elapsedTime() + "ms" );
+
+            // factory
+            timer.start();
+            CompositeFactory<Employee> factory = CompositeFactory.of( Employee.class );
+            for (int i=0; i<loops; i++) {
+                Employee instance = factory.newInstance( null );
+                for (PropertyField field : factory.fields()) {
+                    field.set( instance, null );
+                }
+            }
+            log.info( "CompositeFactory: " + loops + " instances in " + timer.elapsedTime() + "ms" );
+        }
+    }
+
+    
+    /**
+     * Heap per loaded entity and throughput of property get/set.
+     */
+    public void testPropertyAccess() throws Exception {
+        int count = 1000;
+        for (int i=0; i<count; i++) {
+            Employee employee = uow.createEntity( Employee.class, null );
+            employee.jap.set( i );
+            employee.name.set( "employee" + i );
+        }
+        uow.commit();
+
+        // heap per entity
+        UnitOfWork uow2 = repo.newUnitOfWork();
+        long before = usedHeap();
+        List<Employee> loaded = uow2.query( Employee.class ).execute().stream().collect( Collectors.toList() );
+        log.info( "Heap per loaded entity: ~" + (usedHeap() - before) / loaded.size() + " bytes" );
+
+        // get
+        int loops = 1000;
+        long sum = 0;
+        Timer timer = Timer.startNow();
+        for (int i=0; i<loops; i++) {
+            for (Employee employee : loaded) {
+                sum += employee.jap.get();
+                sum += employee.name.get().length();
+            }
+        }
+        log.info( "Property get: " + (2*loops*loaded.size()) + " in " + timer.elapsedTime() + "ms (" + sum + ")" );
+
+        // set
+        timer.start();
+        for (int i=0; i<loops; i++) {
+            for (Employee employee : loaded) {
+                employee.jap.set( i );
+            }
+        }
+        log.info( "Property set: " + (loops*loaded.size()) + " in " + timer.elapsedTime() + "ms" );
+        uow2.close();
+    }
+
+    
+    /**
+     * Latency of {@link UnitOfWork#entity(Class, Object)} and {@link Entity#as(Class)}
+     * for an Entity/mixin that is already loaded by the UnitOfWork (cache hit).
+     */
+    public void testEntityLookup() throws Exception {
+        Employee employee = uow.createEntity( Employee.class, null );
+        uow.commit();
+        Object id = employee.id();
+
+        UnitOfWork uow2 = repo.newUnitOfWork();
+        uow2.entity( Employee.class, id );
+        int loops = 1000000;
+        for (int run=0; run<3; run++) {
+            long sum = 0;
+            long start = System.nanoTime();
+            for (int i=0; i<loops; i++) {
+                sum += uow2.entity( Employee.class, id ).hashCode();
+            }
+            long elapsed = System.nanoTime() - start;
+            log.info( "Entity lookup (hit): " + loops + " in " + (elapsed / 1000000) + "ms, "
+                    + (elapsed / loops) + "ns/op (" + sum + ")" );
+        }
+        Employee employee2 = uow2.entity( Employee.class, id );
+        for (int run=0; run<3; run++) {
+            long sum = 0;
+            long start = System.nanoTime();
+            for (int i=0; i<loops; i++) {
+                sum += employee2.as( TrackableMixin.class ).get().hashCode();
+            }
+            long elapsed = System.nanoTime() - start;
+            log.info( "Mixin lookup (hit): " + loops + " in " + (elapsed / 1000000) + "ms, "
+                    + (elapsed / loops) + "ns/op (" + sum + ")" );
+        }
+        uow2.close();
+    }
+
+
+    /**
+     * Cost of commit and rollback of one modification, depending on the number of
+     * Entities loaded by the UnitOfWork.
+     */
+    public void testCommitRollback() throws Exception {
+        int count = 10000;
+        for (int i=0; i<count; i++) {
+            uow.createEntity( Employee.class, "cr" + i, (Employee proto) -> {
+                proto.jap.set( 0 );
+                return proto;
+            });
+        }
+        uow.commit();
+
+        UnitOfWork uow2 = repo.newUnitOfWork();
+        Employee employee = uow2.entity( Employee.class, "cr0" );
+        int loops = 100;
+        for (int loaded : new int[] {1, count}) {
+            for (int i=1; i<loaded; i++) {
+                uow2.entity( Employee.class, "cr" + i );
+            }
+            long start = System.nanoTime();
+            for (int i=0; i<loops; i++) {
+                employee.jap.set( i );
+                uow2.commit();
+            }
+            long commit = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i=0; i<loops; i++) {
+                employee.jap.set( -1 );
+                uow2.prepare();
+                uow2.rollback();
+            }
+            long rollback = System.nanoTime() - start;
+            assertEquals( loops - 1, (int)employee.jap.get() );
+            log.info( "Loaded: " + loaded + ", commit: " + (commit / loops / 1000) + "us/op"
+                    + ", rollback: " + (rollback / loops / 1000) + "us/op" );
+        }
+        uow2.close();
+    }
+
+
+    /**
+     * Cost of the first modification of loaded Entities, which copies the state for
+     * rollback, compared to subsequent modifications.
+     */
+    public void testFirstModification() throws Exception {
+        int count = 10000;
+        for (int i=0; i<count; i++) {
+            String suffix = String.valueOf( i );
+            uow.createEntity( Employee.class, "fm" + i, (Employee proto) -> {
+                proto.name.set( "name" + suffix );
+                proto.firstname.set( "firstname" + suffix );
+                proto.jap.set( 0 );
+                return proto;
+            });
+        }
+        uow.commit();
+
+        UnitOfWork uow2 = repo.newUnitOfWork();
+        List<Employee> employees = new ArrayList( count );
+        for (int i=0; i<count; i++) {
+            employees.add( uow2.entity( Employee.class, "fm" + i ) );
+        }
+        long start = System.nanoTime();
+        for (Employee employee : employees) {
+            employee.jap.set( 1 );
+        }
+        long first = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (Employee employee : employees) {
+            employee.jap.set( 2 );
+        }
+        long second = System.nanoTime() - start;
+        uow2.prepare();
+        start = System.nanoTime();
+        uow2.rollback();
+        long rollback = System.nanoTime() - start;
+
+        for (Employee employee : employees) {
+            assertEquals( 0, (int)employee.jap.get() );
+        }
+        log.info( "Entities: " + count + ", first modification: " + (first / count) + "ns/op"
+                + ", second modification: " + (second / count) + "ns/op"
+                + ", rollback: " + (rollback / count) + "ns/op" );
+        uow2.close();
+    }
+
+
+    /**
+     * Heap per Entity and load time of a read-only UnitOfWork compared to a normal
+     * one.
+     */
+    public void testReadOnly() throws Exception {
+        int count = 5000;
+        for (int i=0; i<count; i++) {
+            int index = i;
+            uow.createEntity( Company.class, null, (Company proto) -> {
+                proto.name.set( "company" + index );
+                proto.docs.add( "doc" + index );
+                proto.address.createValue( (Address address) -> address );
+                return proto;
+            });
+        }
+        uow.commit();
+
+        for (boolean readOnly : new boolean[] {false, true, false, true}) {
+            UnitOfWork uow2 = readOnly ? repo.newReadOnlyUnitOfWork() : repo.newUnitOfWork();
+            long before = usedHeap();
+            Timer timer = Timer.startNow();
+            List<Company> loaded = uow2.query( Company.class ).execute().stream().collect( Collectors.toList() );
+            int sum = 0;
+            for (Company company : loaded) {
+                sum += company.name.get().length() + company.docs.size() + company.moreAddresses.size()
+                        + company.employees.size() + (company.address.get() != null ? 1 : 0);
+            }
+            long elapsed = timer.elapsedTime();
+            log.info( (readOnly ? "Read-only" : "Normal") + ": heap per entity: ~" 
+                    + (usedHeap() - before) / loaded.size() + " bytes, load: " + elapsed + "ms (" + sum + ")" );
+            uow2.close();
+        }
+    }
+
+
+    /**
+     * Sequential versus parallel stream of the first run and of a subsequent run of
+     * a {@link ResultSet}.
+     */
+    public void testParallelStream() throws Exception {
+        int count = 20000;
+        for (int i=0; i<count; i++) {
+            int jap = i;
+            uow.createEntity( Employee.class, null, (Employee proto) -> {
+                proto.jap.set( jap );
+                return proto;
+            });
+        }
+        uow.commit();
+        log.info( "Cores: " + Runtime.getRuntime().availableProcessors() );
+        
+        for (boolean parallel : new boolean[] {false, true, false, true}) {
+            UnitOfWork uow2 = repo.newUnitOfWork();
+            ResultSet<Employee> rs = uow2.query( Employee.class ).execute();
+            for (String run : new String[] {"first", "replay"}) {
+                Timer timer = Timer.startNow();
+                long sum = (parallel ? rs.parallelStream() : rs.stream())
+                        .mapToLong( employee -> employee.jap.get() )
+                        .sum();
+                assertEquals( (long)count * (count - 1) / 2, sum );
+                log.info( (parallel ? "Parallel" : "Sequential") + " stream (" + run + "): " 
+                        + count + " in " + timer.elapsedTime() + "ms" );
+            }
+            uow2.close();
+        }
+    }
+
+
+    /**
+     * Throughput of {@link CompositeInfo} and {@link PropertyInfo} metadata
+     * lookups, as done by stores and queries for every entity.
+     */
+    public void testInfoLookup() throws Exception {
+        int loops = 100000;
+        for (int run=0; run<2; run++) {
+            long sum = 0;
+            Timer timer = Timer.startNow();
+            for (int i=0; i<loops; i++) {
+                CompositeInfo<Employee> info = repo.infoOf( Employee.class );
+                sum += info.getNameInStore().length();
+                sum += info.isImmutable() ? 1 : 0;
+                for (PropertyInfo prop : info.getProperties()) {
+                    sum += prop.getNameInStore().length();
+                    sum += prop.getType().hashCode();
+                    sum += prop.getMaxOccurs();
+                    sum += prop.isNullable() ? 1 : 0;
+                    sum += prop.isAssociation() ? 1 : 0;
+                    sum += prop.getDefaultValue() != null ? 1 : 0;
+                }
+            }
+            log.info( "Info lookup: " + loops + " loops in " + timer.elapsedTime() + "ms (" + sum + ")" );
+        }
+    }
+
+    
+    /**
+     * Default values: computing the value from the annotations of the field on
+     * every access, as before {@link PropertyInfo} cached it, compared to the
+     * cached value and to the property of an Entity.
+     */
+    public void testDefaultValue() throws Exception {
+        Employee employee = uow.createEntity( Employee.class, null );
+        Field field = Person.class.getDeclaredField( "firstname" );
+        PropertyInfo info = repo.infoOf( Employee.class ).getProperty( "firstname" );
+        int loops = 1000000;
+        for (int run=0; run<3; run++) {
+            long sum = 0;
+            long start = System.nanoTime();
+            for (int i=0; i<loops; i++) {
+                sum += ((String)DefaultValues.valueOf( field )).length();
+            }
+            long uncached = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i=0; i<loops; i++) {
+                sum += ((String)info.getDefaultValue()).length();
+            }
+            long cached = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i=0; i<loops; i++) {
+                sum += employee.firstname.get().length();
+            }
+            long property = System.nanoTime() - start;
+            log.info( "Default value: per access: " + (uncached / loops) + "ns/op"
+                    + ", cached: " + (cached / loops) + "ns/op"
+                    + ", property: " + (property / loops) + "ns/op (" + sum + ")" );
+        }
+    }
+
+    
+    protected long usedHeap() {
+        System.gc();
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    
     protected void logHeap() {
         System.gc();
         Runtime rt = Runtime.getRuntime();
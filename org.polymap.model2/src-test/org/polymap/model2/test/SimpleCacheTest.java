@@ -0,0 +1,299 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.cache.Cache;
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.configuration.MutableCacheEntryListenerConfiguration;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.event.CacheEntryCreatedListener;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.CacheEntryListenerException;
+import javax.cache.event.CacheEntryRemovedListener;
+import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheLoaderException;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.polymap.model2.engine.SimpleCache;
+import org.polymap.model2.engine.SimpleCache.EvictionConfiguration;
+import org.polymap.model2.engine.SimpleCacheManager;
+import org.polymap.model2.engine.SimpleCacheStatistics;
+
+/**
+ * Test of {@link SimpleCache} and {@link SimpleCacheManager}.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public class SimpleCacheTest
+        extends TestCase {
+
+    private static final Log log = LogFactory.getLog( SimpleCacheTest.class );
+
+    /** Events received by {@link RecordingListener}. */
+    protected static List<String>   events = new ArrayList();
+
+    protected SimpleCacheManager    manager;
+
+
+    public SimpleCacheTest( String name ) {
+        super( name );
+    }
+
+
+    @Override
+    protected void setUp() throws Exception {
+        manager = new SimpleCacheManager();
+        events.clear();
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception {
+        manager.close();
+    }
+
+
+    public void testManager() throws Exception {
+        Cache<String,String> cache = manager.createCache( "test", new MutableConfiguration() );
+        assertSame( cache, manager.getCache( "test" ) );
+        assertSame( manager, cache.getCacheManager() );
+        try {
+            manager.createCache( "test", new MutableConfiguration() );
+            fail( "Duplicate cache name must fail." );
+        }
+        catch (Exception e) {
+            // expected
+        }
+        cache.close();
+        assertTrue( cache.isClosed() );
+        assertNull( manager.getCache( "test" ) );
+    }
+
+
+    public void testStatistics() throws Exception {
+        Cache<String,String> cache = manager.createCache( "test",
+                new MutableConfiguration<String,String>().setStatisticsEnabled( true ) );
+        cache.put( "1", "one" );
+        assertEquals( "one", cache.get( "1" ) );
+        assertNull( cache.get( "2" ) );
+        cache.remove( "1" );
+
+        SimpleCacheStatistics stats = ((SimpleCache)cache).getStatistics();
+        log.info( "Cache: " + stats );
+        assertEquals( 1, stats.getCachePuts() );
+        assertEquals( 1, stats.getCacheHits() );
+        assertEquals( 1, stats.getCacheMisses() );
+        assertEquals( 1, stats.getCacheRemovals() );
+        assertEquals( 50f, stats.getCacheHitPercentage() );
+        // summary of the manager
+        assertEquals( 1, manager.getStatistics().getCacheHits() );
+    }
+
+
+    public void testListener() throws Exception {
+        Cache<String,String> cache = manager.createCache( "test", new MutableConfiguration() );
+        cache.registerCacheEntryListener( new MutableCacheEntryListenerConfiguration(
+                FactoryBuilder.factoryOf( RecordingListener.class ), null, true, true ) );
+        cache.put( "1", "one" );
+        cache.putIfAbsent( "1", "other" );
+        cache.remove( "1" );
+        assertEquals( "[created:1, removed:1]", events.toString() );
+    }
+
+
+    public void testPin() throws Exception {
+        AtomicInteger checked = new AtomicInteger();
+        SimpleCache<Integer,String> cache = (SimpleCache)manager.createCache( "test", new EvictionConfiguration<Integer,String>()
+                .setMaxSize( 10 )
+                .setEvictionListener( (key, value) -> checked.incrementAndGet() > 0 ) );
+        for (int i=0; i<1000; i++) {
+            cache.put( i, String.valueOf( i ) );
+            cache.pin( i );
+        }
+        assertEquals( 1000, cache.size() );
+        assertEquals( 0, checked.get() );
+
+        // pinned entries are never checked for eviction
+        for (int i=1000; i<1100; i++) {
+            cache.put( i, String.valueOf( i ) );
+        }
+        assertEquals( 1010, cache.size() );
+        assertEquals( 90, checked.get() );
+        
+        for (int i=0; i<1000; i++) {
+            cache.unpin( i );
+        }
+        assertEquals( 10, cache.size() );
+        assertEquals( 1090, checked.get() );
+    }
+
+
+    public void testSingleFlightContention() throws Exception {
+        int threads = 16, keys = 10, rounds = 100;
+        AtomicInteger loads = new AtomicInteger();
+        Cache<Integer,String> cache = manager.createCache( "test", loading( key -> {
+            loads.incrementAndGet();
+            sleep( 5 );  // simulate store access
+            return String.valueOf( key );
+        }));
+
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try {
+            Timer timer = new Timer();
+            List<Future> results = new ArrayList();
+            for (int i=0; i<threads; i++) {
+                results.add( executor.submit( () -> {
+                    for (int j=0; j<rounds; j++) {
+                        Integer key = j % keys;
+                        assertEquals( String.valueOf( key ), cache.get( key ) );
+                    }
+                    return null;
+                }));
+            }
+            for (Future result : results) {
+                result.get( 30, TimeUnit.SECONDS );
+            }
+            log.info( "Contention: " + threads + " threads, " + (threads * rounds) + " gets, "
+                    + loads.get() + " loads (" + timer.elapsedTime() + "ms)" );
+            assertEquals( keys, loads.get() );
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    public void testRecursiveLoad() throws Exception {
+        Cache<String,String>[] cache = new Cache[1];
+        cache[0] = manager.createCache( "test", loading( key -> {
+            return key.length() < 3 ? key + cache[0].get( key + "+" ) : key;
+        }));
+        assertEquals( "aa+a++", cache[0].get( "a" ) );
+        assertEquals( "a++", cache[0].get( "a++" ) );
+    }
+
+
+    public void testCyclicLoad() throws Exception {
+        // a -> b- -> b -> a- -> a; every thread breaks cycles on its own stack only
+        Map<String,String> deps = new HashMap();
+        deps.put( "a", "b-" );  deps.put( "b-", "b" );
+        deps.put( "b", "a-" );  deps.put( "a-", "a" );
+        ThreadLocal<Set<String>> stack = ThreadLocal.withInitial( () -> new HashSet() );
+        CountDownLatch started = new CountDownLatch( 2 );
+        Cache<String,String>[] cache = new Cache[1];
+        cache[0] = manager.createCache( "test", loading( key -> {
+            stack.get().add( key );
+            try {
+                if (key.length() == 1) {
+                    // make sure that both threads own their key before going on
+                    started.countDown();
+                    await( started );
+                }
+                String dep = deps.get( key );
+                return key + (stack.get().contains( dep ) ? "" : cache[0].get( dep ));
+            }
+            finally {
+                stack.get().remove( key );
+            }
+        }));
+
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+        try {
+            Future<String> a = executor.submit( () -> cache[0].get( "a" ) );
+            Future<String> b = executor.submit( () -> cache[0].get( "b" ) );
+            String resultA = a.get( 10, TimeUnit.SECONDS );
+            String resultB = b.get( 10, TimeUnit.SECONDS );
+            log.info( "Cyclic: a=" + resultA + ", b=" + resultB );
+            assertEquals( resultA, cache[0].get( "a" ) );
+            assertEquals( resultB, cache[0].get( "b" ) );
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    protected <K,V> MutableConfiguration<K,V> loading( Function<K,V> loader ) {
+        return new MutableConfiguration<K,V>().setCacheLoaderFactory( () -> new CacheLoader<K,V>() {
+            @Override
+            public V load( K key ) throws CacheLoaderException {
+                return loader.apply( key );
+            }
+            @Override
+            public Map<K,V> loadAll( Iterable<? extends K> keys ) throws CacheLoaderException {
+                throw new RuntimeException( "not yet implemented." );
+            }
+        });
+    }
+
+
+    protected static void sleep( long millis ) {
+        try {
+            Thread.sleep( millis );
+        }
+        catch (InterruptedException e) {
+            throw new RuntimeException( e );
+        }
+    }
+
+
+    protected static void await( CountDownLatch latch ) {
+        try {
+            latch.await( 10, TimeUnit.SECONDS );
+        }
+        catch (Exception e) {
+            throw new RuntimeException( e );
+        }
+    }
+
+
+    /**
+     * Records created/removed events in {@link SimpleCacheTest#events}.
+     */
+    public static class RecordingListener
+            implements CacheEntryCreatedListener<String,String>, CacheEntryRemovedListener<String,String> {
+
+        @Override
+        public void onCreated( Iterable<CacheEntryEvent<? extends String,? extends String>> evs )
+                throws CacheEntryListenerException {
+            evs.forEach( ev -> events.add( "created:" + ev.getKey() ) );
+        }
+
+        @Override
+        public void onRemoved( Iterable<CacheEntryEvent<? extends String,? extends String>> evs )
+                throws CacheEntryListenerException {
+            evs.forEach( ev -> events.add( "removed:" + ev.getKey() ) );
+        }
+    }
+
+}
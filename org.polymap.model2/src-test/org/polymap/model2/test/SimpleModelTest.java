@@ -14,13 +14,23 @@
  */
 package org.polymap.model2.test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import javax.cache.CacheManager;
+
 import junit.framework.TestCase;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.google.common.collect.Lists;
+
 import org.polymap.model2.query.ResultSet;
 import org.polymap.model2.runtime.EntityRepository;
+import org.polymap.model2.runtime.EntityRuntimeContext.EntityStatus;
 import org.polymap.model2.runtime.ModelRuntimeException;
 import org.polymap.model2.runtime.UnitOfWork;
 import org.polymap.model2.test.Employee.Rating;
@@ -111,6 +121,12 @@ public abstract class SimpleModelTest
         assertEquals( "", employee.defaultString.get() );        
         assertEquals( 0, (int)employee.jap.get() );
         assertEquals( "Ulli", employee.firstname.get() );
+        
+        // mutable default values are not shared
+        Date date = employee.defaultDate.get();
+        assertEquals( new Date( 0 ), date );
+        date.setTime( 1000 );
+        assertEquals( new Date( 0 ), employee.defaultDate.get() );
     }
     
 
@@ -187,9 +203,7 @@ public abstract class SimpleModelTest
         assertNotNull( trackable );
         assertSame( employee.state(), trackable.state() );
 
-        trackable = employee.as( TrackableMixin.class ).get();
-        assertNotNull( trackable );
-        assertSame( employee.state(), trackable.state() );
+        assertSame( trackable, employee.as( TrackableMixin.class ).get() );
         
         trackable.track.set( 10 );
         log.info( "Computed property: " + trackable.computed.get() );
@@ -230,4 +244,240 @@ public abstract class SimpleModelTest
         assertEquals( setCount+1, InvocationCountConcern.setCount.get() );        
     }
     
+    /**
+     * One instance of a {@link StatelessConcern} is shared by all Entities; it
+     * gets the context of the Entity with every invocation.
+     */
+    public void testStatelessConcern() throws Exception {
+        Employee employee1 = uow.createEntity( Employee.class, null );
+        // the concern is created with the property slots of the type
+        int constructed = StatelessConcern.constructed.get();
+        StatelessConcern.instances.clear();
+        StatelessConcern.entities.clear();
+
+        Employee employee2 = uow.createEntity( Employee.class, null );
+        employee1.rating.set( Rating.good );
+        employee2.rating.set( Rating.topNotch );
+        assertEquals( Rating.good, employee1.rating.get() );
+        assertEquals( Rating.topNotch, employee2.rating.get() );
+        
+        assertEquals( constructed, StatelessConcern.constructed.get() );
+        assertEquals( 4, StatelessConcern.instances.size() );
+        for (StatelessConcern concern : StatelessConcern.instances) {
+            assertSame( StatelessConcern.instances.get( 0 ), concern );
+        }
+        assertEquals( Arrays.asList( employee1, employee2, employee1, employee2 ), StatelessConcern.entities );
+    }
+    
+    
+    /**
+     * A concern with a (EntityRuntimeContext,PropertyBase) constructor is
+     * initialized via this constructor.
+     */
+    public void testConstructorConcern() throws Exception {
+        int constructed = ContextConcern.constructed.get();
+        ContextConcern.entities.clear();
+
+        Employee employee1 = uow.createEntity( Employee.class, null );
+        Employee employee2 = uow.createEntity( Employee.class, null );
+        employee1.nonNullable.set( "1" );
+        employee2.nonNullable.set( "2" );
+        assertEquals( "1", employee1.nonNullable.get() );
+        
+        assertEquals( constructed + 2, ContextConcern.constructed.get() );
+        assertEquals( Arrays.asList( employee1, employee2, employee1 ), ContextConcern.entities );
+    }
+    
+    
+    /**
+     * The Entity cache of a UnitOfWork that is never closed must not stay
+     * registered with the CacheManager of the repository.
+     */
+    public void testUnclosedUnitOfWork() throws Exception {
+        Employee employee = uow.createEntity( Employee.class, null );
+        uow.commit();
+
+        CacheManager cacheManager = repo.getConfig().cacheManager.get();
+        List<String> before = Lists.newArrayList( cacheManager.getCacheNames() );
+        for (int i=0; i<100; i++) {
+            UnitOfWork uow2 = repo.newUnitOfWork();
+            assertNotNull( uow2.entity( Employee.class, employee.id() ) );
+        }
+        assertEquals( before, Lists.newArrayList( cacheManager.getCacheNames() ) );
+    }
+    
+    
+    /**
+     * Creates a new UnitOfWork with the given Entity cache size. The configuration
+     * of the repository, which is shared by the tests, is not changed.
+     */
+    protected UnitOfWork newUnitOfWork( int entityCacheSize ) {
+        int previous = repo.getConfig().entityCacheSize.get();
+        repo.getConfig().entityCacheSize.set( entityCacheSize );
+        try {
+            return repo.newUnitOfWork();
+        }
+        finally {
+            repo.getConfig().entityCacheSize.set( previous );
+        }
+    }
+
+
+    public void testBoundedEntityCache() throws Exception {
+        for (int i=0; i<100; i++) {
+            uow.createEntity( Employee.class, "bounded" + i, (Employee proto) -> {
+                proto.jap.set( 0 );
+                return proto;
+            });
+        }
+        uow.commit();
+
+        UnitOfWork uow2 = newUnitOfWork( 10 );
+        try {
+            // modified Entity is pinned
+            Employee modified = uow2.entity( Employee.class, "bounded0" );
+            modified.jap.set( 1 );
+            Employee first = uow2.entity( Employee.class, "bounded1" );
+            for (int i=2; i<100; i++) {
+                assertEquals( 0, (int)uow2.entity( Employee.class, "bounded" + i ).jap.get() );
+            }
+            assertSame( modified, uow2.entity( Employee.class, "bounded0" ) );
+            assertEquals( 1, (int)modified.jap.get() );
+            
+            // unmodified Entity is evicted, modifications are rejected
+            try {
+                first.jap.set( 2 );
+                fail( "Entity should be evicted." );
+            }
+            catch (IllegalStateException e) {
+            }
+            Employee reloaded = uow2.entity( Employee.class, "bounded1" );
+            assertNotSame( first, reloaded );
+            assertEquals( 0, (int)reloaded.jap.get() );
+            
+            uow2.commit();
+        }
+        finally {
+            uow2.close();
+        }
+        UnitOfWork uow3 = repo.newUnitOfWork();
+        assertEquals( 1, (int)uow3.entity( Employee.class, "bounded0" ).jap.get() );
+        uow3.close();
+    }
+
+
+    public void testBoundedEntityCacheCreate() throws Exception {
+        UnitOfWork uow2 = newUnitOfWork( 100 );
+        try {
+            // created Entities are pinned, creating is not slowed down by the bound
+            Timer timer = Timer.startNow();
+            List<Employee> created = new ArrayList( 10000 );
+            for (int i=0; i<10000; i++) {
+                created.add( uow2.createEntity( Employee.class, "created" + i, null ) );
+            }
+            log.info( "Created: " + created.size() + " in " + timer.elapsedTime() + "ms" );
+            for (Employee employee : created) {
+                assertSame( employee, uow2.entity( Employee.class, employee.id() ) );
+            }
+            
+            // committed Entities are evictable again
+            uow2.commit();
+            int evicted = 0;
+            for (Employee employee : created) {
+                try {
+                    employee.status();
+                }
+                catch (IllegalStateException e) {
+                    evicted ++;
+                }
+            }
+            assertEquals( 10000 - 100, evicted );
+        }
+        finally {
+            uow2.close();
+        }
+    }
+
+
+    public void testEntities() throws Exception {
+        for (int i=0; i<5; i++) {
+            uow.createEntity( Employee.class, "bulk" + i, null );
+        }
+        uow.commit();
+
+        UnitOfWork uow2 = repo.newUnitOfWork();
+        try {
+            Employee loaded = uow2.entity( Employee.class, "bulk3" );
+            uow2.removeEntity( uow2.entity( Employee.class, "bulk4" ) );
+
+            List<Employee> result = uow2.entities( Employee.class,
+                    Arrays.asList( "bulk2", "unknown", "bulk0", "bulk3", "bulk4", "bulk2" ) );
+            assertEquals( 6, result.size() );
+            assertEquals( "bulk2", result.get( 0 ).id() );
+            assertNull( result.get( 1 ) );
+            assertEquals( "bulk0", result.get( 2 ).id() );
+            assertSame( loaded, result.get( 3 ) );
+            assertNull( result.get( 4 ) );
+            assertSame( result.get( 0 ), result.get( 5 ) );
+            assertSame( result.get( 0 ), uow2.entity( Employee.class, "bulk2" ) );
+        }
+        finally {
+            uow2.close();
+        }
+    }
+
+
+    public void testRollback() throws Exception {
+        for (int i=0; i<3; i++) {
+            uow.createEntity( Employee.class, "rollback" + i, (Employee proto) -> {
+                proto.jap.set( 0 );
+                return proto;
+            });
+        }
+        uow.commit();
+
+        UnitOfWork uow2 = repo.newUnitOfWork();
+        try {
+            Employee clean = uow2.entity( Employee.class, "rollback0" );
+            Employee modified = uow2.entity( Employee.class, "rollback1" );
+            modified.jap.set( 1 );
+            modified.jap.set( 2 );
+            Employee removed = uow2.entity( Employee.class, "rollback2" );
+            uow2.removeEntity( removed );
+            Employee created = uow2.createEntity( Employee.class, "rollbackNew", null );
+
+            uow2.prepare();
+            uow2.rollback();
+
+            // unmodified Entity is kept
+            assertSame( clean, uow2.entity( Employee.class, "rollback0" ) );
+            assertEquals( EntityStatus.LOADED, clean.status() );
+            // modified Entity is restored from before-image
+            assertSame( modified, uow2.entity( Employee.class, "rollback1" ) );
+            assertEquals( EntityStatus.LOADED, modified.status() );
+            assertEquals( 0, (int)modified.jap.get() );
+            // removed Entity is back
+            assertSame( removed, uow2.entity( Employee.class, "rollback2" ) );
+            assertEquals( EntityStatus.LOADED, removed.status() );
+            // created Entity is gone
+            try {
+                created.jap.set( 1 );
+                fail( "Entity should be evicted." );
+            }
+            catch (IllegalStateException e) {
+            }
+            assertNull( uow2.entity( Employee.class, "rollbackNew" ) );
+
+            // modify again after rollback
+            modified.jap.set( 3 );
+            uow2.commit();
+        }
+        finally {
+            uow2.close();
+        }
+        UnitOfWork uow3 = repo.newUnitOfWork();
+        assertEquals( 3, (int)uow3.entity( Employee.class, "rollback1" ).jap.get() );
+        uow3.close();
+    }
+
 }
@@ -23,6 +23,7 @@ import static org.polymap.model2.query.Expressions.or;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Spliterator;
 import java.util.stream.Collectors;
 
 import junit.framework.TestCase;
@@ -107,6 +108,76 @@ public abstract class SimpleQueryTest
     }
 
     
+    /**
+     * Paging of results with uncommitted changes merged.
+     */
+    public void testPaging() throws Exception {
+        createEntities();
+        uow.commit();
+        ulli.firstname.set( "Ulrike" );
+        uow.createEntity( Employee.class, null, (Employee proto) -> {
+            proto.firstname.set( "Jan" );
+            return proto;
+        });
+        assertEquals( 3, uow.query( Employee.class ).execute().size() );
+        
+        List<Object> ids = new ArrayList();
+        for (int i=0; i<4; i++) {
+            ResultSet<Employee> rs = uow.query( Employee.class ).firstResult( i ).maxResults( 1 ).execute();
+            assertEquals( i < 3 ? 1 : 0, rs.size() );
+            rs.forEach( employee -> ids.add( employee.id() ) );
+        }
+        assertEquals( 3, ids.stream().distinct().count() );
+        
+        assertEquals( 2, uow.query( Employee.class ).maxResults( 2 ).execute().size() );
+        assertEquals( 2, uow.query( Employee.class ).firstResult( 1 ).execute().size() );
+        assertEquals( 1, uow.query( Employee.class )
+                .where( eq( Expressions.template( Employee.class, repo ).firstname, "Ulrike" ) )
+                .firstResult( 0 ).maxResults( 1 ).execute().size() );
+    }
+
+    
+    /**
+     * Sequential and parallel streams of the first and of subsequent runs.
+     */
+    public void testStreams() throws Exception {
+        int count = 1000;
+        for (int i=0; i<count; i++) {
+            int jap = i;
+            uow.createEntity( Employee.class, null, (Employee proto) -> {
+                proto.jap.set( jap );
+                return proto;
+            });
+        }
+        uow.commit();
+        int expected = count * (count - 1) / 2;
+
+        ResultSet<Employee> rs = uow.query( Employee.class ).execute();
+        assertTrue( rs.spliterator().hasCharacteristics( Spliterator.SIZED ) );
+        assertEquals( expected, rs.parallelStream().mapToInt( employee -> employee.jap.get() ).sum() );
+        assertEquals( expected, rs.parallelStream().mapToInt( employee -> employee.jap.get() ).sum() );
+        assertEquals( count, rs.stream().count() );
+        assertEquals( count, rs.size() );
+
+        // partial first run, then parallel
+        rs = uow.query( Employee.class ).execute();
+        assertTrue( rs.stream().findFirst().isPresent() );
+        List<Employee> results = rs.parallelStream().collect( Collectors.toList() );
+        assertEquals( count, results.size() );
+        assertEquals( Iterables.size( rs ), results.size() );
+        assertEquals( results, rs.stream().collect( Collectors.toList() ) );
+        
+        // uncommitted changes merged
+        uow.createEntity( Employee.class, null, (Employee proto) -> {
+            proto.jap.set( count );
+            return proto;
+        });
+        rs = uow.query( Employee.class ).execute();
+        assertEquals( expected + count, rs.parallelStream().mapToInt( employee -> employee.jap.get() ).sum() );
+        assertEquals( count + 1, rs.size() );
+    }
+
+    
     protected void createEntities() {
         ulli = uow.createEntity( Employee.class, null, new ValueInitializer<Employee>() {
             public Employee initialize( Employee proto ) throws Exception {
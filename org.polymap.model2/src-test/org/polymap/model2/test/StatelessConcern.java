@@ -0,0 +1,64 @@
+/* 
+ * polymap.org
+ * Copyright (C) 2014, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3.0 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.polymap.model2.Entity;
+import org.polymap.model2.StatelessPropertyConcern;
+import org.polymap.model2.runtime.EntityRuntimeContext;
+import org.polymap.model2.store.StoreProperty;
+
+/**
+ * Records the instances and the Entities it is invoked for. Stateless: one
+ * instance per property is shared by all entities.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public class StatelessConcern
+        implements StatelessPropertyConcern {
+
+    public static AtomicInteger             constructed = new AtomicInteger();
+    
+    /** The concern instances, one per invocation. */
+    public static List<StatelessConcern>    instances = new CopyOnWriteArrayList();
+    
+    /** The Entities, one per invocation. */
+    public static List<Entity>              entities = new CopyOnWriteArrayList();
+
+    public StatelessConcern() {
+        constructed.incrementAndGet();
+    }
+
+    protected void invoked( EntityRuntimeContext context ) {
+        instances.add( this );
+        entities.add( context.getCompositePart( Entity.class ) );
+    }
+    
+    @Override
+    public Object get( EntityRuntimeContext context, StoreProperty delegate ) {
+        invoked( context );
+        return delegate.get();
+    }
+
+    @Override
+    public void set( EntityRuntimeContext context, StoreProperty delegate, Object value ) {
+        invoked( context );
+        delegate.set( value );
+    }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.cache.configuration.FactoryBuilder;
+import javax.cache.expiry.CreatedExpiryPolicy;
+import javax.cache.expiry.Duration;
+
+import junit.framework.TestCase;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.polymap.model2.engine.SimpleCache;
+import org.polymap.model2.engine.SimpleCache.EvictionConfiguration;
+import org.polymap.model2.engine.SimpleCacheManager;
+import org.polymap.model2.engine.TinyLfuCache;
+import org.polymap.model2.engine.TinyLfuCache.TinyLfuConfiguration;
+import org.polymap.model2.engine.TinyLfuCacheManager;
+
+/**
+ * Test of {@link TinyLfuCache} and {@link TinyLfuCacheManager}.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public class TinyLfuCacheTest
+        extends TestCase {
+
+    private static final Log log = LogFactory.getLog( TinyLfuCacheTest.class );
+
+    protected TinyLfuCacheManager   manager;
+
+
+    public TinyLfuCacheTest( String name ) {
+        super( name );
+    }
+
+
+    @Override
+    protected void setUp() throws Exception {
+        manager = new TinyLfuCacheManager();
+    }
+
+
+    @Override
+    protected void tearDown() throws Exception {
+        manager.close();
+    }
+
+
+    protected SimpleCache<Integer,String> createCache( EvictionConfiguration<Integer,String> config ) {
+        return (SimpleCache)manager.createCache( "test", config );
+    }
+
+
+    public void testBounded() throws Exception {
+        SimpleCache<Integer,String> cache = createCache( new EvictionConfiguration().setMaxSize( 100 ) );
+        assertTrue( cache instanceof TinyLfuCache );
+        for (int i=0; i<1000; i++) {
+            cache.put( i, String.valueOf( i ) );
+        }
+        assertEquals( 100, cache.size() );
+    }
+
+
+    public void testFrequentSurvivesScan() throws Exception {
+        SimpleCache<Integer,String> cache = createCache( new EvictionConfiguration().setMaxSize( 100 ) );
+        for (int i=0; i<10; i++) {
+            cache.put( i, String.valueOf( i ) );
+        }
+        for (int round=0; round<20; round++) {
+            for (int i=0; i<10; i++) {
+                assertNotNull( cache.get( i ) );
+            }
+        }
+        // one-time accesses
+        for (int i=1000; i<2000; i++) {
+            cache.put( i, String.valueOf( i ) );
+        }
+        for (int i=0; i<10; i++) {
+            assertNotNull( "Frequent entry evicted: " + i, cache.getIfPresent( i ) );
+        }
+    }
+
+
+    public void testWeight() throws Exception {
+        SimpleCache<Integer,String> cache = createCache( new TinyLfuConfiguration<Integer,String>()
+                .setMaxWeight( 100, (key, value) -> value.length() ) );
+        for (int i=0; i<100; i++) {
+            cache.put( i, "0123456789" );
+        }
+        assertEquals( 10, cache.size() );
+    }
+
+
+    public void testVeto() throws Exception {
+        SimpleCache<Integer,String> cache = createCache( new EvictionConfiguration<Integer,String>()
+                .setMaxSize( 10 )
+                .setEvictionListener( (key, value) -> key != 0 ) );
+        for (int i=0; i<100; i++) {
+            cache.put( i, String.valueOf( i ) );
+        }
+        assertEquals( "0", cache.getIfPresent( 0 ) );
+        assertEquals( 10, cache.size() );
+    }
+
+
+    public void testPin() throws Exception {
+        AtomicInteger checked = new AtomicInteger();
+        SimpleCache<Integer,String> cache = createCache( new EvictionConfiguration<Integer,String>()
+                .setMaxSize( 10 )
+                .setEvictionListener( (key, value) -> checked.incrementAndGet() > 0 ) );
+        for (int i=0; i<1000; i++) {
+            cache.put( i, String.valueOf( i ) );
+            cache.pin( i );
+        }
+        assertEquals( 1000, cache.size() );
+        assertEquals( 0, checked.get() );
+
+        // pinned entries are not in the policy
+        for (int i=1000; i<1100; i++) {
+            cache.put( i, String.valueOf( i ) );
+        }
+        assertEquals( 1010, cache.size() );
+        assertEquals( 90, checked.get() );
+
+        for (int i=0; i<1000; i++) {
+            cache.unpin( i );
+        }
+        assertEquals( 10, cache.size() );
+        assertEquals( 1090, checked.get() );
+    }
+
+
+    public void testExpiry() throws Exception {
+        EvictionConfiguration<Integer,String> config = new EvictionConfiguration();
+        config.setExpiryPolicyFactory( FactoryBuilder.factoryOf(
+                new CreatedExpiryPolicy( new Duration( TimeUnit.MILLISECONDS, 50 ) ) ) );
+        SimpleCache<Integer,String> cache = createCache( config );
+        cache.put( 1, "one" );
+        assertEquals( "one", cache.get( 1 ) );
+        Thread.sleep( 100 );
+        assertNull( cache.get( 1 ) );
+        assertEquals( 0, cache.size() );
+    }
+
+
+    /**
+     * Hit rate and time of {@link SimpleCache} and {@link TinyLfuCache} for a
+     * zipfian access trace, as caused by reference Entities that are used by
+     * nearly every request.
+     */
+    public void testZipfianTrace() throws Exception {
+        int keys = 10000, cacheSize = 500, accesses = 500000;
+        int[] trace = zipfian( keys, 0.99, accesses, new Random( 42 ) );
+
+        double simple = replay( new SimpleCacheManager(), cacheSize, trace );
+        double tinyLfu = replay( manager, cacheSize, trace );
+        assertTrue( "W-TinyLFU hit rate: " + tinyLfu + " < " + simple, tinyLfu > simple );
+    }
+
+
+    protected double replay( SimpleCacheManager cacheManager, int cacheSize, int[] trace ) {
+        AtomicInteger loads = new AtomicInteger();
+        SimpleCache<Integer,Integer> cache = (SimpleCache)cacheManager.createCache( "trace",
+                new EvictionConfiguration<Integer,Integer>().setMaxSize( cacheSize ) );
+        Timer timer = Timer.startNow();
+        for (int key : trace) {
+            cache.get( key, k -> {
+                loads.incrementAndGet();
+                return k;
+            });
+        }
+        double hitRate = 1d - (double)loads.get() / trace.length;
+        log.info( cacheManager.getClass().getSimpleName() + ": hit rate: " + (int)(hitRate * 100) + "%, "
+                + trace.length + " accesses in " + timer.elapsedTime() + "ms" );
+        cache.close();
+        return hitRate;
+    }
+
+
+    /**
+     * Access trace of the given number of keys, the probability of key k is
+     * proportional to 1/(k+1)^exponent.
+     */
+    protected int[] zipfian( int keys, double exponent, int length, Random random ) {
+        double[] cumulative = new double[keys];
+        double sum = 0;
+        for (int k=0; k<keys; k++) {
+            sum += 1d / Math.pow( k + 1, exponent );
+            cumulative[k] = sum;
+        }
+        int[] result = new int[length];
+        for (int i=0; i<length; i++) {
+            int index = Arrays.binarySearch( cumulative, random.nextDouble() * sum );
+            result[i] = index >= 0 ? index : Math.min( -index - 1, keys - 1 );
+        }
+        return result;
+    }
+
+}
@@ -17,6 +17,7 @@ package org.polymap.model2;
 import java.util.Collection;
 import java.util.Iterator;
 
+import org.polymap.model2.runtime.EntityRuntimeContext;
 import org.polymap.model2.runtime.ValueInitializer;
 
 /**
@@ -28,6 +29,13 @@ public abstract class CollectionPropertyConcernAdapter<T>
         extends PropertyConcernBase<T>
         implements CollectionPropertyConcern<T> {
 
+    protected CollectionPropertyConcernAdapter() {
+    }
+
+    protected CollectionPropertyConcernAdapter( EntityRuntimeContext context, PropertyBase delegate ) {
+        super( context, delegate );
+    }
+
     protected CollectionProperty<T> delegate() {
         return (CollectionProperty<T>)delegate;
     }
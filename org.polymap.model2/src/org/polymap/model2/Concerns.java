@@ -29,6 +29,10 @@ import org.polymap.model2.runtime.ModelRuntimeException;
  * A concern must implement {@link Property} and/or {@link CollectionProperty},
  * depending on what kind of property it is a concern of. Wrong type of concern
  * results in a {@link ModelRuntimeException}.
+ * <p/>
+ * A concern is either a {@link PropertyConcernBase}, instantiated for every
+ * property of every entity, or a {@link StatelessPropertyConcern}, instantiated
+ * once per property and shared by all entities.
  * 
  * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
  */
@@ -37,6 +41,6 @@ import org.polymap.model2.runtime.ModelRuntimeException;
 @Documented
 public @interface Concerns {
 
-    public Class<? extends PropertyConcernBase>[] value();
+    public Class<? extends Concern>[] value();
     
 }
@@ -24,8 +24,12 @@ import java.lang.annotation.Target;
  * Denotes that a {@link Property} returnes default value if its value is null.
  * <ul>
  * <li>String: ""</li>
- * <li>Number: 0</li>
+ * <li>Number (Integer, Long, Short, Byte, Double, Float, BigInteger, BigDecimal): 0</li>
+ * <li>Boolean: false</li>
  * <li>Date: new Date( 0 )</li>
+ * <li>java.time (LocalDate, LocalTime, LocalDateTime, Instant, OffsetDateTime,
+ * ZonedDateTime): the epoch, UTC</li>
+ * <li>Duration: {@link java.time.Duration#ZERO}</li>
  * <li>Collection: empty collection</li>
  * </ul>  
  *
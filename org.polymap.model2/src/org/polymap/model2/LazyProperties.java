@@ -0,0 +1,42 @@
+/* 
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.polymap.model2.runtime.EntityRepository;
+
+/**
+ * Specifies that the properties of a {@link Composite} are created on first access
+ * of the property field instead of when the instance is loaded. This reduces
+ * allocation and heap per instance for types with many properties if just some of
+ * them are accessed.
+ * <p/>
+ * Lazy property creation can also be enabled for all types of a repository via
+ * {@link EntityRepository.Configuration#lazyProperties}.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+@Retention( RetentionPolicy.RUNTIME )
+@Target( { ElementType.TYPE } )
+@Inherited
+@Documented
+public @interface LazyProperties {
+}
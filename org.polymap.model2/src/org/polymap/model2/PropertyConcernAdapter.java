@@ -14,6 +14,7 @@
  */
 package org.polymap.model2;
 
+import org.polymap.model2.runtime.EntityRuntimeContext;
 import org.polymap.model2.runtime.ValueInitializer;
 
 /**
@@ -25,6 +26,13 @@ public abstract class PropertyConcernAdapter<T>
         extends PropertyConcernBase<T>
         implements PropertyConcern<T> {
 
+    protected PropertyConcernAdapter() {
+    }
+
+    protected PropertyConcernAdapter( EntityRuntimeContext context, PropertyBase delegate ) {
+        super( context, delegate );
+    }
+
     protected Property<T> delegate() {
         return (Property<T>)delegate;
     }
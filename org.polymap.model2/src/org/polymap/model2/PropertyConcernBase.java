@@ -30,7 +30,7 @@ import org.polymap.model2.runtime.PropertyInfo;
  */
 public abstract class PropertyConcernBase<T>
         extends AbstractCollection<T>
-        implements PropertyBase<T> {
+        implements PropertyBase<T>, Concern {
 
     protected EntityRuntimeContext      context;
     
@@ -40,6 +40,20 @@ public abstract class PropertyConcernBase<T>
     protected PropertyBase              delegate;
 
     
+    protected PropertyConcernBase() {
+    }
+
+    
+    /**
+     * Sub-classes that provide a constructor with this signature are initialized
+     * via this constructor instead of setting the fields after instantiation.
+     */
+    protected PropertyConcernBase( EntityRuntimeContext context, PropertyBase delegate ) {
+        this.context = context;
+        this.delegate = delegate;
+    }
+
+    
     @Override
     public PropertyInfo info() {
         return delegate.info();
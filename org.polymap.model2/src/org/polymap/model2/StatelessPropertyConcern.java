@@ -0,0 +1,54 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2;
+
+import org.polymap.model2.runtime.EntityRuntimeContext;
+import org.polymap.model2.store.StoreProperty;
+
+/**
+ * A concern of a {@link Property} of primitive type that does not hold any
+ * per-entity state.
+ * <p/>
+ * In contrast to {@link PropertyConcernBase} just one instance of a stateless
+ * concern is created per property and {@link org.polymap.model2.runtime.EntityRepository}.
+ * This instance is shared by all entities. The property implementation invokes it
+ * directly, passing the context of the entity and the {@link StoreProperty} of the
+ * property; no object is created per entity. The concern is invoked after the
+ * constraints of the property ({@link Nullable}, {@link Immutable}) are checked and
+ * before the {@link DefaultValue} is applied, so it sees the values as stored. Just
+ * one stateless concern per property is supported; it is invoked inside all
+ * {@link PropertyConcernBase} concerns. Implementations have to be thread save.
+ * <p/>
+ * The default implementations of all methods just call the delegate.
+ *
+ * @see Concerns
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public interface StatelessPropertyConcern<T>
+        extends Concern {
+
+    public default T get( EntityRuntimeContext context, StoreProperty<T> delegate ) {
+        return delegate.get();
+    }
+
+    public default T createValue( EntityRuntimeContext context, StoreProperty<T> delegate ) {
+        return delegate.createValue( null );
+    }
+
+    public default void set( EntityRuntimeContext context, StoreProperty<T> delegate, T value ) {
+        delegate.set( value );
+    }
+
+}
@@ -0,0 +1,370 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3.0 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.polymap.model2.Entity;
+import org.polymap.model2.query.ResultSet;
+import org.polymap.model2.runtime.UnitOfWork;
+
+/**
+ * {@link ResultSet} of {@link UnitOfWorkImpl} and {@link UnitOfWorkNested}. The
+ * first run consumes the {@link Ref}s of the query result; the ids are cached for
+ * subsequent runs, which load the Entities in batches via
+ * {@link UnitOfWork#entities(Class, java.util.Collection)}.
+ * <p/>
+ * The {@link #spliterator()} splits the result into chunks of {@link Ref}s or
+ * cached ids. The Entities of a chunk are built by the thread that processes the
+ * chunk, so {@link #parallelStream()} builds Entities concurrently. This relies
+ * on the UnitOfWork being safe for concurrent reads.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+class CachingResultSet<T extends Entity>
+        implements ResultSet<T> {
+
+    /**
+     * An Entity of the first run of the result, built on demand.
+     */
+    public static class Ref<T>
+            implements Supplier<T> {
+
+        private Object          id;
+
+        private Supplier<T>     builder;
+
+        public Ref( Object id, Supplier<T> builder ) {
+            this.id = id;
+            this.builder = builder;
+        }
+
+        public Object id() {
+            return id;
+        }
+
+        @Override
+        public T get() {
+            return builder.get();
+        }
+    }
+
+
+    // instance *******************************************
+
+    private UnitOfWork              uow;
+
+    private Class<T>                entityClass;
+
+    private int                     batchSize;
+
+    /** null after one full run */
+    private Iterator<Ref<T>>        results;
+
+    /** The size of the result as reported by the store, or null if not known. */
+    private IntSupplier             resultSize;
+
+    private Runnable                closer;
+
+    private List<Object>            cachedIds = new ArrayList( 1024 );
+
+    /** The cached cachedSize; not synchronized */
+    private int                     cachedSize = -1;
+
+
+    /**
+     *
+     * @param uow The UnitOfWork to build the Entities with.
+     * @param entityClass
+     * @param results The first run of the result.
+     * @param resultSize The size of the result, or null if it is not known without
+     *        iterating the result.
+     * @param batchSize The number of Entities to load at once.
+     * @param closer Closes the underlying result.
+     */
+    public CachingResultSet( UnitOfWork uow, Class<T> entityClass, Iterator<Ref<T>> results,
+            IntSupplier resultSize, int batchSize, Runnable closer ) {
+        this.uow = uow;
+        this.entityClass = entityClass;
+        this.results = results;
+        this.resultSize = resultSize;
+        this.batchSize = batchSize;
+        this.closer = closer;
+    }
+
+
+    /**
+     * Consumes the next {@link Ref} of the first run.
+     *
+     * @return The next Ref, or null if the first run is done.
+     */
+    protected Ref<T> nextRef() {
+        if (results != null && results.hasNext()) {
+            Ref<T> ref = results.next();
+            cachedIds.add( ref.id() );
+            return ref;
+        }
+        else {
+            closer.run();
+            results = null;
+            return null;
+        }
+    }
+
+
+    /**
+     * The size of the result if it is known without iterating, or -1.
+     */
+    protected int knownSize() {
+        return cachedSize != -1
+                ? cachedSize
+                : results == null
+                        ? cachedIds.size()
+                        : resultSize != null ? (cachedSize = resultSize.getAsInt()) : -1;
+    }
+
+
+    @Override
+    public Iterator<T> iterator() {
+        return new Iterator<T>() {
+            int index = -1;
+            /** The current batch of replayed {@link #cachedIds}. */
+            List<T> batch;
+            int batchStart;
+            /** The next Entity of the first run. */
+            Ref<T> next;
+            @Override
+            public boolean hasNext() {
+                if (index+1 < cachedIds.size() || next != null) {
+                    return true;
+                }
+                synchronized (CachingResultSet.this) {
+                    // another iterator may have consumed results in the meantime
+                    if (index+1 < cachedIds.size()) {
+                        return true;
+                    }
+                    next = nextRef();
+                    return next != null;
+                }
+            }
+            @Override
+            public T next() {
+                if (next != null) {
+                    ++index;
+                    T result = next.get();
+                    next = null;
+                    return result;
+                }
+                else if (++index < cachedIds.size()) {
+                    if (batch == null || index >= batchStart + batch.size()) {
+                        batchStart = index;
+                        int batchEnd = Math.min( index + batchSize, cachedIds.size() );
+                        batch = uow.entities( entityClass, new ArrayList( cachedIds.subList( index, batchEnd ) ) );
+                    }
+                    return batch.get( index - batchStart );
+                }
+                else {
+                    throw new IllegalStateException( "No more elements. Call hasNext() before next()." );
+                }
+            }
+        };
+    }
+
+
+    @Override
+    public int size() {
+        if (knownSize() == -1) {
+            // just the ids, don't build the Entities
+            synchronized (this) {
+                while (nextRef() != null) {
+                }
+            }
+        }
+        return cachedSize = knownSize();
+    }
+
+
+    @Override
+    public Spliterator<T> spliterator() {
+        return new RootSpliterator();
+    }
+
+
+    @Override
+    public Stream<T> stream() {
+        return StreamSupport.stream( spliterator(), false );
+    }
+
+
+    @Override
+    public Stream<T> parallelStream() {
+        return StreamSupport.stream( spliterator(), true );
+    }
+
+
+    @Override
+    public void close() {
+        closer.run();
+        results = null;
+        cachedIds = null;
+    }
+
+
+    protected List<T> build( List<Ref<T>> refs ) {
+        return refs.stream().map( ref -> ref.get() ).collect( Collectors.toList() );
+    }
+
+
+    protected List<T> load( List<Object> ids ) {
+        return uow.entities( entityClass, ids );
+    }
+
+
+    /**
+     * Hands out chunks of the cached ids and then chunks of the first run. The
+     * chunk size grows by {@link #batchSize} with every split, so that a short
+     * sequential run does not consume more of the first run than needed.
+     */
+    protected class RootSpliterator
+            implements Spliterator<T> {
+
+        /** The number of {@link #cachedIds} handed out so far. */
+        private int             index;
+
+        private int             chunkSize = batchSize;
+
+        /** The chunk that is sequentially processed by {@link #tryAdvance(Consumer)}. */
+        private Spliterator<T>  current;
+
+        @Override
+        public Spliterator<T> trySplit() {
+            synchronized (CachingResultSet.this) {
+                int cached = cachedIds.size();
+                if (index < cached) {
+                    int end = cached - index > 2 * chunkSize
+                            ? index + (cached - index) / 2
+                            : cached;
+                    List<Object> ids = new ArrayList( cachedIds.subList( index, end ) );
+                    index = end;
+                    return new ChunkSpliterator<Object>( ids, CachingResultSet.this::load );
+                }
+                List<Ref<T>> refs = new ArrayList( chunkSize );
+                Ref<T> ref = null;
+                while (refs.size() < chunkSize && (ref = nextRef()) != null) {
+                    refs.add( ref );
+                }
+                index = cachedIds.size();
+                chunkSize += batchSize;
+                return !refs.isEmpty() ? new ChunkSpliterator<Ref<T>>( refs, CachingResultSet.this::build ) : null;
+            }
+        }
+
+        @Override
+        public boolean tryAdvance( Consumer<? super T> action ) {
+            while (current == null || !current.tryAdvance( action )) {
+                if ((current = trySplit()) == null) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public long estimateSize() {
+            int size = knownSize();
+            return size != -1
+                    ? size - index + (current != null ? current.estimateSize() : 0)
+                    : Long.MAX_VALUE;
+        }
+
+        @Override
+        public int characteristics() {
+            return knownSize() != -1
+                    ? ORDERED | DISTINCT | SIZED | SUBSIZED
+                    : ORDERED | DISTINCT;
+        }
+    }
+
+
+    /**
+     * A chunk of cached ids or {@link Ref}s. The Entities are built in batches by
+     * the thread that processes the chunk.
+     */
+    protected class ChunkSpliterator<E>
+            implements Spliterator<T> {
+
+        private List<E>                 elements;
+
+        private Function<List<E>,List<T>> loader;
+
+        private int                     index;
+
+        /** The current batch of built Entities. */
+        private List<T>                 batch;
+
+        private int                     batchStart;
+
+        public ChunkSpliterator( List<E> elements, Function<List<E>,List<T>> loader ) {
+            this.elements = elements;
+            this.loader = loader;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            int remaining = elements.size() - index;
+            if (batch != null || remaining < 2) {
+                return null;
+            }
+            int mid = index + remaining / 2;
+            Spliterator<T> prefix = new ChunkSpliterator<E>( elements.subList( index, mid ), loader );
+            index = mid;
+            return prefix;
+        }
+
+        @Override
+        public boolean tryAdvance( Consumer<? super T> action ) {
+            if (index >= elements.size()) {
+                return false;
+            }
+            if (batch == null || index >= batchStart + batch.size()) {
+                batchStart = index;
+                batch = loader.apply( elements.subList( index, Math.min( index + batchSize, elements.size() ) ) );
+            }
+            action.accept( batch.get( index++ - batchStart ) );
+            return true;
+        }
+
+        @Override
+        public long estimateSize() {
+            return elements.size() - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | DISTINCT | SIZED | SUBSIZED;
+        }
+    }
+
+}
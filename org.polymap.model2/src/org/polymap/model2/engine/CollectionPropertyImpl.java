@@ -69,6 +69,13 @@ class CollectionPropertyImpl<T>
         return storeProp.add( elm );
     }
 
+    /**
+     * Called after the {@link #storeProp} was modified directly, bypassing this
+     * property. See {@link CollectionUndo}.
+     */
+    protected void storeModified() {
+    }
+
     @Override
     public String toString() {
         return "Property[name:" + info().getName() + ",value=" + super.toString() + "]";
@@ -0,0 +1,182 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3.0 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Iterators;
+
+import org.polymap.model2.Composite;
+import org.polymap.model2.runtime.CompositeInfo;
+import org.polymap.model2.runtime.PropertyInfo;
+import org.polymap.model2.store.CompositeState;
+import org.polymap.model2.store.StoreCollectionProperty;
+import org.polymap.model2.store.StoreProperty;
+
+/**
+ * Inverse operations of collection modifications, recorded by the constraints
+ * interceptors for {@link UnitOfWorkImpl#rollbackTo(org.polymap.model2.runtime.Savepoint)}.
+ * Elements are addressed by their position in the {@link StoreCollectionProperty}.
+ * <p/>
+ * The store API supports appending and removing via iterator only. So
+ * re-inserting an element moves the elements behind its position; reverting the
+ * removal of the last element is O(1). The element of a Composite collection is
+ * kept as a {@link StateCopy}, as the state of a removed element is gone.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+final class CollectionUndo {
+
+    /**
+     * Removes the element at the given position.
+     */
+    public static void removeAt( StoreCollectionProperty coll, int index ) {
+        Iterator it = coll.iterator();
+        Iterators.advance( it, index );
+        it.next();
+        it.remove();
+    }
+
+
+    /**
+     * The element at the given position, or a copy of its state if it is a
+     * Composite.
+     */
+    public static Object capture( StoreCollectionProperty coll, int index, EntityRepositoryImpl repo ) {
+        return copy( coll, Iterators.get( coll.iterator(), index ), repo );
+    }
+
+
+    /**
+     * All elements, or copies of their states if they are Composites.
+     */
+    public static List captureAll( StoreCollectionProperty coll, EntityRepositoryImpl repo ) {
+        List result = new ArrayList( coll.size() );
+        for (Object elm : coll) {
+            result.add( copy( coll, elm, repo ) );
+        }
+        return result;
+    }
+
+
+    /**
+     * Inserts the given captured element at the given position.
+     */
+    public static void insert( StoreCollectionProperty coll, int index, Object captured, EntityRepositoryImpl repo ) {
+        // move the tail out of the way
+        List tail = new ArrayList();
+        Iterator it = coll.iterator();
+        Iterators.advance( it, index );
+        while (it.hasNext()) {
+            tail.add( copy( coll, it.next(), repo ) );
+            it.remove();
+        }
+        append( coll, captured );
+        for (Object elm : tail) {
+            append( coll, elm );
+        }
+    }
+
+
+    /**
+     * Appends the given captured elements.
+     */
+    public static void appendAll( StoreCollectionProperty coll, List captured ) {
+        for (Object elm : captured) {
+            append( coll, elm );
+        }
+    }
+
+
+    protected static void append( StoreCollectionProperty coll, Object captured ) {
+        if (captured instanceof StateCopy) {
+            StateCopy copy = (StateCopy)captured;
+            copy.restore( (CompositeState)coll.createValue( copy.type ) );
+        }
+        else {
+            coll.add( captured );
+        }
+    }
+
+
+    protected static Object copy( StoreCollectionProperty coll, Object elm, EntityRepositoryImpl repo ) {
+        return elm instanceof CompositeState
+                ? new StateCopy( (CompositeState)elm, coll.info().getType(), repo )
+                : elm;
+    }
+
+
+    /**
+     * Copy of the values of a {@link CompositeState}, including the states of its
+     * Composite properties and collections.
+     */
+    protected static class StateCopy {
+
+        private Class<? extends Composite>  type;
+
+        /** Value, StateCopy or List of values or StateCopies; null values are not stored. */
+        private Map<PropertyInfo,Object>    values = new HashMap();
+
+        public StateCopy( CompositeState state, Class declaredType, EntityRepositoryImpl repo ) {
+            type = state.compositeInstanceType( declaredType );
+            CompositeInfo info = repo.infoOf( type );
+            info = info != null ? info : new CompositeInfoImpl( type );
+
+            for (PropertyInfo prop : (Iterable<PropertyInfo>)info.getProperties()) {
+                if (prop.isComputed()) {
+                    continue;
+                }
+                StoreProperty storeProp = state.loadProperty( prop );
+                if (prop.getMaxOccurs() > 1) {
+                    values.put( prop, captureAll( (StoreCollectionProperty)storeProp, repo ) );
+                }
+                else {
+                    Object value = storeProp.get();
+                    if (value instanceof CompositeState) {
+                        values.put( prop, new StateCopy( (CompositeState)value, prop.getType(), repo ) );
+                    }
+                    else if (value != null) {
+                        values.put( prop, value );
+                    }
+                }
+            }
+        }
+
+        /**
+         * Writes the values into the given newly created state.
+         */
+        public void restore( CompositeState target ) {
+            for (Map.Entry<PropertyInfo,Object> entry : values.entrySet()) {
+                StoreProperty storeProp = target.loadProperty( entry.getKey() );
+                Object value = entry.getValue();
+                if (value instanceof List) {
+                    appendAll( (StoreCollectionProperty)storeProp, (List)value );
+                }
+                else if (value instanceof StateCopy) {
+                    StateCopy copy = (StateCopy)value;
+                    copy.restore( (CompositeState)storeProp.createValue( copy.type ) );
+                }
+                else {
+                    storeProp.set( value );
+                }
+            }
+        }
+    }
+
+}
@@ -22,6 +22,8 @@ import java.lang.reflect.ParameterizedType;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import com.google.common.collect.Iterators;
+
 import org.polymap.model2.Composite;
 import org.polymap.model2.runtime.EntityRuntimeContext;
 import org.polymap.model2.runtime.ModelRuntimeException;
@@ -107,13 +109,10 @@ public class CompositeCollectionPropertyImpl<T extends Composite>
                 }
                 @Override
                 public void remove() {
-                    int c = 0, i = index-1;
-                    for (Iterator storeIt=storeProp.iterator(); storeIt.hasNext() && c <= i; c++) {
-                        if (c == i) {
-                            storeIt.remove();
-                        }
-                    }
-                    assert (c-1) == i;
+                    Iterator storeIt = storeProp.iterator();
+                    Iterators.advance( storeIt, --index );
+                    storeIt.next();
+                    storeIt.remove();
                     cacheIt.remove();
                 }
             };
@@ -145,6 +144,16 @@ public class CompositeCollectionPropertyImpl<T extends Composite>
     }
 
 
+    /**
+     * The cached Composites do no longer match the store, they are re-built on
+     * next access.
+     */
+    @Override
+    protected void storeModified() {
+        cache = null;
+    }
+
+
     @Override
     public boolean remove( Object o ) {
         for (Iterator it=iterator(); it.hasNext(); ) {
@@ -0,0 +1,330 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import static java.lang.invoke.MethodType.methodType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.polymap.model2.Composite;
+import org.polymap.model2.Computed;
+import org.polymap.model2.ComputedProperty;
+import org.polymap.model2.Concerns;
+import org.polymap.model2.PropertyBase;
+import org.polymap.model2.engine.CompositeMetadata.PropertyMetadata;
+import org.polymap.model2.runtime.EntityRuntimeContext;
+import org.polymap.model2.runtime.ModelRuntimeException;
+
+/**
+ * Fast instantiator and field binder of a {@link Composite} type. The reflective
+ * lookup of the constructor and the property fields of the entire class hierarchy
+ * is done just once per type. The result is kept as {@link MethodHandle}s that
+ * are used by {@link InstanceBuilder} and {@link TemplateInstanceBuilder} for
+ * every instance they build.
+ * <p/>
+ * Factories are created on first use or, for all types of a repository, by
+ * {@link EntityRepositoryImpl} during init.
+ * <p/>
+ * If there is {@link CompositeMetadata generated metadata} for the type and all
+ * its super classes, then the generated code is used to create instances and to
+ * access the fields, otherwise reflection.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public final class CompositeFactory<T extends Composite> {
+
+    private static Log log = LogFactory.getLog( CompositeFactory.class );
+
+    private static final MethodHandles.Lookup   lookup = MethodHandles.lookup();
+
+    private static final MethodHandle           contextSetter;
+
+    private static final ConcurrentMap<Class,CompositeFactory> factories = new ConcurrentHashMap( 256 );
+
+    static {
+        try {
+            Field f = Composite.class.getDeclaredField( "context" );
+            f.setAccessible( true );
+            contextSetter = lookup.unreflectSetter( f )
+                    .asType( methodType( void.class, Composite.class, EntityRuntimeContext.class ) );
+        }
+        catch (Exception e) {
+            log.error( "", e );
+            throw new RuntimeException( e );
+        }
+    }
+
+
+    /**
+     * The factory of the given type. The factory is created on first access and
+     * then cached for the lifetime of the class.
+     */
+    public static <T extends Composite> CompositeFactory<T> of( Class<T> type ) {
+        CompositeFactory result = factories.get( type );
+        if (result == null) {
+            result = factories.computeIfAbsent( type, k -> new CompositeFactory( k ) );
+        }
+        return result;
+    }
+
+
+    // instance *******************************************
+
+    private Class<T>                type;
+
+    /** The no-arg constructor, type: <code>()Composite</code>. */
+    private MethodHandle            ctor;
+    
+    /** Generated metadata of the type, or null. */
+    private CompositeMetadata<T>    metadata;
+
+    /** The property fields of the entire class hierarchy, sub-classes first. */
+    private PropertyField[]         fields;
+
+
+    protected CompositeFactory( Class<T> type ) {
+        this.type = type;
+        try {
+            List<CompositeMetadata> hierarchy = CompositeMetadata.hierarchyOf( type );
+            if (hierarchy != null) {
+                initGenerated( hierarchy );
+                return;
+            }
+            
+            Constructor<T> c = type.getConstructor( new Class[] {} );
+            ctor = lookup.unreflectConstructor( c ).asType( methodType( Composite.class ) );
+
+            List<PropertyField> result = new ArrayList( 32 );
+            for (Class superClass = type; superClass != null; superClass = superClass.getSuperclass()) {
+                for (Field field : superClass.getDeclaredFields()) {
+                    if (PropertyBase.class.isAssignableFrom( field.getType() )
+                            && !Modifier.isStatic( field.getModifiers() )) {
+                        result.add( new PropertyField( field ) );
+                    }
+                }
+            }
+            fields = result.toArray( new PropertyField[result.size()] );
+        }
+        catch (Exception e) {
+            throw new ModelRuntimeException( "Unable to create factory for: " + type.getName(), e );
+        }
+    }
+
+
+    protected void initGenerated( List<CompositeMetadata> hierarchy ) throws Exception {
+        metadata = hierarchy.get( 0 );
+        List<PropertyField> result = new ArrayList( 32 );
+        for (CompositeMetadata classMetadata : hierarchy) {
+            for (PropertyMetadata prop : classMetadata.properties()) {
+                result.add( prop.isAccessible()
+                        ? new PropertyField( classMetadata, prop )
+                        : new PropertyField( prop.declaringClass().getDeclaredField( prop.name() ) ) );
+            }
+        }
+        fields = result.toArray( new PropertyField[result.size()] );
+    }
+
+
+    public Class<T> getType() {
+        return type;
+    }
+
+
+    /**
+     * Creates a new instance and sets the given context. The properties of the
+     * instance are not yet initialized.
+     */
+    public T newInstance( EntityRuntimeContext context ) {
+        try {
+            Composite instance = metadata != null 
+                    ? metadata.newInstance() 
+                    : (Composite)ctor.invokeExact();
+            contextSetter.invokeExact( instance, context );
+            return (T)instance;
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new ModelRuntimeException( "Error while creating an instance of: " + type.getName(), e );
+        }
+    }
+
+
+    /**
+     * The property fields of the type, including all super classes.
+     */
+    public PropertyField[] fields() {
+        return fields;
+    }
+
+
+    /**
+     * Accessor of one property field of a Composite type. Backed by either
+     * {@link MethodHandle}s or {@link CompositeMetadata generated code}.
+     */
+    public static final class PropertyField {
+
+        private String              name;
+        
+        private Class<?>            declaringClass;
+        
+        private Class<?>            fieldType;
+        
+        /** Lazily resolved if generated. */
+        private volatile Field      field;
+
+        /** Type: <code>(Composite)PropertyBase</code> */
+        private MethodHandle        getter;
+
+        /** Type: <code>(Composite,PropertyBase)void</code> */
+        private MethodHandle        setter;
+
+        private CompositeMetadata<?> metadata;
+        
+        private PropertyMetadata    propMetadata;
+        
+
+        protected PropertyField( Field field ) throws IllegalAccessException {
+            this.field = field;
+            this.name = field.getName();
+            this.declaringClass = field.getDeclaringClass();
+            this.fieldType = field.getType();
+            field.setAccessible( true );
+            this.getter = lookup.unreflectGetter( field )
+                    .asType( methodType( PropertyBase.class, Composite.class ) );
+            this.setter = lookup.unreflectSetter( field )
+                    .asType( methodType( void.class, Composite.class, PropertyBase.class ) );
+        }
+
+        protected PropertyField( CompositeMetadata metadata, PropertyMetadata propMetadata ) {
+            this.metadata = metadata;
+            this.propMetadata = propMetadata;
+            this.name = propMetadata.name();
+            this.declaringClass = propMetadata.declaringClass();
+            this.fieldType = propMetadata.fieldType();
+        }
+
+        /**
+         * The reflective {@link Field}. Resolved on demand if the accessor is
+         * backed by generated code.
+         */
+        public Field field() {
+            if (field == null) {
+                try {
+                    Field f = declaringClass.getDeclaredField( name );
+                    f.setAccessible( true );
+                    field = f;
+                }
+                catch (NoSuchFieldException e) {
+                    throw new ModelRuntimeException( e );
+                }
+            }
+            return field;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public Class<?> declaringClass() {
+            return declaringClass;
+        }
+
+        /** The declared type of the field: {@link org.polymap.model2.Property}, ... */
+        public Class<?> fieldType() {
+            return fieldType;
+        }
+
+        /** The {@link Computed} type of the field, or null. */
+        public Class<? extends ComputedProperty> computed() {
+            if (propMetadata != null) {
+                return propMetadata.computed();
+            }
+            Computed a = field.getAnnotation( Computed.class );
+            return a != null ? a.value() : null;
+        }
+
+        /** The class and field {@link Concerns}, in the order they are layered. */
+        public List<Class<?>> concerns() {
+            List<Class<?>> result = new ArrayList();
+            if (propMetadata != null) {
+                result.addAll( Arrays.asList( metadata.concerns() ) );
+                result.addAll( Arrays.asList( propMetadata.concerns() ) );
+            }
+            else {
+                Concerns ca = declaringClass.getAnnotation( Concerns.class );
+                if (ca != null) {
+                    result.addAll( Arrays.asList( ca.value() ) );
+                }
+                Concerns fa = field.getAnnotation( Concerns.class );
+                if (fa != null) {
+                    result.addAll( Arrays.asList( fa.value() ) );
+                }
+            }
+            return result;
+        }
+
+        public PropertyBase get( Composite instance ) {
+            if (metadata != null) {
+                return metadata.get( instance, propMetadata.index() );
+            }
+            try {
+                return (PropertyBase)getter.invokeExact( instance );
+            }
+            catch (RuntimeException e) {
+                throw e;
+            }
+            catch (Throwable e) {
+                throw new ModelRuntimeException( e );
+            }
+        }
+
+        public void set( Composite instance, PropertyBase value ) {
+            if (metadata != null) {
+                metadata.set( instance, propMetadata.index(), value );
+                return;
+            }
+            try {
+                setter.invokeExact( instance, value );
+            }
+            catch (RuntimeException e) {
+                throw e;
+            }
+            catch (Throwable e) {
+                throw new ModelRuntimeException( e );
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "PropertyField[" + declaringClass.getName() + "." + name + "]";
+        }
+    }
+
+}
@@ -18,21 +18,27 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import java.lang.reflect.Field;
 
 import org.polymap.model2.Composite;
 import org.polymap.model2.Immutable;
+import org.polymap.model2.LazyProperties;
 import org.polymap.model2.Mixins;
 import org.polymap.model2.NameInStore;
 import org.polymap.model2.PropertyBase;
+import org.polymap.model2.engine.CompositeFactory.PropertyField;
+import org.polymap.model2.engine.CompositeMetadata.PropertyMetadata;
 import org.polymap.model2.runtime.CompositeInfo;
 import org.polymap.model2.runtime.ModelRuntimeException;
 import org.polymap.model2.runtime.PropertyInfo;
 
 /**
- * 
+ * Runtime info of a {@link Composite} type. All metadata is read from the class
+ * and its annotations, or from {@link CompositeMetadata generated metadata}, once,
+ * when the info is created.
  *
  * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
  */
@@ -44,19 +50,74 @@ public final class CompositeInfoImpl
     /** Maps property name into PropertyInfo. */
     private Map<String,PropertyInfo>        propertyInfos = new HashMap();
     
+    /** Unmodifiable view of {@link #propertyInfos}. */
+    private Collection<PropertyInfo>        properties;
+    
+    private String                          nameInStore;
+    
+    private Collection<Class<? extends Composite>> mixins;
+
+    /** The {@link #mixins} as array, see {@link #mixinIndex(Class)}. */
+    private Class[]                 mixinArray;
+    
+    private boolean                         isImmutable;
+    
+    private boolean                         lazyProperties;
+    
+    /** Lazily compiled, see {@link #bindingPlan()}. */
+    private volatile PropertySlot[]         bindingPlan;
+    
 //    private Lazy<Composite>                 template = new LockedLazyInit();
     
     
     public CompositeInfoImpl( Class<? extends Composite> compositeClass ) {
         this.compositeClass = compositeClass;
+        
+        List<CompositeMetadata> hierarchy = CompositeMetadata.hierarchyOf( compositeClass );
+        if (hierarchy != null) {
+            initGenerated( hierarchy );
+            return;
+        }
+        
+        this.lazyProperties = compositeClass.getAnnotation( LazyProperties.class ) != null;
+        this.isImmutable = compositeClass.getAnnotation( Immutable.class ) != null;
+        
+        NameInStore nameInStoreAnno = compositeClass.getAnnotation( NameInStore.class );
+        this.nameInStore = nameInStoreAnno != null ? nameInStoreAnno.value() : getName();
+        
+        Mixins mixinsAnno = compositeClass.getAnnotation( Mixins.class );
+        this.mixins = mixinsAnno != null 
+                ? Collections.unmodifiableList( Arrays.asList( mixinsAnno.value() ) )
+                : Collections.EMPTY_LIST;
+        this.mixinArray = mixins.toArray( new Class[mixins.size()] );
         try {
             initPropertyInfos();
+            this.properties = Collections.unmodifiableCollection( propertyInfos.values() );
         }
         catch (Exception e) {
             throw new ModelRuntimeException( e );
         }
     }
 
+    /**
+     * Init from the {@link CompositeMetadata generated metadata} of the class
+     * hierarchy, sub-classes first.
+     */
+    protected void initGenerated( List<CompositeMetadata> hierarchy ) {
+        CompositeMetadata<?> metadata = hierarchy.get( 0 );
+        this.lazyProperties = metadata.isLazyProperties();
+        this.isImmutable = metadata.isImmutable();
+        this.nameInStore = metadata.nameInStore();
+        this.mixins = Collections.unmodifiableList( Arrays.asList( metadata.mixins() ) );
+        this.mixinArray = metadata.mixins().clone();
+        for (CompositeMetadata classMetadata : hierarchy) {
+            for (PropertyMetadata prop : classMetadata.properties()) {
+                propertyInfos.put( prop.name(), new PropertyInfoImpl( prop ) );
+            }
+        }
+        this.properties = Collections.unmodifiableCollection( propertyInfos.values() );
+    }
+
     /**
      * Recursivly init {@link #propertyInfos} of the given instance and all complex
      * propertyInfos.
@@ -75,6 +136,35 @@ public final class CompositeInfoImpl
         }
     }
 
+    /**
+     * The binding plan of this Composite type: one {@link PropertySlot} for every
+     * property field of the type and its super classes. Compiled once on first
+     * access.
+     *
+     * @throws ModelRuntimeException If a property is not properly declared.
+     */
+    public PropertySlot[] bindingPlan() {
+        PropertySlot[] result = bindingPlan;
+        if (result == null) {
+            PropertyField[] fields = CompositeFactory.of( compositeClass ).fields();
+            result = new PropertySlot[fields.length];
+            for (int i=0; i<fields.length; i++) {
+                PropertyInfo info = propertyInfos.get( fields[i].name() );
+                assert info != null : "No PropertyInfo for: " + fields[i];
+                result[i] = new PropertySlot( fields[i], info );
+            }
+            bindingPlan = result;
+        }
+        return result;
+    }
+
+    /**
+     * True if the type is annotated {@link LazyProperties}.
+     */
+    public boolean isLazyProperties() {
+        return lazyProperties;
+    }
+
     @Override
     public String getName() {
         return compositeClass.getSimpleName();
@@ -82,9 +172,7 @@ public final class CompositeInfoImpl
 
     @Override
     public String getNameInStore() {
-        return compositeClass.getAnnotation( NameInStore.class ) != null
-                ? compositeClass.getAnnotation( NameInStore.class ).value()
-                : getName();
+        return nameInStore;
     }
 
     @Override
@@ -121,15 +209,26 @@ public final class CompositeInfoImpl
 
     @Override
     public Collection<Class<? extends Composite>> getMixins() {
-        Mixins mixins = compositeClass.getAnnotation( Mixins.class );
-        return mixins != null 
-                ? Arrays.asList( mixins.value() )
-                : Collections.EMPTY_LIST;
+        return mixins;
+    }
+
+    /**
+     * The position of the given type in {@link #getMixins()}.
+     *
+     * @return The index, or -1 if the given type is not a mixin of this composite.
+     */
+    public int mixinIndex( Class<? extends Composite> mixinClass ) {
+        for (int i=0; i<mixinArray.length; i++) {
+            if (mixinArray[i] == mixinClass) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     @Override
     public Collection<PropertyInfo> getProperties() {
-        return Collections.unmodifiableCollection( propertyInfos.values() );
+        return properties;
     }
 
     @Override
@@ -139,7 +238,7 @@ public final class CompositeInfoImpl
 
     @Override
     public boolean isImmutable() {
-        return compositeClass.getAnnotation( Immutable.class ) != null;
+        return isImmutable;
     }
 
 }
@@ -0,0 +1,353 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.polymap.model2.Composite;
+import org.polymap.model2.ComputedProperty;
+import org.polymap.model2.Entity;
+import org.polymap.model2.PropertyBase;
+import org.polymap.model2.runtime.ModelRuntimeException;
+
+/**
+ * Metadata of a {@link Composite} class that was generated at compile time by the
+ * annotation processor of the <code>org.polymap.model2.apt</code> bundle. The
+ * generated class is named after the Composite class plus {@link #CLASS_SUFFIX}
+ * and lives in the same package.
+ * <p/>
+ * A metadata instance describes just the properties <b>declared</b> by its class.
+ * {@link CompositeInfoImpl} and {@link CompositeFactory} use the metadata of the
+ * entire class hierarchy, if present for all classes, instead of reflection.
+ * Otherwise they fall back to reflection.
+ * <p/>
+ * This is not part of the API. Generated code is the only client.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public abstract class CompositeMetadata<T extends Composite> {
+
+    private static Log log = LogFactory.getLog( CompositeMetadata.class );
+
+    public static final String      CLASS_SUFFIX = "_Metadata";
+
+    private static final ConcurrentMap<Class,Optional<CompositeMetadata>> loaded = new ConcurrentHashMap( 256 );
+
+
+    /**
+     * The generated metadata of the given class.
+     *
+     * @return The metadata, or null if there is no generated metadata.
+     */
+    public static <T extends Composite> CompositeMetadata<T> of( Class<T> type ) {
+        Optional<CompositeMetadata> result = loaded.get( type );
+        if (result == null) {
+            result = loaded.computeIfAbsent( type, k -> Optional.ofNullable( load( k ) ) );
+        }
+        return result.orElse( null );
+    }
+
+
+    /**
+     * The generated metadata of the given class and all its super classes,
+     * sub-classes first.
+     *
+     * @return The metadata, or null if there is no generated metadata for one of
+     *         the classes.
+     */
+    public static List<CompositeMetadata> hierarchyOf( Class<? extends Composite> type ) {
+        List<CompositeMetadata> result = new ArrayList( 4 );
+        for (Class cl = type; cl != Entity.class && cl != Composite.class && cl != Object.class; cl = cl.getSuperclass()) {
+            CompositeMetadata metadata = of( cl );
+            if (metadata == null) {
+                return null;
+            }
+            result.add( metadata );
+        }
+        return result;
+    }
+
+
+    protected static CompositeMetadata load( Class type ) {
+        try {
+            Class<?> cl = Class.forName( type.getName() + CLASS_SUFFIX, true, type.getClassLoader() );
+            CompositeMetadata result = (CompositeMetadata)cl.newInstance();
+            if (result.type() != type) {
+                throw new ModelRuntimeException( "Generated metadata does not match type: " + cl.getName() );
+            }
+            log.debug( "Generated metadata: " + cl.getName() );
+            return result;
+        }
+        catch (ClassNotFoundException e) {
+            return null;
+        }
+        catch (Exception e) {
+            log.warn( "Unable to load generated metadata of: " + type.getName() + " (" + e + ")" );
+            return null;
+        }
+    }
+
+
+    // instance *******************************************
+
+    private Class<T>                type;
+
+    private String                  nameInStore;
+
+    private boolean                 immutable;
+
+    private boolean                 lazyProperties;
+
+    private Class<? extends Composite>[] mixins;
+
+    private Class<?>[]              concerns;
+
+    private PropertyMetadata[]      properties;
+
+
+    /**
+     * Called by generated code.
+     *
+     * @param nameInStore The {@link org.polymap.model2.NameInStore} of the class,
+     *        or null.
+     */
+    protected CompositeMetadata( Class<T> type, String nameInStore, boolean immutable,
+            boolean lazyProperties, Class[] mixins, Class[] concerns, PropertyMetadata[] properties ) {
+        this.type = type;
+        this.nameInStore = nameInStore != null ? nameInStore : type.getSimpleName();
+        this.immutable = immutable;
+        this.lazyProperties = lazyProperties;
+        this.mixins = mixins;
+        this.concerns = concerns;
+        this.properties = properties;
+        for (int i=0; i<properties.length; i++) {
+            properties[i].declaringClass = type;
+            properties[i].index = i;
+        }
+    }
+
+    public Class<T> type() {
+        return type;
+    }
+
+    public String nameInStore() {
+        return nameInStore;
+    }
+
+    public boolean isImmutable() {
+        return immutable;
+    }
+
+    public boolean isLazyProperties() {
+        return lazyProperties;
+    }
+
+    public Class<? extends Composite>[] mixins() {
+        return mixins;
+    }
+
+    /** The {@link org.polymap.model2.Concerns} declared by the class. */
+    public Class<?>[] concerns() {
+        return concerns;
+    }
+
+    /** The properties declared by the class, not including super classes. */
+    public PropertyMetadata[] properties() {
+        return properties;
+    }
+
+    /**
+     * Creates a new instance of the class.
+     *
+     * @throws ModelRuntimeException If the class is abstract or has no accessible
+     *         no-arg constructor.
+     */
+    public T newInstance() {
+        throw new ModelRuntimeException( "No generated constructor: " + type.getName() );
+    }
+
+    /**
+     * Reads the field of the property with the given index. Supported for
+     * {@link PropertyMetadata#isAccessible() accessible} properties only.
+     */
+    public abstract PropertyBase get( Composite instance, int index );
+
+    /**
+     * Sets the field of the property with the given index. Supported for
+     * {@link PropertyMetadata#isAccessible() accessible} properties only.
+     */
+    public abstract void set( Composite instance, int index, PropertyBase prop );
+
+    /**
+     * Sets the static <code>TYPE</code> field of the class, if present. The
+     * template is requested only if the class has such a field.
+     *
+     * @return False if the class does not have a <code>TYPE</code> field.
+     */
+    public boolean initTemplate( Supplier<T> template ) {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "[" + type.getName() + "]";
+    }
+
+
+    /**
+     * Metadata of a property field.
+     */
+    public static final class PropertyMetadata {
+
+        private Class                   declaringClass;
+
+        private int                     index;
+
+        private String                  name;
+
+        private String                  nameInStore;
+
+        private Class                   type;
+
+        private Class                   fieldType;
+
+        private boolean                 nullable;
+
+        private boolean                 immutable;
+
+        private boolean                 queryable;
+
+        private Class<? extends ComputedProperty> computed;
+
+        private int                     maxOccurs;
+
+        private String                  defaultValue;
+
+        private boolean                 defaults;
+
+        private Class<?>[]              concerns;
+
+        private boolean                 accessible;
+
+
+        /**
+         * Called by generated code.
+         *
+         * @param nameInStore The {@link org.polymap.model2.NameInStore}, or null.
+         * @param type The type argument of the property.
+         * @param fieldType The (erased) declared type of the field.
+         * @param computed The {@link org.polymap.model2.Computed} type, or null.
+         * @param defaultValue The {@link org.polymap.model2.DefaultValue}, or null.
+         * @param accessible True if the generated code can access the field.
+         */
+        public PropertyMetadata( String name, String nameInStore, Class type, Class fieldType,
+                boolean nullable, boolean immutable, boolean queryable, Class computed, int maxOccurs,
+                String defaultValue, boolean defaults, Class[] concerns, boolean accessible ) {
+            this.name = name;
+            this.nameInStore = nameInStore != null ? nameInStore : name;
+            this.type = type;
+            this.fieldType = fieldType;
+            this.nullable = nullable;
+            this.immutable = immutable;
+            this.queryable = queryable;
+            this.computed = computed;
+            this.maxOccurs = maxOccurs;
+            this.defaultValue = defaultValue;
+            this.defaults = defaults;
+            this.concerns = concerns;
+            this.accessible = accessible;
+        }
+
+        public Class declaringClass() {
+            return declaringClass;
+        }
+
+        /** The index of this property in {@link CompositeMetadata#properties()}. */
+        public int index() {
+            return index;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public String nameInStore() {
+            return nameInStore;
+        }
+
+        public Class type() {
+            return type;
+        }
+
+        public Class fieldType() {
+            return fieldType;
+        }
+
+        public boolean isNullable() {
+            return nullable;
+        }
+
+        public boolean isImmutable() {
+            return immutable;
+        }
+
+        public boolean isQueryable() {
+            return queryable;
+        }
+
+        public Class<? extends ComputedProperty> computed() {
+            return computed;
+        }
+
+        public int maxOccurs() {
+            return maxOccurs;
+        }
+
+        public String defaultValue() {
+            return defaultValue;
+        }
+
+        public boolean isDefaults() {
+            return defaults;
+        }
+
+        /** The {@link org.polymap.model2.Concerns} declared by the field. */
+        public Class<?>[] concerns() {
+            return concerns;
+        }
+
+        /**
+         * True if the field can be accessed via {@link CompositeMetadata#get(Composite, int)}
+         * and {@link CompositeMetadata#set(Composite, int, PropertyBase)}.
+         */
+        public boolean isAccessible() {
+            return accessible;
+        }
+
+        @Override
+        public String toString() {
+            return "PropertyMetadata[" + declaringClass.getSimpleName() + "#" + name + "]";
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import static java.lang.invoke.MethodType.methodType;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.polymap.model2.PropertyBase;
+import org.polymap.model2.PropertyConcernBase;
+import org.polymap.model2.runtime.EntityRuntimeContext;
+import org.polymap.model2.runtime.ModelRuntimeException;
+
+/**
+ * Creates the concern of one {@link PropertySlot}. Resolves the way a concern type
+ * is instantiated just once per slot:
+ * <ul>
+ * <li>{@link PropertyConcernBase} with a <code>(EntityRuntimeContext,PropertyBase)</code>
+ * constructor: invoked via {@link MethodHandle}</li>
+ * <li>{@link PropertyConcernBase} with no-arg constructor: instantiated and
+ * initialized via {@link MethodHandle}s</li>
+ * </ul>
+ * A {@link StatelessPropertyConcern} is not created per entity, see
+ * {@link PropertySlot#stateless}.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public final class ConcernFactory {
+
+    private static Log log = LogFactory.getLog( ConcernFactory.class );
+
+    private static final MethodHandles.Lookup   lookup = MethodHandles.lookup();
+
+    private static final MethodHandle           contextSetter;
+
+    private static final MethodHandle           delegateSetter;
+
+    static {
+        try {
+            Field f = PropertyConcernBase.class.getDeclaredField( "context" );
+            f.setAccessible( true );
+            contextSetter = lookup.unreflectSetter( f )
+                    .asType( methodType( void.class, PropertyConcernBase.class, EntityRuntimeContext.class ) );
+
+            f = PropertyConcernBase.class.getDeclaredField( "delegate" );
+            f.setAccessible( true );
+            delegateSetter = lookup.unreflectSetter( f )
+                    .asType( methodType( void.class, PropertyConcernBase.class, PropertyBase.class ) );
+        }
+        catch (Exception e) {
+            log.error( "", e );
+            throw new RuntimeException( e );
+        }
+    }
+
+
+    // instance *******************************************
+
+    private Class<?>                    type;
+
+    /** Type: <code>(EntityRuntimeContext,PropertyBase)PropertyConcernBase</code>, or null. */
+    private MethodHandle                initCtor;
+
+    /** Type: <code>()PropertyConcernBase</code>, or null. */
+    private MethodHandle                ctor;
+
+
+    protected ConcernFactory( Class<?> type ) {
+        this.type = type;
+        try {
+            try {
+                Constructor c = type.getDeclaredConstructor( EntityRuntimeContext.class, PropertyBase.class );
+                c.setAccessible( true );
+                initCtor = lookup.unreflectConstructor( c ).asType(
+                        methodType( PropertyConcernBase.class, EntityRuntimeContext.class, PropertyBase.class ) );
+            }
+            catch (NoSuchMethodException e) {
+                Constructor c = type.getDeclaredConstructor();
+                c.setAccessible( true );
+                ctor = lookup.unreflectConstructor( c ).asType( methodType( PropertyConcernBase.class ) );
+            }
+        }
+        catch (Exception e) {
+            throw new ModelRuntimeException( "Error while initializing concern: " + type + " (" + e.getLocalizedMessage() + ")", e );
+        }
+    }
+
+
+    public Class<?> getType() {
+        return type;
+    }
+
+
+    /**
+     * Creates the concern of the given delegate.
+     *
+     * @param context The context of the entity the property belongs to.
+     * @param delegate The property (or concern) to intercept.
+     * @return Newly created concern.
+     */
+    public PropertyBase newConcern( EntityRuntimeContext context, PropertyBase delegate ) {
+        try {
+            if (initCtor != null) {
+                return (PropertyConcernBase)initCtor.invokeExact( context, delegate );
+            }
+            else {
+                PropertyConcernBase concern = (PropertyConcernBase)ctor.invokeExact();
+                contextSetter.invokeExact( concern, context );
+                delegateSetter.invokeExact( concern, delegate );
+                return concern;
+            }
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Throwable e) {
+            throw new ModelRuntimeException( "Error while initializing concern: " + type + " (" + e.getLocalizedMessage() + ")", e );
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return "ConcernFactory[" + type.getSimpleName() + "]";
+    }
+
+}
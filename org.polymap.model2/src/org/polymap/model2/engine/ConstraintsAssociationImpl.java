@@ -0,0 +1,108 @@
+/* 
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import org.polymap.model2.Association;
+import org.polymap.model2.Entity;
+import org.polymap.model2.Immutable;
+import org.polymap.model2.Nullable;
+import org.polymap.model2.engine.EntityRepositoryImpl.EntityRuntimeContextImpl;
+import org.polymap.model2.runtime.EntityRuntimeContext.EntityStatus;
+import org.polymap.model2.runtime.ModelRuntimeException;
+import org.polymap.model2.runtime.PropertyInfo;
+import org.polymap.model2.store.StoreProperty;
+
+/**
+ * Association implementation that combines the store access and the constraints
+ * ({@link Immutable}, {@link Nullable}, status raising) in one object.
+ *
+ * @see ConstraintsPropertyImpl
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+final class ConstraintsAssociationImpl<T extends Entity>
+        implements Association<T> {
+
+    /** Holding the id of the associated Entity. */
+    private StoreProperty<Object>       storeProp;
+    
+    private EntityRuntimeContextImpl    context;
+    
+    private PropertySlot                slot;
+    
+    
+    public ConstraintsAssociationImpl( StoreProperty storeProp, EntityRuntimeContextImpl context, PropertySlot slot ) {
+        this.storeProp = storeProp;
+        this.context = context;
+        this.slot = slot;
+    }
+
+    
+    protected String fullPropName() {
+        return context.getInfo().getName() + "." + slot.info.getName();
+    }
+
+    
+    @Override
+    public T get() {
+        Object id = storeProp.get();
+        if (id != null) {
+            return (T)context.getUnitOfWork().entity( slot.info.getType(), id );
+        }
+        // check Nullable
+        else if (!slot.isNullable) {
+            throw new ModelRuntimeException( "Property is not @Nullable: " + fullPropName() );
+        }
+        return null;
+    }
+
+    
+    @Override
+    public void set( T value ) {
+        context.checkEviction();
+        
+        // XXX this should always fail outside a ValueInitializer
+        if (slot.isImmutable && storeProp.get() != null) {
+            throw new ModelRuntimeException( "Property is @Immutable: " + fullPropName() );
+        }
+        if (!slot.isNullable && value == null) {
+            throw new ModelRuntimeException( "Property is not @Nullable: " + fullPropName() );
+        }
+        // make sure that elm belongs to my UoW; it would not break here but
+        // on BidiAssociationConcern and/or maybe elsewhere that depends on Entity.equals()
+        assert value == null || value == context.getUnitOfWork().entity( value ) : "Entity does no belong to this UnitOfWork.";
+        
+        context.beforeModification();
+        context.recordUndo( () -> {
+            Object before = storeProp.get();
+            return () -> storeProp.set( before );
+        });
+        storeProp.set( value != null ? value.id() : null );
+        
+        context.raiseStatus( EntityStatus.MODIFIED );
+    }
+
+    
+    @Override
+    public PropertyInfo info() {
+        return slot.info;
+    }
+
+    
+    @Override
+    public String toString() {
+        return "Association[name:" + slot.info.getName() + ",id=" + storeProp.get() + "]";
+    }
+
+}
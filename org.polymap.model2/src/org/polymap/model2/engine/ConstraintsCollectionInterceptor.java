@@ -16,8 +16,11 @@ package org.polymap.model2.engine;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
 
 import org.polymap.model2.CollectionProperty;
+import org.polymap.model2.Composite;
 import org.polymap.model2.engine.EntityRepositoryImpl.EntityRuntimeContextImpl;
 import org.polymap.model2.runtime.ModelRuntimeException;
 import org.polymap.model2.runtime.ValueInitializer;
@@ -31,8 +34,12 @@ final class ConstraintsCollectionInterceptor<T>
         extends ConstraintsInterceptor<T>
         implements CollectionProperty<T> {
 
+    /** True if the elements are {@link Composite}s. */
+    private boolean             isComposite;
+
     public ConstraintsCollectionInterceptor( CollectionProperty<T> delegate, EntityRuntimeContextImpl context ) {
         super( delegate, context );
+        this.isComposite = Composite.class.isAssignableFrom( delegate.info().getType() );
     }
 
     protected CollectionProperty<T> coll() {
@@ -67,8 +74,54 @@ final class ConstraintsCollectionInterceptor<T>
         if (isImmutable) {
             throw new ModelRuntimeException( "Property is @Immutable: " + fullPropName() );
         }
+        context.beforeModification();
+        U result = coll().createElement( initializer );
+        recordAppended();
         context.raiseStatus( EntityStatus.MODIFIED );
-        return coll().createElement( initializer );
+        return result;
+    }
+
+
+    protected CollectionPropertyImpl<T> impl() {
+        return (CollectionPropertyImpl<T>)delegate;
+    }
+
+
+    /**
+     * Records the inverse of appending an element: removing the last element.
+     */
+    protected void recordAppended() {
+        context.recordUndo( () -> {
+            int index = coll().size() - 1;
+            return () -> {
+                CollectionUndo.removeAt( impl().storeProp, index );
+                impl().storeModified();
+            };
+        });
+    }
+
+
+    /**
+     * Records the inverse of removing the element at the given position:
+     * re-inserting the element, or a copy of its state if it is a Composite.
+     */
+    protected void recordRemoved( int index ) {
+        context.recordUndo( () -> {
+            Object captured = CollectionUndo.capture( impl().storeProp, index, context.getRepository() );
+            return () -> {
+                CollectionUndo.insert( impl().storeProp, index, captured, context.getRepository() );
+                impl().storeModified();
+            };
+        });
+    }
+
+
+    /**
+     * Composites don't support {@link Object#equals(Object)}, they are compared by
+     * identity.
+     */
+    protected boolean matches( Object o, T elm ) {
+        return o == elm || (!isComposite && o != null && o.equals( elm ));
     }
 
 
@@ -79,7 +132,9 @@ final class ConstraintsCollectionInterceptor<T>
         if (isImmutable) {
             throw new ModelRuntimeException( "Property is @Immutable: " + fullPropName() );
         }
+        context.beforeModification();
         if (coll().add( e )) {
+            recordAppended();
             context.raiseStatus( EntityStatus.MODIFIED );
             return true;
         }
@@ -90,16 +145,11 @@ final class ConstraintsCollectionInterceptor<T>
 
     @Override
     public boolean addAll( Collection<? extends T> c ) {
-        if (isImmutable) {
-            throw new ModelRuntimeException( "Property is @Immutable: " + fullPropName() );
-        }
-        if (coll().addAll( c )) {
-            context.raiseStatus( EntityStatus.MODIFIED );
-            return true;
-        }
-        else {
-            return false;
+        boolean result = false;
+        for (T e : c) {
+            result |= add( e );
         }
+        return result;
     }
 
     @Override
@@ -107,65 +157,92 @@ final class ConstraintsCollectionInterceptor<T>
         if (isImmutable) {
             throw new ModelRuntimeException( "Property is @Immutable: " + fullPropName() );
         }
-        if (coll().remove( o )) {
-            context.raiseStatus( EntityStatus.MODIFIED );
-            return true;
-        }
-        else {
-            return false;
+        for (Iterator<T> it = iterator(); it.hasNext(); ) {
+            if (matches( o, it.next() )) {
+                it.remove();
+                return true;
+            }
         }
+        return false;
     }
 
     @Override
     public boolean removeAll( Collection<?> c ) {
+        return removeIf( elm -> c.contains( elm ) );
+    }
+
+    @Override
+    public boolean retainAll( Collection<?> c ) {
+        return removeIf( elm -> !c.contains( elm ) );
+    }
+
+    @Override
+    public boolean removeIf( Predicate<? super T> filter ) {
         if (isImmutable) {
             throw new ModelRuntimeException( "Property is @Immutable: " + fullPropName() );
         }
-        if (coll().removeAll( c )) {
-            context.raiseStatus( EntityStatus.MODIFIED );
-            return true;
-        }
-        else {
-            return false;
+        boolean result = false;
+        for (Iterator<T> it = iterator(); it.hasNext(); ) {
+            if (filter.test( it.next() )) {
+                it.remove();
+                result = true;
+            }
         }
+        return result;
     }
 
     @Override
-    public boolean retainAll( Collection<?> c ) {
+    public void clear() {
         if (isImmutable) {
             throw new ModelRuntimeException( "Property is @Immutable: " + fullPropName() );
         }
-        if (coll().retainAll( c )) {
-            context.raiseStatus( EntityStatus.MODIFIED );
-            return true;
-        }
-        else {
-            return false;
+        if (coll().isEmpty()) {
+            return;
         }
+        context.beforeModification();
+        context.recordUndo( () -> {
+            List captured = CollectionUndo.captureAll( impl().storeProp, context.getRepository() );
+            return () -> {
+                CollectionUndo.appendAll( impl().storeProp, captured );
+                impl().storeModified();
+            };
+        });
+        coll().clear();
+        context.raiseStatus( EntityStatus.MODIFIED );
     }
 
+    /**
+     * Removing via the iterator is guarded and reverted just like
+     * {@link #remove(Object)}.
+     */
     @Override
     public Iterator<T> iterator() {
-        if (!isImmutable) {
-            return coll().iterator();
-        }
-        else {
-            return new Iterator<T>() {
-                private Iterator<T> it = coll().iterator();
-                @Override
-                public boolean hasNext() {
-                    return it.hasNext();
-                }
-                @Override
-                public T next() {
-                    return it.next();
-                }
-                @Override
-                public void remove() {
+        return new Iterator<T>() {
+            private Iterator<T> it = coll().iterator();
+            /** The position of the element last returned by {@link #next()}. */
+            private int         index = -1;
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+            @Override
+            public T next() {
+                T result = it.next();
+                index ++;
+                return result;
+            }
+            @Override
+            public void remove() {
+                if (isImmutable) {
                     throw new ModelRuntimeException( "Property is @Immutable: " + fullPropName() );
                 }
-            };
-        }
+                context.beforeModification();
+                recordRemoved( index );
+                it.remove();
+                index --;
+                context.raiseStatus( EntityStatus.MODIFIED );
+            }
+        };
     }
 
     @Override
@@ -198,9 +275,4 @@ final class ConstraintsCollectionInterceptor<T>
         return coll().containsAll( c );
     }
 
-    @Override
-    public void clear() {
-        coll().clear();
-    }
-
 }
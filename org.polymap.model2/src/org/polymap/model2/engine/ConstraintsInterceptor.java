@@ -30,8 +30,6 @@ import org.polymap.model2.runtime.PropertyInfo;
 abstract class ConstraintsInterceptor<T>
         implements PropertyBase<T> {
 
-    protected static final Object       UNINITIALIZED = new Object();
-    
     protected EntityRuntimeContextImpl  context;
     
     protected PropertyBase<T>           delegate;
@@ -40,13 +38,6 @@ abstract class ConstraintsInterceptor<T>
     protected boolean                   isImmutable;
     
     protected boolean                   isNullable;
-
-    /**
-     * Lazily init variable for fast access when frequently used. Don't use cool
-     * {@link LazyInit} in order to save memory (one more Object per property
-     * instance).
-     */
-    protected Object                    defaultValue = UNINITIALIZED;
     
     
     public ConstraintsInterceptor( PropertyBase<T> delegate, EntityRuntimeContextImpl context ) {
@@ -16,6 +16,8 @@ package org.polymap.model2.engine;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.function.Predicate;
 
 import org.polymap.model2.CollectionProperty;
 import org.polymap.model2.Entity;
@@ -64,6 +66,34 @@ final class ConstraintsManyAssociationInterceptor<T extends Entity>
     }
 
 
+    protected ManyAssociationImpl<T> impl() {
+        return (ManyAssociationImpl<T>)delegate;
+    }
+
+
+    /**
+     * Records the inverse of appending an Entity: removing the last id.
+     */
+    protected void recordAppended() {
+        context.recordUndo( () -> {
+            int index = coll().size() - 1;
+            return () -> CollectionUndo.removeAt( impl().storeProp, index );
+        });
+    }
+
+
+    /**
+     * Records the inverse of removing the Entity at the given position:
+     * re-inserting its id.
+     */
+    protected void recordRemoved( int index ) {
+        context.recordUndo( () -> {
+            Object id = CollectionUndo.capture( impl().storeProp, index, context.getRepository() );
+            return () -> CollectionUndo.insert( impl().storeProp, index, id, context.getRepository() );
+        });
+    }
+
+
     // Collection *****************************************
     
     @Override
@@ -71,7 +101,9 @@ final class ConstraintsManyAssociationInterceptor<T extends Entity>
         if (isImmutable) {
             throw new ModelRuntimeException( "Property is @Immutable: " + fullPropName() );
         }
+        context.beforeModification();
         if (coll().add( e )) {
+            recordAppended();
             context.raiseStatus( EntityStatus.MODIFIED );
             return true;
         }
@@ -82,16 +114,11 @@ final class ConstraintsManyAssociationInterceptor<T extends Entity>
 
     @Override
     public boolean addAll( Collection<? extends T> c ) {
-        if (isImmutable) {
-            throw new ModelRuntimeException( "Property is @Immutable: " + fullPropName() );
-        }
-        if (coll().addAll( c )) {
-            context.raiseStatus( EntityStatus.MODIFIED );
-            return true;
-        }
-        else {
-            return false;
+        boolean result = false;
+        for (T e : c) {
+            result |= add( e );
         }
+        return result;
     }
 
     @Override
@@ -99,65 +126,89 @@ final class ConstraintsManyAssociationInterceptor<T extends Entity>
         if (isImmutable) {
             throw new ModelRuntimeException( "Property is @Immutable: " + fullPropName() );
         }
-        if (coll().remove( o )) {
-            context.raiseStatus( EntityStatus.MODIFIED );
-            return true;
-        }
-        else {
-            return false;
+        for (Iterator<T> it = iterator(); it.hasNext(); ) {
+            if (it.next().equals( o )) {
+                it.remove();
+                return true;
+            }
         }
+        return false;
     }
 
     @Override
     public boolean removeAll( Collection<?> c ) {
+        return removeIf( elm -> c.contains( elm ) );
+    }
+
+    @Override
+    public boolean retainAll( Collection<?> c ) {
+        return removeIf( elm -> !c.contains( elm ) );
+    }
+
+    @Override
+    public boolean removeIf( Predicate<? super T> filter ) {
         if (isImmutable) {
             throw new ModelRuntimeException( "Property is @Immutable: " + fullPropName() );
         }
-        if (coll().removeAll( c )) {
-            context.raiseStatus( EntityStatus.MODIFIED );
-            return true;
-        }
-        else {
-            return false;
+        boolean result = false;
+        for (Iterator<T> it = iterator(); it.hasNext(); ) {
+            if (filter.test( it.next() )) {
+                it.remove();
+                result = true;
+            }
         }
+        return result;
     }
 
     @Override
-    public boolean retainAll( Collection<?> c ) {
+    public void clear() {
         if (isImmutable) {
             throw new ModelRuntimeException( "Property is @Immutable: " + fullPropName() );
         }
-        if (coll().retainAll( c )) {
-            context.raiseStatus( EntityStatus.MODIFIED );
-            return true;
-        }
-        else {
-            return false;
+        if (coll().isEmpty()) {
+            return;
         }
+        context.beforeModification();
+        context.recordUndo( () -> {
+            List ids = CollectionUndo.captureAll( impl().storeProp, context.getRepository() );
+            return () -> CollectionUndo.appendAll( impl().storeProp, ids );
+        });
+        coll().clear();
+        context.raiseStatus( EntityStatus.MODIFIED );
     }
 
+    /**
+     * Removing via the iterator is guarded and reverted just like
+     * {@link #remove(Object)}.
+     */
     @Override
     public Iterator<T> iterator() {
-        if (!isImmutable) {
-            return coll().iterator();
-        }
-        else {
-            return new Iterator<T>() {
-                private Iterator<T> it = coll().iterator();
-                @Override
-                public boolean hasNext() {
-                    return it.hasNext();
-                }
-                @Override
-                public T next() {
-                    return it.next();
-                }
-                @Override
-                public void remove() {
+        return new Iterator<T>() {
+            private Iterator<T> it = coll().iterator();
+            /** The position of the Entity last returned by {@link #next()}. */
+            private int         index = -1;
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+            @Override
+            public T next() {
+                T result = it.next();
+                index ++;
+                return result;
+            }
+            @Override
+            public void remove() {
+                if (isImmutable) {
                     throw new ModelRuntimeException( "Property is @Immutable: " + fullPropName() );
                 }
-            };
-        }
+                context.beforeModification();
+                recordRemoved( index );
+                it.remove();
+                index --;
+                context.raiseStatus( EntityStatus.MODIFIED );
+            }
+        };
     }
 
     @Override
@@ -190,9 +241,4 @@ final class ConstraintsManyAssociationInterceptor<T extends Entity>
         return coll().containsAll( c );
     }
 
-    @Override
-    public void clear() {
-        coll().clear();
-    }
-
 }
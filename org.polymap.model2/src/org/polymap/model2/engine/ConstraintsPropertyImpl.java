@@ -0,0 +1,142 @@
+/* 
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import org.polymap.model2.DefaultValue;
+import org.polymap.model2.Immutable;
+import org.polymap.model2.Nullable;
+import org.polymap.model2.Property;
+import org.polymap.model2.StatelessPropertyConcern;
+import org.polymap.model2.engine.EntityRepositoryImpl.EntityRuntimeContextImpl;
+import org.polymap.model2.runtime.EntityRuntimeContext.EntityStatus;
+import org.polymap.model2.runtime.ModelRuntimeException;
+import org.polymap.model2.runtime.PropertyInfo;
+import org.polymap.model2.runtime.TypedValueInitializer;
+import org.polymap.model2.runtime.ValueInitializer;
+import org.polymap.model2.store.StoreProperty;
+
+/**
+ * Property implementation for simple (non-Composite) values. Combines the store
+ * access and the constraints ({@link DefaultValue}, {@link Immutable},
+ * {@link Nullable}, status raising) in one object, so there is no
+ * {@link ConstraintsPropertyInterceptor} on top of it. The constraint flags and the
+ * property info come from the {@link PropertySlot} that is shared by all instances
+ * of the type. The {@link StatelessPropertyConcern} of the slot is invoked
+ * directly with the context and the store property of this instance.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+final class ConstraintsPropertyImpl<T>
+        implements Property<T> {
+
+    private StoreProperty<T>            storeProp;
+    
+    private EntityRuntimeContextImpl    context;
+    
+    private PropertySlot                slot;
+    
+    
+    public ConstraintsPropertyImpl( StoreProperty<T> storeProp, EntityRuntimeContextImpl context, PropertySlot slot ) {
+        this.storeProp = storeProp;
+        this.context = context;
+        this.slot = slot;
+    }
+
+    
+    protected String fullPropName() {
+        return context.getInfo().getName() + "." + slot.info.getName();
+    }
+
+    
+    @Override
+    public T get() {
+        // no cache here; the store should decide when and what to cache.
+        T value = slot.stateless != null
+                ? (T)slot.stateless.get( context, storeProp )
+                : storeProp.get();
+        
+        // check/init default value
+        if (value == null) {
+            value = (T)slot.info.getDefaultValue();
+            // check Nullable
+            if (value == null && !slot.isNullable) {
+                throw new ModelRuntimeException( "Property is not @Nullable: " + fullPropName() );
+            }
+        }
+        return value;
+    }
+
+    
+    @Override
+    public void set( T value ) {
+        context.checkEviction();
+        
+        // XXX this should always fail outside a ValueInitializer
+        if (slot.isImmutable && storeProp.get() != null) {
+            throw new ModelRuntimeException( "Property is @Immutable: " + fullPropName() );
+        }
+        if (!slot.isNullable && value == null) {
+            throw new ModelRuntimeException( "Property is not @Nullable: " + fullPropName() );
+        }
+        context.beforeModification();
+        context.recordUndo( () -> {
+            T before = storeProp.get();
+            return () -> storeProp.set( before );
+        });
+        if (slot.stateless != null) {
+            slot.stateless.set( context, storeProp, value );
+        }
+        else {
+            storeProp.set( value );
+        }
+        
+        context.raiseStatus( EntityStatus.MODIFIED );
+    }
+
+    
+    @Override
+    public <U extends T> U createValue( ValueInitializer<U> initializer ) {
+        U result = slot.stateless != null
+                ? (U)slot.stateless.createValue( context, storeProp )
+                : (U)storeProp.createValue( null );
+        if (initializer != null) {
+            try {
+                assert !(initializer instanceof TypedValueInitializer) : "TypeValueInitializer not allowed for simple type.";
+                result = initializer.initialize( result );
+            }
+            catch (RuntimeException e) {
+                throw e;
+            }
+            catch (Exception e) {
+                throw new ModelRuntimeException( e );
+            }
+        }
+        return result;
+    }
+
+    
+    @Override
+    public PropertyInfo info() {
+        return slot.info;
+    }
+
+    
+    @Override
+    public String toString() {
+        T value = storeProp.get();
+        return "Property[name:" + slot.info.getName() + ",value=" + (value != null ? value.toString() : "null") + "]";
+    }
+
+}
@@ -44,11 +44,7 @@ final class ConstraintsPropertyInterceptor<T>
         
         // check/init default value
         if (value == null) {
-            if (defaultValue == UNINITIALIZED) {
-                // not synchronized; concurrent inits are ok here 
-                defaultValue = delegate.info().getDefaultValue();
-            }
-            value = (T)defaultValue;
+            value = (T)delegate.info().getDefaultValue();
         }
         // check Nullable
         if (value == null && !isNullable) {
@@ -69,6 +65,15 @@ final class ConstraintsPropertyInterceptor<T>
         if (!isNullable && value == null) {
             throw new ModelRuntimeException( "Property is not @Nullable: " + fullPropName() );
         }
+        context.beforeModification();
+        context.recordUndo( () -> {
+            // setting a Composite value replaces its state
+            if (delegate instanceof CompositePropertyImpl) {
+                return null;
+            }
+            T before = delegate().get();
+            return () -> delegate().set( before );
+        });
         delegate().set( value );
         
         context.raiseStatus( EntityStatus.MODIFIED );
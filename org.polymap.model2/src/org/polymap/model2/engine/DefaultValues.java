@@ -18,6 +18,16 @@ import java.util.Date;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.ParameterizedType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
 
 import org.apache.commons.logging.LogFactory;import org.apache.commons.logging.Log;
 
@@ -33,10 +43,24 @@ public class DefaultValues {
 
     private static Log log = LogFactory.getLog( DefaultValues.class );
 
-    public static final String      DEFAULT_STRING = "";
-    public static final Integer     DEFAULT_INTEGER = new Integer( 0 );
-    public static final Date        DEFAULT_DATE = new Date( 0 );
-    public static final Boolean     DEFAULT_BOOLEAN = Boolean.FALSE;
+    public static final String          DEFAULT_STRING = "";
+    public static final Integer         DEFAULT_INTEGER = new Integer( 0 );
+    public static final Long            DEFAULT_LONG = new Long( 0 );
+    public static final Short           DEFAULT_SHORT = new Short( (short)0 );
+    public static final Byte            DEFAULT_BYTE = new Byte( (byte)0 );
+    public static final Double          DEFAULT_DOUBLE = new Double( 0 );
+    public static final Float           DEFAULT_FLOAT = new Float( 0 );
+    public static final BigInteger      DEFAULT_BIGINTEGER = BigInteger.ZERO;
+    public static final BigDecimal      DEFAULT_BIGDECIMAL = BigDecimal.ZERO;
+    public static final Date            DEFAULT_DATE = new Date( 0 );
+    public static final Boolean         DEFAULT_BOOLEAN = Boolean.FALSE;
+    public static final LocalDate       DEFAULT_LOCALDATE = LocalDate.ofEpochDay( 0 );
+    public static final LocalTime       DEFAULT_LOCALTIME = LocalTime.MIDNIGHT;
+    public static final LocalDateTime   DEFAULT_LOCALDATETIME = LocalDateTime.of( DEFAULT_LOCALDATE, DEFAULT_LOCALTIME );
+    public static final Instant         DEFAULT_INSTANT = Instant.EPOCH;
+    public static final OffsetDateTime  DEFAULT_OFFSETDATETIME = OffsetDateTime.ofInstant( Instant.EPOCH, ZoneOffset.UTC );
+    public static final ZonedDateTime   DEFAULT_ZONEDDATETIME = ZonedDateTime.ofInstant( Instant.EPOCH, ZoneOffset.UTC );
+    public static final Duration        DEFAULT_DURATION = Duration.ZERO;
 
     /**
      * Creates a default value for the given field. The default value can be defined
@@ -49,43 +73,176 @@ public class DefaultValues {
     public static Object valueOf( Field field ) {
         Class<?> type = (Class)((ParameterizedType)field.getGenericType())
                 .getActualTypeArguments()[0];
-        
-        // @DefaultValue
         DefaultValue defaultValue = field.getAnnotation( DefaultValue.class );
+        return valueOf( type, 
+                defaultValue != null ? defaultValue.value() : null, 
+                field.getAnnotation( Defaults.class ) != null );
+    }
+    
+    
+    /**
+     * Creates a default value for a property of the given type.
+     * 
+     * @param type The type of the property.
+     * @param defaultValue The value of the {@link DefaultValue} annotation, or null.
+     * @param defaults True if the property has a {@link Defaults} annotation.
+     * @return The default value, or null if no default value was defined.
+     */
+    public static Object valueOf( Class<?> type, String defaultValue, boolean defaults ) {
+        // @DefaultValue
         if (defaultValue != null) {
-            if (type.equals( String.class )) {
-                return defaultValue.value();
-            }
-            else if (type.equals( Integer.class )) {
-                return Integer.parseInt( defaultValue.value() );
-            }
-            // XXX
-            else {
-                throw new UnsupportedOperationException( "Default values of this type are not supported yet: " + type );
-            }
-        }
-        
+            return parse( type, defaultValue );
+        }
         // @Defaults
-        Defaults defaults = field.getAnnotation( Defaults.class );
-        if (defaults != null) {
-            if (type.equals( String.class )) {
-                return DEFAULT_STRING;
-            }
-            else if (type.equals( Integer.class )) {
-                return DEFAULT_INTEGER;
-            }
-            else if (type.equals( Date.class )) {
-                return DEFAULT_DATE;
-            }
-            else if (type.equals( Boolean.class )) {
-                return DEFAULT_BOOLEAN;
-            }
-            // XXX
-            else {
-                throw new UnsupportedOperationException( "Default values of this type are not supported yet: " + type );
-            }
+        if (defaults) {
+            return defaultOf( type );
         }
         return null;
     }
     
+
+    /**
+     * Returns a copy of the given default value if it is mutable, or the value
+     * itself otherwise. This makes sure that a property never returns a shared
+     * mutable instance.
+     */
+    public static Object copyOf( Object value ) {
+        return value instanceof Date ? ((Date)value).clone() : value;
+    }
+    
+
+    /**
+     * Parses the given {@link DefaultValue} string into a value of the given type.
+     *
+     * @throws UnsupportedOperationException If the type is not supported.
+     */
+    public static Object parse( Class<?> type, String value ) {
+        if (type.equals( String.class )) {
+            return value;
+        }
+        else if (type.equals( Integer.class )) {
+            return Integer.valueOf( value );
+        }
+        else if (type.equals( Long.class )) {
+            return Long.valueOf( value );
+        }
+        else if (type.equals( Short.class )) {
+            return Short.valueOf( value );
+        }
+        else if (type.equals( Byte.class )) {
+            return Byte.valueOf( value );
+        }
+        else if (type.equals( Double.class )) {
+            return Double.valueOf( value );
+        }
+        else if (type.equals( Float.class )) {
+            return Float.valueOf( value );
+        }
+        else if (type.equals( Boolean.class )) {
+            return Boolean.valueOf( value );
+        }
+        else if (type.equals( BigInteger.class )) {
+            return new BigInteger( value );
+        }
+        else if (type.equals( BigDecimal.class )) {
+            return new BigDecimal( value );
+        }
+        else if (type.isEnum()) {
+            return Enum.valueOf( (Class<Enum>)type, value );
+        }
+        // java.time: ISO-8601
+        else if (type.equals( LocalDate.class )) {
+            return LocalDate.parse( value );
+        }
+        else if (type.equals( LocalTime.class )) {
+            return LocalTime.parse( value );
+        }
+        else if (type.equals( LocalDateTime.class )) {
+            return LocalDateTime.parse( value );
+        }
+        else if (type.equals( Instant.class )) {
+            return Instant.parse( value );
+        }
+        else if (type.equals( OffsetDateTime.class )) {
+            return OffsetDateTime.parse( value );
+        }
+        else if (type.equals( ZonedDateTime.class )) {
+            return ZonedDateTime.parse( value );
+        }
+        else if (type.equals( Duration.class )) {
+            return Duration.parse( value );
+        }
+        // XXX
+        else {
+            throw new UnsupportedOperationException( "Default values of this type are not supported yet: " + type );
+        }
+    }
+    
+    
+    /**
+     * The {@link Defaults} value of the given type.
+     *
+     * @throws UnsupportedOperationException If the type is not supported.
+     */
+    public static Object defaultOf( Class<?> type ) {
+        if (type.equals( String.class )) {
+            return DEFAULT_STRING;
+        }
+        else if (type.equals( Integer.class )) {
+            return DEFAULT_INTEGER;
+        }
+        else if (type.equals( Long.class )) {
+            return DEFAULT_LONG;
+        }
+        else if (type.equals( Short.class )) {
+            return DEFAULT_SHORT;
+        }
+        else if (type.equals( Byte.class )) {
+            return DEFAULT_BYTE;
+        }
+        else if (type.equals( Double.class )) {
+            return DEFAULT_DOUBLE;
+        }
+        else if (type.equals( Float.class )) {
+            return DEFAULT_FLOAT;
+        }
+        else if (type.equals( BigInteger.class )) {
+            return DEFAULT_BIGINTEGER;
+        }
+        else if (type.equals( BigDecimal.class )) {
+            return DEFAULT_BIGDECIMAL;
+        }
+        else if (type.equals( Date.class )) {
+            return DEFAULT_DATE;
+        }
+        else if (type.equals( Boolean.class )) {
+            return DEFAULT_BOOLEAN;
+        }
+        else if (type.equals( LocalDate.class )) {
+            return DEFAULT_LOCALDATE;
+        }
+        else if (type.equals( LocalTime.class )) {
+            return DEFAULT_LOCALTIME;
+        }
+        else if (type.equals( LocalDateTime.class )) {
+            return DEFAULT_LOCALDATETIME;
+        }
+        else if (type.equals( Instant.class )) {
+            return DEFAULT_INSTANT;
+        }
+        else if (type.equals( OffsetDateTime.class )) {
+            return DEFAULT_OFFSETDATETIME;
+        }
+        else if (type.equals( ZonedDateTime.class )) {
+            return DEFAULT_ZONEDDATETIME;
+        }
+        else if (type.equals( Duration.class )) {
+            return DEFAULT_DURATION;
+        }
+        // XXX
+        else {
+            throw new UnsupportedOperationException( "Default values of this type are not supported yet: " + type );
+        }
+    }
+    
 }
@@ -14,11 +14,25 @@
  */
 package org.polymap.model2.engine;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
 
 import java.lang.reflect.Field;
 
@@ -28,10 +42,12 @@ import org.apache.commons.logging.LogFactory;
 import org.polymap.model2.Composite;
 import org.polymap.model2.Entity;
 import org.polymap.model2.query.Expressions;
+import org.polymap.model2.query.Query;
 import org.polymap.model2.runtime.CompositeInfo;
 import org.polymap.model2.runtime.EntityRepository;
 import org.polymap.model2.runtime.EntityRuntimeContext;
 import org.polymap.model2.runtime.ModelRuntimeException;
+import org.polymap.model2.runtime.Preload;
 import org.polymap.model2.runtime.PropertyInfo;
 import org.polymap.model2.runtime.UnitOfWork;
 import org.polymap.model2.runtime.EntityRuntimeContext.EntityStatus;
@@ -54,47 +70,164 @@ public class EntityRepositoryImpl
     /** Infos of Entities, Mixins, Composite properties. */
     private Map<Class<? extends Composite>,CompositeInfo> infos = new HashMap();
     
+    /** Cached value of {@link Configuration#lazyProperties}. */
+    private boolean                     lazyProperties;
+    
+    /** Interned query templates, see {@link #templateOf(Class)}. */
+    private ConcurrentMap<Class<? extends Composite>,Composite> templates = new ConcurrentHashMap( 64 );
+    
+    /** The {@link Configuration#bootstrapThreads} executor; null after bootstrap. */
+    private volatile ExecutorService    bootstrapExecutor;
+    
+    /** The running {@link #preload(Query...)} instances, cancelled on {@link #close()}. */
+    private List<Preload>               preloads = new CopyOnWriteArrayList();
+    
     
     public EntityRepositoryImpl( final Configuration config ) {
         this.config = config;
+        this.lazyProperties = config.lazyProperties.get();
         
-        // init store
-        getStore().init( new StoreRuntimeContextImpl() );
+        int threads = config.bootstrapThreads.get();
+        if (threads > 1) {
+            AtomicInteger count = new AtomicInteger();
+            bootstrapExecutor = Executors.newFixedThreadPool( threads, r -> {
+                Thread thread = new Thread( r, "model2-bootstrap-" + count.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            });
+        }
+        try {
+            // init store
+            long start = System.nanoTime();
+            getStore().init( new StoreRuntimeContextImpl() );
+            long storeTime = System.nanoTime() - start;
+
+            // init infos
+            start = System.nanoTime();
+            initInfos();
+            long infosTime = System.nanoTime() - start;
+            
+            // init static TYPE variables
+            start = System.nanoTime();
+            initTypeFields();
+            long typesTime = System.nanoTime() - start;
+            
+            log.info( "Bootstrap (" + Math.max( threads, 1 ) + " threads): " 
+                    + "store: " + TimeUnit.NANOSECONDS.toMillis( storeTime ) + "ms, "
+                    + "infos: " + TimeUnit.NANOSECONDS.toMillis( infosTime ) + "ms (" + infos.size() + " types), "
+                    + "templates: " + TimeUnit.NANOSECONDS.toMillis( typesTime ) + "ms" );
+        }
+        finally {
+            if (bootstrapExecutor != null) {
+                bootstrapExecutor.shutdownNow();
+                bootstrapExecutor = null;
+            }
+        }
         
-        // init infos
+        // preload
+        if (config.preload.get() != null) {
+            Preload preload = preload( config.preload.get() );
+            if (config.preloadBlocking.get()) {
+                preload.await();
+            }
+        }
+    }
+
+    
+    /**
+     * Breadth-first search over all Entity, Mixin and Composite property types.
+     * The types of one level are independent from each other and are analyzed
+     * concurrently if there is a {@link #bootstrapExecutor}.
+     */
+    protected void initInfos() {
         log.debug( "Initialializing Composite types:" );
-        Queue<Class<? extends Composite>> queue = new LinkedList();
-        queue.addAll( Arrays.asList( config.entities.get() ) );
-        
-        while (!queue.isEmpty()) {
-            Class<? extends Composite> type = queue.poll();
-            if (!infos.containsKey( type )) {
+        Set<Class<? extends Composite>> level = new LinkedHashSet( Arrays.asList( config.entities.get() ) );
+        while (!level.isEmpty()) {
+            List<Callable<CompositeInfoImpl>> tasks = new ArrayList( level.size() );
+            for (Class<? extends Composite> type : level) {
                 log.debug( "    Composite type: " + type );
-                CompositeInfoImpl info = new CompositeInfoImpl( type );
-                infos.put( type, info );
-
-                // init static TYPE variable
-                try {
-                    Field field = type.getDeclaredField( "TYPE" );
-                    field.setAccessible( true );
-                    field.set( null, Expressions.template( type, this ) );
-                }
-                catch (NoSuchFieldException e) {
-                }
-                catch (SecurityException|IllegalAccessException e) {
-                    throw new ModelRuntimeException( e );
-                }
-                
+                tasks.add( () -> new CompositeInfoImpl( type ) );
+            }
+            Set<Class<? extends Composite>> next = new LinkedHashSet();
+            for (CompositeInfoImpl info : runAll( tasks )) {
+                infos.put( info.getType(), info );
                 // mixins
-                queue.addAll( info.getMixins() );
-
+                next.addAll( info.getMixins() );
                 // Composite properties
                 for (PropertyInfo propInfo : info.getProperties()) {
                     if (Composite.class.isAssignableFrom( propInfo.getType() )) {
-                        queue.offer( propInfo.getType() );
+                        next.add( propInfo.getType() );
+                    }
+                }
+            }
+            next.removeAll( infos.keySet() );
+            level = next;
+        }
+    }
+
+    
+    /**
+     * Sets the static <code>TYPE</code> variables of all types that have one.
+     */
+    protected void initTypeFields() {
+        List<Callable<Object>> tasks = new ArrayList( infos.size() );
+        for (Class<? extends Composite> type : infos.keySet()) {
+            tasks.add( () -> {
+                CompositeMetadata metadata = CompositeMetadata.of( type );
+                if (metadata != null) {
+                    metadata.initTemplate( () -> Expressions.template( type, this ) );
+                }
+                else {
+                    try {
+                        Field field = type.getDeclaredField( "TYPE" );
+                        field.setAccessible( true );
+                        field.set( null, Expressions.template( type, this ) );
+                    }
+                    catch (NoSuchFieldException e) {
                     }
+                    catch (SecurityException|IllegalAccessException e) {
+                        throw new ModelRuntimeException( e );
+                    }
+                }
+                return null;
+            });
+        }
+        runAll( tasks );
+    }
+
+    
+    /**
+     * Runs the given tasks on the {@link #bootstrapExecutor}, or in the calling
+     * thread if there is no executor.
+     *
+     * @return The results in the order of the tasks.
+     * @throws ModelRuntimeException If a task failed.
+     */
+    protected <R> List<R> runAll( List<Callable<R>> tasks ) {
+        List<R> results = new ArrayList( tasks.size() );
+        try {
+            if (bootstrapExecutor == null || tasks.size() < 2) {
+                for (Callable<R> task : tasks) {
+                    results.add( task.call() );
+                }
+            }
+            else {
+                for (Future<R> future : bootstrapExecutor.invokeAll( tasks )) {
+                    results.add( future.get() );
                 }
             }
+            return results;
+        }
+        catch (ExecutionException e) {
+            throw e.getCause() instanceof RuntimeException
+                    ? (RuntimeException)e.getCause()
+                    : new ModelRuntimeException( e.getCause() );
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new ModelRuntimeException( e );
         }
     }
 
@@ -110,6 +243,13 @@ public class EntityRepositoryImpl
         return config;
     }
 
+    /**
+     * See {@link Configuration#lazyProperties}.
+     */
+    boolean isLazyProperties() {
+        return lazyProperties;
+    }
+
     public boolean isOpen() {
         return config != null;
     }
@@ -123,10 +263,12 @@ public class EntityRepositoryImpl
     public void close() {
         if (isOpen()) {
             try {
+                preloads.forEach( preload -> preload.cancel() );
                 getStore().close();
             }
             finally {
                 config = null;
+                templates.clear();
             }
         }
     }
@@ -136,16 +278,67 @@ public class EntityRepositoryImpl
         return infos.get( compositeClass );
     }
     
+    /**
+     * The query template of the given type. Templates are stateless, so just one
+     * instance per type is built, on first request, and shared by all queries of
+     * this repository. This also applies to the templates that are reached via the
+     * associations of a template.
+     *
+     * @see Expressions#template(Class, EntityRepository)
+     */
+    public <T extends Composite> T templateOf( Class<T> compositeClass ) {
+        Composite result = templates.get( compositeClass );
+        if (result == null) {
+            // no computeIfAbsent(): building a template must not block other types
+            result = new TemplateInstanceBuilder( this ).newComposite( compositeClass );
+            Composite previous = templates.putIfAbsent( compositeClass, result );
+            result = previous != null ? previous : result;
+        }
+        return (T)result;
+    }
+    
     @Override    
     public UnitOfWork newUnitOfWork() {
         return new UnitOfWorkImpl( this, getStore().createUnitOfWork() );
     }
     
+    @Override    
+    public UnitOfWork newReadOnlyUnitOfWork() {
+        return new UnitOfWorkReadOnly( this, getStore().createUnitOfWork() );
+    }
+    
+    
+    /**
+     * The queries of the given types are built by a read-only {@link UnitOfWork}
+     * that is closed when the preload is done.
+     */
+    @Override
+    public Preload preload( Class<? extends Entity>... types ) {
+        UnitOfWork uow = newReadOnlyUnitOfWork();
+        List<Query> queries = new ArrayList( types.length );
+        for (Class<? extends Entity> type : types) {
+            queries.add( uow.query( type ) );
+        }
+        Preload result = preload( queries.toArray( new Query[queries.size()] ) );
+        result.completion().whenComplete( (preload,e) -> uow.close() );
+        return result;
+    }
+
+
+    @Override
+    public Preload preload( Query... queries ) {
+        PreloadImpl result = new PreloadImpl( getStore(), Arrays.asList( queries ), config.preloadThreads.get() );
+        preloads.add( result );
+        result.completion().whenComplete( (preload,e) -> preloads.remove( result ) );
+        return result.start();
+    }
+    
     
     protected <T extends Entity> T buildEntity( CompositeState state, Class<T> entityClass, UnitOfWork uow ) {
         try {
-            EntityRuntimeContextImpl entityContext = new EntityRuntimeContextImpl( 
-                    state, EntityStatus.LOADED, uow );
+            EntityRuntimeContextImpl entityContext = uow.isReadOnly()
+                    ? new ReadOnlyEntityRuntimeContext( state, uow )
+                    : new EntityRuntimeContextImpl( state, EntityStatus.LOADED, uow );
             InstanceBuilder builder = new InstanceBuilder( entityContext );
             T result = builder.newComposite( state, entityClass );
             entityContext.entity = result;
@@ -204,6 +397,10 @@ public class EntityRepositoryImpl
             return EntityRepositoryImpl.this.contextOfEntity( entity );
         }
 
+        public ExecutorService getBootstrapExecutor() {
+            return bootstrapExecutor;
+        }
+
     }
 
 
@@ -217,10 +414,25 @@ public class EntityRepositoryImpl
         
         private CompositeState          state;
         
-        private EntityStatus            status;
+        /** Volatile: the Entity might be evicted by another thread. */
+        private volatile EntityStatus   status;
         
         private UnitOfWork              uow;
 
+        private CompositeInfoImpl       info;
+
+        /** The declared mixins, indexed by {@link CompositeInfoImpl#mixinIndex(Class)}; lazily created. */
+        private volatile AtomicReferenceArray<Composite> mixins;
+
+        /** Mixins that are not declared by the Entity type; lazily created. */
+        private volatile ConcurrentMap<Class,Composite> undeclaredMixins;
+
+        /** True if the state was modified since load or commit. */
+        private boolean                 stateModified;
+
+        /** The state before the first modification, see {@link #beforeModification()}. */
+        private CompositeState          beforeImage;
+
         
         EntityRuntimeContextImpl( CompositeState state, EntityStatus status, UnitOfWork uow ) {
             assert state != null;
@@ -266,7 +478,7 @@ public class EntityRepositoryImpl
         }
 
         @Override
-        public EntityRepository getRepository() {
+        public EntityRepositoryImpl getRepository() {
             checkEviction();
             return EntityRepositoryImpl.this;
         }
@@ -283,13 +495,33 @@ public class EntityRepositoryImpl
             return status;
         }
 
+        /**
+         * The status, including {@link EntityStatus#EVICTED}, without
+         * {@link #checkEviction()}.
+         */
+        EntityStatus status() {
+            return status;
+        }
+
         @Override
         public void raiseStatus( EntityStatus newStatus ) {
             assert newStatus.status >= status.status;
+            EntityStatus previous = status;
             // keep created if modified after creation
             if (status != EntityStatus.CREATED) {
                 status = newStatus;
             }
+            // creation is reverted by UnitOfWorkImpl#createEntity()
+            if (status != previous && status != EntityStatus.CREATED) {
+                recordUndo( () -> () -> {
+                    status = previous;
+                    if (previous == EntityStatus.LOADED) {
+                        ((UnitOfWorkImpl)uow).removeModified( state.id() );
+                        stateModified = false;
+                        beforeImage = null;
+                    }
+                });
+            }
             ((UnitOfWorkImpl)uow).raiseStatus( entity );
         }
 
@@ -299,6 +531,95 @@ public class EntityRepositoryImpl
             this.status = newStatus;
         }
 
+        /**
+         * Copies the state on the first modification of a loaded Entity, so that
+         * {@link UnitOfWork#rollback()} can restore it. This costs as much as
+         * cloning the entire state, once per Entity between commits; subsequent
+         * modifications do not copy.
+         */
+        @Override
+        public void beforeModification() {
+            checkEviction();
+            if (!stateModified) {
+                stateModified = true;
+                // created Entities are discarded on rollback
+                if (status != EntityStatus.CREATED) {
+                    beforeImage = ((UnitOfWorkImpl)uow).beforeImage( state );
+                }
+            }
+        }
+
+        @Override
+        public void recordUndo( Supplier<Runnable> undo ) {
+            ((UnitOfWorkImpl)uow).recordUndo( undo );
+        }
+
+        /**
+         * Resets the status and the before-image after commit.
+         */
+        void committed() {
+            checkEviction();
+            status = EntityStatus.LOADED;
+            stateModified = false;
+            beforeImage = null;
+        }
+
+        /**
+         * Restores the state from the before-image on rollback.
+         *
+         * @return False if the Entity was created or its state cannot be restored;
+         *         the Entity is {@link EntityStatus#EVICTED} then.
+         */
+        boolean restore() {
+            checkEviction();
+            boolean result = status != EntityStatus.CREATED && (!stateModified || beforeImage != null);
+            if (result && stateModified) {
+                ((UnitOfWorkImpl)uow).restoreBeforeImage( state, beforeImage );
+            }
+            status = result ? EntityStatus.LOADED : EntityStatus.EVICTED;
+            stateModified = false;
+            beforeImage = null;
+            return result;
+        }
+
+        /**
+         * The mixin of the given type. A declared mixin is built on first request and
+         * then kept in a slot array, so subsequent requests just read the array.
+         */
+        public <T extends Composite> T mixin( Class<T> mixinClass ) {
+            checkEviction();
+            if (info == null) {
+                info = (CompositeInfoImpl)getInfo();
+            }
+            int index = info.mixinIndex( mixinClass );
+            if (index >= 0) {
+                AtomicReferenceArray<Composite> slots = mixins;
+                if (slots == null) {
+                    synchronized (this) {
+                        slots = mixins != null ? mixins : (mixins = new AtomicReferenceArray( info.getMixins().size() ));
+                    }
+                }
+                Composite result = slots.get( index );
+                if (result == null) {
+                    result = buildMixin( entity, mixinClass, uow );
+                    if (!slots.compareAndSet( index, null, result )) {
+                        result = slots.get( index );
+                    }
+                }
+                return (T)result;
+            }
+            else {
+                // not declared; InstanceBuilder builds it anyway
+                ConcurrentMap<Class,Composite> map = undeclaredMixins;
+                if (map == null) {
+                    synchronized (this) {
+                        map = undeclaredMixins != null ? undeclaredMixins : (undeclaredMixins = new ConcurrentHashMap( 4 ));
+                    }
+                }
+                return (T)map.computeIfAbsent( mixinClass, k -> buildMixin( entity, mixinClass, uow ) );
+            }
+        }
+
         @Override
         public <T extends Composite> T getCompositePart( Class<T> type ) {
             if (type.isAssignableFrom( entity.getClass() )) {
@@ -317,4 +638,33 @@ public class EntityRepositoryImpl
 
     }
     
+    
+    /**
+     * The context of an Entity of a {@link UnitOfWorkReadOnly}. The status is
+     * always {@link EntityStatus#LOADED} (or EVICTED); every attempt to modify the
+     * Entity is rejected.
+     */
+    protected class ReadOnlyEntityRuntimeContext
+            extends EntityRuntimeContextImpl {
+
+        ReadOnlyEntityRuntimeContext( CompositeState state, UnitOfWork uow ) {
+            super( state, EntityStatus.LOADED, uow );
+        }
+
+        @Override
+        public void raiseStatus( EntityStatus newStatus ) {
+            throw UnitOfWorkReadOnly.readOnlyException();
+        }
+
+        @Override
+        public void beforeModification() {
+            throw UnitOfWorkReadOnly.readOnlyException();
+        }
+
+        @Override
+        public void recordUndo( Supplier<Runnable> undo ) {
+            throw UnitOfWorkReadOnly.readOnlyException();
+        }
+    }
+    
 }
@@ -125,6 +125,57 @@ public abstract class IteratorBuilder<T>
     }
 
     
+    /**
+     * Skips the given number of elements.
+     *
+     * @param n The number of elements to skip.
+     * @return Newly created instance.
+     */
+    public IteratorBuilder<T> skip( int n ) {
+        return new IteratorBuilder( thisButSuppressStart() ) {
+            private int         skipped;
+            
+            @Override
+            public boolean hasNext() {
+                while (skipped < n && delegate.hasNext()) {
+                    delegate.next();
+                    skipped ++;
+                }
+                return delegate.hasNext();
+            }
+            
+            @Override
+            public T next() {
+                return (T)delegate.next();
+            }
+        };
+    }
+
+    
+    /**
+     * Truncates to the given number of elements.
+     *
+     * @param n The maximum number of elements.
+     * @return Newly created instance.
+     */
+    public IteratorBuilder<T> limit( int n ) {
+        return new IteratorBuilder( thisButSuppressStart() ) {
+            private int         count;
+            
+            @Override
+            public boolean hasNext() {
+                return count < n && delegate.hasNext();
+            }
+            
+            @Override
+            public T next() {
+                count ++;
+                return (T)delegate.next();
+            }
+        };
+    }
+
+    
     /**
      * 
      * @param f
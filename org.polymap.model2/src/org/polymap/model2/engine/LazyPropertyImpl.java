@@ -0,0 +1,306 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import org.polymap.model2.Association;
+import org.polymap.model2.CollectionProperty;
+import org.polymap.model2.Composite;
+import org.polymap.model2.Entity;
+import org.polymap.model2.LazyProperties;
+import org.polymap.model2.ManyAssociation;
+import org.polymap.model2.Property;
+import org.polymap.model2.PropertyBase;
+import org.polymap.model2.runtime.EntityRepository;
+import org.polymap.model2.runtime.ModelRuntimeException;
+import org.polymap.model2.runtime.PropertyInfo;
+import org.polymap.model2.runtime.ValueInitializer;
+import org.polymap.model2.store.CompositeState;
+
+/**
+ * Placeholder of a property that is not yet built. The actual property, including
+ * its store property, constraints and concerns, is built by {@link InstanceBuilder}
+ * on first access.
+ *
+ * @see LazyProperties
+ * @see EntityRepository.Configuration#lazyProperties
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+abstract class LazyPropertyImpl<T,P extends PropertyBase<T>>
+        implements PropertyBase<T> {
+
+    /**
+     * Creates a placeholder for the given slot.
+     */
+    public static PropertyBase create( InstanceBuilder builder, PropertySlot slot,
+            Composite instance, CompositeState state ) {
+        switch (slot.kind) {
+            case ASSOCIATION:
+                return new LazyAssociation( builder, slot, instance, state );
+            case MANY_ASSOCIATION:
+                return new LazyManyAssociation( builder, slot, instance, state );
+            case COLLECTION:
+            case COMPOSITE_COLLECTION:
+                return new LazyCollectionProperty( builder, slot, instance, state );
+            default:
+                return new LazyProperty( builder, slot, instance, state );
+        }
+    }
+
+
+    // instance *******************************************
+
+    private PropertySlot        slot;
+
+    private InstanceBuilder     builder;
+
+    private Composite           instance;
+
+    private CompositeState      state;
+
+    private volatile P          delegate;
+
+
+    protected LazyPropertyImpl( InstanceBuilder builder, PropertySlot slot, Composite instance, CompositeState state ) {
+        this.builder = builder;
+        this.slot = slot;
+        this.instance = instance;
+        this.state = state;
+    }
+
+
+    protected P delegate() {
+        P result = delegate;
+        if (result == null) {
+            synchronized (this) {
+                result = delegate;
+                if (result == null) {
+                    try {
+                        result = delegate = (P)builder.buildProperty( slot, instance, state );
+                        builder = null;
+                        instance = null;
+                        state = null;
+                    }
+                    catch (RuntimeException e) {
+                        throw e;
+                    }
+                    catch (Exception e) {
+                        throw new ModelRuntimeException( "Error while building property: " + slot, e );
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+
+    @Override
+    public PropertyInfo info() {
+        return slot.info;
+    }
+
+    /**
+     * Does not build the property. The placeholder keeps the identity based
+     * {@link #equals(Object)} and {@link #hashCode()}.
+     */
+    @Override
+    public String toString() {
+        P result = delegate;
+        return result != null ? result.toString() : "LazyProperty[name:" + slot.info.getName() + "]";
+    }
+
+
+    /**
+     *
+     */
+    static class LazyProperty<T>
+            extends LazyPropertyImpl<T,Property<T>>
+            implements Property<T> {
+
+        protected LazyProperty( InstanceBuilder builder, PropertySlot slot, Composite instance, CompositeState state ) {
+            super( builder, slot, instance, state );
+        }
+
+        @Override
+        public T get() {
+            return delegate().get();
+        }
+
+        @Override
+        public <U extends T> U createValue( ValueInitializer<U> initializer ) {
+            return delegate().createValue( initializer );
+        }
+
+        @Override
+        public void set( T value ) {
+            delegate().set( value );
+        }
+    }
+
+
+    /**
+     *
+     */
+    static class LazyAssociation<T extends Entity>
+            extends LazyPropertyImpl<T,Association<T>>
+            implements Association<T> {
+
+        protected LazyAssociation( InstanceBuilder builder, PropertySlot slot, Composite instance, CompositeState state ) {
+            super( builder, slot, instance, state );
+        }
+
+        @Override
+        public T get() {
+            return delegate().get();
+        }
+
+        @Override
+        public void set( T value ) {
+            delegate().set( value );
+        }
+    }
+
+
+    /**
+     *
+     */
+    static abstract class LazyCollection<T,P extends PropertyBase<T> & Collection<T>>
+            extends LazyPropertyImpl<T,P>
+            implements Collection<T> {
+
+        protected LazyCollection( InstanceBuilder builder, PropertySlot slot, Composite instance, CompositeState state ) {
+            super( builder, slot, instance, state );
+        }
+
+        /**
+         * Compares the contents with other Collections. Comparing with itself does
+         * not build the property.
+         */
+        @Override
+        public boolean equals( Object o ) {
+            return o == this || (o instanceof Collection && delegate().equals( o ));
+        }
+
+        @Override
+        public int size() {
+            return delegate().size();
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return delegate().isEmpty();
+        }
+
+        @Override
+        public boolean contains( Object o ) {
+            return delegate().contains( o );
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return delegate().iterator();
+        }
+
+        @Override
+        public Object[] toArray() {
+            return delegate().toArray();
+        }
+
+        @Override
+        public <A> A[] toArray( A[] a ) {
+            return delegate().toArray( a );
+        }
+
+        @Override
+        public boolean add( T e ) {
+            return delegate().add( e );
+        }
+
+        @Override
+        public boolean remove( Object o ) {
+            return delegate().remove( o );
+        }
+
+        @Override
+        public boolean containsAll( Collection<?> c ) {
+            return delegate().containsAll( c );
+        }
+
+        @Override
+        public boolean addAll( Collection<? extends T> c ) {
+            return delegate().addAll( c );
+        }
+
+        @Override
+        public boolean removeAll( Collection<?> c ) {
+            return delegate().removeAll( c );
+        }
+
+        @Override
+        public boolean retainAll( Collection<?> c ) {
+            return delegate().retainAll( c );
+        }
+
+        @Override
+        public void clear() {
+            delegate().clear();
+        }
+    }
+
+
+    /**
+     *
+     */
+    static class LazyManyAssociation<T extends Entity>
+            extends LazyCollection<T,ManyAssociation<T>>
+            implements ManyAssociation<T> {
+
+        protected LazyManyAssociation( InstanceBuilder builder, PropertySlot slot, Composite instance, CompositeState state ) {
+            super( builder, slot, instance, state );
+        }
+    }
+
+
+    /**
+     *
+     */
+    static class LazyCollectionProperty<T>
+            extends LazyCollection<T,CollectionProperty<T>>
+            implements CollectionProperty<T> {
+
+        protected LazyCollectionProperty( InstanceBuilder builder, PropertySlot slot, Composite instance, CompositeState state ) {
+            super( builder, slot, instance, state );
+        }
+
+        /**
+         * CollectionProperties are equal if they have the same info; this does not
+         * build the property.
+         */
+        @Override
+        public boolean equals( Object o ) {
+            return o instanceof CollectionProperty
+                    ? info() == ((CollectionProperty)o).info()
+                    : super.equals( o );
+        }
+
+        @Override
+        public <U extends T> U createElement( ValueInitializer<U> initializer ) {
+            return delegate().createElement( initializer );
+        }
+    }
+
+}
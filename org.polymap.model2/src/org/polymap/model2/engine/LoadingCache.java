@@ -17,15 +17,17 @@ package org.polymap.model2.engine;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import javax.cache.Cache;
 import javax.cache.CacheManager;
 import javax.cache.configuration.CacheEntryListenerConfiguration;
 import javax.cache.configuration.CompleteConfiguration;
 import javax.cache.configuration.Configuration;
-import javax.cache.configuration.MutableConfiguration;
 import javax.cache.integration.CacheLoader;
-import javax.cache.integration.CacheLoaderException;
 import javax.cache.integration.CompletionListener;
 import javax.cache.processor.EntryProcessor;
 import javax.cache.processor.EntryProcessorException;
@@ -35,7 +37,16 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
- * 
+ * Cache with a {@link #get(Object, Function) get(key, loader)} contract. The
+ * loader is called by the calling thread, there is no hand-off to the
+ * {@link CacheLoader} of the underlying cache.
+ * <p/>
+ * If the underlying cache is a {@link SimpleCache} then its lock-free hit path
+ * and single-flight loading are used directly. Any other {@link Cache} is just
+ * used as backing store: the value is loaded on miss and then added via
+ * {@link Cache#putIfAbsent(Object, Object)}. Such a cache cannot be kept from
+ * evicting an entry, so {@link #pin(Object, Object) pinned} entries are held by
+ * this cache itself.
  *
  * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
  */
@@ -44,6 +55,8 @@ public class LoadingCache<K,V>
 
     private static Log log = LogFactory.getLog( LoadingCache.class );
     
+    private static final AtomicInteger  nameCount = new AtomicInteger();
+    
     // Factory ********************************************
 
     /**
@@ -53,47 +66,91 @@ public class LoadingCache<K,V>
         return new LoadingCache( cacheManager, config ); 
     }
 
-    // Loader interface ***********************************
-    
-    public interface Loader<K,V> {
-        
-        public V load( K key );
-    }
-    
     
     // instance *******************************************
 
     private Cache<K,V>                  delegate;
     
-    private ThreadLocal<Loader<K,V>>    threadLoader = new ThreadLocal();
+    /** The {@link #delegate} if it is a {@link SimpleCache}, or null. */
+    private SimpleCache<K,V>            simple;
+    
+    /** The pinned entries if the {@link #delegate} is not a {@link SimpleCache}, or null. */
+    private ConcurrentMap<K,V>          pinned;
     
     
     public LoadingCache( CacheManager cacheManager, CompleteConfiguration config ) {
-        MutableConfiguration newConfig = config instanceof MutableConfiguration 
-                ? (MutableConfiguration)config : new MutableConfiguration( config );
-                
-        newConfig.setCacheLoaderFactory( () -> new CacheLoader<K,V>() {
-            @Override
-            public V load( K key ) throws CacheLoaderException {
-                return threadLoader.get().load( key );
-            }
-            @Override
-            public Map<K,V> loadAll( Iterable<? extends K> keys ) throws CacheLoaderException {
-                throw new RuntimeException( "not yet implemented." );
+        // internal caches are not registered, they go away with their UnitOfWork
+        String name = "LoadingCache-" + nameCount.incrementAndGet();
+        delegate = cacheManager instanceof SimpleCacheManager
+                ? ((SimpleCacheManager)cacheManager).createInternalCache( name, config )
+                : cacheManager.createCache( name, config );
+        simple = delegate instanceof SimpleCache ? (SimpleCache<K,V>)delegate : null;
+        pinned = simple == null ? new ConcurrentHashMap( 256, 0.75f, 4 ) : null;
+    }
+
+
+    /**
+     * Returns the value of the given key if present, without loading. On a
+     * {@link SimpleCache} this is lock-free and does not allocate.
+     *
+     * @return The value, or null if the cache does not contain the key.
+     */
+    public V getIfPresent( K key ) {
+        if (simple != null) {
+            return simple.getIfPresent( key );
+        }
+        V value = pinned.get( key );
+        return value != null ? value : delegate.get( key );
+    }
+
+
+    /**
+     * Returns the value of the given key, or loads it by the given loader.
+     *
+     * @param loader Returns the value of a key, or null if there is no value.
+     * @return The value, or null if the loader returned null.
+     */
+    public V get( K key, Function<? super K,? extends V> loader ) {
+        if (simple != null) {
+            return simple.get( key, loader );
+        }
+        V value = getIfPresent( key );
+        if (value == null) {
+            value = loader.apply( key );
+            if (value != null && !delegate.putIfAbsent( key, value )) {
+                V previous = delegate.get( key );
+                value = previous != null ? previous : value;
             }
-        });
-        
-        delegate = cacheManager.createCache( "LoadingCache-" + hashCode(), newConfig );
+        }
+        return value;
+    }
+
+
+    /**
+     * Keeps the entry of the given key out of eviction, see
+     * {@link SimpleCache#pin(Object)}. If the underlying cache is not a
+     * {@link SimpleCache}, then the given value is held by this cache until
+     * {@link #unpin(Object)}, regardless of the eviction of the underlying cache.
+     */
+    public void pin( K key, V value ) {
+        if (simple != null) {
+            simple.pin( key );
+        }
+        else {
+            pinned.put( key, value );
+        }
     }
 
 
-    public V get( K key, Loader<K,V> loader ) {
-        threadLoader.set( loader );
-        try {
-            return get( key );
+    /**
+     * Makes the entry of the given key evictable again, see {@link #pin(Object, Object)}.
+     */
+    public void unpin( K key ) {
+        if (simple != null) {
+            simple.unpin( key );
         }
-        finally {
-            threadLoader.remove();
+        else {
+            pinned.remove( key );
         }
     }
 
@@ -142,14 +199,23 @@ public class LoadingCache<K,V>
     }
 
     public boolean remove( K key ) {
+        if (pinned != null) {
+            pinned.remove( key );
+        }
         return delegate.remove( key );
     }
 
     public boolean remove( K key, V oldValue ) {
+        if (pinned != null) {
+            pinned.remove( key, oldValue );
+        }
         return delegate.remove( key, oldValue );
     }
 
     public V getAndRemove( K key ) {
+        if (pinned != null) {
+            pinned.remove( key );
+        }
         return delegate.getAndRemove( key );
     }
 
@@ -166,14 +232,23 @@ public class LoadingCache<K,V>
     }
 
     public void removeAll( Set<? extends K> keys ) {
+        if (pinned != null) {
+            pinned.keySet().removeAll( keys );
+        }
         delegate.removeAll( keys );
     }
 
     public void removeAll() {
+        if (pinned != null) {
+            pinned.clear();
+        }
         delegate.removeAll();
     }
 
     public void clear() {
+        if (pinned != null) {
+            pinned.clear();
+        }
         delegate.clear();
     }
 
@@ -16,9 +16,9 @@ package org.polymap.model2.engine;
 
 import java.util.AbstractCollection;
 import java.util.Iterator;
+import java.util.List;
 
-import com.google.common.base.Function;
-import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 
 import org.polymap.model2.Entity;
 import org.polymap.model2.ManyAssociation;
@@ -39,7 +39,7 @@ class ManyAssociationImpl<T extends Entity>
     private EntityRuntimeContext            context;
 
     /** Holding the ids of the associated Entities. */
-    private StoreCollectionProperty<Object> storeProp;
+    protected StoreCollectionProperty<Object> storeProp;
     
 
     public ManyAssociationImpl( EntityRuntimeContext context, StoreCollectionProperty storeProp ) {
@@ -66,17 +66,47 @@ class ManyAssociationImpl<T extends Entity>
 
     @Override
     public Iterator<T> iterator() {
-        return Iterators.transform( storeProp.iterator(), new Function<Object,T>() {
+        return new Iterator<T>() {
 
             UnitOfWork              uow = context.getUnitOfWork();
-            
-            Class<? extends Entity> entityType = info().getType();
-            
+
+            Class<T>                entityType = info().getType();
+
+            /** Iterates the ids in step with {@link #ids}, supports {@link #remove()}. */
+            Iterator<Object>        storeIt = storeProp.iterator();
+
+            /** The ids to load the Entities in batches. */
+            List<Object>            ids = Lists.newArrayList( storeProp );
+
+            int                     index = -1;
+
+            List<T>                 batch;
+
+            int                     batchStart;
+
+            @Override
+            public boolean hasNext() {
+                return storeIt.hasNext();
+            }
+
+            @Override
+            public T next() {
+                Object id = storeIt.next();
+                index ++;
+                if (batch == null || index >= batchStart + batch.size()) {
+                    batchStart = index;
+                    int batchEnd = Math.min( index + UnitOfWorkImpl.BATCH_SIZE, ids.size() );
+                    batch = uow.entities( entityType, ids.subList( index, batchEnd ) );
+                }
+                assert id.equals( ids.get( index ) );
+                return batch.get( index - batchStart );
+            }
+
             @Override
-            public T apply( Object id ) {
-                return (T)uow.entity( entityType, id );
+            public void remove() {
+                storeIt.remove();
             }
-        });
+        };
     }
 
     @Override
@@ -0,0 +1,338 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3.0 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import java.util.Iterator;
+
+import com.google.common.collect.Iterators;
+
+import org.polymap.model2.Composite;
+import org.polymap.model2.runtime.PropertyInfo;
+import org.polymap.model2.store.CloneCompositeStateSupport;
+import org.polymap.model2.store.CompositeState;
+import org.polymap.model2.store.StoreCollectionProperty;
+import org.polymap.model2.store.StoreProperty;
+
+/**
+ * Copy-on-write state of an Entity of a {@link UnitOfWorkNested}. Reads fall
+ * through to the state of the parent UnitOfWork. The parent state is cloned by the
+ * first modification of the Entity; all subsequent reads and writes go to the
+ * clone. So Entities that are just read by a nested UnitOfWork (queries!) are never
+ * copied.
+ * <p/>
+ * The properties returned by {@link #loadProperty(PropertyInfo)} and the states of
+ * Composite properties do not hold the state of the store but resolve it on
+ * access. This allows to switch from parent to clone without re-building the
+ * Entity.
+ *
+ * @see EntityState
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+abstract class OverlayCompositeState
+        implements CompositeState {
+
+    /**
+     * The state of the store behind the given state, cloning the parent state if
+     * the given state is a not yet modified {@link OverlayCompositeState} and
+     * write is requested.
+     */
+    public static CompositeState storeState( CompositeState state, boolean write ) {
+        return state instanceof OverlayCompositeState
+                ? ((OverlayCompositeState)state).state( write )
+                : state;
+    }
+
+
+    // instance *******************************************
+
+    /**
+     * The actual state of the store.
+     *
+     * @param write True if the state is about to be modified.
+     */
+    protected abstract CompositeState state( boolean write );
+
+    @Override
+    public Object id() {
+        return state( false ).id();
+    }
+
+    @Override
+    public Class<? extends Composite> compositeInstanceType( Class declaredType ) {
+        return state( false ).compositeInstanceType( declaredType );
+    }
+
+    @Override
+    public Object getUnderlying() {
+        return state( false ).getUnderlying();
+    }
+
+    @Override
+    public StoreProperty loadProperty( PropertyInfo info ) {
+        if (info.getMaxOccurs() > 1) {
+            return new OverlayCollectionProperty( this, info );
+        }
+        else if (!info.isAssociation() && Composite.class.isAssignableFrom( info.getType() )) {
+            return new OverlayCompositeProperty( this, info );
+        }
+        else {
+            return new OverlayProperty( this, info );
+        }
+    }
+
+
+    /**
+     * The state of an Entity.
+     */
+    public static class EntityState
+            extends OverlayCompositeState {
+
+        private CloneCompositeStateSupport  storeUow;
+
+        private CompositeState              parentState;
+
+        /** The clone of {@link #parentState}, or null if not yet modified. */
+        private CompositeState              clonedState;
+
+        public EntityState( CloneCompositeStateSupport storeUow, CompositeState parentState ) {
+            this.storeUow = storeUow;
+            this.parentState = parentState;
+        }
+
+        @Override
+        protected CompositeState state( boolean write ) {
+            if (write && clonedState == null) {
+                clonedState = storeUow.cloneEntityState( storeState( parentState, false ) );
+            }
+            return clonedState != null ? clonedState : storeState( parentState, false );
+        }
+
+        public boolean isModified() {
+            return clonedState != null;
+        }
+
+        /**
+         * Applies the modifications to the given parent state. After this the
+         * parent state is shared again until the next modification.
+         */
+        public void reincorporate( CompositeState target ) {
+            if (clonedState != null) {
+                storeUow.reincorparateEntityState( storeState( target, true ), clonedState );
+                clonedState = null;
+            }
+        }
+
+        /**
+         * Copies the current state in order to restore it later via
+         * {@link #restore(CompositeState)}. If not yet modified, then the parent
+         * state is the before-image and nothing is copied.
+         */
+        public CompositeState beforeImage() {
+            return clonedState != null ? storeUow.cloneEntityState( clonedState ) : parentState;
+        }
+
+        public void restore( CompositeState beforeImage ) {
+            if (beforeImage == parentState) {
+                clonedState = null;
+            }
+            else {
+                storeUow.reincorparateEntityState( state( true ), beforeImage );
+            }
+        }
+
+        @Override
+        public Object id() {
+            return parentState.id();
+        }
+    }
+
+
+    /**
+     * The state of a Composite property or of an element of a Composite collection.
+     */
+    protected static class NestedState
+            extends OverlayCompositeState {
+
+        private OverlayCompositeState owner;
+
+        private PropertyInfo        info;
+
+        /** The index within a Composite collection, or -1 for a Composite property. */
+        private int                 index;
+
+        /** The state of the {@link #owner} the {@link #resolved} state belongs to. */
+        private CompositeState      resolvedOwner;
+
+        private CompositeState      resolved;
+
+        public NestedState( OverlayCompositeState owner, PropertyInfo info, int index ) {
+            this.owner = owner;
+            this.info = info;
+            this.index = index;
+        }
+
+        @Override
+        protected CompositeState state( boolean write ) {
+            CompositeState ownerState = owner.state( write );
+            if (ownerState != resolvedOwner) {
+                StoreProperty prop = ownerState.loadProperty( info );
+                resolved = index == -1
+                        ? (CompositeState)prop.get()
+                        : (CompositeState)Iterators.get( ((StoreCollectionProperty)prop).iterator(), index );
+                resolvedOwner = ownerState;
+            }
+            return resolved;
+        }
+    }
+
+
+    /**
+     *
+     */
+    protected static class OverlayProperty<T>
+            implements StoreProperty<T> {
+
+        protected OverlayCompositeState owner;
+
+        protected PropertyInfo      info;
+
+        public OverlayProperty( OverlayCompositeState owner, PropertyInfo info ) {
+            this.owner = owner;
+            this.info = info;
+        }
+
+        protected StoreProperty<T> prop( boolean write ) {
+            return owner.state( write ).loadProperty( info );
+        }
+
+        @Override
+        public T get() {
+            return prop( false ).get();
+        }
+
+        @Override
+        public void set( Object value ) {
+            prop( true ).set( value );
+        }
+
+        @Override
+        public T createValue( Class actualType ) {
+            return prop( true ).createValue( actualType );
+        }
+
+        @Override
+        public PropertyInfo info() {
+            return info;
+        }
+    }
+
+
+    /**
+     *
+     */
+    protected static class OverlayCompositeProperty
+            extends OverlayProperty<CompositeState> {
+
+        public OverlayCompositeProperty( OverlayCompositeState owner, PropertyInfo info ) {
+            super( owner, info );
+        }
+
+        @Override
+        public CompositeState get() {
+            return prop( false ).get() != null ? new NestedState( owner, info, -1 ) : null;
+        }
+
+        @Override
+        public CompositeState createValue( Class actualType ) {
+            prop( true ).createValue( actualType );
+            return new NestedState( owner, info, -1 );
+        }
+    }
+
+
+    /**
+     * Collection of values, associations or Composites.
+     */
+    protected static class OverlayCollectionProperty
+            extends OverlayProperty
+            implements StoreCollectionProperty {
+
+        private boolean             isComposite;
+
+        public OverlayCollectionProperty( OverlayCompositeState owner, PropertyInfo info ) {
+            super( owner, info );
+            this.isComposite = !info.isAssociation() && Composite.class.isAssignableFrom( info.getType() );
+        }
+
+        protected StoreCollectionProperty coll( boolean write ) {
+            return (StoreCollectionProperty)prop( write );
+        }
+
+        @Override
+        public int size() {
+            return coll( false ).size();
+        }
+
+        @Override
+        public boolean add( Object elm ) {
+            return coll( true ).add( elm );
+        }
+
+        @Override
+        public Object createValue( Class actualType ) {
+            StoreCollectionProperty coll = coll( true );
+            int index = coll.size();
+            Object result = coll.createValue( actualType );
+            return isComposite ? new NestedState( owner, info, index ) : result;
+        }
+
+        @Override
+        public Iterator iterator() {
+            return new Iterator() {
+                /** Iterator of the parent state until the first remove(). */
+                private Iterator    it = coll( false ).iterator();
+                private boolean     writing;
+                private int         index = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public Object next() {
+                    Object result = it.next();
+                    int current = index++;
+                    return isComposite ? new NestedState( owner, info, current ) : result;
+                }
+
+                @Override
+                public void remove() {
+                    // switch to the (cloned) write state; replay the position
+                    if (!writing) {
+                        it = coll( true ).iterator();
+                        for (int i=0; i<index; i++) {
+                            it.next();
+                        }
+                        writing = true;
+                    }
+                    it.remove();
+                    index--;
+                }
+            };
+        }
+    }
+
+}
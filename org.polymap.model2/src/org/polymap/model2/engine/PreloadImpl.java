@@ -0,0 +1,222 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3.0 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.polymap.model2.Entity;
+import org.polymap.model2.query.Query;
+import org.polymap.model2.runtime.ModelRuntimeException;
+import org.polymap.model2.runtime.Preload;
+import org.polymap.model2.store.StoreResultSet;
+import org.polymap.model2.store.StoreSPI;
+import org.polymap.model2.store.StoreUnitOfWork;
+
+/**
+ * The ids of the Entities are queried sequentially, one query after the other, in
+ * a separate thread. Every {@link #CHUNK_SIZE} ids are loaded by a separate
+ * {@link StoreUnitOfWork} on a pool of threads.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+class PreloadImpl
+        extends Preload {
+
+    private static Log log = LogFactory.getLog( PreloadImpl.class );
+
+    public static final int         CHUNK_SIZE = 1000;
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private StoreSPI                store;
+
+    private List<Query>             queries;
+
+    private ExecutorService         executor;
+
+    private volatile Thread         coordinator;
+
+    private AtomicInteger           total = new AtomicInteger();
+
+    private AtomicInteger           loaded = new AtomicInteger();
+
+    private long                    start;
+
+    private volatile long           end;
+
+    private CompletableFuture<Preload> completion = new CompletableFuture();
+
+
+    public PreloadImpl( StoreSPI store, List<Query> queries, int threads ) {
+        this.store = store;
+        this.queries = queries;
+        this.executor = Executors.newFixedThreadPool( threads, r -> {
+            Thread thread = new Thread( r, "model2-preload-" + threadCount.incrementAndGet() );
+            thread.setDaemon( true );
+            return thread;
+        });
+    }
+
+
+    /**
+     * Starts the preload in a separate thread.
+     *
+     * @return this
+     */
+    public PreloadImpl start() {
+        start = System.nanoTime();
+        coordinator = new Thread( () -> run(), "model2-preload" );
+        coordinator.setDaemon( true );
+        coordinator.start();
+        return this;
+    }
+
+
+    protected void run() {
+        List<Future> chunks = new ArrayList( 64 );
+        try {
+            for (Query query : queries) {
+                int queryTotal = total.get();
+                StoreUnitOfWork suow = store.createUnitOfWork();
+                StoreResultSet rs = suow.executeQuery( query );
+                try {
+                    List<Object> chunk = new ArrayList( CHUNK_SIZE );
+                    while (rs.hasNext() && !completion.isDone()) {
+                        chunk.add( rs.next().id() );
+                        total.incrementAndGet();
+                        if (chunk.size() == CHUNK_SIZE || !rs.hasNext()) {
+                            chunks.add( submit( query.resultType(), chunk ) );
+                            chunk = new ArrayList( CHUNK_SIZE );
+                        }
+                    }
+                }
+                finally {
+                    rs.close();
+                    suow.close();
+                }
+                log.info( "Preload: " + query.resultType().getSimpleName() + ": "
+                        + (total.get() - queryTotal) + " entities queried (" + this + ")" );
+            }
+            for (Future chunk : chunks) {
+                chunk.get();
+            }
+            end = System.nanoTime();
+            log.info( "Preload: done (" + this + ")" );
+            completion.complete( this );
+        }
+        catch (Throwable e) {
+            end = System.nanoTime();
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            if (!completion.isDone()) {
+                log.warn( "Preload: failed (" + this + ")", cause );
+            }
+            completion.completeExceptionally( cause );
+            chunks.forEach( chunk -> chunk.cancel( true ) );
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    protected Future submit( Class<? extends Entity> entityClass, List<Object> ids ) {
+        return executor.submit( () -> {
+            StoreUnitOfWork suow = store.createUnitOfWork();
+            try {
+                loaded.addAndGet( suow.loadEntityStates( ids, entityClass ).size() );
+                log.debug( "Preload: chunk of " + ids.size() + " (" + this + ")" );
+            }
+            finally {
+                suow.close();
+            }
+            return null;
+        });
+    }
+
+
+    @Override
+    public int totalCount() {
+        return total.get();
+    }
+
+
+    @Override
+    public int loadedCount() {
+        return loaded.get();
+    }
+
+
+    @Override
+    public long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis( (end != 0 ? end : System.nanoTime()) - start );
+    }
+
+
+    @Override
+    public boolean isDone() {
+        return completion.isDone();
+    }
+
+
+    @Override
+    public CompletionStage<Preload> completion() {
+        return completion;
+    }
+
+
+    @Override
+    public Preload await() throws ModelRuntimeException {
+        try {
+            return completion.get();
+        }
+        catch (ExecutionException e) {
+            throw e.getCause() instanceof ModelRuntimeException
+                    ? (ModelRuntimeException)e.getCause()
+                    : new ModelRuntimeException( e.getCause() );
+        }
+        catch (Exception e) {
+            throw new ModelRuntimeException( e );
+        }
+    }
+
+
+    @Override
+    public void cancel() {
+        if (completion.cancel( false )) {
+            end = System.nanoTime();
+            executor.shutdownNow();
+            coordinator.interrupt();
+        }
+    }
+
+
+    @Override
+    public String toString() {
+        return "loaded " + loaded.get() + "/" + total.get() + " in " + elapsedMillis() + "ms";
+    }
+
+}
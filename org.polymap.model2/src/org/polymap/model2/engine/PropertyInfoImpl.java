@@ -22,6 +22,8 @@ import org.polymap.model2.Association;
 import org.polymap.model2.CollectionProperty;
 import org.polymap.model2.Composite;
 import org.polymap.model2.Computed;
+import org.polymap.model2.DefaultValue;
+import org.polymap.model2.Defaults;
 import org.polymap.model2.Immutable;
 import org.polymap.model2.ManyAssociation;
 import org.polymap.model2.MaxOccurs;
@@ -29,98 +31,186 @@ import org.polymap.model2.NameInStore;
 import org.polymap.model2.Nullable;
 import org.polymap.model2.PropertyBase;
 import org.polymap.model2.Queryable;
+import org.polymap.model2.runtime.ModelRuntimeException;
 import org.polymap.model2.runtime.PropertyInfo;
 
 /**
- * 
+ * Immutable descriptor of a property. All values are computed from the field and
+ * its annotations, or from {@link CompositeMetadata generated metadata}, once,
+ * when the info is created, so that the getters are plain field reads. Just the
+ * default value is computed on first access, see {@link #getDefaultValue()}.
  *
  * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
  */
 public class PropertyInfoImpl<T>
         implements PropertyInfo<T> {
 
-    private Field                   field;
+    private static final Object     UNRESOLVED = new Object();
+    
+    // instance *******************************************
+
+    private final Class             declaringClass;
+    
+    /** Lazily resolved if created from generated metadata. */
+    private volatile Field          field;
+
+    private final Class             type;
+    
+    private final String            name;
+    
+    private final String            nameInStore;
+    
+    private final boolean           isAssociation;
+    
+    private final boolean           isNullable;
+    
+    private final boolean           isImmutable;
+    
+    private final boolean           isComputed;
+    
+    private final boolean           isQueryable;
+    
+    private final int               maxOccurs;
+    
+    /** The value of the {@link DefaultValue} annotation, or null. */
+    private final String            defaultValueSpec;
+    
+    /** True if the property has a {@link Defaults} annotation. */
+    private final boolean           defaults;
+    
+    /** The default value, or {@link #UNRESOLVED}. */
+    private volatile Object         defaultValue = UNRESOLVED;
 
     
     public PropertyInfoImpl( Field field ) {
         assert PropertyBase.class.isAssignableFrom( field.getType() );
         this.field = field;
+        this.field.setAccessible( true );
+        this.declaringClass = field.getDeclaringClass();
+
+        this.type = (Class)((ParameterizedType)field.getGenericType()).getActualTypeArguments()[0];
+        this.name = field.getName();
+        this.nameInStore = field.getAnnotation( NameInStore.class ) != null
+                ? field.getAnnotation( NameInStore.class ).value()
+                : field.getName();
+        this.isAssociation = Association.class.isAssignableFrom( field.getType() )
+                || ManyAssociation.class.isAssignableFrom( field.getType() );
+        this.isNullable = field.getAnnotation( Nullable.class ) != null;
+        this.isImmutable = field.getAnnotation( Immutable.class ) != null;
+        this.isComputed = field.getAnnotation( Computed.class ) != null;
+        this.isQueryable = field.getAnnotation( Queryable.class ) != null;
+        
+        if (CollectionProperty.class.isAssignableFrom( field.getType() )
+                || ManyAssociation.class.isAssignableFrom( field.getType() )) {
+            this.maxOccurs = field.getAnnotation( MaxOccurs.class ) != null
+                    ? field.getAnnotation( MaxOccurs.class ).value()
+                    : Integer.MAX_VALUE;
+        }
+        else {
+            assert field.getAnnotation( MaxOccurs.class ) == null : "@MaxOccurs is not allowed on single value properties.";
+            this.maxOccurs = 1;
+        }
+        this.defaultValueSpec = field.getAnnotation( DefaultValue.class ) != null
+                ? field.getAnnotation( DefaultValue.class ).value()
+                : null;
+        this.defaults = field.getAnnotation( Defaults.class ) != null;
     }
 
+    
+    public PropertyInfoImpl( CompositeMetadata.PropertyMetadata metadata ) {
+        this.declaringClass = metadata.declaringClass();
+        this.type = metadata.type();
+        this.name = metadata.name();
+        this.nameInStore = metadata.nameInStore();
+        this.isAssociation = Association.class.isAssignableFrom( metadata.fieldType() )
+                || ManyAssociation.class.isAssignableFrom( metadata.fieldType() );
+        this.isNullable = metadata.isNullable();
+        this.isImmutable = metadata.isImmutable();
+        this.isComputed = metadata.computed() != null;
+        this.isQueryable = metadata.isQueryable();
+        this.maxOccurs = metadata.maxOccurs();
+        this.defaultValueSpec = metadata.defaultValue();
+        this.defaults = metadata.isDefaults();
+    }
+
+    
     Field getField() {
+        if (field == null) {
+            try {
+                Field f = declaringClass.getDeclaredField( name );
+                f.setAccessible( true );
+                field = f;
+            }
+            catch (NoSuchFieldException e) {
+                throw new ModelRuntimeException( e );
+            }
+        }
         return field;
     }
 
     @Override
     public Class getType() {
-        ParameterizedType declaredType = (ParameterizedType)field.getGenericType();
-        return (Class)declaredType.getActualTypeArguments()[0];
+        return type;
     }
     
     @Override
     public String getName() {
-        return field.getName();
+        return name;
     }
 
     @Override
     public String getNameInStore() {
-        return field.getAnnotation( NameInStore.class ) != null
-                ? field.getAnnotation( NameInStore.class ).value()
-                : field.getName();
+        return nameInStore;
     }
 
     @Override
     public boolean isAssociation() {
-        return Association.class.isAssignableFrom( field.getType() )
-                || ManyAssociation.class.isAssignableFrom( field.getType() );
+        return isAssociation;
     }
 
     @Override
     public boolean isNullable() {
-        return field.getAnnotation( Nullable.class ) != null;
+        return isNullable;
     }
 
     @Override
     public boolean isImmutable() {
-        return field.getAnnotation( Immutable.class ) != null;
+        return isImmutable;
     }
 
     @Override
     public boolean isComputed() {
-        return field.getAnnotation( Computed.class ) != null;
+        return isComputed;
     }
 
     @Override
     public boolean isQueryable() {
-        return field.getAnnotation( Queryable.class ) != null;
+        return isQueryable;
     }
 
     @Override
     public int getMaxOccurs() {
-        if (CollectionProperty.class.isAssignableFrom( field.getType() )
-                || ManyAssociation.class.isAssignableFrom( field.getType() )) {
-            return field.getAnnotation( MaxOccurs.class ) != null
-                    ? field.getAnnotation( MaxOccurs.class ).value()
-                    : Integer.MAX_VALUE;
-        }
-        else {
-            assert field.getAnnotation( MaxOccurs.class ) == null : "@MaxOccurs is not allowed on single value properties.";
-            return 1;
-        }
+        return maxOccurs;
     }
 
+    /**
+     * The default value is computed on first access, so a type that is not
+     * supported by {@link DefaultValues} fails on every access instead of on
+     * bootstrap. Mutable values are copied on every access.
+     */
     @Override
     public T getDefaultValue() {
-        return (T)DefaultValues.valueOf( field );
+        Object result = defaultValue;
+        if (result == UNRESOLVED) {
+            defaultValue = result = DefaultValues.valueOf( type, defaultValueSpec, defaults );
+        }
+        return (T)DefaultValues.copyOf( result );
     }
 
     @Override    
     public <P extends PropertyBase<T>> P get( Composite composite ) {
-        if (!field.isAccessible()) { 
-            field.setAccessible( true ); 
-        }
         try {
-            return (P)field.get( composite );
+            return (P)getField().get( composite );
         }
         catch (IllegalAccessException e) {
             throw new RuntimeException( e );
@@ -129,12 +219,12 @@ public class PropertyInfoImpl<T>
 
     @Override
     public <A extends Annotation> A getAnnotation( Class<A> type ) {
-        return field.getAnnotation( type );
+        return getField().getAnnotation( type );
     }
 
     @Override
     public String toString() {
-        return "PropertyInfoImpl[" + field + "]";
+        return "PropertyInfoImpl[" + declaringClass.getName() + "." + name + "]";
     }
     
 }
@@ -0,0 +1,208 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import java.util.List;
+
+import java.lang.reflect.Constructor;
+
+import org.polymap.model2.Association;
+import org.polymap.model2.AssociationConcern;
+import org.polymap.model2.CollectionProperty;
+import org.polymap.model2.CollectionPropertyConcern;
+import org.polymap.model2.Composite;
+import org.polymap.model2.Computed;
+import org.polymap.model2.ComputedProperty;
+import org.polymap.model2.ManyAssociation;
+import org.polymap.model2.Property;
+import org.polymap.model2.PropertyConcern;
+import org.polymap.model2.PropertyConcernBase;
+import org.polymap.model2.StatelessPropertyConcern;
+import org.polymap.model2.engine.CompositeFactory.PropertyField;
+import org.polymap.model2.runtime.ModelRuntimeException;
+import org.polymap.model2.runtime.PropertyInfo;
+
+/**
+ * One slot of the binding plan of a Composite type (see
+ * {@link CompositeInfoImpl#bindingPlan()}). Holds everything
+ * {@link InstanceBuilder} needs to know to initialize one property field of an
+ * instance: the accessor of the field, the kind of the property, the resolved
+ * concern types and the constraint flags.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public final class PropertySlot {
+
+    /**
+     * The kind of property a slot is bound to.
+     */
+    public enum Kind {
+        /** {@link Property} of a primitive type. */
+        PROPERTY,
+        /** {@link Property} of a {@link Composite} type. */
+        COMPOSITE,
+        /** {@link Property} annotated {@link Computed}. */
+        COMPUTED,
+        ASSOCIATION,
+        MANY_ASSOCIATION,
+        /** {@link CollectionProperty} of primitive types. */
+        COLLECTION,
+        /** {@link CollectionProperty} of {@link Composite} types. */
+        COMPOSITE_COLLECTION
+    }
+
+    public final PropertyField          accessor;
+
+    public final PropertyInfo           info;
+
+    public final Kind                   kind;
+
+    /** Class and field concerns, in the order they are layered. */
+    public final ConcernFactory[]       concerns;
+
+    /**
+     * The shared {@link StatelessPropertyConcern} of a {@link Kind#PROPERTY}, or
+     * null. Invoked by {@link ConstraintsPropertyImpl}.
+     */
+    public final StatelessPropertyConcern stateless;
+
+    /** The {@link Computed} type, or null if not {@link Kind#COMPUTED}. */
+    public final Class<? extends ComputedProperty> computed;
+
+    public final boolean                isNullable;
+
+    public final boolean                isImmutable;
+
+
+    /**
+     * Resolves the slot of the given field.
+     *
+     * @throws ModelRuntimeException If the property is not properly declared.
+     */
+    protected PropertySlot( PropertyField accessor, PropertyInfo info ) {
+        this.accessor = accessor;
+        this.info = info;
+        this.isNullable = info.isNullable();
+        this.isImmutable = info.isImmutable();
+
+        Class<?> fieldType = accessor.fieldType();
+        // single property
+        if (Property.class.isAssignableFrom( fieldType )) {
+            if (info.isComputed()) {
+                kind = Kind.COMPUTED;
+            }
+            else if (Composite.class.isAssignableFrom( info.getType() )) {
+                kind = Kind.COMPOSITE;
+            }
+            else {
+                kind = Kind.PROPERTY;
+            }
+        }
+        // Association
+        else if (Association.class.isAssignableFrom( fieldType )) {
+            assert info.isAssociation();
+            kind = Kind.ASSOCIATION;
+        }
+        // ManyAssociation
+        else if (ManyAssociation.class.isAssignableFrom( fieldType )) {
+            assert info.isAssociation();
+            assert info.getMaxOccurs() > 1 : "Field has improper @MaxOccurs: " + propName( accessor );
+            kind = Kind.MANY_ASSOCIATION;
+        }
+        // Collection
+        else if (CollectionProperty.class.isAssignableFrom( fieldType )) {
+            assert info.getMaxOccurs() > 1 : "Field has improper @MaxOccurs: " + propName( accessor );
+            if (info.isNullable()) {
+                throw new ModelRuntimeException( "CollectionProperty cannot be @Nullable." );
+            }
+            kind = Composite.class.isAssignableFrom( info.getType() )
+                    ? Kind.COMPOSITE_COLLECTION : Kind.COLLECTION;
+        }
+        else {
+            throw new ModelRuntimeException( "Unknown property type: " + propName( accessor ) );
+        }
+
+        computed = kind == Kind.COMPUTED ? accessor.computed() : null;
+        concerns = resolveConcerns( accessor );
+        stateless = resolveStateless( accessor );
+    }
+
+
+    protected ConcernFactory[] resolveConcerns( PropertyField field ) {
+        // class and field concerns
+        List<Class<?>> result = field.concerns();
+        // early check concern type
+        for (Class concernType : result) {
+            if (StatelessPropertyConcern.class.isAssignableFrom( concernType )) {
+                if (kind != Kind.PROPERTY) {
+                    throw new ModelRuntimeException( "StatelessPropertyConcern is supported for Property of primitive type only: " + concernType.getName() + " @ " + field.name() );
+                }
+            }
+            else if (!PropertyConcernBase.class.isAssignableFrom( concernType )) {
+                throw new ModelRuntimeException( "Concerns have to extend PropertyConcernBase or StatelessPropertyConcern: " + concernType.getName() + " @ " + field.name() );
+            }
+            else if (Property.class.isAssignableFrom( field.fieldType() )
+                    && !PropertyConcern.class.isAssignableFrom( concernType )) {
+                throw new ModelRuntimeException( "Concerns of Property have to extend PropertyConcern: " + concernType.getName() + " @ " + field.name() );
+            }
+            else if (CollectionProperty.class.isAssignableFrom( field.fieldType() )
+                    && !CollectionPropertyConcern.class.isAssignableFrom( concernType )) {
+                throw new ModelRuntimeException( "Concerns of CollectionProperty have to extend CollectionPropertyConcern: " + concernType.getName() + " @ " + field.name() );
+            }
+            else if (Association.class.isAssignableFrom( field.fieldType() )
+                    && !AssociationConcern.class.isAssignableFrom( concernType )) {
+                throw new ModelRuntimeException( "Concerns of Association have to extend AssociationConcern: " + concernType.getName() + " @ " + field.name() );
+            }
+        }
+        // one factory per slot; stateless concerns are not layered
+        return result.stream()
+                .filter( concernType -> !StatelessPropertyConcern.class.isAssignableFrom( concernType ) )
+                .map( concernType -> new ConcernFactory( concernType ) )
+                .toArray( ConcernFactory[]::new );
+    }
+
+
+    protected StatelessPropertyConcern resolveStateless( PropertyField field ) {
+        StatelessPropertyConcern result = null;
+        for (Class<?> concernType : field.concerns()) {
+            if (StatelessPropertyConcern.class.isAssignableFrom( concernType )) {
+                if (result != null) {
+                    throw new ModelRuntimeException( "Just one StatelessPropertyConcern per property is supported: " + concernType.getName() + " @ " + field.name() );
+                }
+                try {
+                    Constructor<?> ctor = concernType.getDeclaredConstructor();
+                    ctor.setAccessible( true );
+                    result = (StatelessPropertyConcern)ctor.newInstance();
+                }
+                catch (Exception e) {
+                    throw new ModelRuntimeException( "Error while initializing concern: " + concernType + " (" + e.getLocalizedMessage() + ")", e );
+                }
+            }
+        }
+        return result;
+    }
+
+
+    protected static String propName( PropertyField field ) {
+        return field.declaringClass().getSimpleName() + "#" + field.name();
+    }
+
+
+    @Override
+    public String toString() {
+        return "PropertySlot[" + propName( accessor ) + ", kind=" + kind + "]";
+    }
+
+}
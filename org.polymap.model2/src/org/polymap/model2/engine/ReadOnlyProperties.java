@@ -0,0 +1,332 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3.0 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import static org.polymap.model2.engine.UnitOfWorkReadOnly.readOnlyException;
+
+import java.util.Collection;
+import java.util.Iterator;
+
+import com.google.common.collect.Iterators;
+
+import org.polymap.model2.Association;
+import org.polymap.model2.CollectionProperty;
+import org.polymap.model2.Composite;
+import org.polymap.model2.Entity;
+import org.polymap.model2.Property;
+import org.polymap.model2.PropertyBase;
+import org.polymap.model2.runtime.EntityRuntimeContext;
+import org.polymap.model2.runtime.ModelRuntimeException;
+import org.polymap.model2.runtime.PropertyInfo;
+import org.polymap.model2.runtime.ValueInitializer;
+import org.polymap.model2.store.CompositeState;
+import org.polymap.model2.store.StoreCollectionProperty;
+import org.polymap.model2.store.StoreProperty;
+
+/**
+ * Properties of the Entities of a {@link UnitOfWorkReadOnly}. In a normal
+ * UnitOfWork, collection and Composite properties are wrapped by a constraints
+ * interceptor that guards and tracks modifications. These properties reject
+ * modifications themselves, so one instance per property is built instead of two.
+ * Simple properties and associations do not check constraints on modification
+ * and do not track modifications; they just reject them.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+final class ReadOnlyProperties {
+
+    /**
+     * Equality of collection properties, as defined by the constraints interceptors.
+     */
+    protected static <C extends Collection & PropertyBase> boolean equals( C coll, Object o ) {
+        if (o instanceof CollectionProperty) {
+            return coll.info() == ((CollectionProperty)o).info();
+        }
+        else if (o instanceof Collection) {
+            return ((Collection)o).containsAll( coll );
+        }
+        else {
+            return false;
+        }
+    }
+
+
+    /**
+     *
+     */
+    static final class ReadOnlyProperty<T>
+            implements Property<T> {
+
+        private StoreProperty<T>        storeProp;
+
+        private EntityRuntimeContext    context;
+
+        private PropertySlot            slot;
+
+        public ReadOnlyProperty( StoreProperty<T> storeProp, EntityRuntimeContext context, PropertySlot slot ) {
+            this.storeProp = storeProp;
+            this.context = context;
+            this.slot = slot;
+        }
+
+        @Override
+        public T get() {
+            T value = slot.stateless != null
+                    ? (T)slot.stateless.get( context, storeProp )
+                    : storeProp.get();
+            if (value == null) {
+                value = (T)slot.info.getDefaultValue();
+                if (value == null && !slot.isNullable) {
+                    throw new ModelRuntimeException( "Property is not @Nullable: "
+                            + context.getInfo().getName() + "." + slot.info.getName() );
+                }
+            }
+            return value;
+        }
+
+        @Override
+        public void set( T value ) {
+            throw readOnlyException();
+        }
+
+        /**
+         * Returns the current value, if any. A new value cannot be created.
+         */
+        @Override
+        public <U extends T> U createValue( ValueInitializer<U> initializer ) {
+            U result = (U)storeProp.get();
+            if (result == null) {
+                throw readOnlyException();
+            }
+            return result;
+        }
+
+        @Override
+        public PropertyInfo info() {
+            return slot.info;
+        }
+
+        @Override
+        public String toString() {
+            return "Property[name:" + slot.info.getName() + ",value=" + storeProp.get() + "]";
+        }
+    }
+
+
+    /**
+     *
+     */
+    static final class ReadOnlyAssociation<T extends Entity>
+            implements Association<T> {
+
+        /** Holding the id of the associated Entity. */
+        private StoreProperty<Object>   storeProp;
+
+        private EntityRuntimeContext    context;
+
+        private PropertySlot            slot;
+
+        public ReadOnlyAssociation( StoreProperty storeProp, EntityRuntimeContext context, PropertySlot slot ) {
+            this.storeProp = storeProp;
+            this.context = context;
+            this.slot = slot;
+        }
+
+        @Override
+        public T get() {
+            Object id = storeProp.get();
+            if (id != null) {
+                return (T)context.getUnitOfWork().entity( slot.info.getType(), id );
+            }
+            else if (!slot.isNullable) {
+                throw new ModelRuntimeException( "Property is not @Nullable: "
+                        + context.getInfo().getName() + "." + slot.info.getName() );
+            }
+            return null;
+        }
+
+        @Override
+        public void set( T value ) {
+            throw readOnlyException();
+        }
+
+        @Override
+        public PropertyInfo info() {
+            return slot.info;
+        }
+
+        @Override
+        public String toString() {
+            return "Association[name:" + slot.info.getName() + ",id=" + storeProp.get() + "]";
+        }
+    }
+
+
+    /**
+     *
+     */
+    static class ReadOnlyCompositeProperty<T extends Composite>
+            extends CompositePropertyImpl<T> {
+
+        private EntityRuntimeContext    context;
+
+        public ReadOnlyCompositeProperty( EntityRuntimeContext context, StoreProperty<CompositeState> storeProp ) {
+            super( context, storeProp );
+            this.context = context;
+        }
+
+        @Override
+        public T get() {
+            T value = super.get();
+            if (value == null) {
+                value = (T)info().getDefaultValue();
+            }
+            if (value == null && !info().isNullable()) {
+                throw new ModelRuntimeException( "Property is not @Nullable: "
+                        + context.getInfo().getName() + "." + info().getName() );
+            }
+            return value;
+        }
+
+        @Override
+        public void set( T value ) {
+            throw readOnlyException();
+        }
+
+        /**
+         * Returns the current value, if any. A new value cannot be created.
+         */
+        @Override
+        public <U extends T> U createValue( ValueInitializer<U> initializer ) {
+            U result = (U)super.get();
+            if (result == null) {
+                throw readOnlyException();
+            }
+            return result;
+        }
+    }
+
+
+    /**
+     *
+     */
+    static class ReadOnlyCollectionProperty<T>
+            extends CollectionPropertyImpl<T> {
+
+        public ReadOnlyCollectionProperty( EntityRuntimeContext context, StoreCollectionProperty storeProp ) {
+            super( context, storeProp );
+        }
+
+        @Override
+        public <U extends T> U createElement( ValueInitializer<U> initializer ) {
+            throw readOnlyException();
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return Iterators.unmodifiableIterator( super.iterator() );
+        }
+
+        @Override
+        public boolean add( T elm ) {
+            throw readOnlyException();
+        }
+
+        @Override
+        public boolean equals( Object o ) {
+            return ReadOnlyProperties.equals( this, o );
+        }
+
+        @Override
+        public int hashCode() {
+            return info().hashCode();
+        }
+    }
+
+
+    /**
+     *
+     */
+    static class ReadOnlyCompositeCollectionProperty<T extends Composite>
+            extends CompositeCollectionPropertyImpl<T> {
+
+        public ReadOnlyCompositeCollectionProperty( EntityRuntimeContext context, StoreCollectionProperty storeProp ) {
+            super( context, storeProp );
+        }
+
+        @Override
+        public <U extends T> U createElement( ValueInitializer<U> initializer ) {
+            throw readOnlyException();
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return Iterators.unmodifiableIterator( super.iterator() );
+        }
+
+        @Override
+        public boolean add( T elm ) {
+            throw readOnlyException();
+        }
+
+        @Override
+        public boolean remove( Object o ) {
+            throw readOnlyException();
+        }
+
+        @Override
+        public boolean equals( Object o ) {
+            return ReadOnlyProperties.equals( this, o );
+        }
+
+        @Override
+        public int hashCode() {
+            return info().hashCode();
+        }
+    }
+
+
+    /**
+     *
+     */
+    static class ReadOnlyManyAssociation<T extends Entity>
+            extends ManyAssociationImpl<T> {
+
+        public ReadOnlyManyAssociation( EntityRuntimeContext context, StoreCollectionProperty storeProp ) {
+            super( context, storeProp );
+        }
+
+        @Override
+        public Iterator<T> iterator() {
+            return Iterators.unmodifiableIterator( super.iterator() );
+        }
+
+        @Override
+        public boolean add( T elm ) {
+            throw readOnlyException();
+        }
+
+        @Override
+        public boolean equals( Object o ) {
+            return ReadOnlyProperties.equals( this, o );
+        }
+
+        @Override
+        public int hashCode() {
+            return info().hashCode();
+        }
+    }
+
+}
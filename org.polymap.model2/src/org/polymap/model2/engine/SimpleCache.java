@@ -1,4 +1,4 @@
-/* 
+/*
  * polymap.org
  * Copyright (C) 2015, Falko Bräutigam. All rights reserved.
  *
@@ -14,11 +14,24 @@
  */
 package org.polymap.model2.engine;
 
+import static java.util.Collections.singletonList;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 import javax.cache.Cache;
 import javax.cache.CacheManager;
@@ -26,18 +39,46 @@ import javax.cache.configuration.CacheEntryListenerConfiguration;
 import javax.cache.configuration.CompleteConfiguration;
 import javax.cache.configuration.Configuration;
 import javax.cache.configuration.Factory;
+import javax.cache.configuration.MutableConfiguration;
+import javax.cache.event.CacheEntryCreatedListener;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.CacheEntryEventFilter;
+import javax.cache.event.CacheEntryExpiredListener;
+import javax.cache.event.CacheEntryListener;
+import javax.cache.event.CacheEntryRemovedListener;
+import javax.cache.event.CacheEntryUpdatedListener;
+import javax.cache.event.EventType;
 import javax.cache.integration.CacheLoader;
+import javax.cache.integration.CacheLoaderException;
 import javax.cache.integration.CompletionListener;
+import javax.cache.management.CacheMXBean;
 import javax.cache.processor.EntryProcessor;
 import javax.cache.processor.EntryProcessorException;
 import javax.cache.processor.EntryProcessorResult;
+import javax.cache.processor.MutableEntry;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 /**
- * Simple non-evicting cache, based on {@link ConcurrentHashMap}, mainly for testing
- * Model2 implementation.
+ * Simple cache, based on {@link ConcurrentHashMap}. This is the default cache of
+ * Model2, created by {@link SimpleCacheManager}.
+ * <p/>
+ * By default the cache is non-evicting. If configured via
+ * {@link EvictionConfiguration} then the cache is bounded to a maximum size.
+ * Entries are evicted in the order they were inserted. An
+ * {@link EvictionListener} may veto eviction of an entry, the entry is kept and
+ * checked again after all other entries. Entries that are known to be not
+ * evictable for a longer time should be {@link #pin(Object) pinned} instead; they
+ * are kept out of eviction and do not count for the max size until unpinned.
+ * <p/>
+ * A value is loaded by just one thread at a time, other threads requesting the
+ * same key wait for the result, see {@link #loadSingleFlight(Object, Function)}.
+ * <p/>
+ * Values are always stored by reference, expiry is not supported. Entry
+ * listeners are always called synchronously. Statistics are collected if enabled
+ * by the configuration, by {@link CacheManager#enableStatistics(String, boolean)}
+ * or by {@link SimpleCacheManager#setStatisticsEnabled(boolean)}.
  *
  * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
  */
@@ -46,197 +87,931 @@ public class SimpleCache<K,V>
 
     private static Log log = LogFactory.getLog( SimpleCache.class );
 
+    private static final AtomicInteger  nameCount = new AtomicInteger();
+
+    /** The loads the threads are currently waiting for, see {@link #loadSingleFlight(Object, Function)}. */
+    private static final ConcurrentMap<Thread,InFlight> waiting = new ConcurrentHashMap( 64 );
+
+    private static final int            MAX_WAIT_CHAIN = 100;
+
+    /**
+     * Listens to and vetoes eviction of entries of a size bounded
+     * {@link SimpleCache}.
+     */
+    @FunctionalInterface
+    public interface EvictionListener<K,V> {
+
+        /**
+         * Called before the given entry is evicted from the cache.
+         *
+         * @return False to veto eviction, the entry is kept in the cache then.
+         */
+        public boolean onEviction( K key, V value );
+    }
+
+
+    /**
+     * Configuration of a size bounded {@link SimpleCache}. Other cache
+     * implementations ignore the additional settings.
+     */
+    public static class EvictionConfiguration<K,V>
+            extends MutableConfiguration<K,V> {
+
+        private int                     maxSize = -1;
+
+        private EvictionListener<K,V>   evictionListener;
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        /**
+         * @param maxSize The maximum number of entries, or a value &lt;= 0 for
+         *        an unbounded cache.
+         */
+        public EvictionConfiguration<K,V> setMaxSize( int maxSize ) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        public EvictionListener<K,V> getEvictionListener() {
+            return evictionListener;
+        }
+
+        public EvictionConfiguration<K,V> setEvictionListener( EvictionListener<K,V> evictionListener ) {
+            this.evictionListener = evictionListener;
+            return this;
+        }
+    }
+
+
+    // instance *******************************************
+
+    private String                  name;
+
+    private SimpleCacheManager      cacheManager;
+
+    private MutableConfiguration<K,V> config;
+
     private ConcurrentMap<K,V>      entries = new ConcurrentHashMap( 1024 );
-    
+
     private CacheLoader<K,V>        loader;
-    
-    
+
+    private volatile boolean        closed;
+
+    /** The statistics, or null if statistics are disabled. */
+    private volatile SimpleCacheStatistics statistics;
+
+    private volatile boolean        managementEnabled;
+
+    private CopyOnWriteArrayList<ListenerRegistration> listeners = new CopyOnWriteArrayList();
+
+    /** The loads in progress, see {@link #loadSingleFlight(Object, Function)}. */
+    private ConcurrentMap<K,InFlight<V>> inFlight = new ConcurrentHashMap( 32 );
+
+    /** The max number of entries, or -1 if the cache is unbounded. */
+    private int                     maxSize = -1;
+
+    private EvictionListener<K,V>   evictionListener;
+
+    /** The entries in eviction order; might contain entries that are removed or pinned already. */
+    private Queue<Map.Entry<K,V>>   evictionQueue;
+
+    /** The keys that are kept out of eviction, see {@link #pin(Object)}. */
+    private Set<K>                  pinned = ConcurrentHashMap.newKeySet();
+
+
+    /**
+     * Creates a new cache that is not connected to a {@link CacheManager}.
+     */
     public SimpleCache( Configuration config ) {
-        if (config instanceof CompleteConfiguration) {
-            Factory<CacheLoader<K,V>> factory = ((CompleteConfiguration)config).getCacheLoaderFactory();
-            if (factory != null) {
-                loader = factory.create();
-            }
+        this( "SimpleCache-" + nameCount.incrementAndGet(), null, config );
+    }
+
+
+    /**
+     * Called by {@link SimpleCacheManager}.
+     */
+    protected SimpleCache( String name, SimpleCacheManager cacheManager, Configuration config ) {
+        this.name = name;
+        this.cacheManager = cacheManager;
+
+        if (config instanceof MutableConfiguration) {
+            this.config = (MutableConfiguration)config;
+        }
+        else if (config instanceof CompleteConfiguration) {
+            this.config = new MutableConfiguration( (CompleteConfiguration)config );
+        }
+        else {
+            this.config = new MutableConfiguration()
+                    .setTypes( config.getKeyType(), config.getValueType() )
+                    .setStoreByValue( config.isStoreByValue() );
+        }
+
+        Factory<CacheLoader<K,V>> factory = this.config.getCacheLoaderFactory();
+        if (factory != null) {
+            loader = factory.create();
+        }
+        if (config instanceof EvictionConfiguration
+                && ((EvictionConfiguration)config).getMaxSize() > 0) {
+            maxSize = ((EvictionConfiguration)config).getMaxSize();
+            evictionListener = ((EvictionConfiguration)config).getEvictionListener();
+            evictionQueue = new ConcurrentLinkedQueue();
+        }
+        for (CacheEntryListenerConfiguration<K,V> listenerConfig : this.config.getCacheEntryListenerConfigurations()) {
+            listeners.add( new ListenerRegistration( listenerConfig ) );
+        }
+        managementEnabled = this.config.isManagementEnabled();
+        if (this.config.isStatisticsEnabled()
+                || (cacheManager != null && cacheManager.isStatisticsEnabled())) {
+            setStatisticsEnabled( true );
         }
     }
 
+
     protected void checkOpen() {
-        if (entries == null) {
+        if (closed) {
             throw new IllegalStateException( "Cache is closed." );
         }
     }
-    
+
+
+    /**
+     * The statistics of this cache.
+     *
+     * @return The statistics, or null if statistics are disabled.
+     */
+    public SimpleCacheStatistics getStatistics() {
+        return statistics;
+    }
+
+
+    /**
+     * Starts/stops collecting statistics without changing the configuration.
+     */
+    protected void setStatisticsEnabled( boolean enabled ) {
+        if (enabled && statistics == null) {
+            statistics = new SimpleCacheStatistics( cacheManager != null ? cacheManager.getStatistics() : null );
+        }
+        else if (!enabled) {
+            statistics = null;
+        }
+    }
+
+
+    protected void setManagementEnabled( boolean enabled ) {
+        managementEnabled = enabled;
+    }
+
+
+    protected MutableConfiguration<K,V> config() {
+        return config;
+    }
+
+
+    /**
+     * Called after the given entry was inserted.
+     */
+    protected void inserted( K key, V value ) {
+        if (evictionQueue != null && !pinned.contains( key )) {
+            Map.Entry<K,V> entry = new SimpleImmutableEntry( key, value );
+            evictionQueue.add( entry );
+            if (isOverflow()) {
+                evict( entry );
+            }
+        }
+    }
+
+
+    /**
+     * Keeps the entry of the given key out of eviction until {@link #unpin(Object)}
+     * is called. A pinned entry does not count for the max size. Does nothing if
+     * the cache is not bounded.
+     * <p/>
+     * Pinning is cheaper than vetoing eviction via {@link EvictionListener} if
+     * many entries are not evictable for a longer time: eviction never checks a
+     * pinned entry.
+     */
+    public void pin( K key ) {
+        if (isBounded() && pinned.add( key )) {
+            pinned( key );
+        }
+    }
+
+
+    /**
+     * Makes the entry of the given key evictable again, see {@link #pin(Object)}.
+     */
+    public void unpin( K key ) {
+        if (pinned.remove( key )) {
+            V value = entries.get( key );
+            if (value != null) {
+                unpinned( key, value );
+            }
+        }
+    }
+
+
+    protected boolean isPinned( K key ) {
+        return pinned.contains( key );
+    }
+
+
+    /**
+     * True if this cache is bounded, so that entries can be {@link #pin(Object) pinned}.
+     */
+    protected boolean isBounded() {
+        return maxSize > 0;
+    }
+
+
+    /**
+     * Called after the given key was pinned. The entry is not removed from the
+     * {@link #evictionQueue} right away, {@link #evict(Map.Entry)} drops it when
+     * it is polled.
+     */
+    protected void pinned( K key ) {
+    }
+
+
+    /**
+     * Called after the given entry was unpinned. The entry is queued for eviction
+     * again, just like a newly inserted entry.
+     */
+    protected void unpinned( K key, V value ) {
+        inserted( key, value );
+    }
+
+
+    /**
+     * True if there are more entries that are not pinned than the max size.
+     */
+    protected boolean isOverflow() {
+        return entries.size() - pinned.size() > maxSize;
+    }
+
+
+    /**
+     * Called after the given entry was explicitly removed. The default
+     * implementation does nothing.
+     */
+    protected void removed( K key, V value ) {
+    }
+
+
+    /**
+     * Called on every cache hit. The default implementation does nothing.
+     *
+     * @return False if the entry has expired and was removed, the request is
+     *         handled as a miss then.
+     */
+    protected boolean accessed( K key, V value ) {
+        return true;
+    }
+
+
+    /**
+     * Evicts entries until the cache is down to its max size. The queue is checked
+     * up to the inserted entry, so vetoed entries may leave the cache above its max
+     * size. Entries that are removed, replaced or pinned meanwhile are dropped from
+     * the queue, so they are not checked again.
+     *
+     * @param inserted The entry just inserted, which is never evicted.
+     */
+    protected void evict( Map.Entry<K,V> inserted ) {
+        for (int i = entries.size(); i > 0 && isOverflow(); i--) {
+            Map.Entry<K,V> candidate = evictionQueue.poll();
+            if (candidate == null) {
+                break;
+            }
+            else if (candidate == inserted) {
+                evictionQueue.add( candidate );
+                break;
+            }
+            K key = candidate.getKey();
+            V value = candidate.getValue();
+            if (entries.get( key ) != value || pinned.contains( key )) {
+                continue;
+            }
+            if (!evictEntry( key, value )) {
+                evictionQueue.add( candidate );
+            }
+        }
+    }
+
+
+    /**
+     * Removes the given entry in order to reduce the size of the cache, unless the
+     * {@link EvictionListener} vetoes.
+     *
+     * @return True if the entry was evicted, false if eviction was vetoed or the
+     *         entry was removed, replaced or pinned meanwhile.
+     */
+    protected boolean evictEntry( K key, V value ) {
+        if (entries.get( key ) != value || pinned.contains( key )
+                || (evictionListener != null && !evictionListener.onEviction( key, value ))) {
+            return false;
+        }
+        if (entries.remove( key, value )) {
+            if (statistics != null) {
+                statistics.recordEvictions( 1 );
+            }
+            return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Removes the given entry because it has expired.
+     */
+    protected void expireEntry( K key, V value ) {
+        if (entries.remove( key, value )) {
+            fire( EventType.EXPIRED, key, value, value );
+        }
+    }
+
+
+    /**
+     * The value of the given key, without loading, statistics and access hooks.
+     */
+    protected V peek( K key ) {
+        return entries.get( key );
+    }
+
+
+    /**
+     * The current number of entries.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+
+    /**
+     * The max number of entries, or -1 if the cache is unbounded.
+     */
+    protected int maxSize() {
+        return maxSize;
+    }
+
+
+    protected V load( K key ) {
+        return load( key, loader::load );
+    }
+
+
+    protected V load( K key, Function<? super K,? extends V> fn ) {
+        SimpleCacheStatistics stats = statistics;
+        long start = stats != null ? System.nanoTime() : 0;
+        V result = fn.apply( key );
+        if (stats != null) {
+            stats.recordLoad( System.nanoTime() - start );
+        }
+        return result;
+    }
+
+
+    /**
+     * Loads the value of the given key so that just one thread at a time loads a
+     * particular key. Other threads wait for the result of the loading thread.
+     * <p/>
+     * Loading a value may recursively load other values, maybe in another cache.
+     * A thread never waits for a load that (transitively) waits for a load of
+     * this thread, it loads the value concurrently instead. In this case just one
+     * value is stored and returned to all threads.
+     */
+    protected V loadSingleFlight( K key, Function<? super K,? extends V> fn ) {
+        Thread current = Thread.currentThread();
+        InFlight<V> own = new InFlight( current );
+        InFlight<V> other = inFlight.putIfAbsent( key, own );
+        if (other != null) {
+            // wait for the loading thread, unless it is waiting for us
+            waiting.put( current, other );
+            try {
+                return isWaitingFor( other.owner, current )
+                        ? storeLoaded( key, load( key, fn ) )
+                        : other.join();
+            }
+            finally {
+                waiting.remove( current );
+            }
+        }
+        // we own the load of key
+        try {
+            V value = entries.get( key );
+            if (value == null) {
+                value = storeLoaded( key, load( key, fn ) );
+            }
+            own.complete( value );
+            return value;
+        }
+        catch (RuntimeException|Error e) {
+            own.completeExceptionally( e );
+            throw e;
+        }
+        finally {
+            inFlight.remove( key, own );
+        }
+    }
+
+
+    /**
+     * True if the given owner thread is (transitively) waiting for a load of the
+     * given thread. A chain longer than {@link #MAX_WAIT_CHAIN} is considered a
+     * cycle too.
+     */
+    protected static boolean isWaitingFor( Thread owner, Thread thread ) {
+        Thread t = owner;
+        for (int i=0; t != null && i < MAX_WAIT_CHAIN; i++) {
+            if (t == thread) {
+                return true;
+            }
+            InFlight next = waiting.get( t );
+            t = next != null ? next.owner : null;
+        }
+        return t != null;
+    }
+
+
+    protected V storeLoaded( K key, V value ) {
+        if (value != null) {
+            V previous = entries.putIfAbsent( key, value );
+            if (previous != null) {
+                return previous;
+            }
+            fire( EventType.CREATED, key, value, null );
+            inserted( key, value );
+        }
+        return value;
+    }
+
+
+    /**
+     * A load in progress.
+     */
+    protected static class InFlight<V>
+            extends CompletableFuture<V> {
+
+        public final Thread     owner;
+
+        public InFlight( Thread owner ) {
+            this.owner = owner;
+        }
+
+        @Override
+        public V join() {
+            try {
+                return super.join();
+            }
+            catch (CompletionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                else if (cause instanceof Error) {
+                    throw (Error)cause;
+                }
+                throw new CacheLoaderException( cause );
+            }
+        }
+    }
+
+
+    /**
+     * Returns the value of the given key if present, without loading. This is
+     * lock-free and does not allocate.
+     *
+     * @return The value, or null if the cache does not contain the key.
+     */
+    public V getIfPresent( K key ) {
+        checkOpen();
+        V value = entries.get( key );
+        if (value == null || !accessed( key, value )) {
+            return null;
+        }
+        SimpleCacheStatistics stats = statistics;
+        if (stats != null) {
+            stats.recordHits( 1 );
+        }
+        return value;
+    }
+
+
+    /**
+     * Returns the value of the given key. If the cache does not contain the key,
+     * then the value is loaded by the given loader instead of the configured
+     * {@link CacheLoader}. The loader is called by the calling thread.
+     *
+     * @param loader Returns the value of a key, or null if there is no value.
+     * @return The value, or null if the loader returned null.
+     */
+    public V get( K key, Function<? super K,? extends V> loader ) {
+        checkOpen();
+        SimpleCacheStatistics stats = statistics;
+        long start = stats != null ? System.nanoTime() : 0;
+
+        V value = entries.get( key );
+        if (value != null && accessed( key, value )) {
+            if (stats != null) { stats.recordHits( 1 ); }
+        }
+        else {
+            if (stats != null) { stats.recordMisses( 1 ); }
+            value = loadSingleFlight( key, loader );
+        }
+        if (stats != null) {
+            stats.recordGetTime( System.nanoTime() - start );
+        }
+        return value;
+    }
+
+
     @Override
     public V get( K key ) {
         checkOpen();
+        SimpleCacheStatistics stats = statistics;
+        long start = stats != null ? System.nanoTime() : 0;
+
         V value = entries.get( key );
-        if (value != null) {
-            return value;
+        if (value != null && accessed( key, value )) {
+            if (stats != null) { stats.recordHits( 1 ); }
         }
-        else if (loader != null) {
-            // we do not prevent threads from concurrently creating a value for the
-            // same key! but we make sure that just one value is returned to all threads
-            value = loader.load( key );
-            if (value != null) {
-                V previous = entries.putIfAbsent( key, value );
-                value = previous != null ? previous : value;
+        else {
+            value = null;
+            if (stats != null) { stats.recordMisses( 1 ); }
+            if (loader != null) {
+                value = loadSingleFlight( key, loader::load );
             }
-            return value;
         }
-        return null;
+        if (stats != null) {
+            stats.recordGetTime( System.nanoTime() - start );
+        }
+        return value;
     }
 
+
     @Override
     public Map<K,V> getAll( Set<? extends K> keys ) {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+        checkOpen();
+        Map<K,V> result = new LinkedHashMap( keys.size() * 2 );
+        for (K key : keys) {
+            V value = get( key );
+            if (value != null) {
+                result.put( key, value );
+            }
+        }
+        return result;
     }
 
+
     @Override
     public boolean containsKey( K key ) {
+        checkOpen();
         return entries.containsKey( key );
     }
 
+
+    /**
+     * Loads the values synchronously in the calling thread.
+     */
     @Override
     public void loadAll( Set<? extends K> keys, boolean replaceExistingValues, CompletionListener completionListener ) {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+        checkOpen();
+        try {
+            if (loader != null) {
+                for (K key : keys) {
+                    if (replaceExistingValues || !entries.containsKey( key )) {
+                        V value = load( key );
+                        if (value != null) {
+                            V previous = entries.put( key, value );
+                            fire( previous == null ? EventType.CREATED : EventType.UPDATED, key, value, previous );
+                            inserted( key, value );
+                        }
+                    }
+                }
+            }
+            if (completionListener != null) {
+                completionListener.onCompletion();
+            }
+        }
+        catch (Exception e) {
+            if (completionListener != null) {
+                completionListener.onException( e );
+            }
+            else {
+                log.warn( "loadAll(): ", e );
+            }
+        }
     }
 
+
     @Override
     public void put( K key, V value ) {
-        entries.put( key, value );
+        getAndPut( key, value, false );
     }
 
+
     @Override
     public V getAndPut( K key, V value ) {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+        return getAndPut( key, value, true );
     }
 
+
+    protected V getAndPut( K key, V value, boolean isGet ) {
+        checkOpen();
+        Objects.requireNonNull( value, "value must not be null." );
+        SimpleCacheStatistics stats = statistics;
+        long start = stats != null ? System.nanoTime() : 0;
+
+        V previous = entries.put( key, value );
+        fire( previous == null ? EventType.CREATED : EventType.UPDATED, key, value, previous );
+        inserted( key, value );
+
+        if (stats != null) {
+            if (isGet) {
+                if (previous != null) { stats.recordHits( 1 ); } else { stats.recordMisses( 1 ); }
+            }
+            stats.recordPuts( 1 );
+            stats.recordPutTime( System.nanoTime() - start );
+        }
+        return previous;
+    }
+
+
     @Override
     public void putAll( Map<? extends K,? extends V> map ) {
-        entries.putAll( map );
+        for (Map.Entry<? extends K,? extends V> entry : map.entrySet()) {
+            put( entry.getKey(), entry.getValue() );
+        }
     }
 
+
     @Override
     public boolean putIfAbsent( K key, V value ) {
-        return entries.putIfAbsent( key, value ) == null;
+        checkOpen();
+        if (entries.putIfAbsent( key, value ) == null) {
+            fire( EventType.CREATED, key, value, null );
+            inserted( key, value );
+            if (statistics != null) {
+                statistics.recordPuts( 1 );
+            }
+            return true;
+        }
+        return false;
     }
 
+
     @Override
     public boolean remove( K key ) {
-        return entries.remove( key ) != null;
+        return getAndRemove( key, false ) != null;
     }
 
+
     @Override
-    public boolean remove( K key, V oldValue ) {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+    public V getAndRemove( K key ) {
+        return getAndRemove( key, true );
     }
 
+
+    protected V getAndRemove( K key, boolean isGet ) {
+        checkOpen();
+        SimpleCacheStatistics stats = statistics;
+        long start = stats != null ? System.nanoTime() : 0;
+
+        V previous = entries.remove( key );
+        if (previous != null) {
+            fire( EventType.REMOVED, key, previous, previous );
+            removed( key, previous );
+        }
+
+        if (stats != null) {
+            if (isGet) {
+                if (previous != null) { stats.recordHits( 1 ); } else { stats.recordMisses( 1 ); }
+            }
+            if (previous != null) {
+                stats.recordRemovals( 1 );
+                stats.recordRemoveTime( System.nanoTime() - start );
+            }
+        }
+        return previous;
+    }
+
+
     @Override
-    public V getAndRemove( K key ) {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+    public boolean remove( K key, V oldValue ) {
+        checkOpen();
+        if (entries.remove( key, oldValue )) {
+            fire( EventType.REMOVED, key, oldValue, oldValue );
+            removed( key, oldValue );
+            if (statistics != null) {
+                statistics.recordRemovals( 1 );
+            }
+            return true;
+        }
+        return false;
     }
 
+
     @Override
     public boolean replace( K key, V oldValue, V newValue ) {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+        checkOpen();
+        if (entries.replace( key, oldValue, newValue )) {
+            fire( EventType.UPDATED, key, newValue, oldValue );
+            inserted( key, newValue );
+            if (statistics != null) {
+                statistics.recordPuts( 1 );
+            }
+            return true;
+        }
+        return false;
     }
 
+
     @Override
     public boolean replace( K key, V value ) {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+        return getAndReplace( key, value ) != null;
     }
 
+
     @Override
     public V getAndReplace( K key, V value ) {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+        checkOpen();
+        V previous = entries.replace( key, value );
+        if (previous != null) {
+            fire( EventType.UPDATED, key, value, previous );
+            inserted( key, value );
+            if (statistics != null) {
+                statistics.recordPuts( 1 );
+            }
+        }
+        return previous;
     }
 
+
     @Override
     public void removeAll( Set<? extends K> keys ) {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+        for (K key : keys) {
+            remove( key );
+        }
     }
 
+
     @Override
     public void removeAll() {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+        checkOpen();
+        for (K key : entries.keySet()) {
+            remove( key );
+        }
     }
 
+
     @Override
     public void clear() {
+        checkOpen();
         entries.clear();
+        if (evictionQueue != null) {
+            evictionQueue.clear();
+        }
+        pinned.clear();
     }
 
+
     @Override
     public <C extends Configuration<K,V>> C getConfiguration( Class<C> clazz ) {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+        if (clazz.isInstance( config )) {
+            return clazz.cast( config );
+        }
+        throw new IllegalArgumentException( "Unsupported configuration type: " + clazz.getName() );
     }
 
+
+    /**
+     * The processor is executed atomically for the given key. It must not access
+     * this cache.
+     */
     @Override
     public <T> T invoke( K key, EntryProcessor<K,V,T> entryProcessor, Object... arguments )
             throws EntryProcessorException {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+        checkOpen();
+        Objects.requireNonNull( key, "key must not be null." );
+        MutableEntryImpl entry = new MutableEntryImpl( key );
+        Object[] result = new Object[1];
+        try {
+            entries.compute( key, (k, value) -> {
+                entry.init( value );
+                result[0] = entryProcessor.process( entry, arguments );
+                return entry.value;
+            });
+        }
+        catch (EntryProcessorException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new EntryProcessorException( e );
+        }
+
+        // events, statistics and eviction outside the lock
+        SimpleCacheStatistics stats = statistics;
+        if (entry.accessed && stats != null) {
+            if (entry.original != null) { stats.recordHits( 1 ); } else { stats.recordMisses( 1 ); }
+        }
+        if (entry.value != entry.original) {
+            if (entry.value == null) {
+                fire( EventType.REMOVED, key, entry.original, entry.original );
+                removed( key, entry.original );
+                if (stats != null) { stats.recordRemovals( 1 ); }
+            }
+            else {
+                fire( entry.original == null ? EventType.CREATED : EventType.UPDATED, key, entry.value, entry.original );
+                inserted( key, entry.value );
+                if (stats != null) { stats.recordPuts( 1 ); }
+            }
+        }
+        return (T)result[0];
     }
 
+
     @Override
     public <T> Map<K,EntryProcessorResult<T>> invokeAll( Set<? extends K> keys, EntryProcessor<K,V,T> entryProcessor,
             Object... arguments ) {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+        Map<K,EntryProcessorResult<T>> results = new HashMap( keys.size() * 2 );
+        for (K key : keys) {
+            try {
+                T result = invoke( key, entryProcessor, arguments );
+                if (result != null) {
+                    results.put( key, () -> result );
+                }
+            }
+            catch (EntryProcessorException e) {
+                results.put( key, () -> { throw e; } );
+            }
+        }
+        return results;
     }
 
+
     @Override
     public String getName() {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+        return name;
     }
 
+
     @Override
     public CacheManager getCacheManager() {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+        return cacheManager;
     }
 
+
     @Override
     public void close() {
-        entries = null;
+        if (!closed) {
+            closed = true;
+            entries.clear();
+            if (evictionQueue != null) {
+                evictionQueue.clear();
+            }
+            pinned.clear();
+            if (cacheManager != null) {
+                cacheManager.release( this );
+            }
+        }
     }
 
+
     @Override
     public boolean isClosed() {
-        return entries != null;
+        return closed;
     }
 
+
     @Override
     public <T> T unwrap( Class<T> clazz ) {
+        if (clazz.isInstance( this )) {
+            return clazz.cast( this );
+        }
         return clazz.cast( entries );
     }
 
+
     @Override
-    public void registerCacheEntryListener( CacheEntryListenerConfiguration<K,V> cacheEntryListenerConfiguration ) {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+    public void registerCacheEntryListener( CacheEntryListenerConfiguration<K,V> listenerConfig ) {
+        config.addCacheEntryListenerConfiguration( listenerConfig );
+        synchronized (this) {
+            listeners.add( new ListenerRegistration( listenerConfig ) );
+        }
     }
 
+
     @Override
-    public void deregisterCacheEntryListener( CacheEntryListenerConfiguration<K,V> cacheEntryListenerConfiguration ) {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+    public void deregisterCacheEntryListener( CacheEntryListenerConfiguration<K,V> listenerConfig ) {
+        config.removeCacheEntryListenerConfiguration( listenerConfig );
+        listeners.removeIf( registration -> registration.config.equals( listenerConfig ) );
     }
 
+
     @Override
     public Iterator<javax.cache.Cache.Entry<K,V>> iterator() {
+        checkOpen();
         return entries.entrySet().stream()
             .<Cache.Entry<K,V>>map( entry -> new Cache.Entry<K,V>() {
                 @Override
@@ -244,9 +1019,228 @@ public class SimpleCache<K,V>
                 @Override
                 public V getValue() { return entry.getValue(); }
                 @Override
-                public <T> T unwrap( Class<T> clazz ) { throw new IllegalArgumentException( "Guava does not provide an Entry type." ); } 
+                public <T> T unwrap( Class<T> clazz ) { throw new IllegalArgumentException( "Guava does not provide an Entry type." ); }
             })
             .iterator();
     }
-    
+
+
+    @Override
+    public String toString() {
+        return "SimpleCache[name=" + name + ", size=" + (closed ? "closed" : entries.size()) + "]";
+    }
+
+
+    // events *********************************************
+
+    protected void fire( EventType type, K key, V value, V oldValue ) {
+        if (!listeners.isEmpty()) {
+            Event event = new Event( type, key, value, oldValue );
+            for (ListenerRegistration registration : listeners) {
+                registration.dispatch( event );
+            }
+        }
+    }
+
+
+    /**
+     * A registered {@link CacheEntryListenerConfiguration}.
+     */
+    protected class ListenerRegistration {
+
+        protected CacheEntryListenerConfiguration<K,V>  config;
+
+        protected CacheEntryListener<? super K,? super V> listener;
+
+        protected CacheEntryEventFilter<? super K,? super V> filter;
+
+        public ListenerRegistration( CacheEntryListenerConfiguration<K,V> config ) {
+            this.config = config;
+            this.listener = config.getCacheEntryListenerFactory().create();
+            this.filter = config.getCacheEntryEventFilterFactory() != null
+                    ? config.getCacheEntryEventFilterFactory().create() : null;
+        }
+
+        public void dispatch( Event event ) {
+            if (filter != null && !filter.evaluate( event )) {
+                return;
+            }
+            Iterable events = singletonList( event );
+            switch (event.getEventType()) {
+                case CREATED:
+                    if (listener instanceof CacheEntryCreatedListener) {
+                        ((CacheEntryCreatedListener)listener).onCreated( events );
+                    }
+                    break;
+                case UPDATED:
+                    if (listener instanceof CacheEntryUpdatedListener) {
+                        ((CacheEntryUpdatedListener)listener).onUpdated( events );
+                    }
+                    break;
+                case REMOVED:
+                    if (listener instanceof CacheEntryRemovedListener) {
+                        ((CacheEntryRemovedListener)listener).onRemoved( events );
+                    }
+                    break;
+                case EXPIRED:
+                    if (listener instanceof CacheEntryExpiredListener) {
+                        ((CacheEntryExpiredListener)listener).onExpired( events );
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+
+    /**
+     *
+     */
+    protected class Event
+            extends CacheEntryEvent<K,V> {
+
+        private K       key;
+
+        private V       value;
+
+        private V       oldValue;
+
+        public Event( EventType eventType, K key, V value, V oldValue ) {
+            super( SimpleCache.this, eventType );
+            this.key = key;
+            this.value = value;
+            this.oldValue = oldValue;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            return value;
+        }
+
+        @Override
+        public V getOldValue() {
+            return oldValue;
+        }
+
+        @Override
+        public boolean isOldValueAvailable() {
+            return oldValue != null;
+        }
+
+        @Override
+        public <T> T unwrap( Class<T> clazz ) {
+            throw new IllegalArgumentException( "Unsupported type: " + clazz );
+        }
+    }
+
+
+    /**
+     * The entry passed to an {@link EntryProcessor}.
+     */
+    protected class MutableEntryImpl
+            implements MutableEntry<K,V> {
+
+        private K           key;
+
+        private V           original;
+
+        private V           value;
+
+        private boolean     accessed;
+
+        public MutableEntryImpl( K key ) {
+            this.key = key;
+        }
+
+        protected void init( V current ) {
+            this.original = current;
+            this.value = current;
+        }
+
+        @Override
+        public K getKey() {
+            return key;
+        }
+
+        @Override
+        public V getValue() {
+            accessed = true;
+            if (value == null && original == null && loader != null) {
+                value = load( key );
+            }
+            return value;
+        }
+
+        @Override
+        public boolean exists() {
+            return value != null;
+        }
+
+        @Override
+        public void remove() {
+            value = null;
+        }
+
+        @Override
+        public void setValue( V newValue ) {
+            value = Objects.requireNonNull( newValue, "value must not be null." );
+        }
+
+        @Override
+        public <T> T unwrap( Class<T> clazz ) {
+            throw new IllegalArgumentException( "Unsupported type: " + clazz );
+        }
+    }
+
+
+    // management *****************************************
+
+    /**
+     * The {@link CacheMXBean} of a {@link SimpleCache}.
+     */
+    protected class Management
+            implements CacheMXBean {
+
+        @Override
+        public String getKeyType() {
+            return config.getKeyType().getName();
+        }
+
+        @Override
+        public String getValueType() {
+            return config.getValueType().getName();
+        }
+
+        @Override
+        public boolean isReadThrough() {
+            return config.isReadThrough();
+        }
+
+        @Override
+        public boolean isWriteThrough() {
+            return config.isWriteThrough();
+        }
+
+        @Override
+        public boolean isStoreByValue() {
+            return false;
+        }
+
+        @Override
+        public boolean isStatisticsEnabled() {
+            return statistics != null;
+        }
+
+        @Override
+        public boolean isManagementEnabled() {
+            return managementEnabled;
+        }
+    }
+
 }
@@ -1,4 +1,4 @@
-/* 
+/*
  * polymap.org
  * Copyright (C) 2015, Falko Bräutigam. All rights reserved.
  *
@@ -14,21 +14,42 @@
  */
 package org.polymap.model2.engine;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import java.lang.management.ManagementFactory;
 import java.net.URI;
 
 import javax.cache.Cache;
+import javax.cache.CacheException;
 import javax.cache.CacheManager;
 import javax.cache.configuration.Configuration;
+import javax.cache.management.CacheMXBean;
 import javax.cache.spi.CachingProvider;
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
 
 /**
- * 
+ * The {@link CacheManager} of {@link SimpleCache} instances.
+ * <p/>
+ * Besides the per-cache statistics this manager collects the summary of the
+ * statistics of all its caches, see {@link #getStatistics()}. Caches created by
+ * Model2 internally, for example the per-UnitOfWork Entity caches, are not
+ * registered with the manager (see {@link #createInternalCache(String, Configuration)})
+ * and do not enable statistics by their configuration; use {@link #setStatisticsEnabled(boolean)}
+ * to collect their statistics, and {@link #setManagementEnabled(boolean)} to
+ * expose the summary via JMX.
  *
  * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
  */
@@ -37,75 +58,326 @@ public class SimpleCacheManager
 
     private static Log log = LogFactory.getLog( SimpleCacheManager.class );
 
+    private static final AtomicInteger  uriCount = new AtomicInteger();
+
+    private SimpleCachingProvider       provider;
+
+    private URI                         uri;
+
+    private ClassLoader                 classLoader;
+
+    private Properties                  properties;
+
+    private ConcurrentMap<String,SimpleCache> caches = new ConcurrentHashMap( 64 );
+
+    private volatile boolean            closed;
+
+    private volatile boolean            statisticsEnabled;
+
+    private volatile boolean            managementEnabled;
+
+    private SimpleCacheStatistics       statistics = new SimpleCacheStatistics( null );
+
+
+    /**
+     * Creates a new manager that is not connected to a {@link CachingProvider}.
+     */
+    public SimpleCacheManager() {
+        this( null, URI.create( "model2:SimpleCacheManager-" + uriCount.incrementAndGet() ),
+                SimpleCacheManager.class.getClassLoader(), new Properties() );
+    }
+
+
+    protected SimpleCacheManager( SimpleCachingProvider provider, URI uri, ClassLoader classLoader, Properties properties ) {
+        this.provider = provider;
+        this.uri = uri;
+        this.classLoader = classLoader;
+        this.properties = properties;
+    }
+
+
+    protected void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException( "CacheManager is closed." );
+        }
+    }
+
+
+    /**
+     * The summary of the statistics of all caches of this manager that have
+     * statistics enabled.
+     */
+    public SimpleCacheStatistics getStatistics() {
+        return statistics;
+    }
+
+
+    public boolean isStatisticsEnabled() {
+        return statisticsEnabled;
+    }
+
+
+    /**
+     * Enables statistics of all caches created afterwards, regardless of their
+     * configuration. The statistics of these caches are not registered as MXBeans
+     * but they are part of the summary {@link #getStatistics()}.
+     */
+    public SimpleCacheManager setStatisticsEnabled( boolean enabled ) {
+        this.statisticsEnabled = enabled;
+        return this;
+    }
+
+
+    /**
+     * Registers/unregisters the summary {@link #getStatistics()} as MXBean of
+     * type <code>CacheManagerStatistics</code>.
+     */
+    public SimpleCacheManager setManagementEnabled( boolean enabled ) {
+        if (enabled != managementEnabled) {
+            ObjectName name = objectName( "CacheManagerStatistics", null );
+            if (enabled) {
+                registerMXBean( name, statistics, SimpleCacheStatisticsMXBean.class );
+            }
+            else {
+                unregisterMXBean( name );
+            }
+            managementEnabled = enabled;
+        }
+        return this;
+    }
+
+
     @Override
     public <K,V,C extends Configuration<K,V>> Cache<K,V> createCache( String cacheName, C config )
             throws IllegalArgumentException {
-        return new SimpleCache( config );
+        checkOpen();
+        if (cacheName == null || config == null) {
+            throw new NullPointerException( "cacheName and config must not be null." );
+        }
+        SimpleCache<K,V> cache = newCache( cacheName, config );
+        if (caches.putIfAbsent( cacheName, cache ) != null) {
+            throw new CacheException( "Cache already exists: " + cacheName );
+        }
+        if (cache.config().isStatisticsEnabled()) {
+            enableStatistics( cacheName, true );
+        }
+        if (cache.config().isManagementEnabled()) {
+            enableManagement( cacheName, true );
+        }
+        return cache;
+    }
+
+
+    /**
+     * Creates a cache that is not registered with this manager. It is not
+     * returned by {@link #getCache(String)} and {@link #getCacheNames()}, it has
+     * no MXBeans and it is garbage collected along with its owner, even if it is
+     * never closed. Used for caches that Model2 creates internally, for example
+     * the per-UnitOfWork Entity caches.
+     */
+    public <K,V> SimpleCache<K,V> createInternalCache( String cacheName, Configuration<K,V> config ) {
+        checkOpen();
+        return newCache( cacheName, config );
     }
 
+
+    /**
+     * Creates the cache instance for {@link #createCache(String, Configuration)}.
+     * Override to provide another cache implementation.
+     */
+    protected <K,V> SimpleCache<K,V> newCache( String cacheName, Configuration<K,V> config ) {
+        return new SimpleCache( cacheName, this, config );
+    }
+
+
+    /**
+     * Called by {@link SimpleCache#close()}.
+     */
+    protected void release( SimpleCache cache ) {
+        if (caches.remove( cache.getName(), cache )) {
+            if (cache.config().isStatisticsEnabled()) {
+                unregisterMXBean( objectName( "CacheStatistics", cache.getName() ) );
+            }
+            if (cache.config().isManagementEnabled()) {
+                unregisterMXBean( objectName( "CacheConfiguration", cache.getName() ) );
+            }
+        }
+    }
+
+
     @Override
     public void destroyCache( String cacheName ) {
-        // XXX Auto-generated method stub
-        throw new RuntimeException( "not yet implemented." );
+        checkOpen();
+        SimpleCache cache = caches.get( cacheName );
+        if (cache != null) {
+            cache.clear();
+            cache.close();
+        }
     }
 
+
     @Override
     public CachingProvider getCachingProvider() {
-        throw new RuntimeException( "not yet implemented." );
+        return provider;
     }
 
+
     @Override
     public URI getURI() {
-        throw new RuntimeException( "not yet implemented." );
+        return uri;
     }
 
+
     @Override
     public ClassLoader getClassLoader() {
-        throw new RuntimeException( "not yet implemented." );
+        return classLoader;
     }
 
+
     @Override
     public Properties getProperties() {
-        throw new RuntimeException( "not yet implemented." );
+        return properties;
     }
 
+
     @Override
     public <K, V> Cache<K,V> getCache( String cacheName, Class<K> keyType, Class<V> valueType ) {
-        throw new RuntimeException( "not yet implemented." );
+        checkOpen();
+        SimpleCache<K,V> cache = caches.get( cacheName );
+        if (cache != null) {
+            Configuration config = cache.config();
+            if (!config.getKeyType().isAssignableFrom( keyType )
+                    || !config.getValueType().isAssignableFrom( valueType )) {
+                throw new ClassCastException( "Cache has different types: " + cacheName );
+            }
+        }
+        return cache;
     }
 
+
     @Override
     public <K, V> Cache<K,V> getCache( String cacheName ) {
-        throw new RuntimeException( "not yet implemented." );
+        checkOpen();
+        return caches.get( cacheName );
     }
 
+
     @Override
     public Iterable<String> getCacheNames() {
-        throw new RuntimeException( "not yet implemented." );
+        checkOpen();
+        return Collections.unmodifiableList( new ArrayList( caches.keySet() ) );
     }
 
+
     @Override
     public void enableManagement( String cacheName, boolean enabled ) {
-        throw new RuntimeException( "not yet implemented." );
+        checkOpen();
+        SimpleCache cache = caches.get( cacheName );
+        if (cache != null) {
+            ObjectName name = objectName( "CacheConfiguration", cacheName );
+            if (enabled) {
+                registerMXBean( name, cache.new Management(), CacheMXBean.class );
+            }
+            else {
+                unregisterMXBean( name );
+            }
+            cache.config().setManagementEnabled( enabled );
+            cache.setManagementEnabled( enabled );
+        }
     }
 
+
     @Override
     public void enableStatistics( String cacheName, boolean enabled ) {
-        throw new RuntimeException( "not yet implemented." );
+        checkOpen();
+        SimpleCache cache = caches.get( cacheName );
+        if (cache != null) {
+            cache.setStatisticsEnabled( enabled );
+            ObjectName name = objectName( "CacheStatistics", cacheName );
+            if (enabled) {
+                registerMXBean( name, cache.getStatistics(), SimpleCacheStatisticsMXBean.class );
+            }
+            else {
+                unregisterMXBean( name );
+            }
+            cache.config().setStatisticsEnabled( enabled );
+        }
     }
 
+
     @Override
     public void close() {
-        throw new RuntimeException( "not yet implemented." );
+        if (!closed) {
+            for (SimpleCache cache : new ArrayList<SimpleCache>( caches.values() )) {
+                cache.close();
+            }
+            setManagementEnabled( false );
+            closed = true;
+            if (provider != null) {
+                provider.release( this );
+            }
+        }
     }
 
+
     @Override
     public boolean isClosed() {
-        throw new RuntimeException( "not yet implemented." );
+        return closed;
     }
 
+
     @Override
     public <T> T unwrap( Class<T> clazz ) {
-        throw new RuntimeException( "not yet implemented." );
+        if (clazz.isInstance( this )) {
+            return clazz.cast( this );
+        }
+        throw new IllegalArgumentException( "Unsupported type: " + clazz );
     }
+
+
+    // JMX ************************************************
+
+    protected ObjectName objectName( String type, String cacheName ) {
+        try {
+            return new ObjectName( "javax.cache:type=" + type
+                    + ",CacheManager=" + mbeanSafe( uri.toString() )
+                    + (cacheName != null ? ",Cache=" + mbeanSafe( cacheName ) : "") );
+        }
+        catch (Exception e) {
+            throw new CacheException( e );
+        }
+    }
+
+
+    protected String mbeanSafe( String s ) {
+        return s.replaceAll( ",|:|=|\\n|\\*|\\?|\"", "." );
+    }
+
+
+    protected <T> void registerMXBean( ObjectName name, T bean, Class<T> type ) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean( new StandardMBean( bean, type, true ), name );
+        }
+        catch (InstanceAlreadyExistsException e) {
+            log.debug( "MXBean already registered: " + name );
+        }
+        catch (Exception e) {
+            throw new CacheException( e );
+        }
+    }
+
+
+    protected void unregisterMXBean( ObjectName name ) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean( name );
+        }
+        catch (InstanceNotFoundException e) {
+            // not registered
+        }
+        catch (Exception e) {
+            throw new CacheException( e );
+        }
+    }
+
 }
@@ -0,0 +1,203 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3.0 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.cache.management.CacheStatisticsMXBean;
+
+/**
+ * Statistics of a {@link SimpleCache}, or the summary of all caches of a
+ * {@link SimpleCacheManager}. Every statistics may have a parent that is updated
+ * as well.
+ * <p/>
+ * Times are measured in nanoseconds and reported in microseconds, as defined by
+ * {@link CacheStatisticsMXBean}.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public class SimpleCacheStatistics
+        implements SimpleCacheStatisticsMXBean {
+
+    // instance *******************************************
+
+    private SimpleCacheStatistics   parent;
+
+    private LongAdder               hits = new LongAdder();
+
+    private LongAdder               misses = new LongAdder();
+
+    private LongAdder               puts = new LongAdder();
+
+    private LongAdder               removals = new LongAdder();
+
+    private LongAdder               evictions = new LongAdder();
+
+    private LongAdder               loads = new LongAdder();
+
+    private LongAdder               getTime = new LongAdder();
+
+    private LongAdder               putTime = new LongAdder();
+
+    private LongAdder               removeTime = new LongAdder();
+
+    private LongAdder               loadTime = new LongAdder();
+
+
+    /**
+     * @param parent The statistics that are updated as well, or null.
+     */
+    public SimpleCacheStatistics( SimpleCacheStatistics parent ) {
+        this.parent = parent;
+    }
+
+
+    public void recordHits( long count ) {
+        hits.add( count );
+        if (parent != null) { parent.recordHits( count ); }
+    }
+
+    public void recordMisses( long count ) {
+        misses.add( count );
+        if (parent != null) { parent.recordMisses( count ); }
+    }
+
+    public void recordPuts( long count ) {
+        puts.add( count );
+        if (parent != null) { parent.recordPuts( count ); }
+    }
+
+    public void recordRemovals( long count ) {
+        removals.add( count );
+        if (parent != null) { parent.recordRemovals( count ); }
+    }
+
+    public void recordEvictions( long count ) {
+        evictions.add( count );
+        if (parent != null) { parent.recordEvictions( count ); }
+    }
+
+    public void recordLoad( long nanos ) {
+        loads.increment();
+        loadTime.add( nanos );
+        if (parent != null) { parent.recordLoad( nanos ); }
+    }
+
+    public void recordGetTime( long nanos ) {
+        getTime.add( nanos );
+        if (parent != null) { parent.recordGetTime( nanos ); }
+    }
+
+    public void recordPutTime( long nanos ) {
+        putTime.add( nanos );
+        if (parent != null) { parent.recordPutTime( nanos ); }
+    }
+
+    public void recordRemoveTime( long nanos ) {
+        removeTime.add( nanos );
+        if (parent != null) { parent.recordRemoveTime( nanos ); }
+    }
+
+
+    // CacheStatisticsMXBean ******************************
+
+    @Override
+    public void clear() {
+        for (LongAdder adder : new LongAdder[] {hits, misses, puts, removals, evictions,
+                loads, getTime, putTime, removeTime, loadTime}) {
+            adder.reset();
+        }
+    }
+
+    @Override
+    public long getCacheHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public float getCacheHitPercentage() {
+        long gets = getCacheGets();
+        return gets == 0 ? 0 : (float)getCacheHits() / gets * 100;
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public float getCacheMissPercentage() {
+        long gets = getCacheGets();
+        return gets == 0 ? 0 : (float)getCacheMisses() / gets * 100;
+    }
+
+    @Override
+    public long getCacheGets() {
+        return hits.sum() + misses.sum();
+    }
+
+    @Override
+    public long getCachePuts() {
+        return puts.sum();
+    }
+
+    @Override
+    public long getCacheRemovals() {
+        return removals.sum();
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public float getAverageGetTime() {
+        return average( getTime, getCacheGets() );
+    }
+
+    @Override
+    public float getAveragePutTime() {
+        return average( putTime, getCachePuts() );
+    }
+
+    @Override
+    public float getAverageRemoveTime() {
+        return average( removeTime, getCacheRemovals() );
+    }
+
+    @Override
+    public long getCacheLoads() {
+        return loads.sum();
+    }
+
+    @Override
+    public float getAverageLoadTime() {
+        return average( loadTime, getCacheLoads() );
+    }
+
+    protected float average( LongAdder nanos, long count ) {
+        return count == 0 ? 0 : (float)nanos.sum() / count / 1000;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics[hits=" + getCacheHits() + ", misses=" + getCacheMisses()
+                + ", hitPercentage=" + getCacheHitPercentage() + ", puts=" + getCachePuts()
+                + ", removals=" + getCacheRemovals() + ", evictions=" + getCacheEvictions()
+                + ", loads=" + getCacheLoads() + ", averageLoadTime=" + getAverageLoadTime() + "us]";
+    }
+
+}
@@ -0,0 +1,34 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3.0 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import javax.cache.management.CacheStatisticsMXBean;
+
+/**
+ * The {@link CacheStatisticsMXBean} of {@link SimpleCache} plus statistics of the
+ * cache loader.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public interface SimpleCacheStatisticsMXBean
+        extends CacheStatisticsMXBean {
+
+    /** The number of values loaded by the cache loader. */
+    public long getCacheLoads();
+
+    /** The mean time to load a value in microseconds. */
+    public float getAverageLoadTime();
+
+}
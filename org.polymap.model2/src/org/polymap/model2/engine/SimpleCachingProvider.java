@@ -0,0 +1,144 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3.0 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.WeakHashMap;
+
+import java.net.URI;
+
+import javax.cache.CacheManager;
+import javax.cache.configuration.OptionalFeature;
+import javax.cache.spi.CachingProvider;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The {@link CachingProvider} of {@link SimpleCacheManager} instances.
+ * <p/>
+ * This provider is not registered as a service, so it is not found by
+ * {@link javax.cache.Caching}. Use the instance directly.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public class SimpleCachingProvider
+        implements CachingProvider {
+
+    private static Log log = LogFactory.getLog( SimpleCachingProvider.class );
+
+    public static final URI             DEFAULT_URI = URI.create( "model2:SimpleCachingProvider" );
+
+    /** Guarded by this. */
+    private Map<ClassLoader,Map<URI,SimpleCacheManager>> managers = new WeakHashMap();
+
+
+    @Override
+    public synchronized CacheManager getCacheManager( URI uri, ClassLoader classLoader, Properties properties ) {
+        URI managerUri = uri != null ? uri : getDefaultURI();
+        ClassLoader managerClassLoader = classLoader != null ? classLoader : getDefaultClassLoader();
+        Properties managerProperties = properties != null ? properties : getDefaultProperties();
+
+        return managers.computeIfAbsent( managerClassLoader, k -> new HashMap<URI,SimpleCacheManager>() )
+                .computeIfAbsent( managerUri, k -> new SimpleCacheManager( this, managerUri, managerClassLoader, managerProperties ) );
+    }
+
+
+    @Override
+    public CacheManager getCacheManager( URI uri, ClassLoader classLoader ) {
+        return getCacheManager( uri, classLoader, null );
+    }
+
+
+    @Override
+    public CacheManager getCacheManager() {
+        return getCacheManager( null, null, null );
+    }
+
+
+    /**
+     * Called by {@link SimpleCacheManager#close()}.
+     */
+    protected synchronized void release( SimpleCacheManager manager ) {
+        Map<URI,SimpleCacheManager> loaderManagers = managers.get( manager.getClassLoader() );
+        if (loaderManagers != null) {
+            loaderManagers.remove( manager.getURI(), manager );
+        }
+    }
+
+
+    @Override
+    public ClassLoader getDefaultClassLoader() {
+        return getClass().getClassLoader();
+    }
+
+
+    @Override
+    public URI getDefaultURI() {
+        return DEFAULT_URI;
+    }
+
+
+    @Override
+    public Properties getDefaultProperties() {
+        return new Properties();
+    }
+
+
+    @Override
+    public void close() {
+        ArrayList<SimpleCacheManager> all = new ArrayList();
+        synchronized (this) {
+            managers.values().forEach( loaderManagers -> all.addAll( loaderManagers.values() ) );
+        }
+        all.forEach( manager -> manager.close() );
+    }
+
+
+    @Override
+    public void close( ClassLoader classLoader ) {
+        ArrayList<SimpleCacheManager> all = new ArrayList();
+        synchronized (this) {
+            Map<URI,SimpleCacheManager> loaderManagers = managers.get( classLoader );
+            if (loaderManagers != null) {
+                all.addAll( loaderManagers.values() );
+            }
+        }
+        all.forEach( manager -> manager.close() );
+    }
+
+
+    @Override
+    public void close( URI uri, ClassLoader classLoader ) {
+        SimpleCacheManager manager = null;
+        synchronized (this) {
+            Map<URI,SimpleCacheManager> loaderManagers = managers.get( classLoader );
+            manager = loaderManagers != null ? loaderManagers.get( uri ) : null;
+        }
+        if (manager != null) {
+            manager.close();
+        }
+    }
+
+
+    @Override
+    public boolean isSupported( OptionalFeature optionalFeature ) {
+        return optionalFeature == OptionalFeature.STORE_BY_REFERENCE;
+    }
+
+}
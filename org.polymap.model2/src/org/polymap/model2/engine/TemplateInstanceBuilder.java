@@ -16,9 +16,7 @@ package org.polymap.model2.engine;
 
 import java.util.AbstractCollection;
 import java.util.Iterator;
-
-import java.lang.reflect.Constructor;
-import java.lang.reflect.Field;
+import java.util.function.Supplier;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -69,12 +67,8 @@ public final class TemplateInstanceBuilder {
             }
             assert compositeInfo != null : "No info for Composite type: " + entityClass.getName();
 
-            // create instance
-            Constructor<?> ctor = entityClass.getConstructor( new Class[] {} );
-            T instance = (T)ctor.newInstance( new Object[] {} );
-            
-            // set context
-            InstanceBuilder.contextField.set( instance, new TemplateEntityRuntimeContext() );
+            // create instance, set context
+            T instance = CompositeFactory.of( entityClass ).newInstance( new TemplateEntityRuntimeContext() );
             
             // properties
             initProperties( instance );
@@ -96,50 +90,22 @@ public final class TemplateInstanceBuilder {
      * {@link TemplateInstanceBuilder} when the value is accessed.
      */
     protected void initProperties( Composite instance ) throws Exception {
-        Class superClass = instance.getClass();
-        while (superClass != null) {
-            // XXX cache fields
-            for (Field field : superClass.getDeclaredFields()) {
-                if (PropertyBase.class.isAssignableFrom( field.getType() )) {
-                    field.setAccessible( true );
-
-                    PropertyInfo info = compositeInfo.getProperty( field.getName() );
-                    PropertyBase prop = null;
-
-                    // single property
-                    if (Property.class.isAssignableFrom( field.getType() )) {
-                        // Computed
-                        if (info.isComputed()) {
-                            prop = new NotQueryableProperty( info );
-                        }
-                        // primitive or Composite
-                        else {
-                            prop = new PropertyImpl( info );
-                        }
-                    }
-
-                    // Collection
-                    else if (CollectionProperty.class.isAssignableFrom( field.getType() )) {
-                        // primitive or Composite
-                        prop = new CollectionPropertyImpl( info );
-                    }
-
-                    // Association
-                    else if (Association.class.isAssignableFrom( field.getType() )) {
-                        prop = new AssociationImpl( info );
-                    }
-
-                    // ManyAssociation
-                    else if (ManyAssociation.class.isAssignableFrom( field.getType() )) {
-                        prop = new ManyAssociationImpl( info );
-                    }
-
-                    // set field
-                    //assert prop != null : "Unable to build property instance for: " + field;
-                    field.set( instance, prop );                    
-                }
+        for (PropertySlot slot : ((CompositeInfoImpl)compositeInfo).bindingPlan()) {
+            PropertyInfo info = slot.info;
+            PropertyBase prop = null;
+            switch (slot.kind) {
+                case COMPUTED: prop = new NotQueryableProperty( info ); break;
+                // primitive or Composite
+                case PROPERTY: 
+                case COMPOSITE: prop = new PropertyImpl( info ); break;
+                // primitive or Composite
+                case COLLECTION: 
+                case COMPOSITE_COLLECTION: prop = new CollectionPropertyImpl( info ); break;
+                case ASSOCIATION: prop = new AssociationImpl( info ); break;
+                case MANY_ASSOCIATION: prop = new ManyAssociationImpl( info ); break;
             }
-            superClass = superClass.getSuperclass();
+            // set field
+            slot.accessor.set( instance, prop );                    
         }
     }
 
@@ -204,7 +170,7 @@ public final class TemplateInstanceBuilder {
         @Override
         public T get() {
             Class<T> type = info.getType();
-            return new TemplateInstanceBuilder( repo ).newComposite( type );
+            return ((EntityRepositoryImpl)repo).templateOf( type );
         }
     }
 
@@ -345,6 +311,16 @@ public final class TemplateInstanceBuilder {
             throw new UnsupportedOperationException( "Method is not allowed for template Composite instance." );
         }
 
+        @Override
+        public void beforeModification() {
+            throw new UnsupportedOperationException( "Method is not allowed for template Composite instance." );
+        }
+
+        @Override
+        public void recordUndo( Supplier<Runnable> undo ) {
+            throw new UnsupportedOperationException( "Method is not allowed for template Composite instance." );
+        }
+
         @Override
         public UnitOfWork getUnitOfWork() {
             throw new UnsupportedOperationException( "Method is not allowed for template Composite instance." );
@@ -0,0 +1,660 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3.0 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.cache.configuration.Configuration;
+import javax.cache.configuration.Factory;
+import javax.cache.expiry.Duration;
+import javax.cache.expiry.EternalExpiryPolicy;
+import javax.cache.expiry.ExpiryPolicy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * A {@link SimpleCache} that is bounded by the W-TinyLFU admission and eviction
+ * policy. This is the cache of {@link TinyLfuCacheManager}.
+ * <p/>
+ * New entries are inserted into a small LRU window (1% of the max size). Entries
+ * leaving the window compete with the least recently used entry of the probation
+ * segment of the main space; the one that was accessed less frequently, as
+ * estimated by a {@link FrequencySketch}, is evicted. Entries accessed again in
+ * the probation segment are promoted to the protected segment (80% of the main
+ * space). This keeps frequently used entries, such as reference Entities, in the
+ * cache when a scan or a burst of one-time accesses passes by.
+ * <p/>
+ * The cache is bounded by the max size of an {@link EvictionConfiguration} or by
+ * the max weight of a {@link TinyLfuConfiguration}. Without bound no policy is
+ * applied. Hits are recorded in a lossy ring buffer without locking; the policy
+ * is updated under a lock when the buffer is drained or an entry is written.
+ * <p/>
+ * {@link #pin(Object) Pinned} entries are removed from the policy and do not count
+ * for the max weight; they are admitted to the window again when unpinned.
+ * <p/>
+ * The {@link ExpiryPolicy} of the configuration is supported. Expiry is checked
+ * when an entry is accessed; expired entries that are not accessed anymore are
+ * removed by the size bound.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public class TinyLfuCache<K,V>
+        extends SimpleCache<K,V> {
+
+    private static Log log = LogFactory.getLog( TinyLfuCache.class );
+
+    private static final AtomicInteger  nameCount = new AtomicInteger();
+
+    private static final int            READ_BUFFER_SIZE = 128;
+
+    private static final int            READ_BUFFER_MASK = READ_BUFFER_SIZE - 1;
+
+    /** Drain the read buffer after this number of recorded reads. */
+    private static final int            DRAIN_THRESHOLD_MASK = 31;
+
+    private static final int            WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+    /**
+     * Computes the weight of an entry of a weight bounded cache.
+     */
+    @FunctionalInterface
+    public interface Weigher<K,V> {
+
+        /**
+         * @return The weight of the entry, at least 1.
+         */
+        public int weigh( K key, V value );
+    }
+
+
+    /**
+     * Configuration of a weight bounded {@link TinyLfuCache}. Other cache
+     * implementations ignore the additional settings.
+     */
+    public static class TinyLfuConfiguration<K,V>
+            extends EvictionConfiguration<K,V> {
+
+        private long                    maxWeight = -1;
+
+        private Weigher<K,V>            weigher;
+
+        public long getMaxWeight() {
+            return maxWeight;
+        }
+
+        public Weigher<K,V> getWeigher() {
+            return weigher;
+        }
+
+        /**
+         * Bounds the cache to the given sum of the weights of its entries. This
+         * overrides {@link #setMaxSize(int)}.
+         *
+         * @param maxWeight The maximum weight, or a value &lt;= 0 for a cache that
+         *        is not bounded by weight.
+         */
+        public TinyLfuConfiguration<K,V> setMaxWeight( long maxWeight, Weigher<K,V> weigher ) {
+            this.maxWeight = maxWeight;
+            this.weigher = weigher;
+            return this;
+        }
+    }
+
+
+    /**
+     * A cache entry in the policy.
+     */
+    static class Node<K> {
+
+        K           key;
+
+        int         weight;
+
+        int         queue;
+
+        Node<K>     prev, next;
+
+        Node( K key, int weight ) {
+            this.key = key;
+            this.weight = weight;
+        }
+    }
+
+
+    /**
+     * Doubly linked list of {@link Node}s in access order, least recently used
+     * first.
+     */
+    static class AccessOrder<K> {
+
+        private Node<K>     head = new Node( null, 0 );
+
+        AccessOrder() {
+            head.prev = head.next = head;
+        }
+
+        Node<K> first() {
+            return head.next != head ? head.next : null;
+        }
+
+        Node<K> last() {
+            return head.prev != head ? head.prev : null;
+        }
+
+        void addLast( Node<K> node ) {
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+        }
+
+        void remove( Node<K> node ) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = node.next = null;
+        }
+
+        void moveToLast( Node<K> node ) {
+            remove( node );
+            addLast( node );
+        }
+
+        void clear() {
+            head.prev = head.next = head;
+        }
+    }
+
+
+    // instance *******************************************
+
+    /** The max weight, or -1 if the cache is not bounded. */
+    private long                    maximum = -1;
+
+    private long                    windowMaximum;
+
+    private long                    protectedMaximum;
+
+    private Weigher<K,V>            weigher;
+
+    private ReentrantLock           lock = new ReentrantLock();
+
+    /** Guarded by {@link #lock}. */
+    private Map<K,Node<K>>          nodes;
+
+    /** Guarded by {@link #lock}. */
+    private AccessOrder<K>          window = new AccessOrder(), probation = new AccessOrder(), protect = new AccessOrder();
+
+    /** Guarded by {@link #lock}. */
+    private long                    windowWeight, protectedWeight, totalWeight;
+
+    /** Guarded by {@link #lock}. */
+    private FrequencySketch         sketch;
+
+    /** Keys of recent hits, recorded without locking; drained under {@link #lock}. */
+    private AtomicReferenceArray<K> readBuffer;
+
+    private AtomicLong              readCount = new AtomicLong();
+
+    /** The expiry policy, or null if entries do not expire. */
+    private ExpiryPolicy            expiryPolicy;
+
+    /** Maps keys into the {@link System#nanoTime()} they expire at. */
+    private ConcurrentMap<K,Long>   deadlines;
+
+
+    /**
+     * Creates a new cache that is not connected to a {@link javax.cache.CacheManager}.
+     */
+    public TinyLfuCache( Configuration config ) {
+        this( "TinyLfuCache-" + nameCount.incrementAndGet(), null, config );
+    }
+
+
+    /**
+     * Called by {@link TinyLfuCacheManager}.
+     */
+    protected TinyLfuCache( String name, SimpleCacheManager cacheManager, Configuration config ) {
+        super( name, cacheManager, config );
+
+        if (config instanceof TinyLfuConfiguration
+                && ((TinyLfuConfiguration)config).getMaxWeight() > 0) {
+            maximum = ((TinyLfuConfiguration)config).getMaxWeight();
+            weigher = ((TinyLfuConfiguration)config).getWeigher();
+        }
+        else if (maxSize() > 0) {
+            maximum = maxSize();
+        }
+        if (maximum > 0) {
+            windowMaximum = Math.max( 1, maximum / 100 );
+            protectedMaximum = (maximum - windowMaximum) * 80 / 100;
+            nodes = new HashMap( (int)Math.min( maximum, 1 << 16 ) );
+            sketch = new FrequencySketch( maximum );
+            readBuffer = new AtomicReferenceArray( READ_BUFFER_SIZE );
+        }
+
+        Factory<ExpiryPolicy> expiryFactory = config().getExpiryPolicyFactory();
+        ExpiryPolicy policy = expiryFactory != null ? expiryFactory.create() : null;
+        if (policy != null && !(policy instanceof EternalExpiryPolicy)) {
+            expiryPolicy = policy;
+            deadlines = new ConcurrentHashMap( 1024 );
+        }
+    }
+
+
+    /**
+     * The max weight (or size) of this cache, or -1 if the cache is not bounded.
+     */
+    public long getMaximum() {
+        return maximum;
+    }
+
+
+    // hooks **********************************************
+
+    @Override
+    protected boolean isBounded() {
+        return maximum > 0;
+    }
+
+
+    @Override
+    protected void pinned( K key ) {
+        lock.lock();
+        try {
+            Node<K> node = nodes.get( key );
+            if (node != null) {
+                unlink( node );
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+
+    @Override
+    protected boolean accessed( K key, V value ) {
+        if (expiryPolicy != null) {
+            Long deadline = deadlines.get( key );
+            if (deadline != null && deadline - System.nanoTime() <= 0) {
+                expireEntry( key, value );
+                removed( key, value );
+                return false;
+            }
+            setDeadline( key, expiryPolicy.getExpiryForAccess() );
+        }
+        if (maximum > 0) {
+            long index = readCount.getAndIncrement();
+            readBuffer.lazySet( (int)(index & READ_BUFFER_MASK), key );
+            if ((index & DRAIN_THRESHOLD_MASK) == DRAIN_THRESHOLD_MASK && lock.tryLock()) {
+                try {
+                    drainReads();
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        }
+        return true;
+    }
+
+
+    @Override
+    protected void inserted( K key, V value ) {
+        if (expiryPolicy != null) {
+            setDeadline( key, deadlines.containsKey( key )
+                    ? expiryPolicy.getExpiryForUpdate()
+                    : expiryPolicy.getExpiryForCreation() );
+        }
+        admit( key, value );
+    }
+
+
+    @Override
+    protected void unpinned( K key, V value ) {
+        admit( key, value );
+    }
+
+
+    /**
+     * Adds the given entry to the policy, or updates its weight, and evicts.
+     */
+    protected void admit( K key, V value ) {
+        if (maximum > 0) {
+            int weight = weigher != null ? Math.max( 1, weigher.weigh( key, value ) ) : 1;
+            lock.lock();
+            try {
+                // pinned meanwhile
+                if (isPinned( key )) {
+                    return;
+                }
+                drainReads();
+                Node<K> node = nodes.get( key );
+                if (node == null) {
+                    node = new Node( key, weight );
+                    node.queue = WINDOW;
+                    nodes.put( key, node );
+                    window.addLast( node );
+                    windowWeight += weight;
+                    totalWeight += weight;
+                    sketch.increment( key );
+                }
+                else {
+                    int delta = weight - node.weight;
+                    node.weight = weight;
+                    totalWeight += delta;
+                    if (node.queue == WINDOW) { windowWeight += delta; }
+                    else if (node.queue == PROTECTED) { protectedWeight += delta; }
+                    onAccess( key );
+                }
+                evict();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+
+    @Override
+    protected void removed( K key, V value ) {
+        if (expiryPolicy != null) {
+            deadlines.remove( key );
+        }
+        if (maximum > 0) {
+            lock.lock();
+            try {
+                // re-inserted meanwhile
+                Node<K> node = nodes.get( key );
+                if (node != null && peek( key ) == null) {
+                    unlink( node );
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+
+    @Override
+    public void clear() {
+        super.clear();
+        reset();
+    }
+
+
+    @Override
+    public void close() {
+        super.close();
+        reset();
+    }
+
+
+    protected void reset() {
+        if (expiryPolicy != null) {
+            deadlines.clear();
+        }
+        if (maximum > 0) {
+            lock.lock();
+            try {
+                for (int i=0; i<READ_BUFFER_SIZE; i++) {
+                    readBuffer.set( i, null );
+                }
+                nodes.clear();
+                window.clear();
+                probation.clear();
+                protect.clear();
+                windowWeight = protectedWeight = totalWeight = 0;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+
+    protected void setDeadline( K key, Duration duration ) {
+        if (duration == null) {
+            // unchanged
+        }
+        else if (duration.isEternal()) {
+            deadlines.remove( key );
+        }
+        else {
+            deadlines.put( key, System.nanoTime() + duration.getTimeUnit().toNanos( duration.getDurationAmount() ) );
+        }
+    }
+
+
+    // policy *********************************************
+
+    protected void drainReads() {
+        assert lock.isHeldByCurrentThread();
+        for (int i=0; i<READ_BUFFER_SIZE; i++) {
+            K key = readBuffer.getAndSet( i, null );
+            if (key != null) {
+                onAccess( key );
+            }
+        }
+    }
+
+
+    protected void onAccess( K key ) {
+        sketch.increment( key );
+        Node<K> node = nodes.get( key );
+        if (node == null) {
+            return;
+        }
+        switch (node.queue) {
+            case WINDOW:
+                window.moveToLast( node );
+                break;
+            case PROBATION:
+                probation.remove( node );
+                node.queue = PROTECTED;
+                protect.addLast( node );
+                protectedWeight += node.weight;
+                demoteProtected();
+                break;
+            case PROTECTED:
+                protect.moveToLast( node );
+                break;
+        }
+    }
+
+
+    protected void demoteProtected() {
+        while (protectedWeight > protectedMaximum) {
+            Node<K> demoted = protect.first();
+            if (demoted == null) {
+                break;
+            }
+            protect.remove( demoted );
+            protectedWeight -= demoted.weight;
+            demoted.queue = PROBATION;
+            probation.addLast( demoted );
+        }
+    }
+
+
+    /**
+     * Moves the overflow of the window into the probation segment and evicts
+     * until the cache is down to its maximum. Entries leaving the window are
+     * admitted to the main space only if they are used more frequently than the
+     * victim of the probation segment.
+     */
+    protected void evict() {
+        assert lock.isHeldByCurrentThread();
+        while (windowWeight > windowMaximum) {
+            Node<K> node = window.first();
+            if (node == null) {
+                break;
+            }
+            window.remove( node );
+            windowWeight -= node.weight;
+            node.queue = PROBATION;
+            probation.addLast( node );
+        }
+
+        // every entry is checked at most once, vetoed entries may leave the cache above its max
+        for (int attempts = nodes.size(); totalWeight > maximum && attempts > 0; attempts--) {
+            Node<K> victim = probation.first();
+            Node<K> candidate = probation.last();
+            if (victim == null) {
+                victim = protect.first() != null ? protect.first() : window.first();
+                candidate = null;
+            }
+            if (victim == null) {
+                break;
+            }
+            Node<K> evicted = victim;
+            if (candidate != null && candidate != victim
+                    && sketch.frequency( candidate.key ) <= sketch.frequency( victim.key )) {
+                evicted = candidate;
+            }
+            tryEvict( evicted );
+        }
+    }
+
+
+    protected void tryEvict( Node<K> node ) {
+        V value = peek( node.key );
+        if (value == null) {
+            // removed meanwhile
+            unlink( node );
+        }
+        else if (evictEntry( node.key, value )) {
+            unlink( node );
+            if (expiryPolicy != null) {
+                deadlines.remove( node.key );
+            }
+        }
+        else {
+            // vetoed: the entry is in use, keep it as long as possible
+            unlink( node );
+            nodes.put( node.key, node );
+            node.queue = PROTECTED;
+            protect.addLast( node );
+            protectedWeight += node.weight;
+            totalWeight += node.weight;
+            demoteProtected();
+        }
+    }
+
+
+    protected void unlink( Node<K> node ) {
+        switch (node.queue) {
+            case WINDOW: window.remove( node ); windowWeight -= node.weight; break;
+            case PROBATION: probation.remove( node ); break;
+            case PROTECTED: protect.remove( node ); protectedWeight -= node.weight; break;
+        }
+        totalWeight -= node.weight;
+        nodes.remove( node.key );
+    }
+
+
+    @Override
+    public String toString() {
+        return "TinyLfuCache[name=" + getName() + ", size=" + (isClosed() ? "closed" : size())
+                + ", maximum=" + maximum + "]";
+    }
+
+
+    /**
+     * Count-min sketch of the access frequency of keys, with four 4-bit counters
+     * per key. All counters are halved after a sample of 10 times the size of the
+     * table, so the frequency of keys that are no longer used decays.
+     */
+    static class FrequencySketch {
+
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+        private static final long   RESET_MASK = 0x7777777777777777L;
+
+        private long[]              table;
+
+        private int                 tableMask;
+
+        private int                 sampleSize;
+
+        private int                 size;
+
+        FrequencySketch( long maximum ) {
+            int capacity = Integer.highestOneBit( (int)Math.max( 16, Math.min( maximum, 1 << 24 ) ) - 1 ) << 1;
+            table = new long[capacity];
+            tableMask = capacity - 1;
+            sampleSize = 10 * capacity;
+        }
+
+        int frequency( Object key ) {
+            int hash = spread( key.hashCode() );
+            int start = (hash & 3) << 2;
+            int result = Integer.MAX_VALUE;
+            for (int i=0; i<4; i++) {
+                int index = indexOf( hash, i );
+                int count = (int)((table[index] >>> ((start + i) << 2)) & 0xfL);
+                result = Math.min( result, count );
+            }
+            return result;
+        }
+
+        void increment( Object key ) {
+            int hash = spread( key.hashCode() );
+            int start = (hash & 3) << 2;
+            boolean added = false;
+            for (int i=0; i<4; i++) {
+                added |= incrementAt( indexOf( hash, i ), start + i );
+            }
+            if (added && ++size == sampleSize) {
+                for (int i=0; i<table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                size /= 2;
+            }
+        }
+
+        boolean incrementAt( int index, int counter ) {
+            int offset = counter << 2;
+            long mask = 0xfL << offset;
+            if ((table[index] & mask) != mask) {
+                table[index] += 1L << offset;
+                return true;
+            }
+            return false;
+        }
+
+        int indexOf( int hash, int i ) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return ((int)h) & tableMask;
+        }
+
+        static int spread( int x ) {
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            x = ((x >>> 16) ^ x) * 0x45d9f3b;
+            return (x >>> 16) ^ x;
+        }
+    }
+
+}
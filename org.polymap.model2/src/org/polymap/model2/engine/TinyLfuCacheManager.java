@@ -0,0 +1,53 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3.0 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import java.net.URI;
+
+import javax.cache.configuration.Configuration;
+
+import org.polymap.model2.runtime.EntityRepository;
+
+/**
+ * The {@link javax.cache.CacheManager} of {@link TinyLfuCache} instances. Size
+ * bounded caches, such as the Entity cache of a UnitOfWork with
+ * {@link EntityRepository.Configuration#entityCacheSize} or the
+ * {@link org.polymap.model2.store.StateCache}, are bounded by the W-TinyLFU
+ * policy instead of the insertion order of {@link SimpleCache}. Select this via
+ * {@link EntityRepository.Configuration#cacheManager}.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public class TinyLfuCacheManager
+        extends SimpleCacheManager {
+
+    private static final AtomicInteger  uriCount = new AtomicInteger();
+
+
+    public TinyLfuCacheManager() {
+        super( null, URI.create( "model2:TinyLfuCacheManager-" + uriCount.incrementAndGet() ),
+                TinyLfuCacheManager.class.getClassLoader(), new Properties() );
+    }
+
+
+    @Override
+    protected <K,V> SimpleCache<K,V> newCache( String cacheName, Configuration<K,V> config ) {
+        return new TinyLfuCache( cacheName, this, config );
+    }
+
+}
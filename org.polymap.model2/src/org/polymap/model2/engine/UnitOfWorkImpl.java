@@ -18,36 +18,38 @@ import static org.polymap.model2.runtime.EntityRuntimeContext.EntityStatus.CREAT
 import static org.polymap.model2.runtime.EntityRuntimeContext.EntityStatus.MODIFIED;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Supplier;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
+import java.util.stream.Collectors;
 
 import java.io.IOException;
 
-import javax.cache.Cache.Entry;
 import javax.cache.CacheManager;
-import javax.cache.configuration.MutableConfiguration;
-
-import com.google.common.base.Joiner;
-import com.google.common.collect.Iterators;
 
 import org.polymap.model2.Composite;
 import org.polymap.model2.Entity;
-import org.polymap.model2.engine.LoadingCache.Loader;
+import org.polymap.model2.engine.CachingResultSet.Ref;
+import org.polymap.model2.engine.SimpleCache.EvictionConfiguration;
 import org.polymap.model2.query.Query;
 import org.polymap.model2.query.ResultSet;
 import org.polymap.model2.query.grammar.BooleanExpression;
 import org.polymap.model2.runtime.ConcurrentEntityModificationException;
+import org.polymap.model2.runtime.EntityRuntimeContext;
 import org.polymap.model2.runtime.EntityRuntimeContext.EntityStatus;
 import org.polymap.model2.runtime.CommitLockStrategy;
+import org.polymap.model2.runtime.CompositeInfo;
 import org.polymap.model2.runtime.Lifecycle;
 import org.polymap.model2.runtime.Lifecycle.State;
 import org.polymap.model2.runtime.ModelRuntimeException;
+import org.polymap.model2.runtime.Savepoint;
 import org.polymap.model2.runtime.UnitOfWork;
 import org.polymap.model2.runtime.ValueInitializer;
 import org.polymap.model2.store.CloneCompositeStateSupport;
@@ -64,6 +66,9 @@ public class UnitOfWorkImpl
         implements UnitOfWork {
 
     protected static final Exception        PREPARED = new Exception( "Successfully prepared for commit." );
+
+    /** The number of Entities loaded at once by {@link #entities(Class, Collection)}. */
+    protected static final int              BATCH_SIZE = 100;
     
     private static AtomicInteger            idCount = new AtomicInteger( (int)Math.abs( System.currentTimeMillis() ) );
     
@@ -74,44 +79,67 @@ public class UnitOfWorkImpl
     
     protected LoadingCache<Object,Entity>   loaded;
     
-    protected LoadingCache<String,Composite> loadedMixins;
-    
-    /** Strong reference to Entities that must not be GCed from {@link #loaded} cache. */
+    /** Strong reference to Entities that must not be evicted; {@link LoadingCache#pin(Object) pinned} in {@link #loaded}. */
     protected ConcurrentMap<Object,Entity>  modified;
     
+    /** The {@link #modified} Entities by type; merged into the results of {@link #query(Class)}. */
+    protected ConcurrentMap<Class,ConcurrentMap<Object,Entity>> modifiedTypes;
+    
     protected volatile Exception            prepareResult;
     
+    /** See {@link #isReadOnly()}. */
+    protected final boolean                 readOnly;
+
+    /** The commit lock, or null if this UnitOfWork {@link #isReadOnly()}. */
     protected CommitLockStrategy            commitLock;
 
+    /** The actions that revert the modifications, or null if no {@link Savepoint} is active. */
+    protected List<Runnable>                undoLog;
+
+    /** The active savepoints, in the order of their creation. */
+    protected List<SavepointImpl>           savepoints;
+
     
     protected UnitOfWorkImpl( EntityRepositoryImpl repo, StoreUnitOfWork suow ) {
+        this( repo, suow, false );
+    }
+
+
+    protected UnitOfWorkImpl( EntityRepositoryImpl repo, StoreUnitOfWork suow, boolean readOnly ) {
         this.repo = repo;
         this.storeUow = suow;
+        this.readOnly = readOnly;
         assert repo != null : "repo must not be null.";
         assert suow != null : "suow must not be null.";
 
-        MutableConfiguration cacheConfig = new MutableConfiguration();
+        int cacheSize = repo.getConfig().entityCacheSize.get();
         CacheManager cacheManager = repo.getConfig().cacheManager.get();
-        this.loaded = LoadingCache.create( cacheManager, cacheConfig );
-        this.loadedMixins = LoadingCache.create( cacheManager, cacheConfig );
+        this.loaded = LoadingCache.create( cacheManager, new EvictionConfiguration<Object,Entity>()
+                .setMaxSize( cacheSize )
+                .setEvictionListener( (id, entity) -> onEviction( id, entity ) ) );
         this.modified = new ConcurrentHashMap( 1024, 0.75f, 4 );
+        this.modifiedTypes = new ConcurrentHashMap( 32, 0.75f, 4 );
 
-        commitLock = repo.getConfig().commitLockStrategy.get().get();
-        
-//        // check evicted entries and re-insert if modified
-//        this.loaded.addEvictionListener( new CacheEvictionListener<Object,Entity>() {
-//            public void onEviction( Object key, Entity entity ) {
-//                // re-insert if modified
-//                if (entity.status() != EntityStatus.LOADED) {
-//                    loaded.putIfAbsent( key, entity );
-//                }
-//                // mark entity as evicted otherwise
-//                else {
-//                    EntityRuntimeContext entityContext = UnitOfWorkImpl.this.repo.contextOfEntity( entity );
-//                    entityContext.raiseStatus( EntityStatus.EVICTED );
-//                }
-//            }
-//        });
+        commitLock = readOnly ? null : repo.getConfig().commitLockStrategy.get().get();
+    }
+
+    
+    /**
+     * Called by a size bounded {@link #loaded} cache before the given Entity is
+     * evicted. Modified Entities are pinned, so they are not checked here usually;
+     * they are still vetoed if they were modified while being evicted. Unmodified
+     * Entities are marked {@link EntityStatus#EVICTED}. The mixins of an Entity are held by its
+     * {@link EntityRuntimeContext}, so they are evicted together with the Entity.
+     *
+     * @return False if the Entity must not be evicted.
+     */
+    protected boolean onEviction( Object id, Entity entity ) {
+        EntityRuntimeContext entityContext = repo.contextOfEntity( entity );
+        if (entityContext.getStatus() != EntityStatus.LOADED || modified.containsKey( id )) {
+            return false;
+        }
+        entityContext.resetStatus( EntityStatus.EVICTED );
+        return true;
     }
 
     
@@ -122,11 +150,186 @@ public class UnitOfWorkImpl
         checkOpen();
         if (entity.status() == EntityStatus.MODIFIED
                 || entity.status() == EntityStatus.REMOVED) {
-            modified.putIfAbsent( entity.id(), entity );
+            addModified( entity );
         }        
     }
 
 
+    /**
+     * Adds the given Entity to {@link #modified} and {@link #modifiedTypes}, if not
+     * yet present. The Entity is pinned in the {@link #loaded} cache until it is
+     * removed from {@link #modified}.
+     */
+    protected void addModified( Entity entity ) {
+        Object id = entity.id();
+        if (modified.putIfAbsent( id, entity ) == null) {
+            loaded.pin( id, entity );
+            modifiedTypes.computeIfAbsent( entity.getClass(), type -> new ConcurrentHashMap( 256, 0.75f, 4 ) )
+                    .put( id, entity );
+        }
+    }
+
+
+    protected void removeModified( Object id ) {
+        Entity entity = modified.remove( id );
+        if (entity != null) {
+            modifiedTypes.get( entity.getClass() ).remove( id );
+            loaded.unpin( id );
+        }
+    }
+
+
+    protected void clearModified() {
+        // remove before unpin, so that eviction does not veto
+        for (Iterator<Object> it = modified.keySet().iterator(); it.hasNext(); ) {
+            Object id = it.next();
+            it.remove();
+            loaded.unpin( id );
+        }
+        modifiedTypes.clear();
+    }
+
+
+    /**
+     * The {@link #modified} Entities of the given type.
+     */
+    protected <T extends Entity> Collection<T> modified( Class<T> entityClass ) {
+        Map<Object,Entity> result = modifiedTypes.get( entityClass );
+        return result != null ? (Collection<T>)result.values() : Collections.EMPTY_LIST;
+    }
+
+
+    /**
+     * Copies the given state before it is modified the first time, see
+     * {@link EntityRuntimeContext#beforeModification()}.
+     *
+     * @return The copy, or null if the store does not support cloning states.
+     */
+    protected CompositeState beforeImage( CompositeState state ) {
+        return storeUow instanceof CloneCompositeStateSupport
+                ? ((CloneCompositeStateSupport)storeUow).cloneEntityState( state )
+                : null;
+    }
+
+
+    protected void restoreBeforeImage( CompositeState state, CompositeState beforeImage ) {
+        ((CloneCompositeStateSupport)storeUow).reincorparateEntityState( state, beforeImage );
+    }
+
+
+    /**
+     * Resets the status of the {@link #modified} Entities after commit. Unmodified
+     * Entities are not touched, so this is O(modifications). The Entities are kept
+     * in {@link #modified} until {@link #committed()}, so that
+     * {@link State#AFTER_COMMIT} listeners see {@link EntityStatus#LOADED}.
+     */
+    protected void resetModified() {
+        for (Entity entity : modified.values()) {
+            repo.contextOfEntity( entity ).committed();
+        }
+    }
+
+
+    /**
+     * Clears {@link #modified} and the savepoints after commit, see
+     * {@link #resetModified()}.
+     */
+    protected void committed() {
+        clearModified();
+        releaseSavepoints();
+    }
+
+
+    /**
+     * Restores the {@link #modified} Entities from their before-images on
+     * rollback. Created Entities and Entities that cannot be restored are removed
+     * from the cache. Unmodified Entities are kept.
+     */
+    protected void restoreModified() {
+        for (Map.Entry<Object,Entity> entry : modified.entrySet()) {
+            if (!repo.contextOfEntity( entry.getValue() ).restore()) {
+                loaded.remove( entry.getKey() );
+            }
+        }
+        clearModified();
+        releaseSavepoints();
+    }
+
+
+    /**
+     * Appends the action supplied by the given {@link Supplier} to the
+     * {@link #undoLog}, if a savepoint is active. See
+     * {@link EntityRuntimeContext#recordUndo(Supplier)}.
+     */
+    protected void recordUndo( Supplier<Runnable> undo ) {
+        if (undoLog != null) {
+            undoLog.add( undo.get() );
+        }
+    }
+
+
+    protected void releaseSavepoints() {
+        undoLog = null;
+        savepoints = null;
+    }
+
+
+    @Override
+    public Savepoint savepoint() {
+        checkOpen();
+        if (undoLog == null) {
+            undoLog = new ArrayList( 128 );
+            savepoints = new ArrayList();
+        }
+        SavepointImpl result = new SavepointImpl( undoLog.size() );
+        savepoints.add( result );
+        return result;
+    }
+
+
+    @Override
+    public void rollbackTo( Savepoint savepoint ) throws ModelRuntimeException {
+        checkOpen();
+        int index = savepoints != null ? savepoints.indexOf( savepoint ) : -1;
+        if (index == -1) {
+            throw new ModelRuntimeException( "Savepoint is not active in this UnitOfWork: " + savepoint );
+        }
+        List<Runnable> undos = undoLog.subList( ((SavepointImpl)savepoint).position, undoLog.size() );
+        if (undos.contains( null )) {
+            throw new ModelRuntimeException( "Modifications after savepoint cannot be reverted: " + savepoint );
+        }
+        for (ListIterator<Runnable> it = undos.listIterator( undos.size() ); it.hasPrevious(); ) {
+            it.previous().run();
+        }
+        undos.clear();
+        savepoints.subList( index + 1, savepoints.size() ).clear();
+    }
+
+
+    /**
+     * The position of a {@link Savepoint} within the {@link #undoLog}.
+     */
+    protected class SavepointImpl
+            implements Savepoint {
+
+        protected int       position;
+
+        protected SavepointImpl( int position ) {
+            this.position = position;
+        }
+
+        @Override
+        public UnitOfWork unitOfWork() {
+            return UnitOfWorkImpl.this;
+        }
+
+        @Override
+        public String toString() {
+            return "Savepoint[position=" + position + "]";
+        }
+    }
+
+
     @Override
     public <T extends Entity> T createEntity( Class<T> entityClass, Object id, ValueInitializer<T>... initializers ) {
         checkOpen();
@@ -143,7 +346,13 @@ public class UnitOfWorkImpl
         if (!ok) {
             throw new ModelRuntimeException( "ID of newly created Entity already exists: " + id );
         }
-        modified.put( id, result );
+        addModified( result );
+        Object createdId = id;
+        recordUndo( () -> () -> {
+            loaded.remove( createdId );
+            removeModified( createdId );
+            repo.contextOfEntity( result ).resetStatus( EntityStatus.EVICTED );
+        });
         
         // initializer
         try {
@@ -173,6 +382,29 @@ public class UnitOfWorkImpl
     }
 
 
+    @Override
+    public <T extends Entity> List<T> entities( final Class<T> entityClass, final Collection<?> ids ) {
+        assert entityClass != null;
+        assert ids != null;
+        checkOpen();
+        // load the states of the not yet loaded entities at once
+        List<Object> missing = ids.stream()
+                .filter( id -> !loaded.containsKey( id ) )
+                .distinct()
+                .collect( Collectors.toList() );
+        Map<Object,CompositeState> states = missing.isEmpty()
+                ? Collections.EMPTY_MAP
+                : storeUow.loadEntityStates( missing, entityClass );
+
+        List<T> result = new ArrayList( ids.size() );
+        for (Object id : ids) {
+            CompositeState state = states.get( id );
+            result.add( entity( entityClass, id, state != null ? () -> state : null ) );
+        }
+        return result;
+    }
+
+
     /**
      * 
      *
@@ -189,20 +421,22 @@ public class UnitOfWorkImpl
         assert entityClass != null;
         assert id != null;
         checkOpen();
-        T result = (T)loaded.get( id, new Loader<Object,Entity>() {
-            public Entity load( Object key ) throws RuntimeException {
+        T result = (T)loaded.getIfPresent( id );
+        // evicted by another thread after lookup: remove if still present and load again
+        while (result != null && repo.contextOfEntity( result ).status() == EntityStatus.EVICTED) {
+            loaded.remove( id, result );
+            result = (T)loaded.getIfPresent( id );
+        }
+        if (result == null) {
+            result = (T)loaded.get( id, key -> {
                 // get preloaded if provided
                 CompositeState state = preloaded != null ? preloaded.get() : null;
                 // no preloaded or it returned null?
                 state = state != null ? state : storeUow.loadEntityState( id, entityClass );
-                
-//                        .map( supplier -> supplier.get() )
-//                        .orElse( storeUow.loadEntityState( id, entityClass ) );
-                
                 return state != null ? repo.buildEntity( state, entityClass, UnitOfWorkImpl.this ) : null;
-            }
-        });
-        return result != null && result.status() != EntityStatus.REMOVED ? result : null;
+            });
+        }
+        return result != null && repo.contextOfEntity( result ).status() != EntityStatus.REMOVED ? result : null;
     }
 
 
@@ -218,11 +452,7 @@ public class UnitOfWorkImpl
             throw new RuntimeException( "Entity is already modified in this UnitOfWork." );
         }
         // build Entity instance
-        return (T)loaded.get( id, new Loader<Object,Entity>() {
-            public Entity load( Object key ) throws RuntimeException {
-                return repo.buildEntity( compositeState, entityClass, UnitOfWorkImpl.this );
-            }
-        });
+        return (T)loaded.get( id, key -> repo.buildEntity( compositeState, entityClass, UnitOfWorkImpl.this ) );
     }
 
     
@@ -231,12 +461,7 @@ public class UnitOfWorkImpl
         assert entity != null : "entity must not be null.";
         checkOpen();
         
-        String key = Joiner.on( '_' ).join( entity.id().toString(), mixinClass.getName() );
-        return (T)loadedMixins.get( key, new Loader<String,Composite>() {
-            public Composite load( String _key ) throws RuntimeException {
-                return repo.buildMixin( entity, mixinClass, UnitOfWorkImpl.this );
-            }
-        });
+        return repo.contextOfEntity( entity ).mixin( mixinClass );
     }
 
 
@@ -262,22 +487,22 @@ public class UnitOfWorkImpl
                 // may contain refs to the states which would kept in memory for the lifetime of
                 // the ResultSet otherwise
                 
-                // unmodified
-                final StoreResultSet rs = storeUow.executeQuery( this );
-                IteratorBuilder<T> unmodifiedResults = IteratorBuilder.on( rs )
-                        .map( ref -> entity( entityClass, ref.id(), ref ) )
-                        .filter( entity -> {
-                            EntityStatus status = entity.status();
-                            assert status != EntityStatus.CREATED; 
-                            return status == EntityStatus.LOADED;                            
-                        });
+                // pending changes of the result type; if there are any, then the store
+                // cannot page the result as modified Entities are filtered out and
+                // created Entities are appended
+                Collection<T> pending = modified( entityClass );
+                boolean paged = !pending.isEmpty() && (firstResult > 0 || maxResults < Integer.MAX_VALUE);
+
+                // unmodified; modified Entities are filtered out by id before they are built
+                final StoreResultSet rs = storeUow.executeQuery( paged ? new PagedQuery( this, pending.size() ) : this );
+                IteratorBuilder<Ref<T>> unmodifiedResults = IteratorBuilder.on( rs )
+                        .filter( ref -> !modified.containsKey( ref.id() ) )
+                        .map( ref -> new Ref<T>( ref.id(), () -> entity( entityClass, ref.id(), ref ) ) );
                 
                 // modified
-                // XXX not cached, done for every call to iterator()
-                IteratorBuilder<T> modifiedResults = (IteratorBuilder<T>)IteratorBuilder.on( modified.values() )
+                IteratorBuilder<Ref<T>> modifiedResults = IteratorBuilder.on( pending )
                         .filter( entity -> {
-                            if (entity.getClass().equals( entityClass ) 
-                                    && (entity.status() == CREATED || entity.status() == MODIFIED )) {
+                            if (entity.status() == CREATED || entity.status() == MODIFIED) {
                                 if (expression == null) {
                                     return true;
                                 }
@@ -289,77 +514,52 @@ public class UnitOfWorkImpl
                                 }
                             }
                             return false;
-                        });
+                        })
+                        .map( entity -> new Ref<T>( entity.id(), () -> entity ) );
 
                 // ResultSet, caching the ids for subsequent runs
-                return new ResultSet<T>() {
-
-                    /** null after one full run */
-                    private Iterator<T>     results = unmodifiedResults.concat( modifiedResults );
-                    private List<Object>    cachedIds = new ArrayList( 1024 );
-                    /** The cached cachedSize; not synchronized */
-                    private int             cachedSize = -1;
-
-                    @Override
-                    public Iterator<T> iterator() {
-                        return new Iterator<T>() {
-                            int index = -1;
-                            @Override
-                            public boolean hasNext() {
-                                if (index+1 < cachedIds.size() || (results != null && results.hasNext())) {
-                                    return true;
-                                }
-                                else {
-                                    rs.close();
-                                    results = null;
-                                    return false;
-                                }
-                            }
-                            @Override
-                            public T next() {
-                                if (++index < cachedIds.size()) {
-                                    return entity( entityClass, cachedIds.get( index ), null );
-                                }
-                                else {
-                                    assert index == cachedIds.size() : "index == cachedIds.size(): " +  index + ", " + cachedIds.size();
-                                    T result = results.next();
-                                    cachedIds.add( result.id() );
-                                    return result;
-                                }
-                            }
-                        };
-                    }
-                    
-                    @Override
-                    public int size() {
-                        if (cachedSize == -1) {
-                            cachedSize = results == null
-                                    ? cachedIds.size()
-                                    : modified.isEmpty() 
-                                            ? rs.size()
-                                            : Iterators.size( iterator() );
-                        }
-                        return cachedSize;
-                    }
-                    
-                    @Override
-                    public Stream<T> stream() {
-                        // XXX use cachedIds.size() if available
-                        return StreamSupport.stream( spliterator(), false );
-                    }
-
-                    @Override
-                    public void close() {
-                        rs.close();
-                        results = null;
-                        cachedIds = null;
-                    }
-                };
+                return new CachingResultSet<T>( UnitOfWorkImpl.this, entityClass,
+                        paged
+                                ? unmodifiedResults.concat( modifiedResults ).skip( firstResult ).limit( maxResults )
+                                : unmodifiedResults.concat( modifiedResults ),
+                        pending.isEmpty() ? rs::size : null,
+                        BATCH_SIZE, rs::close );
             }
         };
     }
 
 
+    /**
+     * The query sent to the store if the result has to be paged after merging the
+     * pending changes. Starts at the first result and delivers enough results to
+     * fill the requested page even if all pending Entities are filtered out of the
+     * store result.
+     */
+    protected static class PagedQuery<T extends Entity>
+            extends Query<T> {
+
+        /**
+         * The number of results to request from the underlying store or parent in
+         * order to page the given query with the given number of pending changes.
+         */
+        public static int maxResults( Query query, int pending ) {
+            return (int)Math.min( (long)query.firstResult + query.maxResults + pending, Integer.MAX_VALUE );
+        }
+        
+        public PagedQuery( Query<T> query, int pending ) {
+            super( query.resultType() );
+            this.expression = query.expression;
+            this.firstResult = 0;
+            this.maxResults = maxResults( query, pending );
+        }
+
+        @Override
+        public ResultSet<T> execute() {
+            throw new UnsupportedOperationException( "Sent to the store only." );
+        }
+    }
+
+
     @Override
     public UnitOfWork newUnitOfWork() {
         checkOpen();
@@ -436,11 +636,9 @@ public class UnitOfWorkImpl
         prepareResult = null;
         
         // reset Entity status
-        for (Entry<Object,Entity> entry : loaded) {
-            repo.contextOfEntity( entry.getValue() ).resetStatus( EntityStatus.LOADED );
-        }
+        resetModified();
         lifecycle( State.AFTER_COMMIT );
-        modified.clear();
+        committed();
         commitLock.unlock( true );
     }
 
@@ -453,22 +651,23 @@ public class UnitOfWorkImpl
         lifecycle( State.AFTER_ROLLBACK );
         prepareResult = null;
         
-        // discard modified Entities
-        modified.clear();
-        loaded.clear();
+        // restore modified Entities
+        restoreModified();
         commitLock.unlock( true );
     }
 
 
     public void close() {
         if (isOpen()) {
-            commitLock.unlock( false );
+            if (commitLock != null) {
+                commitLock.unlock( false );
+            }
             storeUow.close();
             repo = null;
-            loaded.clear();
+            loaded.close();
             loaded = null;
-            modified.clear();
             modified = null;
+            modifiedTypes = null;
         }
     }
 
@@ -482,6 +681,12 @@ public class UnitOfWorkImpl
         return repo != null;
     }
 
+
+    @Override
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
     
     protected final void checkOpen() throws ModelRuntimeException {
         if (!isOpen()) {
@@ -15,24 +15,22 @@
 package org.polymap.model2.engine;
 
 import static java.util.Collections.singletonList;
+import static org.polymap.model2.engine.OverlayCompositeState.storeState;
 import static org.polymap.model2.runtime.EntityRuntimeContext.EntityStatus.CREATED;
 import static org.polymap.model2.runtime.EntityRuntimeContext.EntityStatus.MODIFIED;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collection;
 import java.util.List;
-import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
+import java.util.stream.Collectors;
 
 import java.io.IOException;
 
-import javax.cache.Cache.Entry;
-
 import com.google.common.base.Throwables;
-import com.google.common.collect.Iterators;
 
 import org.polymap.model2.Entity;
-import org.polymap.model2.engine.LoadingCache.Loader;
+import org.polymap.model2.engine.CachingResultSet.Ref;
+import org.polymap.model2.engine.OverlayCompositeState.EntityState;
 import org.polymap.model2.query.Query;
 import org.polymap.model2.query.ResultSet;
 import org.polymap.model2.query.grammar.BooleanExpression;
@@ -73,26 +71,45 @@ public class UnitOfWorkNested
         assert entityClass != null;
         assert id != null;
         checkOpen();
-        T result = (T)loaded.get( id, new Loader<Object,Entity>() {
-            public Entity load( Object key ) throws RuntimeException {
-                // just clone the entire Entity and its state; copy-on-write would probably
-                // be faster and less memory consuming but also would introduce a lot more complexity;
-                // maybe I will later investigate a global copy-on-write cache for Entities
+        T result = (T)loaded.getIfPresent( id );
+        if (result == null) {
+            result = (T)loaded.get( id, key -> {
+                // copy-on-write: the parent state is cloned on first modification
                 T parentEntity = parent.entity( entityClass, id );
                 if (parentEntity == null) {
                     return null;
                 }
                 else {
                     CompositeState parentState = repo.contextOfEntity( parentEntity ).getState();
-                    CompositeState state = storeUow().cloneEntityState( parentState );
+                    CompositeState state = new OverlayCompositeState.EntityState( storeUow(), parentState );
                     return repo.buildEntity( state, entityClass, UnitOfWorkNested.this );
                 }
-            }
-        });
+            });
+        }
         return result != null && result.status() != EntityStatus.REMOVED ? result : null;
     }
 
 
+    @Override
+    public <T extends Entity> List<T> entities( final Class<T> entityClass, final Collection<?> ids ) {
+        assert entityClass != null;
+        assert ids != null;
+        checkOpen();
+        // load the missing entities in the parent at once; clone them one by one
+        List<Object> missing = ids.stream()
+                .filter( id -> !loaded.containsKey( id ) )
+                .collect( Collectors.toList() );
+        if (!missing.isEmpty()) {
+            parent.entities( entityClass, missing );
+        }
+        List<T> result = new ArrayList( ids.size() );
+        for (Object id : ids) {
+            result.add( entity( entityClass, id ) );
+        }
+        return result;
+    }
+
+
     @Override
     public <T extends Entity> T entityForState( final Class<T> entityClass, Object state ) {
         throw new RuntimeException( "not yet implemented." );
@@ -121,26 +138,33 @@ public class UnitOfWorkNested
     public <T extends Entity> Query<T> query( final Class<T> entityClass ) {
         return new Query<T>( entityClass ) {
             public ResultSet<T> execute() {
-                final ResultSet<T> parentRs = parent.query( entityClass )
-                        .where( expression )
-                        .maxResults( maxResults )
-                        .firstResult( firstResult )
-                        .execute();
-
-                // unmodified
-                IteratorBuilder<T> unmodifiedResults = IteratorBuilder.on( parentRs )
-                        .map( entity -> entity( entityClass, entity.id() ) )
-                        .filter( entity -> {
-                            EntityStatus status = entity.status();
-                            assert status != EntityStatus.CREATED; 
-                            return status == EntityStatus.LOADED;                            
+                // pending changes of the result type, see UnitOfWorkImpl#query()
+                Collection<T> pending = modified( entityClass );
+                boolean paged = !pending.isEmpty() && (firstResult > 0 || maxResults < Integer.MAX_VALUE);
+
+                final ResultSet<T> parentRs = paged
+                        ? parent.query( entityClass )
+                                .where( expression )
+                                .maxResults( PagedQuery.maxResults( this, pending.size() ) )
+                                .execute()
+                        : parent.query( entityClass )
+                                .where( expression )
+                                .maxResults( maxResults )
+                                .firstResult( firstResult )
+                                .execute();
+
+                // unmodified; modified Entities are filtered out by id before they are built
+                IteratorBuilder<Ref<T>> unmodifiedResults = IteratorBuilder.on( parentRs )
+                        .filter( parentEntity -> parentEntity != null && !modified.containsKey( parentEntity.id() ) )
+                        .map( parentEntity -> {
+                            Object id = parentEntity.id();
+                            return new Ref<T>( id, () -> entity( entityClass, id ) );
                         });
                 
                 // new/updated states -> pre-process
-                IteratorBuilder<T> modifiedResults = (IteratorBuilder<T>)IteratorBuilder.on( modified.values() )
+                IteratorBuilder<Ref<T>> modifiedResults = IteratorBuilder.on( pending )
                         .filter( entity -> {
-                            if (entity.getClass().equals( entityClass ) 
-                                    && (entity.status() == CREATED || entity.status() == MODIFIED )) {
+                            if (entity.status() == CREATED || entity.status() == MODIFIED) {
                                 if (expression == null) {
                                     return true;
                                 }
@@ -152,72 +176,16 @@ public class UnitOfWorkNested
                                 }
                             }
                             return false;
-                        });
-                
+                        })
+                        .map( entity -> new Ref<T>( entity.id(), () -> entity ) );
+
                 // ResultSet, caching the ids for subsequent runs
-                return new ResultSet<T>() {
-
-                    /** null after one full run */
-                    private Iterator<T>     results = unmodifiedResults.concat( modifiedResults );
-                    private List<Object>    cachedIds = new ArrayList( 1024 );
-                    /** The cached cachedSize; not synchronized */
-                    private int             cachedSize = -1;
-
-                    @Override
-                    public Iterator<T> iterator() {
-                        return new Iterator<T>() {
-                            int index = -1;
-                            @Override
-                            public boolean hasNext() {
-                                if (index+1 < cachedIds.size() || (results != null && results.hasNext())) {
-                                    return true;
-                                }
-                                else {
-                                    parentRs.close();
-                                    results = null;
-                                    return false;
-                                }
-                            }
-                            @Override
-                            public T next() {
-                                if (++index < cachedIds.size()) {
-                                    return entity( entityClass, cachedIds.get( index ), null );
-                                }
-                                else {
-                                    assert index == cachedIds.size() : "index == cachedIds.size(): " +  index + ", " + cachedIds.size();
-                                    T result = results.next();
-                                    cachedIds.add( result.id() );
-                                    return result;
-                                }
-                            }
-                        };
-                    }
-                    
-                    @Override
-                    public int size() {
-                        if (cachedSize == -1) {
-                            cachedSize = results == null
-                                    ? cachedIds.size()
-                                    : modified.isEmpty() 
-                                            ? parentRs.size()
-                                            : Iterators.size( iterator() );
-                        }
-                        return cachedSize;
-                    }
-                    
-                    @Override
-                    public Stream<T> stream() {
-                        // XXX use cachedIds.size() if available
-                        return StreamSupport.stream( spliterator(), false );
-                    }
-
-                    @Override
-                    public void close() {
-                        parentRs.close();
-                        results = null;
-                        cachedIds = null;
-                    }
-                };
+                return new CachingResultSet<T>( UnitOfWorkNested.this, entityClass,
+                        paged
+                                ? unmodifiedResults.concat( modifiedResults ).skip( firstResult ).limit( maxResults )
+                                : unmodifiedResults.concat( modifiedResults ),
+                        pending.isEmpty() ? parentRs::size : null,
+                        BATCH_SIZE, parentRs::close );
             }
         };
     }
@@ -229,6 +197,25 @@ public class UnitOfWorkNested
     }
 
 
+    @Override
+    protected CompositeState beforeImage( CompositeState state ) {
+        return state instanceof EntityState
+                ? ((EntityState)state).beforeImage()
+                : super.beforeImage( state );
+    }
+
+
+    @Override
+    protected void restoreBeforeImage( CompositeState state, CompositeState beforeImage ) {
+        if (state instanceof EntityState) {
+            ((EntityState)state).restore( beforeImage );
+        }
+        else {
+            super.restoreBeforeImage( state, beforeImage );
+        }
+    }
+
+
     @Override
     public void prepare() throws IOException, ConcurrentEntityModificationException {
         checkOpen();
@@ -245,7 +232,12 @@ public class UnitOfWorkNested
                 
                 Entity parentEntity = parent.entityForState( entity.getClass(), parentState.getUnderlying() );
                 repo.contextOfEntity( parentEntity ).raiseStatus( EntityStatus.CREATED );
-                parent.modified.putIfAbsent( parentEntity.id(), parentEntity );
+                parent.addModified( parentEntity );
+                parent.recordUndo( () -> () -> {
+                    parent.loaded.remove( parentEntity.id() );
+                    parent.removeModified( parentEntity.id() );
+                    repo.contextOfEntity( parentEntity ).resetStatus( EntityStatus.EVICTED );
+                });
             }
             // modified
             if (entity.status() == EntityStatus.MODIFIED
@@ -256,11 +248,21 @@ public class UnitOfWorkNested
                     throw new ConcurrentEntityModificationException( "Entity was removed in parent UnitOfWork.", singletonList( entity ) );
                 }
 
+                repo.contextOfEntity( parentEntity ).beforeModification();
                 repo.contextOfEntity( parentEntity ).raiseStatus( entity.status() );
 
                 CompositeState parentState = repo.contextOfEntity( parentEntity ).getState();
-                CompositeState clonedState = repo.contextOfEntity( entity ).getState();
-                storeUow().reincorparateEntityState( parentState, clonedState );
+                CompositeState state = repo.contextOfEntity( entity ).getState();
+                parent.recordUndo( () -> {
+                    CompositeState before = storeUow().cloneEntityState( storeState( parentState, false ) );
+                    return () -> storeUow().reincorparateEntityState( storeState( parentState, true ), before );
+                });
+                if (state instanceof EntityState) {
+                    ((EntityState)state).reincorporate( parentState );
+                }
+                else {
+                    storeUow().reincorparateEntityState( storeState( parentState, true ), state );
+                }
             }
         }
         lifecycle( State.AFTER_PREPARE );
@@ -286,11 +288,9 @@ public class UnitOfWorkNested
         
         // reset Entity status
         lifecycle( State.BEFORE_COMMIT );
-        for (Entry<Object,Entity> entry : loaded) {
-            repo.contextOfEntity( entry.getValue() ).resetStatus( EntityStatus.LOADED );
-        }
+        resetModified();
         lifecycle( State.AFTER_COMMIT );
-        modified.clear();
+        committed();
         commitLock.unlock( true );
     }
 
@@ -301,8 +301,7 @@ public class UnitOfWorkNested
         lifecycle( State.BEFORE_ROLLBACK );
         lifecycle( State.AFTER_ROLLBACK );
         prepareResult = null;
-        loaded.clear();
-        modified.clear();
+        restoreModified();
         commitLock.unlock( false );
     }
 
@@ -314,6 +313,7 @@ public class UnitOfWorkNested
             repo = null;
             loaded = null;
             modified = null;
+            modifiedTypes = null;
         }
     }
 
@@ -0,0 +1,103 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 3.0 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.engine;
+
+import java.io.IOException;
+
+import org.polymap.model2.Entity;
+import org.polymap.model2.engine.EntityRepositoryImpl.ReadOnlyEntityRuntimeContext;
+import org.polymap.model2.runtime.CommitLockStrategy;
+import org.polymap.model2.runtime.ConcurrentEntityModificationException;
+import org.polymap.model2.runtime.EntityRepository;
+import org.polymap.model2.runtime.ModelRuntimeException;
+import org.polymap.model2.runtime.Savepoint;
+import org.polymap.model2.runtime.UnitOfWork;
+import org.polymap.model2.runtime.ValueInitializer;
+import org.polymap.model2.store.StoreUnitOfWork;
+
+/**
+ * Read-only {@link UnitOfWork}, see {@link EntityRepository#newReadOnlyUnitOfWork()}.
+ * <p/>
+ * There is no {@link CommitLockStrategy} and nothing is ever added to the
+ * {@link #modified} Entities. So the {@link #loaded} cache never vetoes an
+ * eviction and queries never merge pending changes. The Entities are built with a
+ * {@link ReadOnlyEntityRuntimeContext}; collection and Composite properties are
+ * built by {@link ReadOnlyProperties} instead of the constraints interceptors.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public class UnitOfWorkReadOnly
+        extends UnitOfWorkImpl {
+
+    static UnsupportedOperationException readOnlyException() {
+        return new UnsupportedOperationException( "UnitOfWork is read-only." );
+    }
+
+
+    // instance *******************************************
+
+    protected UnitOfWorkReadOnly( EntityRepositoryImpl repo, StoreUnitOfWork suow ) {
+        super( repo, suow, true );
+    }
+
+
+    @Override
+    public <T extends Entity> T createEntity( Class<T> entityClass, Object id, ValueInitializer<T>... initializers ) {
+        throw readOnlyException();
+    }
+
+
+    @Override
+    public void removeEntity( Entity entity ) {
+        throw readOnlyException();
+    }
+
+
+    @Override
+    public Savepoint savepoint() {
+        throw readOnlyException();
+    }
+
+
+    @Override
+    public void rollbackTo( Savepoint savepoint ) throws ModelRuntimeException {
+        throw readOnlyException();
+    }
+
+
+    @Override
+    public void prepare() throws IOException, ConcurrentEntityModificationException {
+        throw readOnlyException();
+    }
+
+
+    @Override
+    public void commit() throws ModelRuntimeException {
+        throw readOnlyException();
+    }
+
+
+    @Override
+    public void rollback() throws ModelRuntimeException {
+        throw readOnlyException();
+    }
+
+
+    @Override
+    public UnitOfWork newUnitOfWork() {
+        throw readOnlyException();
+    }
+
+}
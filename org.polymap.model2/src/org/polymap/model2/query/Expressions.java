@@ -22,7 +22,7 @@ import org.polymap.model2.Composite;
 import org.polymap.model2.Entity;
 import org.polymap.model2.ManyAssociation;
 import org.polymap.model2.Property;
-import org.polymap.model2.engine.TemplateInstanceBuilder;
+import org.polymap.model2.engine.EntityRepositoryImpl;
 import org.polymap.model2.engine.TemplateProperty;
 import org.polymap.model2.query.grammar.AssociationEquals;
 import org.polymap.model2.query.grammar.BooleanExpression;
@@ -179,10 +179,11 @@ public class Expressions {
      *
      * @param type
      * @param repo
-     * @return Newly created query template instance.
+     * @return The query template instance, shared by all callers of the given
+     *         repository.
      */
     public static <T extends Composite> T template( Class<T> type, EntityRepository repo ) {
-        return new TemplateInstanceBuilder( repo ).newComposite( type );
+        return ((EntityRepositoryImpl)repo).templateOf( type );
     }
 
 }
@@ -56,4 +56,12 @@ public interface ResultSet<T extends Entity>
     
     public Stream<T> stream();
     
+    /**
+     * A parallel {@link Stream} of this result set. The Entities are built by the
+     * threads that process the stream.
+     */
+    public default Stream<T> parallelStream() {
+        return StreamSupport.stream( spliterator(), true );
+    }
+    
 }
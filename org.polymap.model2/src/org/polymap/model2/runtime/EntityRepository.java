@@ -22,12 +22,18 @@ import org.apache.commons.logging.LogFactory;import org.apache.commons.logging.L
 
 import org.polymap.model2.Composite;
 import org.polymap.model2.Entity;
+import org.polymap.model2.LazyProperties;
 import org.polymap.model2.engine.EntityRepositoryImpl;
 import org.polymap.model2.engine.SimpleCache;
 import org.polymap.model2.engine.SimpleCacheManager;
+import org.polymap.model2.engine.TinyLfuCacheManager;
+import org.polymap.model2.query.Query;
 import org.polymap.model2.runtime.config.ConfigurationFactory;
+import org.polymap.model2.runtime.config.DefaultBoolean;
+import org.polymap.model2.runtime.config.DefaultInt;
 import org.polymap.model2.runtime.config.Mandatory;
 import org.polymap.model2.runtime.config.Property;
+import org.polymap.model2.store.StateCache;
 import org.polymap.model2.store.StoreSPI;
 
 /**
@@ -68,7 +74,8 @@ public abstract class EntityRepository
         /**
          * The CacheManager to create internal caches from. Mainly this is used to
          * create the cache for {@link Entity} instances.If not specified then a
-         * default Cache ({@link SimpleCache}) implementation is used.
+         * default Cache ({@link SimpleCache}) implementation is used. The
+         * {@link TinyLfuCacheManager} bounds the caches by the W-TinyLFU policy.
          */
         public Property<Configuration,CacheManager> cacheManager;
         
@@ -86,6 +93,59 @@ public abstract class EntityRepository
          */
         public Property<Configuration,NameInStoreMapper> nameInStoreMapper;
         
+        /**
+         * Create the properties of an {@link Entity} on first access of the property
+         * field instead of when the Entity is loaded. This reduces allocation and
+         * heap per Entity for types with many properties if just some of them are
+         * accessed. Defaults to false. Use {@link LazyProperties} to enable this
+         * per type.
+         */
+        @DefaultBoolean( false )
+        public Property<Configuration,Boolean> lazyProperties;
+        
+        /**
+         * The number of threads used to bootstrap the repository. The Composite
+         * types and, depending on the store, the schemas of the store are analyzed
+         * concurrently on a pool of this size. Defaults to 1, which bootstraps
+         * sequentially in the calling thread.
+         */
+        @DefaultInt( 1 )
+        public Property<Configuration,Integer> bootstrapThreads;
+        
+        /**
+         * The maximum number of {@link Entity} instances kept by one
+         * {@link UnitOfWork}. Just unmodified Entities are evicted, modified Entities
+         * are kept until commit or rollback. Evicted instances must not be used
+         * anymore, they have status {@link EntityRuntimeContext.EntityStatus#EVICTED}. Defaults to 0,
+         * which means unbounded.
+         * <p/>
+         * This is supported by the default {@link SimpleCache} only.
+         */
+        @DefaultInt( 0 )
+        public Property<Configuration,Integer> entityCacheSize;
+        
+        /**
+         * The {@link Entity} types to {@link EntityRepository#preload(Class...)}
+         * when the repository is created. This populates the caches of the store,
+         * for example the {@link StateCache}, so that the first requests do not
+         * have to wait for the store. Use {@link EntityRepository#preload(Query...)}
+         * to preload the results of queries on demand.
+         */
+        public Property<Configuration,Class<? extends Entity>[]> preload;
+        
+        /**
+         * Wait for the {@link #preload} to complete before the repository is
+         * returned by {@link #create()}. Defaults to false.
+         */
+        @DefaultBoolean( false )
+        public Property<Configuration,Boolean> preloadBlocking;
+        
+        /**
+         * The number of threads that load the chunks of a preload. Defaults to 4.
+         */
+        @DefaultInt( 4 )
+        public Property<Configuration,Integer> preloadThreads;
+        
         public EntityRepository create() {
             if (cacheManager.get() == null) {
                 cacheManager.set( new SimpleCacheManager() );
@@ -126,4 +186,37 @@ public abstract class EntityRepository
      */
     public abstract UnitOfWork newUnitOfWork();
     
+    
+    /**
+     * Creates a new read-only {@link UnitOfWork} for this repository. The Entities
+     * of a read-only UnitOfWork are built without modification tracking;
+     * modifying an Entity, {@link UnitOfWork#createEntity(Class, Object, ValueInitializer...)},
+     * {@link UnitOfWork#commit()} and the like throw an
+     * {@link UnsupportedOperationException}. Use this for reporting and other
+     * read-only access.
+     */
+    public abstract UnitOfWork newReadOnlyUnitOfWork();
+    
+    
+    /**
+     * Loads all Entities of the given types in parallel chunks in order to
+     * populate the caches of the store. This does not block.
+     *
+     * @see Configuration#preload
+     * @see Configuration#preloadThreads
+     * @return The newly started {@link Preload}.
+     */
+    public abstract Preload preload( Class<? extends Entity>... types );
+    
+    
+    /**
+     * Loads the results of the given queries in parallel chunks in order to
+     * populate the caches of the store. The queries are not executed via their
+     * {@link UnitOfWork}, just their settings are used. This does not block.
+     *
+     * @see Configuration#preloadThreads
+     * @return The newly started {@link Preload}.
+     */
+    public abstract Preload preload( Query... queries );
+    
 }
@@ -14,6 +14,8 @@
  */
 package org.polymap.model2.runtime;
 
+import java.util.function.Supplier;
+
 import org.polymap.model2.Composite;
 import org.polymap.model2.Entity;
 import org.polymap.model2.store.CompositeState;
@@ -67,6 +69,21 @@ public interface EntityRuntimeContext {
     
     public void resetStatus( EntityStatus loaded );
 
+    /**
+     * Called before the state of the Entity is modified. The first call after
+     * load or commit records the before-image of the state, which is restored
+     * on rollback.
+     */
+    public void beforeModification();
+
+    /**
+     * Records an action that reverts a modification of the state of the Entity,
+     * if a {@link UnitOfWork#savepoint() savepoint} is active. The action is
+     * supplied lazily, so before-values are copied only if a savepoint is active.
+     * A supplied null signals a modification that cannot be reverted.
+     */
+    public void recordUndo( Supplier<Runnable> undo );
+
     public UnitOfWork getUnitOfWork();
 
     public StoreUnitOfWork getStoreUnitOfWork();
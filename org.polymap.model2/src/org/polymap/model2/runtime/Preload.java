@@ -0,0 +1,71 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.runtime;
+
+import java.util.concurrent.CompletionStage;
+
+import org.polymap.model2.Entity;
+import org.polymap.model2.store.StateCache;
+
+/**
+ * A running or finished preload of {@link Entity} states, started by
+ * {@link EntityRepository#preload(Class...)} or by
+ * {@link EntityRepository.Configuration#preload}. The states are loaded via
+ * {@link org.polymap.model2.store.StoreUnitOfWork#loadEntityStates(java.util.Collection, Class)}
+ * in order to populate the caches of the store, for example the {@link StateCache}.
+ * Preloading a store without cache does not have any effect.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public abstract class Preload {
+
+    /**
+     * The number of Entities found by the queries so far.
+     */
+    public abstract int totalCount();
+
+    /**
+     * The number of Entities loaded so far.
+     */
+    public abstract int loadedCount();
+
+    /**
+     * The time since the preload was started, or the duration of the preload if it
+     * is done.
+     */
+    public abstract long elapsedMillis();
+
+    public abstract boolean isDone();
+
+    /**
+     * Completes with this preload when all Entities were loaded, or exceptionally
+     * if the preload failed or was cancelled.
+     */
+    public abstract CompletionStage<Preload> completion();
+
+    /**
+     * Waits for the preload to complete.
+     *
+     * @return this
+     * @throws ModelRuntimeException If the preload failed or was cancelled.
+     */
+    public abstract Preload await() throws ModelRuntimeException;
+
+    /**
+     * Stops loading. Entities already loaded stay in the caches.
+     */
+    public abstract void cancel();
+
+}
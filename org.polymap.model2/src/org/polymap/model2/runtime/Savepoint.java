@@ -0,0 +1,31 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.runtime;
+
+/**
+ * A point within the modifications of a {@link UnitOfWork} that can be rolled back
+ * to, see {@link UnitOfWork#savepoint()} and
+ * {@link UnitOfWork#rollbackTo(Savepoint)}.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public interface Savepoint {
+
+    /**
+     * The {@link UnitOfWork} this savepoint was created by.
+     */
+    public UnitOfWork unitOfWork();
+
+}
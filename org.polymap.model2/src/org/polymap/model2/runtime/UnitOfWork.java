@@ -14,6 +14,9 @@
  */
 package org.polymap.model2.runtime;
 
+import java.util.Collection;
+import java.util.List;
+
 import java.io.IOException;
 
 import org.polymap.model2.Entity;
@@ -81,6 +84,20 @@ public interface UnitOfWork
      */
     public <T extends Entity> T entity( T entity );
 
+    /**
+     * Finds the {@link Entity} instances with the given identifiers and type. The
+     * states of the Entities that are not yet loaded by this UnitOfWork are loaded
+     * with one request to the underlying store, if the store supports this.
+     *
+     * @param entityClass The type of the entities to find.
+     * @param ids The identifiers of the entities to find.
+     * @param <T> The type of the entities to build.
+     * @return Newly created List of the entities in the order of the given ids.
+     *         The List contains null for every id that has no Entity or that was
+     *         {@link #removeEntity(Entity) removed} for this UnitOfWork.
+     */
+    public <T extends Entity> List<T> entities( Class<T> entityClass, Collection<?> ids );
+
 //    public <T extends Composite> T mixin( Class<T> entityClass, Entity entity );
 
 
@@ -151,13 +168,42 @@ public interface UnitOfWork
     
     /**
      * Discards any uncommitted modifications but does not close this UnitOfWork.
-     * This may flush internal caches.
+     * Modified Entities are restored to their state before the first modification,
+     * created Entities are evicted. Unmodified Entities are kept.
+     * <p/>
+     * If the store supports cloning states, the state of a loaded Entity is copied
+     * on its first modification after load or commit. This makes the first
+     * modification of an Entity as expensive as copying its entire state.
      * 
      * @throws ModelRuntimeException
      */
     public void rollback() throws ModelRuntimeException;
 
 
+    /**
+     * Marks the current state of the modifications of this UnitOfWork.
+     * {@link #rollbackTo(Savepoint)} reverts all modifications made after this
+     * point. In contrast to a {@link #newUnitOfWork() nested UnitOfWork} the
+     * states of the Entities are not copied. Instead, the before-value of every
+     * modification is recorded, so reverting N modifications is O(N) regardless
+     * of the size of the states. This does not depend on the store.
+     * <p/>
+     * All savepoints are released by {@link #commit()} and {@link #rollback()}.
+     */
+    public Savepoint savepoint();
+
+
+    /**
+     * Reverts all modifications made after the given savepoint was created. The
+     * savepoint stays active, savepoints created after the given one are released.
+     * Entities created after the savepoint are evicted.
+     *
+     * @throws ModelRuntimeException If the savepoint is not active, or if a
+     *         modification cannot be reverted; no modification is reverted then.
+     */
+    public void rollbackTo( Savepoint savepoint ) throws ModelRuntimeException;
+
+
     /**
      * Closes this UnitOfWork by releasing all resources associated with this
      * instance. All uncommitted modifications are discarded.
@@ -169,6 +215,12 @@ public interface UnitOfWork
     
     public boolean isOpen();
 
+    /**
+     * True if this UnitOfWork was created by
+     * {@link EntityRepository#newReadOnlyUnitOfWork()}.
+     */
+    public boolean isReadOnly();
+
     
     /**
      * Creates a new query for the given {@link Entity} type. By default the returned
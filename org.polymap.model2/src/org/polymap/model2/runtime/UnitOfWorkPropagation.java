@@ -38,6 +38,6 @@ public @interface UnitOfWorkPropagation {
     
     public Propagation value();
     
-    /** @Deprecated Do we need to support this anyway? */
+    /** @Deprecated Do we need to support this anyway? See {@link EntityRepository#newReadOnlyUnitOfWork()}. */
     public boolean readOnly() default false;
 }
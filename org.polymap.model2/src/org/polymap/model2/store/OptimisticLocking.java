@@ -17,7 +17,9 @@ package org.polymap.model2.store;
 import static java.util.Collections.singletonList;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 
@@ -153,6 +155,19 @@ public class OptimisticLocking
             return result;
         }
 
+
+        @Override
+        public <T extends Entity> Map<Object,CompositeState> loadEntityStates( Collection<?> ids, Class<T> entityClass ) {
+            Map<Object,CompositeState> result = suow.loadEntityStates( ids, entityClass );
+            for (Object id : ids) {
+                Integer version = storeVersions.get( id );
+                if (version != null) {
+                    loadedVersions.put( id, version );
+                }
+            }
+            return result;
+        }
+
         
         @Override
         public <T extends Entity> CompositeState adoptEntityState( Object state, Class<T> entityClass ) {
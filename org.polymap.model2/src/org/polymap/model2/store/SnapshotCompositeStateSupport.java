@@ -0,0 +1,46 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.store;
+
+import org.polymap.model2.Entity;
+
+/**
+ * Implement this interface to support the {@link StateCache}.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public interface SnapshotCompositeStateSupport
+        extends StoreUnitOfWork {
+
+    /**
+     * Creates a snapshot of the given, just loaded state. The snapshot is shared by
+     * all UnitOfWorks and never modified, so it must not share any mutable data
+     * with the given state.
+     *
+     * @return The snapshot, or null if the state cannot be cached.
+     */
+    public Object snapshotEntityState( CompositeState state );
+
+    /**
+     * Creates a new state of this UnitOfWork from the given snapshot. The state has
+     * the same id as the snapshot and is handled like a state returned by
+     * {@link #loadEntityState(Object, Class)}. The snapshot itself must not be
+     * modified.
+     *
+     * @param snapshot A snapshot created by {@link #snapshotEntityState(CompositeState)}.
+     */
+    public <T extends Entity> CompositeState restoreEntityState( Object snapshot, Class<T> entityClass );
+
+}
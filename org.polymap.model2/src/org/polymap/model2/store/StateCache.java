@@ -0,0 +1,298 @@
+/*
+ * polymap.org
+ * Copyright (C) 2016, Falko Bräutigam. All rights reserved.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ */
+package org.polymap.model2.store;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.cache.Cache;
+import javax.cache.CacheManager;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.polymap.model2.Entity;
+import org.polymap.model2.engine.SimpleCache;
+import org.polymap.model2.runtime.EntityRuntimeContext.EntityStatus;
+
+/**
+ * This {@link StoreDecorator} provides a second level cache of Entity states that
+ * is shared by all UnitOfWork instances of the repository. A cache hit in
+ * {@link StoreUnitOfWork#loadEntityState(Object, Class)} gives the UnitOfWork a
+ * private copy of the cached snapshot instead of loading from the underlying
+ * store. The underlying {@link StoreUnitOfWork} has to implement
+ * {@link SnapshotCompositeStateSupport}, otherwise states are not cached.
+ * <p/>
+ * Entries are invalidated when a UnitOfWork commits a modification or removal of
+ * the Entity. Every commit increases the generation of the cache, so states loaded
+ * from the store concurrently to a commit are never cached. This implementation
+ * does not detect modification of the underlying store by a second party, see
+ * {@link #clear()}.
+ * <p/>
+ * The cache is created by the {@link CacheManager} of the repository. The
+ * default {@link SimpleCache} is bounded to the configured maximum size.
+ *
+ * @author <a href="http://www.polymap.de">Falko Bräutigam</a>
+ */
+public class StateCache
+        extends StoreDecorator
+        implements StoreSPI {
+
+    private static Log log = LogFactory.getLog( StateCache.class );
+
+    private int                     maxSize;
+
+    /** Maps Entity id into snapshot. */
+    private Cache<Object,Object>    snapshots;
+
+    /** Increased by every commit that invalidates entries. */
+    private AtomicLong              generation = new AtomicLong();
+
+    private AtomicLong              hits = new AtomicLong();
+
+    private AtomicLong              misses = new AtomicLong();
+
+
+    /**
+     * Creates an unbounded cache.
+     */
+    public StateCache( StoreSPI store ) {
+        this( store, -1 );
+    }
+
+
+    /**
+     * @param maxSize The maximum number of cached states, or -1 for an unbounded
+     *        cache.
+     */
+    public StateCache( StoreSPI store, int maxSize ) {
+        super( store );
+        this.maxSize = maxSize;
+    }
+
+
+    @Override
+    public void init( StoreRuntimeContext context ) {
+        store.init( context );
+        CacheManager cacheManager = context.getRepository().getConfig().cacheManager.get();
+        snapshots = cacheManager.createCache( "StateCache-" + hashCode(),
+                new SimpleCache.EvictionConfiguration<Object,Object>().setMaxSize( maxSize ) );
+    }
+
+
+    @Override
+    public void close() {
+        log.info( "Closing: " + this );
+        snapshots.close();
+        super.close();
+    }
+
+
+    @Override
+    public StoreUnitOfWork createUnitOfWork() {
+        StoreUnitOfWork suow = store.createUnitOfWork();
+        if (!(suow instanceof SnapshotCompositeStateSupport)) {
+            return suow;
+        }
+        return suow instanceof CloneCompositeStateSupport
+                ? new StateCacheSuow2( suow )
+                : new StateCacheSuow( suow );
+    }
+
+
+    /**
+     * Removes all entries. Call this if the underlying store has been modified by
+     * a second party.
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        snapshots.clear();
+    }
+
+
+    /**
+     * The number of {@link StoreUnitOfWork#loadEntityState(Object, Class)} requests
+     * that were served from the cache.
+     */
+    public long hitCount() {
+        return hits.get();
+    }
+
+
+    /**
+     * The number of {@link StoreUnitOfWork#loadEntityState(Object, Class)} requests
+     * that were delegated to the underlying store.
+     */
+    public long missCount() {
+        return misses.get();
+    }
+
+
+    public double hitRate() {
+        long requests = hits.get() + misses.get();
+        return requests == 0 ? 1.0 : (double)hits.get() / requests;
+    }
+
+
+    @Override
+    public String toString() {
+        return "StateCache[hits=" + hits.get() + ", misses=" + misses.get() + ", generation=" + generation.get() + "]";
+    }
+
+
+    /**
+     *
+     */
+    class StateCacheSuow
+            extends UnitOfWorkDecorator
+            implements StoreUnitOfWork {
+
+        /** The ids of the Entities to invalidate after commit. */
+        private List<Object>        prepared;
+
+
+        public StateCacheSuow( StoreUnitOfWork suow ) {
+            super( suow );
+        }
+
+
+        protected SnapshotCompositeStateSupport snapshotSupport() {
+            return (SnapshotCompositeStateSupport)suow;
+        }
+
+
+        @Override
+        public <T extends Entity> CompositeState loadEntityState( Object id, Class<T> entityClass ) {
+            Object snapshot = snapshots.get( id );
+            if (snapshot != null) {
+                hits.incrementAndGet();
+                return snapshotSupport().restoreEntityState( snapshot, entityClass );
+            }
+
+            misses.incrementAndGet();
+            long loadedGeneration = generation.get();
+            CompositeState result = suow.loadEntityState( id, entityClass );
+            if (result != null) {
+                cacheLoaded( id, result, loadedGeneration );
+            }
+            return result;
+        }
+
+
+        @Override
+        public <T extends Entity> Map<Object,CompositeState> loadEntityStates( Collection<?> ids, Class<T> entityClass ) {
+            Map<Object,CompositeState> result = new HashMap( ids.size() * 2 );
+            List<Object> missing = new ArrayList( ids.size() );
+            for (Object id : ids) {
+                Object snapshot = snapshots.get( id );
+                if (snapshot != null) {
+                    hits.incrementAndGet();
+                    result.put( id, snapshotSupport().restoreEntityState( snapshot, entityClass ) );
+                }
+                else {
+                    misses.incrementAndGet();
+                    missing.add( id );
+                }
+            }
+            if (!missing.isEmpty()) {
+                long loadedGeneration = generation.get();
+                Map<Object,CompositeState> loaded = suow.loadEntityStates( missing, entityClass );
+                for (Map.Entry<Object,CompositeState> entry : loaded.entrySet()) {
+                    cacheLoaded( entry.getKey(), entry.getValue(), loadedGeneration );
+                }
+                result.putAll( loaded );
+            }
+            return result;
+        }
+
+
+        protected void cacheLoaded( Object id, CompositeState state, long loadedGeneration ) {
+            Object snapshot = snapshotSupport().snapshotEntityState( state );
+            if (snapshot != null) {
+                snapshots.put( id, snapshot );
+                // a commit happened while loading; the state might be outdated
+                if (generation.get() != loadedGeneration) {
+                    snapshots.remove( id );
+                }
+            }
+        }
+
+
+        @Override
+        public void prepareCommit( Iterable<Entity> loaded ) throws Exception {
+            prepared = new ArrayList( 128 );
+            for (Entity entity : loaded) {
+                if (entity.status() != EntityStatus.LOADED) {
+                    prepared.add( entity.id() );
+                }
+            }
+            suow.prepareCommit( loaded );
+        }
+
+
+        @Override
+        public void commit() {
+            assert prepared != null : "no prepareCommit() before commit()!";
+            suow.commit();
+
+            generation.incrementAndGet();
+            for (Object id : prepared) {
+                snapshots.remove( id );
+            }
+            prepared = null;
+        }
+
+
+        @Override
+        public void rollback() {
+            super.rollback();
+            prepared = null;
+        }
+
+    }
+
+
+    /**
+     *
+     */
+    class StateCacheSuow2
+            extends StateCacheSuow
+            implements CloneCompositeStateSupport {
+
+        public StateCacheSuow2( StoreUnitOfWork suow ) {
+            super( suow );
+        }
+
+        protected CloneCompositeStateSupport suow() {
+            return (CloneCompositeStateSupport)suow;
+        }
+
+        @Override
+        public CompositeState cloneEntityState( CompositeState state ) {
+            return suow().cloneEntityState( state );
+        }
+
+        @Override
+        public void reincorparateEntityState( CompositeState state, CompositeState clonedState ) {
+            suow().reincorparateEntityState( state, clonedState );
+        }
+
+    }
+
+}
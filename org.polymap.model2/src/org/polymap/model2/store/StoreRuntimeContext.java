@@ -14,6 +14,8 @@
  */
 package org.polymap.model2.store;
 
+import java.util.concurrent.ExecutorService;
+
 import org.polymap.model2.Entity;
 import org.polymap.model2.runtime.EntityRepository;
 import org.polymap.model2.runtime.EntityRuntimeContext;
@@ -29,4 +31,17 @@ public interface StoreRuntimeContext {
     
     public EntityRuntimeContext contextOfEntity( Entity entity );
 
+    /**
+     * A bounded executor that the store may use to run independent tasks of its
+     * {@link StoreSPI#init(StoreRuntimeContext) init} concurrently. The executor is
+     * valid only while the repository is bootstrapping.
+     *
+     * @see EntityRepository.Configuration#bootstrapThreads
+     * @return The executor, or null if bootstrap is sequential and tasks have to
+     *         be run inline. The default implementation returns null.
+     */
+    public default ExecutorService getBootstrapExecutor() {
+        return null;
+    }
+
 }
@@ -14,6 +14,10 @@
  */
 package org.polymap.model2.store;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.polymap.model2.Entity;
 import org.polymap.model2.engine.UnitOfWorkImpl;
 import org.polymap.model2.query.Query;
@@ -35,6 +39,28 @@ public interface StoreUnitOfWork {
      */
     public <T extends Entity> CompositeState loadEntityState( Object id, Class<T> entityClass );
 
+    /**
+     * Loads the states of the given identifiers in one request. The default
+     * implementation calls {@link #loadEntityState(Object, Class)} for every id.
+     * Stores should override if they are able to load several states at once.
+     *
+     * @param ids The identifiers of the Entities.
+     * @param entityClass
+     * @return Newly created Map of the {@link CompositeState}s found, mapped by
+     *         their id. Identifiers without entity in the store are not contained
+     *         in the result.
+     */
+    public default <T extends Entity> Map<Object,CompositeState> loadEntityStates( Collection<?> ids, Class<T> entityClass ) {
+        Map<Object,CompositeState> result = new HashMap( ids.size() * 2 );
+        for (Object id : ids) {
+            CompositeState state = loadEntityState( id, entityClass );
+            if (state != null) {
+                result.put( id, state );
+            }
+        }
+        return result;
+    }
+
     public <T extends Entity> CompositeState adoptEntityState( Object state, Class<T> entityClass );
 
     /**